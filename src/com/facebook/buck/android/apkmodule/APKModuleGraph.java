@@ -85,7 +85,7 @@ public class APKModuleGraph implements AddsToRuleKey {
             Builder<BuildTarget, APKModule> mapBuilder = ImmutableMap.builder();
             new AbstractBreadthFirstTraversal<APKModule>(getGraph().getNodesWithNoIncomingEdges()) {
               @Override
-              public ImmutableSet<APKModule> visit(APKModule node) {
+              public Set<APKModule> visit(APKModule node) {
                 if (node.equals(rootAPKModuleSupplier.get())) {
                   return ImmutableSet.of();
                 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.immutables.BuckStyleTuple;
+import com.facebook.buck.io.file.LazyPath;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/** The arguments of a single {@link ArtifactCache#fetchAsync} call, for fetching in batches. */
+@Value.Immutable(builder = false)
+@BuckStyleTuple
+abstract class AbstractArtifactFetchRequest {
+  abstract Optional<BuildTarget> getBuildTarget();
+
+  abstract RuleKey getRuleKey();
+
+  abstract LazyPath getOutput();
+}
@@ -477,6 +477,35 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return future;
   }
 
+  @Override
+  @SuppressWarnings("CheckReturnValue")
+  public final ImmutableList<ListenableFuture<CacheResult>> multiFetchAsync(
+      ImmutableList<ArtifactFetchRequest> requests) {
+    ImmutableList.Builder<ListenableFuture<CacheResult>> results =
+        ImmutableList.builderWithExpectedSize(requests.size());
+    List<FetchRequest> fetchRequests = new ArrayList<>(requests.size());
+    for (ArtifactFetchRequest request : requests) {
+      SettableFuture<CacheResult> future = SettableFuture.create();
+      fetchRequests.add(
+          new FetchRequest(
+              request.getBuildTarget().orElse(null),
+              request.getRuleKey(),
+              request.getOutput(),
+              future));
+      results.add(future);
+    }
+    // Queue the whole batch before processing any of it, so that it can go out in as few
+    // multiFetch requests as possible.
+    if (isMultiCheckEnabled()) {
+      pendingCheckRequests.addAll(fetchRequests);
+      fetchRequests.forEach(request -> fetchExecutorService.submit(this::processCheck));
+    } else {
+      pendingFetchRequests.addAll(fetchRequests);
+      fetchRequests.forEach(request -> fetchExecutorService.submit(this::processFetch));
+    }
+    return results.build();
+  }
+
   @Override
   public final ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
       ImmutableSet<RuleKey> ruleKeys) {
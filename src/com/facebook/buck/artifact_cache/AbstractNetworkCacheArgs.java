@@ -63,4 +63,9 @@ interface AbstractNetworkCacheArgs {
   int getErrorTextLimit();
 
   Optional<Long> getMaxStoreSizeBytes();
+
+  @Value.Default
+  default boolean isStreamingFetchEnabled() {
+    return false;
+  }
 }
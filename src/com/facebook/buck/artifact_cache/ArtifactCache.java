@@ -47,6 +47,26 @@ public interface ArtifactCache extends AutoCloseable {
   ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output);
 
+  /**
+   * Fetch several cached artifacts, as if by calling {@link #fetchAsync} for each of them. Caches
+   * that can look up several keys in a single request should override this so that the whole
+   * batch is sent together.
+   *
+   * @param requests the artifacts to fetch.
+   * @return the result of each request, in the same order as {@code requests}.
+   */
+  default ImmutableList<ListenableFuture<CacheResult>> multiFetchAsync(
+      ImmutableList<ArtifactFetchRequest> requests) {
+    ImmutableList.Builder<ListenableFuture<CacheResult>> results =
+        ImmutableList.builderWithExpectedSize(requests.size());
+    for (ArtifactFetchRequest request : requests) {
+      results.add(
+          fetchAsync(
+              request.getBuildTarget().orElse(null), request.getRuleKey(), request.getOutput()));
+    }
+    return results.build();
+  }
+
   /** All pending (and future) async fetches will be immediately marked as skipped. */
   void skipPendingAndFutureAsyncFetches();
 
@@ -63,6 +63,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 import javax.net.ssl.HostnameVerifier;
 import okhttp3.ConnectionPool;
 import okhttp3.Dispatcher;
@@ -93,6 +94,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
   private final ListeningExecutorService httpWriteExecutorService;
   private final ListeningExecutorService httpFetchExecutorService;
   private List<ArtifactCache> artifactCaches = new ArrayList<>();
+  @Nullable private ArtifactCache buildInstance;
   private final ListeningExecutorService dirWriteExecutorService;
   private final TaskManagerCommandScope managerScope;
   private final String producerId;
@@ -190,23 +192,32 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
   }
 
   /**
-   * Creates a new instance of the cache for use during a build.
+   * Returns the cache for use during a build.
+   *
+   * <p>Outside of distributed builds, the instance is only created once and then shared, so that
+   * the parser and the build of a command don't keep separate caches over the same directories.
    *
    * @param distributedBuildModeEnabled true if this is a distributed build
    * @return ArtifactCache instance
    */
   @Override
-  public ArtifactCache newInstance(boolean distributedBuildModeEnabled) {
-    return newInstanceInternal(ImmutableSet.of(), distributedBuildModeEnabled);
+  public synchronized ArtifactCache newInstance(boolean distributedBuildModeEnabled) {
+    if (distributedBuildModeEnabled) {
+      return newInstanceInternal(ImmutableSet.of(), distributedBuildModeEnabled);
+    }
+    if (buildInstance == null) {
+      buildInstance = newInstanceInternal(ImmutableSet.of(), distributedBuildModeEnabled);
+    }
+    return buildInstance;
   }
 
   @Override
-  public ArtifactCache remoteOnlyInstance(boolean distributedBuildModeEnabled) {
+  public synchronized ArtifactCache remoteOnlyInstance(boolean distributedBuildModeEnabled) {
     return newInstanceInternal(ImmutableSet.of(local), distributedBuildModeEnabled);
   }
 
   @Override
-  public ArtifactCache localOnlyInstance(boolean distributedBuildModeEnabled) {
+  public synchronized ArtifactCache localOnlyInstance(boolean distributedBuildModeEnabled) {
     return newInstanceInternal(ImmutableSet.of(remote), distributedBuildModeEnabled);
   }
 
@@ -383,7 +394,12 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       // Don't bother wrapping a single artifact cache
       result = artifactCaches.get(0);
     } else {
-      result = new MultiArtifactCache(artifactCaches);
+      result =
+          new MultiArtifactCache(
+              artifactCaches,
+              buckConfig.getLayeredMultiFetchEnabled()
+                  ? Optional.of(httpFetchExecutorService)
+                  : Optional.empty());
     }
 
     // Always support reading two-level cache stores (in case we performed any in the past).
@@ -497,6 +513,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               cacheDir,
               dirCacheConfig.getCacheReadMode(),
               dirCacheConfig.getMaxSizeBytes(),
+              dirCacheConfig.getLayout(),
+              dirCacheConfig.isEvictionIndexEnabled(),
               storeExecutorService);
 
       if (!buckEventBus.isPresent()) {
@@ -701,6 +719,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             .setHttpFetchExecutorService(httpFetchExecutorService)
             .setErrorTextTemplate(cacheDescription.getErrorMessageFormat())
             .setErrorTextLimit(cacheDescription.getErrorMessageLimit())
+            .setStreamingFetchEnabled(cacheDescription.isStreamingFetchEnabled())
             .build());
   }
 
@@ -720,7 +739,9 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               buckEventBus,
               cacheConfig.getMaxSizeBytes(),
               cacheConfig.getMaxInlinedSizeBytes(),
-              cacheConfig.getCacheReadMode());
+              cacheConfig.getCacheReadMode(),
+              cacheConfig.getShards(),
+              cacheConfig.getReadersPerShard());
 
       return new LoggingArtifactCacheDecorator(
           buckEventBus,
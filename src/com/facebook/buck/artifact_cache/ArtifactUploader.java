@@ -16,6 +16,7 @@
 
 package com.facebook.buck.artifact_cache;
 
+import com.facebook.buck.artifact_cache.config.ArtifactFormat;
 import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
 import com.facebook.buck.core.exceptions.HumanReadableExceptionAugmentor;
 import com.facebook.buck.core.model.BuildTarget;
@@ -31,6 +32,8 @@ import com.facebook.buck.util.ErrorLogger;
 import com.facebook.buck.util.NamedTemporaryFile;
 import com.facebook.buck.util.ObjectFileCommonModificationDate;
 import com.facebook.buck.util.types.Unit;
+import com.facebook.buck.util.zstd.ZstdArchiveFormat;
+import com.facebook.buck.util.zstd.ZstdArchiveWriter;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
@@ -69,12 +72,18 @@ public class ArtifactUploader {
       SortedSet<Path> pathsToIncludeInArchive,
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
+      ArtifactFormat artifactFormat,
       long buildTimeMs) {
     NamedTemporaryFile archive;
     try {
       archive =
           getTemporaryArtifactArchive(
-              buildTarget, projectFilesystem, ruleKeys, eventBus, pathsToIncludeInArchive);
+              buildTarget,
+              projectFilesystem,
+              ruleKeys,
+              eventBus,
+              pathsToIncludeInArchive,
+              artifactFormat);
     } catch (BuckUncheckedExecutionException e) {
       LOG.error(e.getMessage());
       LOG.debug(e.toString() + "\n" + Throwables.getStackTraceAsString(e));
@@ -163,7 +172,8 @@ public class ArtifactUploader {
       ProjectFilesystem projectFilesystem,
       ImmutableSet<RuleKey> ruleKeys,
       BuckEventBus eventBus,
-      SortedSet<Path> pathsToIncludeInArchive) {
+      SortedSet<Path> pathsToIncludeInArchive,
+      ArtifactFormat artifactFormat) {
     ArtifactCompressionEvent.Started started =
         ArtifactCompressionEvent.started(ArtifactCompressionEvent.Operation.COMPRESS, ruleKeys);
     eventBus.post(started);
@@ -172,8 +182,20 @@ public class ArtifactUploader {
     try (CloseableHolder<NamedTemporaryFile> archive =
         new CloseableHolder<>(
             new NamedTemporaryFile(
-                "buck_artifact_" + MostFiles.sanitize(buildTarget.getShortName()), ".tar.zst"))) {
-      fullSize = compress(projectFilesystem, pathsToIncludeInArchive, archive.get().get());
+                "buck_artifact_" + MostFiles.sanitize(buildTarget.getShortName()),
+                artifactFormat == ArtifactFormat.ZSTD_ARCHIVE
+                    ? ZstdArchiveFormat.EXTENSION
+                    : ".tar.zst"))) {
+      switch (artifactFormat) {
+        case TAR_ZSTD:
+          fullSize = compress(projectFilesystem, pathsToIncludeInArchive, archive.get().get());
+          break;
+        case ZSTD_ARCHIVE:
+          fullSize =
+              compressToZstdArchive(
+                  projectFilesystem, pathsToIncludeInArchive, archive.get().get());
+          break;
+      }
       compressedSize = Files.size(archive.get().get());
       return archive.release();
     } catch (IOException e) {
@@ -225,4 +247,33 @@ public class ArtifactUploader {
 
     return fullSize;
   }
+
+  /**
+   * Archive 'pathsToIncludeInArchive' into 'out' as a zstd archive, compressing every file on its
+   * own so that single files can be read back from the artifact.
+   */
+  @VisibleForTesting
+  static long compressToZstdArchive(
+      ProjectFilesystem projectFilesystem, Collection<Path> pathsToIncludeInArchive, Path out)
+      throws IOException {
+    long fullSize = 0L;
+    long modificationTime =
+        (long) ObjectFileCommonModificationDate.COMMON_MODIFICATION_TIME_STAMP * 1000;
+    try (ZstdArchiveWriter archive = new ZstdArchiveWriter(out)) {
+      for (Path path : pathsToIncludeInArchive) {
+        int mode = (int) projectFilesystem.getPosixFileMode(path);
+        // If permissions don't allow for owner to r or w, update to u+=rw and g+=r
+        mode = (mode & 384) == 0 ? (mode | 416) : mode;
+        if (projectFilesystem.isDirectory(path)) {
+          archive.putDirectory(path.toString(), mode, modificationTime);
+        } else {
+          try (InputStream input = projectFilesystem.newFileInputStream(path)) {
+            fullSize += archive.putFile(path.toString(), mode, modificationTime, input);
+          }
+        }
+      }
+    }
+
+    return fullSize;
+  }
 }
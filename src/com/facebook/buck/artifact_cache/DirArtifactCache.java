@@ -18,6 +18,7 @@ package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.DirCacheLayout;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.util.log.Logger;
@@ -40,20 +41,38 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystemException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import javax.annotation.Nullable;
 
+/**
+ * Implementation of {@link ArtifactCache} that stores artifacts in a local directory.
+ *
+ * <p>With the {@link DirCacheLayout#RULE_KEY} layout every rule key gets its own copy of the
+ * artifact. With {@link DirCacheLayout#CONTENT_ADDRESSED}, artifacts are stored once per content
+ * hash under {@code blobs/} and rule keys only get a small index file naming their blob, so rule
+ * keys with byte-identical outputs share storage. Fetches from that layout hard link the blob to
+ * the requested output when the filesystem allows it, and copy it otherwise.
+ *
+ * <p>Eviction normally walks the whole cache to find the least recently accessed files. With the
+ * eviction index enabled, stores, fetches and deletes are also appended to a {@link
+ * DirArtifactCacheIndex}, and eviction only touches the files it removes.
+ */
 public class DirArtifactCache implements ArtifactCache {
 
   private static final Logger LOG = Logger.get(DirArtifactCache.class);
@@ -65,14 +84,40 @@ public class DirArtifactCache implements ArtifactCache {
   // How much of the max size to leave if we decide to delete old files.
   private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
+  private static final String METADATA_EXTENSION = ".metadata";
+  private static final String BLOB_INDEX_EXTENSION = ".blob";
+  private static final String BLOBS_FOLDER = "blobs";
 
   private final String name;
   private final ProjectFilesystem filesystem;
   private final Path cacheDir;
   private final Optional<Long> maxCacheSizeBytes;
   private final CacheReadMode cacheReadMode;
+  private final DirCacheLayout layout;
   private final ListeningExecutorService storeExecutorService;
+  private final Optional<DirArtifactCacheIndex> evictionIndex;
   private long bytesSinceLastDeleteOldFiles;
+  // Cleared the first time a hard link fails, e.g. because the output is on another device.
+  private volatile boolean hardLinksSupported = true;
+
+  public DirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      CacheReadMode cacheReadMode,
+      Optional<Long> maxCacheSizeBytes,
+      ListeningExecutorService storeExecutorService)
+      throws IOException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        cacheReadMode,
+        maxCacheSizeBytes,
+        DirCacheLayout.RULE_KEY,
+        false,
+        storeExecutorService);
+  }
 
   public DirArtifactCache(
       String name,
@@ -80,6 +125,8 @@ public class DirArtifactCache implements ArtifactCache {
       Path cacheDir,
       CacheReadMode cacheReadMode,
       Optional<Long> maxCacheSizeBytes,
+      DirCacheLayout layout,
+      boolean useEvictionIndex,
       ListeningExecutorService storeExecutorService)
       throws IOException {
     this.name = name;
@@ -87,6 +134,7 @@ public class DirArtifactCache implements ArtifactCache {
     this.cacheDir = cacheDir;
     this.maxCacheSizeBytes = maxCacheSizeBytes;
     this.cacheReadMode = cacheReadMode;
+    this.layout = layout;
     this.storeExecutorService = storeExecutorService;
     this.bytesSinceLastDeleteOldFiles = 0L;
 
@@ -94,6 +142,15 @@ public class DirArtifactCache implements ArtifactCache {
     if (!filesystem.isDirectory(cacheDir)) {
       filesystem.mkdirs(cacheDir);
     }
+
+    this.evictionIndex =
+        useEvictionIndex && maxCacheSizeBytes.isPresent()
+            ? Optional.of(
+                new DirArtifactCacheIndex(
+                    filesystem.resolve(cacheDir),
+                    ImmutableSet.of(filesystem.resolve(getPathToTempFolder())),
+                    System::currentTimeMillis))
+            : Optional.empty();
   }
 
   @Override
@@ -115,7 +172,7 @@ public class DirArtifactCache implements ArtifactCache {
       try (DataInputStream in =
           new DataInputStream(
               filesystem.newFileInputStream(
-                  getPathForRuleKey(ruleKey, Optional.of(".metadata"))))) {
+                  getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION))))) {
         int sz = in.readInt();
         metadata = ImmutableMap.builderWithExpectedSize(sz);
         for (int i = 0; i < sz; i++) {
@@ -128,7 +185,16 @@ public class DirArtifactCache implements ArtifactCache {
       }
 
       // Now copy the artifact out.
-      filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.empty()), output.get());
+      Path artifactPath = getArtifactOrIndexPathForRuleKey(ruleKey);
+      if (layout == DirCacheLayout.CONTENT_ADDRESSED) {
+        Path blobPath = readBlobIndex(ruleKey);
+        materializeBlob(blobPath, output.get());
+        recordAccess(blobPath);
+      } else {
+        filesystem.copyFile(artifactPath, output.get());
+      }
+      recordAccess(artifactPath);
+      recordAccess(getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION)));
 
       result =
           CacheResult.hit(name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
@@ -163,60 +229,209 @@ public class DirArtifactCache implements ArtifactCache {
 
   private void storeSynchronously(ArtifactInfo info, BorrowablePath output) {
     try {
-      Optional<Path> borrowedAndStoredArtifactPath = Optional.empty();
-      for (RuleKey ruleKey : info.getRuleKeys()) {
-        Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+      if (layout == DirCacheLayout.CONTENT_ADDRESSED) {
+        storeContentAddressed(info, output);
+      } else {
+        storeByRuleKey(info, output);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Artifact store(%s, %s) error", info.getRuleKeys(), output);
+    }
 
-        if (filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
-          continue;
-        }
+    if (maxCacheSizeBytes.isPresent()
+        && bytesSinceLastDeleteOldFiles
+            > (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
+      bytesSinceLastDeleteOldFiles = 0L;
+      deleteOldFiles();
+    }
+  }
+
+  private void storeByRuleKey(ArtifactInfo info, BorrowablePath output) throws IOException {
+    Optional<Path> borrowedAndStoredArtifactPath = Optional.empty();
+    for (RuleKey ruleKey : info.getRuleKeys()) {
+      Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
+      Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
 
-        filesystem.mkdirs(getParentDirForRuleKey(ruleKey));
+      if (filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
+        continue;
+      }
 
-        if (!output.canBorrow()) {
-          storeArtifactOutput(output.getPath(), artifactPath);
+      filesystem.mkdirs(getParentDirForRuleKey(ruleKey));
+
+      if (!output.canBorrow()) {
+        storeArtifactOutput(output.getPath(), artifactPath);
+      } else {
+        // This branch means that we are apparently the only users of the `output`, so instead
+        // of making a safe transfer of the output to the dir cache (copy+move), we can just
+        // move it without copying.  This significantly optimizes the Disk I/O.
+        if (!borrowedAndStoredArtifactPath.isPresent()) {
+          borrowedAndStoredArtifactPath = Optional.of(artifactPath);
+          filesystem.move(output.getPath(), artifactPath, StandardCopyOption.REPLACE_EXISTING);
         } else {
-          // This branch means that we are apparently the only users of the `output`, so instead
-          // of making a safe transfer of the output to the dir cache (copy+move), we can just
-          // move it without copying.  This significantly optimizes the Disk I/O.
-          if (!borrowedAndStoredArtifactPath.isPresent()) {
-            borrowedAndStoredArtifactPath = Optional.of(artifactPath);
-            filesystem.move(output.getPath(), artifactPath, StandardCopyOption.REPLACE_EXISTING);
-          } else {
-            storeArtifactOutput(borrowedAndStoredArtifactPath.get(), artifactPath);
-          }
+          storeArtifactOutput(borrowedAndStoredArtifactPath.get(), artifactPath);
         }
-        bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
-
-        // Now, write the meta data artifact.
-        Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "metadata", TMP_EXTENSION);
-        try {
-          try (DataOutputStream out = new DataOutputStream(filesystem.newFileOutputStream(tmp))) {
-            out.writeInt(info.getMetadata().size());
-            for (Map.Entry<String, String> ent : info.getMetadata().entrySet()) {
-              out.writeUTF(ent.getKey());
-              byte[] val = ent.getValue().getBytes(Charsets.UTF_8);
-              out.writeInt(val.length);
-              out.write(val);
-            }
-          }
-          filesystem.move(tmp, metadataPath, StandardCopyOption.REPLACE_EXISTING);
-          bytesSinceLastDeleteOldFiles += filesystem.getFileSize(metadataPath);
-        } finally {
-          filesystem.deleteFileAtPathIfExists(tmp);
+      }
+      bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
+      recordStore(artifactPath);
+
+      // Now, write the meta data artifact.
+      writeMetadata(info, metadataPath);
+    }
+  }
+
+  private void storeContentAddressed(ArtifactInfo info, BorrowablePath output)
+      throws IOException {
+    Optional<String> blobHash = Optional.empty();
+    for (RuleKey ruleKey : info.getRuleKeys()) {
+      Path indexPath = getPathForRuleKey(ruleKey, Optional.of(BLOB_INDEX_EXTENSION));
+      Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
+
+      if (filesystem.exists(indexPath) && filesystem.exists(metadataPath)) {
+        continue;
+      }
+
+      if (!blobHash.isPresent()) {
+        blobHash = Optional.of(storeBlob(output));
+      }
+
+      filesystem.mkdirs(getParentDirForRuleKey(ruleKey));
+      writeAtomically(indexPath, "index", blobHash.get().getBytes(Charsets.UTF_8));
+      bytesSinceLastDeleteOldFiles += filesystem.getFileSize(indexPath);
+      recordStore(indexPath);
+
+      writeMetadata(info, metadataPath);
+    }
+  }
+
+  /**
+   * Adds {@code output} to the blob store, unless a blob with identical content is already there.
+   *
+   * @return the content hash naming the blob.
+   */
+  private String storeBlob(BorrowablePath output) throws IOException {
+    String blobHash = filesystem.computeSha1(output.getPath()).getHash();
+    Path blobPath = getPathForBlob(blobHash);
+    if (filesystem.exists(blobPath)) {
+      LOG.verbose("Blob [%s] already stored, deduplicating.", blobHash);
+      recordAccess(blobPath);
+      return blobHash;
+    }
+
+    filesystem.mkdirs(blobPath.getParent());
+    if (output.canBorrow()) {
+      filesystem.move(output.getPath(), blobPath, StandardCopyOption.REPLACE_EXISTING);
+      bytesSinceLastDeleteOldFiles += filesystem.getFileSize(blobPath);
+    } else {
+      storeArtifactOutput(output.getPath(), blobPath);
+    }
+    recordStore(blobPath);
+    return blobHash;
+  }
+
+  private Path readBlobIndex(RuleKey ruleKey) throws IOException {
+    Path indexPath = getPathForRuleKey(ruleKey, Optional.of(BLOB_INDEX_EXTENSION));
+    String blobHash;
+    try (InputStream in = filesystem.newFileInputStream(indexPath)) {
+      blobHash = new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+    }
+    return getPathForBlob(blobHash);
+  }
+
+  /**
+   * Makes {@code blobPath} available at {@code output}, preferring a hard link over a copy.
+   *
+   * <p>Linking doesn't read the blob, so its access time is bumped explicitly to keep the eviction
+   * order intact. Only failures showing that the cache can't hard link at all turn linking off;
+   * any other failure just copies this one blob.
+   */
+  private void materializeBlob(Path blobPath, Path output) throws IOException {
+    Path resolvedBlob = filesystem.resolve(blobPath);
+    if (hardLinksSupported) {
+      Path resolvedOutput = filesystem.resolve(output);
+      try {
+        Files.deleteIfExists(resolvedOutput);
+        Files.createLink(resolvedOutput, resolvedBlob);
+        touchBlob(resolvedBlob);
+        return;
+      } catch (NoSuchFileException e) {
+        throw e;
+      } catch (UnsupportedOperationException e) {
+        disableHardLinks(e, resolvedBlob);
+      } catch (FileSystemException e) {
+        if (isHardLinkUnsupported(e, resolvedBlob, resolvedOutput)) {
+          disableHardLinks(e, resolvedBlob);
+        } else {
+          LOG.debug(e, "Cannot hard link from [%s], copying it instead.", resolvedBlob);
         }
+      } catch (IOException e) {
+        LOG.debug(e, "Cannot hard link from [%s], copying it instead.", resolvedBlob);
       }
+    }
+    filesystem.copyFile(blobPath, output);
+  }
+
+  private void disableHardLinks(Exception e, Path resolvedBlob) {
+    LOG.info(e, "Cannot hard link from [%s], falling back to copying.", resolvedBlob);
+    hardLinksSupported = false;
+  }
+
+  /**
+   * @return whether {@code e}, thrown when linking {@code link} to {@code target}, means hard links
+   *     can't be made between the two at all: they are on different file stores (EXDEV) or the file
+   *     system doesn't allow links (EPERM).
+   */
+  @VisibleForTesting
+  static boolean isHardLinkUnsupported(FileSystemException e, Path target, Path link) {
+    String reason = e.getReason();
+    if (reason != null) {
+      String lowerCaseReason = reason.toLowerCase(Locale.ROOT);
+      if (lowerCaseReason.contains("cross-device") || lowerCaseReason.contains("not permitted")) {
+        return true;
+      }
+    }
+    try {
+      return !Files.getFileStore(target).equals(Files.getFileStore(link.getParent()));
+    } catch (IOException storeException) {
+      return false;
+    }
+  }
 
+  private static void touchBlob(Path resolvedBlob) {
+    try {
+      Files.getFileAttributeView(resolvedBlob, BasicFileAttributeView.class)
+          .setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
     } catch (IOException e) {
-      LOG.warn(e, "Artifact store(%s, %s) error", info.getRuleKeys(), output);
+      LOG.debug(e, "Cannot update the access time of [%s].", resolvedBlob);
+    }
+  }
+
+  private void writeMetadata(ArtifactInfo info, Path metadataPath) throws IOException {
+    Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "metadata", TMP_EXTENSION);
+    try {
+      try (DataOutputStream out = new DataOutputStream(filesystem.newFileOutputStream(tmp))) {
+        out.writeInt(info.getMetadata().size());
+        for (Map.Entry<String, String> ent : info.getMetadata().entrySet()) {
+          out.writeUTF(ent.getKey());
+          byte[] val = ent.getValue().getBytes(Charsets.UTF_8);
+          out.writeInt(val.length);
+          out.write(val);
+        }
+      }
+      filesystem.move(tmp, metadataPath, StandardCopyOption.REPLACE_EXISTING);
+      bytesSinceLastDeleteOldFiles += filesystem.getFileSize(metadataPath);
+      recordStore(metadataPath);
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tmp);
     }
+  }
 
-    if (maxCacheSizeBytes.isPresent()
-        && bytesSinceLastDeleteOldFiles
-            > (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
-      bytesSinceLastDeleteOldFiles = 0L;
-      deleteOldFiles();
+  private void writeAtomically(Path path, String prefix, byte[] contents) throws IOException {
+    Path tmp = filesystem.createTempFile(getPreparedTempFolder(), prefix, TMP_EXTENSION);
+    try {
+      filesystem.writeBytesToPath(contents, tmp);
+      filesystem.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tmp);
     }
   }
 
@@ -230,8 +445,8 @@ public class DirArtifactCache implements ArtifactCache {
     ImmutableMap.Builder<RuleKey, CacheResult> results = new ImmutableMap.Builder<>();
 
     for (RuleKey ruleKey : ruleKeys) {
-      Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-      Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+      Path artifactPath = getArtifactOrIndexPathForRuleKey(ruleKey);
+      Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
 
       boolean contains = filesystem.exists(artifactPath) && filesystem.exists(metadataPath);
       results.put(ruleKey, contains ? CacheResult.contains(name, CACHE_MODE) : CacheResult.miss());
@@ -244,12 +459,17 @@ public class DirArtifactCache implements ArtifactCache {
   }
 
   private void deleteSync(RuleKey ruleKey) {
-    Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-    Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+    // Blobs may be shared with other rule keys, so they are left for eviction to reclaim.
+    Path artifactPath = getArtifactOrIndexPathForRuleKey(ruleKey);
+    Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
 
     try {
       filesystem.deleteFileAtPathIfExists(metadataPath);
       filesystem.deleteFileAtPathIfExists(artifactPath);
+      if (evictionIndex.isPresent()) {
+        evictionIndex.get().recordDelete(filesystem.resolve(metadataPath));
+        evictionIndex.get().recordDelete(filesystem.resolve(artifactPath));
+      }
     } catch (IOException e) {
       String message =
           String.format("Failed to delete artifact for rule key [%s] from local cache", ruleKey);
@@ -266,6 +486,24 @@ public class DirArtifactCache implements ArtifactCache {
     return Futures.immediateFuture(CacheDeleteResult.builder().setCacheNames(cacheNames).build());
   }
 
+  private void recordStore(Path path) throws IOException {
+    if (evictionIndex.isPresent()) {
+      evictionIndex.get().recordStore(filesystem.resolve(path), filesystem.getFileSize(path));
+    }
+  }
+
+  private void recordAccess(Path path) {
+    if (!evictionIndex.isPresent()) {
+      return;
+    }
+    // A failure here only makes the entry look older than it is, so don't fail the fetch.
+    try {
+      evictionIndex.get().recordAccess(filesystem.resolve(path));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to record access to [%s] in the eviction index.", path);
+    }
+  }
+
   private Path getPathToTempFolder() {
     return cacheDir.resolve("tmp");
   }
@@ -292,6 +530,23 @@ public class DirArtifactCache implements ArtifactCache {
     return getParentDirForRuleKey(ruleKey).resolve(ruleKey + extension.orElse(""));
   }
 
+  private Path getArtifactOrIndexPathForRuleKey(RuleKey ruleKey) {
+    return getPathForRuleKey(
+        ruleKey,
+        layout == DirCacheLayout.CONTENT_ADDRESSED
+            ? Optional.of(BLOB_INDEX_EXTENSION)
+            : Optional.empty());
+  }
+
+  @VisibleForTesting
+  Path getPathForBlob(String blobHash) {
+    return cacheDir
+        .resolve(BLOBS_FOLDER)
+        .resolve(blobHash.substring(0, 2))
+        .resolve(blobHash.substring(2, 4))
+        .resolve(blobHash);
+  }
+
   @VisibleForTesting
   Path getParentDirForRuleKey(RuleKey ruleKey) {
     ImmutableList<String> folders = subfolders(ruleKey);
@@ -327,6 +582,13 @@ public class DirArtifactCache implements ArtifactCache {
     if (bytesSinceLastDeleteOldFiles > 0) {
       deleteOldFiles();
     }
+    if (evictionIndex.isPresent()) {
+      try {
+        evictionIndex.get().close();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to close the eviction index of [%s].", cacheDir);
+      }
+    }
   }
 
   /** Deletes files that haven't been accessed recently from the directory cache. */
@@ -339,17 +601,34 @@ public class DirArtifactCache implements ArtifactCache {
     Path cacheDirInFs = filesystem.resolve(cacheDir);
     try {
       synchronized (this) {
-        newDirectoryCleaner().clean(cacheDirInFs);
+        if (evictionIndex.isPresent()) {
+          deleteOldFilesUsingIndex(evictionIndex.get());
+        } else {
+          newDirectoryCleaner().clean(cacheDirInFs);
+        }
       }
     } catch (IOException e) {
       LOG.error(e, "Failed to clean path [%s].", cacheDirInFs);
     }
   }
 
+  private void deleteOldFilesUsingIndex(DirArtifactCacheIndex index) throws IOException {
+    if (index.getTotalSizeBytes() <= maxCacheSizeBytes.get()) {
+      return;
+    }
+    ImmutableList<Path> evicted =
+        index.evict((long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO));
+    for (Path path : evicted) {
+      Files.deleteIfExists(path);
+    }
+    LOG.debug("Evicted %d files from [%s].", evicted.size(), cacheDir);
+  }
+
   @VisibleForTesting
   List<Path> getAllFilesInCache() {
     List<Path> allFiles = new ArrayList<>();
     Path tempFolderPath = getPathToTempFolder();
+    Path indexFolderPath = cacheDir.resolve(DirArtifactCacheIndex.INDEX_FOLDER);
     try {
       Files.walkFileTree(
           filesystem.resolve(cacheDir),
@@ -361,7 +640,7 @@ public class DirArtifactCache implements ArtifactCache {
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
                 throws IOException {
               // do not work with files in temp folder as they will be moved later
-              if (dir.equals(tempFolderPath)) {
+              if (dir.equals(tempFolderPath) || dir.equals(indexFolderPath)) {
                 return FileVisitResult.SKIP_SUBTREE;
               }
               return super.preVisitDirectory(dir, attrs);
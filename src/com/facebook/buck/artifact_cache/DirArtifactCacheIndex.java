@@ -0,0 +1,330 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Persistent record of the files in a {@link DirArtifactCache}, with their size and last access
+ * time, so that eviction can pick the least recently used files without walking the cache.
+ *
+ * <p>The index is an append-only log of store, access and delete records under {@code
+ * <cache>/index}. On first use it is replayed through a memory mapping into an access-ordered map,
+ * after which finding eviction candidates costs time proportional to the number of files evicted.
+ * If the log does not exist yet, it is rebuilt once from a walk of the cache directory. A record
+ * cut short by a crash is discarded on replay, and the log is compacted once it mostly holds
+ * superseded records.
+ */
+class DirArtifactCacheIndex implements Closeable {
+
+  private static final Logger LOG = Logger.get(DirArtifactCacheIndex.class);
+
+  static final String INDEX_FOLDER = "index";
+  private static final String LOG_FILE_NAME = "access.log";
+  private static final String COMPACTION_FILE_NAME = "access.log.tmp";
+
+  private static final byte STORE = 1;
+  private static final byte ACCESS = 2;
+  private static final byte DELETE = 3;
+  // type, timestamp, size and path length.
+  private static final int HEADER_BYTES = 1 + Long.BYTES + Long.BYTES + Short.BYTES;
+  // Compact once superseded records outnumber live entries by this factor.
+  private static final int COMPACTION_RATIO = 4;
+  private static final int MIN_RECORDS_BEFORE_COMPACTION = 1024;
+
+  private final Path cacheDir;
+  private final Path indexDir;
+  private final Path logPath;
+  private final ImmutableSet<Path> excludedDirs;
+  private final LongSupplier clock;
+
+  // Least recently accessed first.
+  private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalSizeBytes = 0;
+  private long records = 0;
+  private boolean loaded = false;
+  // Set when this instance created the log, in which case it misses files stored before.
+  private boolean createdLog = false;
+  @Nullable private FileChannel channel;
+
+  /**
+   * @param cacheDir absolute path of the cache directory.
+   * @param excludedDirs absolute paths of directories in the cache that never hold entries.
+   */
+  DirArtifactCacheIndex(Path cacheDir, ImmutableSet<Path> excludedDirs, LongSupplier clock) {
+    Preconditions.checkArgument(cacheDir.isAbsolute(), "%s must be absolute", cacheDir);
+    this.cacheDir = cacheDir;
+    this.indexDir = cacheDir.resolve(INDEX_FOLDER);
+    this.logPath = indexDir.resolve(LOG_FILE_NAME);
+    this.excludedDirs = ImmutableSet.<Path>builder().addAll(excludedDirs).add(indexDir).build();
+    this.clock = clock;
+  }
+
+  /** Records that {@code path}, of {@code sizeBytes} bytes, was stored in the cache. */
+  synchronized void recordStore(Path path, long sizeBytes) throws IOException {
+    append(STORE, path, sizeBytes);
+  }
+
+  /** Records that {@code path} was read from the cache. */
+  synchronized void recordAccess(Path path) throws IOException {
+    append(ACCESS, path, 0);
+  }
+
+  /** Records that {@code path} was removed from the cache. */
+  synchronized void recordDelete(Path path) throws IOException {
+    append(DELETE, path, 0);
+  }
+
+  synchronized long getTotalSizeBytes() throws IOException {
+    ensureLoaded();
+    return totalSizeBytes;
+  }
+
+  /**
+   * Removes the least recently accessed entries from the index until at most {@code
+   * maxBytesAfterDeletion} bytes remain, and returns them so the caller can delete their files.
+   */
+  synchronized ImmutableList<Path> evict(long maxBytesAfterDeletion) throws IOException {
+    ensureLoaded();
+    ImmutableList.Builder<Path> evicted = ImmutableList.builder();
+    Iterator<Map.Entry<Path, Entry>> iterator = entries.entrySet().iterator();
+    while (totalSizeBytes > maxBytesAfterDeletion && iterator.hasNext()) {
+      Map.Entry<Path, Entry> eldest = iterator.next();
+      iterator.remove();
+      totalSizeBytes -= eldest.getValue().sizeBytes;
+      writeRecord(DELETE, clock.getAsLong(), 0, eldest.getKey());
+      evicted.add(cacheDir.resolve(eldest.getKey()));
+    }
+    maybeCompact();
+    return evicted.build();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  @VisibleForTesting
+  Path getLogPath() {
+    return logPath;
+  }
+
+  private void append(byte type, Path path, long sizeBytes) throws IOException {
+    Path relativePath = cacheDir.relativize(path);
+    long now = clock.getAsLong();
+    if (loaded) {
+      apply(type, now, sizeBytes, relativePath);
+    }
+    writeRecord(type, now, sizeBytes, relativePath);
+  }
+
+  private void apply(byte type, long timestampMillis, long sizeBytes, Path relativePath) {
+    switch (type) {
+      case STORE:
+        Entry previous = entries.put(relativePath, new Entry(sizeBytes, timestampMillis));
+        totalSizeBytes += sizeBytes - (previous == null ? 0 : previous.sizeBytes);
+        break;
+      case ACCESS:
+        Entry entry = entries.get(relativePath);
+        if (entry != null) {
+          entry.lastAccessMillis = timestampMillis;
+        }
+        break;
+      case DELETE:
+        Entry removed = entries.remove(relativePath);
+        if (removed != null) {
+          totalSizeBytes -= removed.sizeBytes;
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unknown record type " + type);
+    }
+  }
+
+  private void writeRecord(byte type, long timestampMillis, long sizeBytes, Path relativePath)
+      throws IOException {
+    byte[] path = relativePath.toString().getBytes(Charsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + path.length);
+    buffer.put(type).putLong(timestampMillis).putLong(sizeBytes).putShort((short) path.length);
+    buffer.put(path);
+    buffer.flip();
+    FileChannel channel = getChannel();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    records++;
+  }
+
+  private FileChannel getChannel() throws IOException {
+    if (channel == null) {
+      Files.createDirectories(indexDir);
+      createdLog |= !loaded && !Files.exists(logPath);
+      channel =
+          FileChannel.open(
+              logPath,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND);
+    }
+    return channel;
+  }
+
+  private void ensureLoaded() throws IOException {
+    if (loaded) {
+      return;
+    }
+    if (createdLog || !Files.exists(logPath)) {
+      rebuild();
+    } else {
+      replay();
+    }
+    loaded = true;
+    maybeCompact();
+  }
+
+  private void replay() throws IOException {
+    records = 0;
+    long validBytes = 0;
+    try (FileChannel readChannel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer =
+          readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+      while (buffer.remaining() >= HEADER_BYTES) {
+        byte type = buffer.get();
+        long timestampMillis = buffer.getLong();
+        long sizeBytes = buffer.getLong();
+        int pathLength = Short.toUnsignedInt(buffer.getShort());
+        if (type < STORE || type > DELETE || buffer.remaining() < pathLength) {
+          break;
+        }
+        byte[] path = new byte[pathLength];
+        buffer.get(path);
+        Path relativePath = cacheDir.getFileSystem().getPath(new String(path, Charsets.UTF_8));
+        apply(type, timestampMillis, sizeBytes, relativePath);
+        records++;
+        validBytes = buffer.position();
+      }
+    }
+
+    FileChannel channel = getChannel();
+    if (channel.size() > validBytes) {
+      LOG.warn(
+          "Discarding %d bytes of incomplete records in %s", channel.size() - validBytes, logPath);
+      channel.truncate(validBytes);
+    }
+  }
+
+  private void rebuild() throws IOException {
+    LOG.info("No eviction index found in %s, rebuilding it from the cache contents.", cacheDir);
+    List<Map.Entry<Path, Entry>> found = new ArrayList<>();
+    Files.walkFileTree(
+        cacheDir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            return excludedDirs.contains(dir)
+                ? FileVisitResult.SKIP_SUBTREE
+                : FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            found.add(
+                new AbstractMap.SimpleImmutableEntry<>(
+                    cacheDir.relativize(file),
+                    new Entry(attrs.size(), attrs.lastAccessTime().toMillis())));
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    found.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccessMillis));
+    entries.clear();
+    totalSizeBytes = 0;
+    for (Map.Entry<Path, Entry> entry : found) {
+      entries.put(entry.getKey(), entry.getValue());
+      totalSizeBytes += entry.getValue().sizeBytes;
+    }
+    writeSnapshot();
+  }
+
+  private void maybeCompact() throws IOException {
+    if (records > MIN_RECORDS_BEFORE_COMPACTION && records > COMPACTION_RATIO * entries.size()) {
+      writeSnapshot();
+    }
+  }
+
+  /** Replaces the log with one store record per live entry, in access order. */
+  private void writeSnapshot() throws IOException {
+    close();
+    Files.createDirectories(indexDir);
+    Path compactionPath = indexDir.resolve(COMPACTION_FILE_NAME);
+    channel =
+        FileChannel.open(
+            compactionPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    records = 0;
+    for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+      writeRecord(
+          STORE, entry.getValue().lastAccessMillis, entry.getValue().sizeBytes, entry.getKey());
+    }
+    close();
+    Files.move(
+        compactionPath,
+        logPath,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static class Entry {
+    private final long sizeBytes;
+    private long lastAccessMillis;
+
+    Entry(long sizeBytes, long lastAccessMillis) {
+      this.sizeBytes = sizeBytes;
+      this.lastAccessMillis = lastAccessMillis;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.io.file.LazyPath;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link LazyPath} to fetch an artifact into, which also knows how to unpack the artifact.
+ *
+ * <p>Caches that download artifacts may hand the payload to {@link #extractWhileReading} as it
+ * arrives, instead of leaving the caller to read the whole file back once it has been written. The
+ * artifact is still saved to {@link #get()}, so it can be stored in other caches. After a hit,
+ * {@link #getExtractedPaths()} tells the caller whether the artifact still needs to be unpacked.
+ */
+public abstract class ExtractingLazyPath extends LazyPath {
+
+  @Nullable private ImmutableSet<Path> extractedPaths;
+
+  /**
+   * Unpacks the artifact read from {@code artifact}, without closing it.
+   *
+   * @param metadata the metadata the artifact was stored with.
+   * @return the paths of the extracted files, or empty if this artifact should not be unpacked
+   *     while it is read.
+   */
+  protected abstract Optional<ImmutableSet<Path>> extract(
+      ImmutableMap<String, String> metadata, InputStream artifact) throws IOException;
+
+  /**
+   * Cleans up after an artifact that was unpacked, in full or in part, and then turned out to be
+   * invalid.
+   *
+   * @param extractedPaths the files known to have been extracted, which is empty if extraction
+   *     itself failed.
+   */
+  protected abstract void discard(ImmutableSet<Path> extractedPaths) throws IOException;
+
+  /** Passes a downloading artifact to {@link #extract}, remembering the files it produced. */
+  public final synchronized void extractWhileReading(
+      ImmutableMap<String, String> metadata, InputStream artifact) throws IOException {
+    Preconditions.checkState(extractedPaths == null, "Artifact was already extracted.");
+    extractedPaths = ImmutableSet.of();
+    Optional<ImmutableSet<Path>> extracted = extract(metadata, artifact);
+    extractedPaths = extracted.orElse(null);
+  }
+
+  /** Undoes {@link #extractWhileReading} for an artifact that failed verification. */
+  public final synchronized void discardExtracted() throws IOException {
+    if (extractedPaths == null) {
+      return;
+    }
+    ImmutableSet<Path> toDiscard = extractedPaths;
+    extractedPaths = null;
+    discard(toDiscard);
+  }
+
+  /** @return the files unpacked while fetching, or empty if the artifact still needs unpacking. */
+  public final synchronized Optional<ImmutableSet<Path>> getExtractedPaths() {
+    return Optional.ofNullable(extractedPaths);
+  }
+}
@@ -55,11 +55,13 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
 
   private final Function<String, UnconfiguredBuildTargetView> unconfiguredBuildTargetFactory;
   private final TargetConfigurationSerializer targetConfigurationSerializer;
+  private final boolean streamingFetchEnabled;
 
   public HttpArtifactCache(NetworkCacheArgs args) {
     super(args);
     this.unconfiguredBuildTargetFactory = args.getUnconfiguredBuildTargetFactory();
     this.targetConfigurationSerializer = args.getTargetConfigurationSerializer();
+    this.streamingFetchEnabled = args.isStreamingFetchEnabled();
   }
 
   @Override
@@ -105,7 +107,11 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
         FetchResponseReadResult fetchedData;
         try (OutputStream tempFileOutputStream = getProjectFilesystem().newFileOutputStream(temp)) {
           fetchedData =
-              HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
+              HttpArtifactCacheBinaryProtocol.readFetchResponse(
+                  input, tempFileOutputStream, newPayloadReader(ruleKey, output));
+        } catch (IOException e) {
+          discardExtracted(output);
+          throw e;
         }
 
         resultBuilder
@@ -130,6 +136,7 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
           String msg = "artifact had invalid checksum";
           reportFailureWithFormatKey("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
           getProjectFilesystem().deleteFileAtPath(temp);
+          discardExtracted(output);
           return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
         }
 
@@ -149,6 +156,31 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
     }
   }
 
+  /**
+   * In streaming mode, lets an {@link ExtractingLazyPath} unpack the payload while it downloads,
+   * rather than reading it back from disk afterwards. The payload of a two-level pointer is not the
+   * artifact, so it is left alone.
+   */
+  private HttpArtifactCacheBinaryProtocol.PayloadReader newPayloadReader(
+      RuleKey ruleKey, LazyPath output) {
+    if (!streamingFetchEnabled || !(output instanceof ExtractingLazyPath)) {
+      return (ruleKeys, metadata, payload) -> {};
+    }
+    ExtractingLazyPath extractingOutput = (ExtractingLazyPath) output;
+    return (ruleKeys, metadata, payload) -> {
+      if (ruleKeys.contains(ruleKey)
+          && !metadata.containsKey(TwoLevelArtifactCacheDecorator.METADATA_KEY)) {
+        extractingOutput.extractWhileReading(metadata, payload);
+      }
+    };
+  }
+
+  private static void discardExtracted(LazyPath output) throws IOException {
+    if (output instanceof ExtractingLazyPath) {
+      ((ExtractingLazyPath) output).discardExtracted();
+    }
+  }
+
   @Override
   protected MultiContainsResult multiContainsImpl(ImmutableSet<RuleKey> ruleKeys) {
     throw new UnsupportedOperationException("multiContains is not supported");
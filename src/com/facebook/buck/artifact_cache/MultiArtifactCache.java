@@ -32,12 +32,18 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 
@@ -45,15 +51,36 @@ import javax.annotation.Nullable;
  * MultiArtifactCache encapsulates a set of ArtifactCache instances such that fetch() succeeds if
  * any of the ArtifactCaches contain the desired artifact, and store() applies to all
  * ArtifactCaches.
+ *
+ * <p>If it is given an executor for batched fetches, fetch requests are queued and every request
+ * that is waiting when the executor gets to them is sent through the caches as one batch: each
+ * cache is asked for the keys that all the caches before it missed in a single {@link
+ * ArtifactCache#multiFetchAsync} call, and its hits are written back to the caches before it in a
+ * single store. Requests that arrive while the executor is busy, as they do when the build engine
+ * has a lot of rules ready at once, end up in the same batch.
  */
 public class MultiArtifactCache implements ArtifactCache {
 
   private final ImmutableList<ArtifactCache> artifactCaches;
   private final ImmutableList<ArtifactCache> writableArtifactCaches;
   private final boolean isStoreSupported;
+  private final Optional<ListeningExecutorService> batchedFetchExecutor;
+  private final BlockingQueue<Pair<ArtifactFetchRequest, SettableFuture<CacheResult>>>
+      pendingFetches = new LinkedBlockingQueue<>();
 
   public MultiArtifactCache(ImmutableList<ArtifactCache> artifactCaches) {
+    this(artifactCaches, Optional.empty());
+  }
+
+  /**
+   * @param batchedFetchExecutor if present, fetches are queued and sent through the caches in
+   *     batches on this executor.
+   */
+  public MultiArtifactCache(
+      ImmutableList<ArtifactCache> artifactCaches,
+      Optional<ListeningExecutorService> batchedFetchExecutor) {
     this.artifactCaches = artifactCaches;
+    this.batchedFetchExecutor = batchedFetchExecutor;
     this.writableArtifactCaches =
         artifactCaches.stream()
             .filter(c -> c.getCacheReadMode().equals(CacheReadMode.READWRITE))
@@ -69,6 +96,15 @@ public class MultiArtifactCache implements ArtifactCache {
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    if (batchedFetchExecutor.isPresent()) {
+      SettableFuture<CacheResult> future = SettableFuture.create();
+      ArtifactFetchRequest request =
+          ArtifactFetchRequest.of(Optional.ofNullable(target), ruleKey, output);
+      pendingFetches.add(new Pair<>(request, future));
+      batchedFetchExecutor.get().submit(this::processPendingFetches);
+      return future;
+    }
+
     ListenableFuture<CacheResult> cacheResult = Futures.immediateFuture(CacheResult.miss());
     AtomicReference<ArtifactCache> lastCache = new AtomicReference<>();
 
@@ -122,6 +158,118 @@ public class MultiArtifactCache implements ArtifactCache {
         MoreExecutors.directExecutor());
   }
 
+  @Override
+  public ImmutableList<ListenableFuture<CacheResult>> multiFetchAsync(
+      ImmutableList<ArtifactFetchRequest> requests) {
+    ImmutableList<SettableFuture<CacheResult>> results =
+        requests.stream()
+            .map(request -> SettableFuture.<CacheResult>create())
+            .collect(ImmutableList.toImmutableList());
+    if (artifactCaches.isEmpty()) {
+      results.forEach(result -> result.set(CacheResult.miss()));
+    } else {
+      fetchFromCache(0, requests, results);
+    }
+    return ImmutableList.copyOf(results);
+  }
+
+  private void processPendingFetches() {
+    List<Pair<ArtifactFetchRequest, SettableFuture<CacheResult>>> batch = new ArrayList<>();
+    pendingFetches.drainTo(batch);
+    if (batch.isEmpty()) {
+      // An earlier task has already sent these requests.
+      return;
+    }
+    try {
+      ImmutableList<ListenableFuture<CacheResult>> results =
+          multiFetchAsync(
+              batch.stream().map(Pair::getFirst).collect(ImmutableList.toImmutableList()));
+      for (int i = 0; i < batch.size(); i++) {
+        batch.get(i).getSecond().setFuture(results.get(i));
+      }
+    } catch (RuntimeException e) {
+      batch.forEach(pending -> pending.getSecond().setException(e));
+    }
+  }
+
+  /**
+   * Fetches {@code requests} from the cache at {@code index}, and passes the ones it missed on to
+   * the next cache.
+   */
+  private void fetchFromCache(
+      int index,
+      ImmutableList<ArtifactFetchRequest> requests,
+      ImmutableList<SettableFuture<CacheResult>> results) {
+    ImmutableList<ListenableFuture<CacheResult>> cacheResults =
+        artifactCaches.get(index).multiFetchAsync(requests);
+    Futures.successfulAsList(cacheResults)
+        .addListener(
+            () -> onCacheResults(index, requests, results, cacheResults),
+            MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Sets the results of the requests the cache at {@code index} has answered, after writing its
+   * hits back to the writable caches before it in a single batch, and sends the rest on.
+   */
+  private void onCacheResults(
+      int index,
+      ImmutableList<ArtifactFetchRequest> requests,
+      ImmutableList<SettableFuture<CacheResult>> results,
+      ImmutableList<ListenableFuture<CacheResult>> cacheResults) {
+    boolean isLastCache = index == artifactCaches.size() - 1;
+    ImmutableList.Builder<ArtifactFetchRequest> missedRequests = ImmutableList.builder();
+    ImmutableList.Builder<SettableFuture<CacheResult>> missedResults = ImmutableList.builder();
+    ImmutableList.Builder<Pair<ArtifactInfo, BorrowablePath>> hits = ImmutableList.builder();
+    List<Pair<SettableFuture<CacheResult>, CacheResult>> hitResults = new ArrayList<>();
+
+    for (int i = 0; i < requests.size(); i++) {
+      ArtifactFetchRequest request = requests.get(i);
+      SettableFuture<CacheResult> result = results.get(i);
+      CacheResult cacheResult;
+      try {
+        cacheResult = Futures.getDone(cacheResults.get(i));
+      } catch (ExecutionException | CancellationException e) {
+        result.setFuture(cacheResults.get(i));
+        continue;
+      }
+
+      if (cacheResult.getType().isSuccess()) {
+        hits.add(
+            new Pair<>(
+                ArtifactInfo.builder()
+                    .addRuleKeys(request.getRuleKey())
+                    .setMetadata(cacheResult.getMetadata())
+                    .setBuildTarget(request.getBuildTarget())
+                    .build(),
+                BorrowablePath.notBorrowablePath(request.getOutput().getUnchecked())));
+        hitResults.add(new Pair<>(result, cacheResult));
+      } else if (isLastCache) {
+        result.set(cacheResult);
+      } else {
+        missedRequests.add(request);
+        missedResults.add(result);
+      }
+    }
+
+    // Propagate the artifacts to previous writable caches.
+    ImmutableList<ArtifactCache> cachesToFill =
+        artifactCaches.subList(0, index).stream()
+            .filter(artifactCache -> artifactCache.getCacheReadMode().isWritable())
+            .collect(ImmutableList.toImmutableList());
+    if (!cachesToFill.isEmpty() && !hitResults.isEmpty()) {
+      storeToCaches(cachesToFill, hits.build());
+    }
+    for (Pair<SettableFuture<CacheResult>, CacheResult> hitResult : hitResults) {
+      hitResult.getFirst().set(hitResult.getSecond());
+    }
+
+    ImmutableList<ArtifactFetchRequest> missed = missedRequests.build();
+    if (!missed.isEmpty()) {
+      fetchFromCache(index + 1, missed, missedResults.build());
+    }
+  }
+
   @Override
   public void skipPendingAndFutureAsyncFetches() {
     for (ArtifactCache artifactCache : artifactCaches) {
@@ -145,6 +293,19 @@ public class MultiArtifactCache implements ArtifactCache {
         Futures.allAsList(storeFutures), Functions.constant(null), MoreExecutors.directExecutor());
   }
 
+  private static ListenableFuture<Unit> storeToCaches(
+      ImmutableList<ArtifactCache> caches,
+      ImmutableList<Pair<ArtifactInfo, BorrowablePath>> artifacts) {
+    List<ListenableFuture<Unit>> storeFutures = Lists.newArrayListWithExpectedSize(caches.size());
+    for (ArtifactCache artifactCache : caches) {
+      storeFutures.add(artifactCache.store(artifacts));
+    }
+
+    // Aggregate future to ensure all store operations have completed.
+    return Futures.transform(
+        Futures.allAsList(storeFutures), Functions.constant(null), MoreExecutors.directExecutor());
+  }
+
   /** Store the artifact to all encapsulated ArtifactCaches. */
   @Override
   public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
@@ -165,15 +326,7 @@ public class MultiArtifactCache implements ArtifactCache {
       artifacts = artifactTemporaryPaths.build();
     }
 
-    List<ListenableFuture<Unit>> storeFutures =
-        Lists.newArrayListWithExpectedSize(writableArtifactCaches.size());
-    for (ArtifactCache artifactCache : writableArtifactCaches) {
-      storeFutures.add(artifactCache.store(artifacts));
-    }
-
-    // Aggregate future to ensure all store operations have completed.
-    return Futures.transform(
-        Futures.allAsList(storeFutures), Functions.constant(null), MoreExecutors.directExecutor());
+    return storeToCaches(writableArtifactCaches, artifacts);
   }
 
   @Override
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.types.Pair;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Decorator that can fetch artifacts before they are asked for, so that a later {@link
+ * #fetchAsync} for the same rule key does not have to wait for the underlying cache.
+ *
+ * <p>Speculative fetches are started by {@link #prefetch} and land in temporary files under the
+ * {@code buck-out} of the rule's filesystem, so that they can be moved to their outputs without a
+ * copy. To bound the disk space they use and the load they put on the underlying cache, each one
+ * reserves a share of the configured number of bytes when it starts, and no new ones are started
+ * while there is no room left for that share or while too many of them are in flight. Once a fetch
+ * lands, its reservation is swapped for the actual size, and an artifact that doesn't fit in the
+ * budget is dropped and fetched again when asked for. A staged artifact is moved to the requested
+ * output when it is fetched, and the ones that never are get deleted by {@link
+ * #discardStagedArtifacts()}.
+ */
+public class PrefetchingArtifactCache implements ArtifactCache {
+
+  private static final Logger LOG = Logger.get(PrefetchingArtifactCache.class);
+
+  // Leaves the underlying cache free to serve the fetches the build is actually waiting for.
+  @VisibleForTesting static final int MAX_PREFETCHES_IN_FLIGHT = 16;
+
+  private final ArtifactCache delegate;
+  private final long maxStagedBytes;
+  private final long reservedBytesPerPrefetch;
+  private final ConcurrentMap<RuleKey, StagedArtifact> stagedArtifacts = new ConcurrentHashMap<>();
+  private final AtomicLong stagedBytes = new AtomicLong();
+  private final AtomicInteger prefetchesInFlight = new AtomicInteger();
+
+  public PrefetchingArtifactCache(ArtifactCache delegate, long maxStagedBytes) {
+    this.delegate = delegate;
+    this.maxStagedBytes = maxStagedBytes;
+    this.reservedBytesPerPrefetch = Math.max(1, maxStagedBytes / MAX_PREFETCHES_IN_FLIGHT);
+  }
+
+  /**
+   * Starts fetching the artifact for {@code ruleKey} into the staging area of {@code filesystem},
+   * unless it is already staged or there is no room for it.
+   *
+   * @return whether a fetch was started.
+   */
+  public boolean prefetch(
+      @Nullable BuildTarget target, RuleKey ruleKey, ProjectFilesystem filesystem) {
+    if (stagedArtifacts.containsKey(ruleKey)) {
+      return false;
+    }
+    if (prefetchesInFlight.incrementAndGet() > MAX_PREFETCHES_IN_FLIGHT) {
+      prefetchesInFlight.decrementAndGet();
+      return false;
+    }
+    if (!tryReserve(reservedBytesPerPrefetch)) {
+      prefetchesInFlight.decrementAndGet();
+      return false;
+    }
+
+    Path path;
+    try {
+      path = filesystem.resolve(filesystem.createTempFile("buck_prefetch_", ".zip"));
+    } catch (IOException e) {
+      prefetchesInFlight.decrementAndGet();
+      stagedBytes.addAndGet(-reservedBytesPerPrefetch);
+      LOG.warn(e, "Could not create a staging file to prefetch %s.", ruleKey);
+      return false;
+    }
+    StagedArtifact staged = new StagedArtifact(path, reservedBytesPerPrefetch);
+    if (stagedArtifacts.putIfAbsent(ruleKey, staged) != null) {
+      prefetchesInFlight.decrementAndGet();
+      discard(staged);
+      return false;
+    }
+
+    LOG.verbose("Prefetching %s for %s.", ruleKey, target);
+    ListenableFuture<CacheResult> fetch =
+        delegate.fetchAsync(target, ruleKey, LazyPath.ofInstance(path));
+    // Runs whether the fetch succeeds or fails, so failed prefetches give their slot back too.
+    fetch.addListener(prefetchesInFlight::decrementAndGet, MoreExecutors.directExecutor());
+    staged.result.setFuture(
+        Futures.transform(
+            fetch,
+            result -> {
+              if (!result.getType().isSuccess()) {
+                release(staged);
+                return result;
+              }
+              if (!tryResize(staged, getSize(path))) {
+                LOG.debug("Prefetched artifact for %s does not fit in the budget.", ruleKey);
+                discard(staged);
+                return CacheResult.skipped();
+              }
+              return result;
+            },
+            MoreExecutors.directExecutor()));
+    // Nothing can be staged from a fetch that failed outright, so give its bytes back right away.
+    Futures.addCallback(
+        staged.result,
+        new FutureCallback<CacheResult>() {
+          @Override
+          public void onSuccess(CacheResult result) {}
+
+          @Override
+          public void onFailure(Throwable t) {
+            discard(staged);
+          }
+        },
+        MoreExecutors.directExecutor());
+    return true;
+  }
+
+  /**
+   * Fetches the artifact, using the result of an earlier {@link #prefetch} for the same rule key if
+   * there is one.
+   */
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    StagedArtifact staged = stagedArtifacts.remove(ruleKey);
+    if (staged == null) {
+      return delegate.fetchAsync(target, ruleKey, output);
+    }
+    ListenableFuture<CacheResult> fetch =
+        Futures.transformAsync(
+            staged.result,
+            result -> {
+              if (!result.getType().isSuccess()) {
+                discard(staged);
+                // Only trust a speculative miss, errors are worth another try.
+                return result.getType() == CacheResultType.MISS
+                    ? Futures.immediateFuture(result)
+                    : delegate.fetchAsync(target, ruleKey, output);
+              }
+              try {
+                Files.move(staged.path, output.get(), StandardCopyOption.REPLACE_EXISTING);
+              } catch (IOException e) {
+                LOG.warn(
+                    e, "Could not move prefetched artifact for %s, fetching it again.", ruleKey);
+                discard(staged);
+                return delegate.fetchAsync(target, ruleKey, output);
+              }
+              release(staged);
+              return Futures.immediateFuture(result);
+            },
+            MoreExecutors.directExecutor());
+    // A prefetch that failed outright should not fail the fetch the build is waiting for.
+    return Futures.catchingAsync(
+        fetch,
+        Exception.class,
+        e -> {
+          LOG.debug(e, "Prefetch of %s failed, fetching it again.", ruleKey);
+          discard(staged);
+          return delegate.fetchAsync(target, ruleKey, output);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** Deletes the artifacts that were prefetched but never fetched. */
+  public void discardStagedArtifacts() {
+    for (RuleKey ruleKey : ImmutableList.copyOf(stagedArtifacts.keySet())) {
+      StagedArtifact staged = stagedArtifacts.remove(ruleKey);
+      if (staged != null) {
+        // Wait for an in-flight fetch, so that it does not write the file after it was deleted.
+        staged.result.addListener(() -> discard(staged), MoreExecutors.directExecutor());
+      }
+    }
+  }
+
+  @VisibleForTesting
+  long getStagedBytes() {
+    return stagedBytes.get();
+  }
+
+  /** Takes {@code bytes} out of the budget if they fit in it. */
+  private boolean tryReserve(long bytes) {
+    while (true) {
+      long current = stagedBytes.get();
+      if (current + bytes > maxStagedBytes) {
+        return false;
+      }
+      if (stagedBytes.compareAndSet(current, current + bytes)) {
+        return true;
+      }
+    }
+  }
+
+  /** Replaces the bytes {@code staged} holds in the budget with {@code sizeBytes}, if they fit. */
+  private boolean tryResize(StagedArtifact staged, long sizeBytes) {
+    synchronized (staged) {
+      if (!tryReserve(sizeBytes - staged.sizeBytes)) {
+        return false;
+      }
+      staged.sizeBytes = sizeBytes;
+      return true;
+    }
+  }
+
+  /** Gives the bytes {@code staged} holds in the budget back, once. */
+  private void release(StagedArtifact staged) {
+    synchronized (staged) {
+      stagedBytes.addAndGet(-staged.sizeBytes);
+      staged.sizeBytes = 0;
+    }
+  }
+
+  private void discard(StagedArtifact staged) {
+    release(staged);
+    deleteStagedFile(staged.path);
+  }
+
+  private static void deleteStagedFile(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.warn(e, "Could not delete prefetched artifact %s.", path);
+    }
+  }
+
+  private static long getSize(Path path) {
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+    return delegate.store(info, output);
+  }
+
+  @Override
+  public ListenableFuture<Unit> store(ImmutableList<Pair<ArtifactInfo, BorrowablePath>> artifacts) {
+    return delegate.store(artifacts);
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  @Override
+  public void close() {
+    discardStagedArtifacts();
+    delegate.close();
+  }
+
+  private static class StagedArtifact {
+    private final Path path;
+    // Set as soon as the fetch has been started, so it can be waited on from the moment the
+    // artifact is visible in stagedArtifacts.
+    private final SettableFuture<CacheResult> result = SettableFuture.create();
+    // What the artifact holds in the budget: the reservation until it lands, then its size.
+    @GuardedBy("this")
+    private long sizeBytes;
+
+    StagedArtifact(Path path, long reservedBytes) {
+      this.path = path;
+      this.sizeBytes = reservedBytes;
+    }
+  }
+}
@@ -64,8 +64,35 @@ public class RetryingCacheDecorator implements ArtifactCache, CacheDecorator {
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return withRetries(target, ruleKey, output, delegate.fetchAsync(target, ruleKey, output));
+  }
+
+  @Override
+  public ImmutableList<ListenableFuture<CacheResult>> multiFetchAsync(
+      ImmutableList<ArtifactFetchRequest> requests) {
+    // The first attempt goes out as a batch, any retries go out one at a time.
+    ImmutableList<ListenableFuture<CacheResult>> firstAttempts = delegate.multiFetchAsync(requests);
+    ImmutableList.Builder<ListenableFuture<CacheResult>> results =
+        ImmutableList.builderWithExpectedSize(requests.size());
+    for (int i = 0; i < requests.size(); i++) {
+      ArtifactFetchRequest request = requests.get(i);
+      results.add(
+          withRetries(
+              request.getBuildTarget().orElse(null),
+              request.getRuleKey(),
+              request.getOutput(),
+              firstAttempts.get(i)));
+    }
+    return results.build();
+  }
+
+  private ListenableFuture<CacheResult> withRetries(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      ListenableFuture<CacheResult> firstAttempt) {
     List<String> allCacheErrors = new ArrayList<>();
-    ListenableFuture<CacheResult> resultFuture = delegate.fetchAsync(target, ruleKey, output);
+    ListenableFuture<CacheResult> resultFuture = firstAttempt;
     for (int retryCount = 1; retryCount < maxFetchRetries; retryCount++) {
       int retryCountForLambda = retryCount;
       resultFuture =
@@ -31,14 +31,16 @@ import com.facebook.buck.io.file.MostFiles;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.sqlite.RetryBusyHandler;
 import com.facebook.buck.util.sqlite.SQLiteUtils;
-import com.facebook.buck.util.types.Pair;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Functions;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimaps;
 import com.google.common.hash.HashCode;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
@@ -60,12 +62,23 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.annotation.Nullable;
 import org.sqlite.BusyHandler;
 import org.sqlite.SQLiteConfig;
@@ -76,6 +89,11 @@ import org.sqlite.SQLiteConfig;
  * <p>Cache entries are either metadata or content. All metadata contains a mapping to a content
  * entry. Content entries with sufficiently small content will have their artifacts inlined into the
  * database for improved performance.
+ *
+ * <p>Entries may be sharded across several database files by the leading byte of their key. Each
+ * shard is opened in WAL mode with a single writer connection and a pool of read-only connections,
+ * so lookups in different shards, or concurrent lookups in the same shard, do not contend with each
+ * other or with eviction.
  */
 public class SQLiteArtifactCache implements ArtifactCache {
 
@@ -87,6 +105,8 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private static final String TMP_EXTENSION = ".tmp";
   private static final long DEFAULT_MAX_INLINED_BYTES = 40;
   private static final Duration DEFAULT_EVICTION_TIME = Duration.ofDays(7);
+  private static final String DATABASE_NAME = "dircache";
+  private static final String DATABASE_EXTENSION = ".db";
 
   private final String name;
   private final ProjectFilesystem filesystem;
@@ -97,7 +117,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private final long maxInlinedBytes;
   private final CacheReadMode cacheMode;
 
-  private final ConnectionInfo db;
+  private final ImmutableList<ConnectionInfo> shards;
 
   static {
     SQLiteUtils.initialize();
@@ -112,6 +132,31 @@ public class SQLiteArtifactCache implements ArtifactCache {
       Optional<Long> maxInlinedSizeBytes,
       CacheReadMode cacheMode)
       throws IOException, SQLException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        eventBus,
+        maxCacheSizeBytes,
+        maxInlinedSizeBytes,
+        cacheMode,
+        /* shardCount */ 1,
+        /* readersPerShard */ 1);
+  }
+
+  SQLiteArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      BuckEventBus eventBus,
+      Optional<Long> maxCacheSizeBytes,
+      Optional<Long> maxInlinedSizeBytes,
+      CacheReadMode cacheMode,
+      int shardCount,
+      int readersPerShard)
+      throws IOException, SQLException {
+    Preconditions.checkArgument(shardCount > 0, "SQLite cache needs at least one shard");
+    Preconditions.checkArgument(readersPerShard > 0, "SQLite cache needs at least one reader");
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
@@ -136,7 +181,30 @@ public class SQLiteArtifactCache implements ArtifactCache {
           String.format("Cache path [%s] already exists and is not a directory.", cacheDir));
     }
 
-    this.db = new ConnectionInfo(cacheDir);
+    ImmutableList.Builder<ConnectionInfo> shardsBuilder = ImmutableList.builder();
+    for (int i = 0; i < shardCount; i++) {
+      // A single shard keeps the historical database name so existing caches remain readable.
+      String databaseName =
+          shardCount == 1
+              ? DATABASE_NAME
+              : String.format("%s-%d-of-%d", DATABASE_NAME, i, shardCount);
+      shardsBuilder.add(
+          new ConnectionInfo(cacheDir.resolve(databaseName + DATABASE_EXTENSION), readersPerShard));
+    }
+    this.shards = shardsBuilder.build();
+  }
+
+  /** Returns the shard owning {@code key}, chosen by the key's leading byte. */
+  private ConnectionInfo shardFor(RuleKey key) {
+    if (shards.size() == 1) {
+      return shards.get(0);
+    }
+    return shards.get(Byte.toUnsignedInt(ConnectionInfo.getBytes(key)[0]) % shards.size());
+  }
+
+  /** Splits {@code keys} by the shard owning each of them. */
+  private ImmutableListMultimap<ConnectionInfo, RuleKey> groupByShard(Iterable<RuleKey> keys) {
+    return Multimaps.index(keys, this::shardFor);
   }
 
   @Override
@@ -172,6 +240,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
             CACHE_MODE,
             String.format("Artifact fetch(%s, %s) stopped unexpectedly", contentHash, output));
     try {
+      ConnectionInfo db = shardFor(contentHash);
       Optional<Content> content = db.selectContent(contentHash);
       if (content.isPresent()) {
         byte[] artifact = content.get().artifact;
@@ -215,6 +284,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
             CACHE_MODE,
             String.format("Metadata fetch(%s, %s) stopped unexpectedly", ruleKey, output));
     try {
+      ConnectionInfo db = shardFor(ruleKey);
       Optional<byte[]> metadata = db.selectMetadata(ruleKey);
       if (metadata.isPresent()) {
         db.accessMetadata(ruleKey);
@@ -281,7 +351,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
 
     try {
-      db.storeMetadata(info.getRuleKeys(), marshalMetadata(metadata));
+      byte[] marshalled = marshalMetadata(metadata);
+      for (Map.Entry<ConnectionInfo, Collection<RuleKey>> shard :
+          groupByShard(info.getRuleKeys()).asMap().entrySet()) {
+        shard.getKey().storeMetadata(shard.getValue(), marshalled);
+      }
     } catch (IOException | SQLException e) {
       LOG.warn(e, "Metadata store(%s) error", info.getRuleKeys());
     }
@@ -300,7 +374,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
       long size = filesystem.getFileSize(content.getPath());
       if (size <= maxInlinedBytes) {
         // artifact is small enough to inline in the database
-        db.storeArtifact(toStore, Files.readAllBytes(content.getPath()), size);
+        byte[] artifact = Files.readAllBytes(content.getPath());
+        for (Map.Entry<ConnectionInfo, Collection<RuleKey>> shard :
+            groupByShard(toStore).asMap().entrySet()) {
+          shard.getKey().storeArtifact(shard.getValue(), artifact, size);
+        }
       } else if (!toStore.isEmpty()) {
         // artifact is too large to inline, store on disk and put path in database
         Path artifactPath = getArtifactPath(toStore.iterator().next());
@@ -312,7 +390,10 @@ public class SQLiteArtifactCache implements ArtifactCache {
           storeArtifactOutput(content.getPath(), artifactPath);
         }
 
-        db.storeFilepath(toStore, artifactPath.toString(), size);
+        for (Map.Entry<ConnectionInfo, Collection<RuleKey>> shard :
+            groupByShard(toStore).asMap().entrySet()) {
+          shard.getKey().storeFilepath(shard.getValue(), artifactPath.toString(), size);
+        }
       }
     } catch (IOException | SQLException e) {
       LOG.warn(e, "Artifact store(%s, %s) error", contentHashes, content);
@@ -326,6 +407,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
     ImmutableSet.Builder<RuleKey> builder = ImmutableSet.builder();
     for (RuleKey contentHash : contentHashes) {
       // if the content already exists in the cache, skip it
+      ConnectionInfo db = shardFor(contentHash);
       Optional<Content> existingArtifact = db.selectContent(contentHash);
       if (existingArtifact.isPresent()) {
         byte[] inlined = existingArtifact.get().artifact;
@@ -404,7 +486,10 @@ public class SQLiteArtifactCache implements ArtifactCache {
   ListenableFuture<Unit> removeOldMetadata() {
     Timestamp evictionTime = Timestamp.from(Instant.now().minus(DEFAULT_EVICTION_TIME));
     try {
-      int deleted = db.deleteMetadata(evictionTime);
+      int deleted = 0;
+      for (ConnectionInfo db : shards) {
+        deleted += db.deleteMetadata(evictionTime);
+      }
       LOG.verbose("Removed %d metadata rows not accessed since %s", deleted, evictionTime);
     } catch (SQLException e) {
       LOG.error(e, "Failed to clean database");
@@ -420,9 +505,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
       return Futures.immediateFuture(null);
     }
 
-    long totalSizeBytes;
+    long totalSizeBytes = 0;
     try {
-      totalSizeBytes = db.totalSize();
+      for (ConnectionInfo db : shards) {
+        totalSizeBytes += db.totalSize();
+      }
       if (totalSizeBytes <= maxCacheSizeBytes.get()) {
         return Futures.immediateFuture(null);
       }
@@ -432,16 +519,41 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
 
     try {
-      Pair<Iterable<String>, Timestamp> contentToEvict =
-          db.getContentToEvict(totalSizeBytes - maxBytesAfterDeletion.get());
+      long minToDelete = totalSizeBytes - maxBytesAfterDeletion.get();
+
+      // Every shard returns enough of its oldest content to cover the whole deletion on its own,
+      // so merging them by access time yields the same order as a single, unsharded table would.
+      List<EvictionCandidate> candidates = new ArrayList<>();
+      for (ConnectionInfo db : shards) {
+        candidates.addAll(db.getEvictionCandidates(minToDelete));
+      }
+      candidates.sort(Comparator.comparing(candidate -> candidate.accessed));
 
-      for (String filepath : contentToEvict.getFirst()) {
-        MostFiles.deleteRecursivelyIfExists(filesystem.resolve(filepath));
+      long deleted = 0;
+      Iterator<EvictionCandidate> iterator = candidates.iterator();
+      while (deleted < minToDelete && iterator.hasNext()) {
+        EvictionCandidate candidate = iterator.next();
+
+        // from database constraint, exactly one of filepath/artifact is null
+        if (Objects.nonNull(candidate.filepath)) {
+          LOG.verbose(
+              "Deleting path [%s] of total size [%d] bytes.", candidate.filepath, candidate.size);
+          MostFiles.deleteRecursivelyIfExists(filesystem.resolve(candidate.filepath));
+        } else {
+          LOG.verbose("Deleting inlined artifact of size [%d] bytes.", candidate.size);
+        }
+
+        deleted += candidate.size;
       }
 
-      Timestamp evictionCutoff = contentToEvict.getSecond();
-      int deleted = db.deleteContent(evictionCutoff);
-      LOG.verbose("Deleted %d cached artifacts last accessed before %s", deleted, evictionCutoff);
+      Timestamp evictionCutoff =
+          iterator.hasNext() ? iterator.next().accessed : Timestamp.from(Instant.now());
+      int deletedRows = 0;
+      for (ConnectionInfo db : shards) {
+        deletedRows += db.deleteContent(evictionCutoff);
+      }
+      LOG.verbose(
+          "Deleted %d cached artifacts last accessed before %s", deletedRows, evictionCutoff);
     } catch (IOException | SQLException e) {
       LOG.error(e, "Failed to clean path [%s].", filesystem.resolve(cacheDir));
     }
@@ -462,7 +574,9 @@ public class SQLiteArtifactCache implements ArtifactCache {
       LOG.error("Failed to clean SQLite cache");
     }
 
-    db.close();
+    for (ConnectionInfo db : shards) {
+      db.close();
+    }
   }
 
   // testing utilities
@@ -471,8 +585,9 @@ public class SQLiteArtifactCache implements ArtifactCache {
   void insertMetadata(RuleKey ruleKey, ImmutableMap<String, String> metadata, Timestamp time)
       throws IOException, SQLException {
     PreparedStatement stmt =
-        db.connection.prepareStatement(
-            "INSERT INTO metadata (rulekey, data, accessed) VALUES (?, ?, ?)");
+        shardFor(ruleKey)
+            .connection
+            .prepareStatement("INSERT INTO metadata (rulekey, data, accessed) VALUES (?, ?, ?)");
     stmt.setBytes(1, ConnectionInfo.getBytes(ruleKey));
     stmt.setBytes(2, marshalMetadata(metadata));
     stmt.setTimestamp(3, time);
@@ -484,9 +599,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
       throws IOException, SQLException {
     long size = filesystem.getFileSize(file.getPath());
     PreparedStatement stmt =
-        db.connection.prepareStatement(
-            "INSERT INTO content (sha1, artifact, filepath, size, accessed, created) "
-                + "VALUES (?, ?, ?, ?, ?, ?)");
+        shardFor(contentHash)
+            .connection
+            .prepareStatement(
+                "INSERT INTO content (sha1, artifact, filepath, size, accessed, created) "
+                    + "VALUES (?, ?, ?, ?, ?, ?)");
 
     stmt.setBytes(1, ConnectionInfo.getBytes(contentHash));
     if (size <= maxInlinedBytes) {
@@ -502,49 +619,50 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
   @VisibleForTesting
   ImmutableList<RuleKey> directoryFileContentHashes() throws SQLException {
-    ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection
-            .createStatement()
-            .executeQuery("SELECT sha1 FROM content WHERE filepath NOTNULL")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
-      }
-    }
-    return keys.build();
+    return selectKeysFromAllShards("SELECT sha1 FROM content WHERE filepath NOTNULL");
   }
 
   @VisibleForTesting
   ImmutableList<RuleKey> inlinedArtifactContentHashes() throws SQLException {
-    ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection
-            .createStatement()
-            .executeQuery("SELECT sha1 FROM content WHERE artifact NOTNULL")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
-      }
-    }
-    return keys.build();
+    return selectKeysFromAllShards("SELECT sha1 FROM content WHERE artifact NOTNULL");
   }
 
   @VisibleForTesting
   ImmutableList<RuleKey> metadataRuleKeys() throws SQLException {
+    return selectKeysFromAllShards("SELECT rulekey FROM metadata");
+  }
+
+  private ImmutableList<RuleKey> selectKeysFromAllShards(String query) throws SQLException {
     ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection.createStatement().executeQuery("SELECT rulekey FROM metadata")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
+    for (ConnectionInfo db : shards) {
+      try (ResultSet rs = db.connection.createStatement().executeQuery(query)) {
+        while (rs.next()) {
+          keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
+        }
       }
     }
     return keys.build();
   }
 
+  /**
+   * A single database shard.
+   *
+   * <p>All writes go through one connection guarded by {@code writeLock}, as SQLite only allows a
+   * single writer. Lookups borrow one of up to {@code maxReaders} read-only connections, which in
+   * WAL mode never block on the writer. Access-time updates for hits are queued and flushed by
+   * whichever thread next gets hold of the writer, so hits do not serialize on it either.
+   */
   private static class ConnectionInfo {
+    private final Path databasePath;
     private final Connection connection;
+    private final Lock writeLock = new ReentrantLock();
 
-    private final PreparedStatement fetchMetadata;
-    private final PreparedStatement fetchContent;
+    private final int maxReaders;
+    private final AtomicInteger openReaders = new AtomicInteger();
+    private final BlockingQueue<Reader> idleReaders = new LinkedBlockingQueue<>();
+
+    private final Queue<byte[]> pendingMetadataAccesses = new ConcurrentLinkedQueue<>();
+    private final Queue<byte[]> pendingContentAccesses = new ConcurrentLinkedQueue<>();
 
     private final PreparedStatement updateMetadataTime;
     private final PreparedStatement updateContentTime;
@@ -561,13 +679,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
     private final PreparedStatement contentSize;
 
-    private ConnectionInfo(Path cacheDir) throws SQLException {
-      // date format must be set to match CURRENT_TIMESTAMP
-      Properties properties = new SQLiteConfig().toProperties();
-      properties.setProperty(
-          SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
-      connection =
-          DriverManager.getConnection("jdbc:sqlite:" + cacheDir.resolve("dircache.db"), properties);
+    private ConnectionInfo(Path databasePath, int maxReaders) throws SQLException {
+      this.databasePath = databasePath;
+      this.maxReaders = maxReaders;
+
+      connection = openConnection(databasePath, /* readOnly */ false);
       connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
       connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
 
@@ -603,11 +719,6 @@ public class SQLiteArtifactCache implements ArtifactCache {
                   + "OR artifact ISNULL AND filepath NOT NULL)) "
                   + "WITHOUT ROWID");
 
-      fetchMetadata = connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
-      fetchContent =
-          connection.prepareStatement(
-              "SELECT artifact, filepath, size FROM content WHERE sha1 = ?");
-
       updateMetadataTime =
           connection.prepareStatement(
               "UPDATE metadata SET accessed = CURRENT_TIMESTAMP WHERE rulekey = ?");
@@ -635,119 +746,246 @@ public class SQLiteArtifactCache implements ArtifactCache {
       deleteContentForHash = connection.prepareStatement("DELETE FROM content WHERE sha1 = ?");
 
       contentSize = connection.prepareStatement("SELECT sum(size) FROM content");
+    }
 
+    private static Connection openConnection(Path databasePath, boolean readOnly)
+        throws SQLException {
+      SQLiteConfig config = new SQLiteConfig();
+      config.setReadOnly(readOnly);
+      // date format must be set to match CURRENT_TIMESTAMP
+      Properties properties = config.toProperties();
+      properties.setProperty(
+          SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
+      Connection connection =
+          DriverManager.getConnection("jdbc:sqlite:" + databasePath, properties);
       BusyHandler.setHandler(connection, new RetryBusyHandler());
+      return connection;
     }
 
-    private synchronized Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
-      fetchMetadata.setBytes(1, getBytes(ruleKey));
-      ResultSet rs = fetchMetadata.executeQuery();
-      return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
-    }
+    /**
+     * Takes an idle reader, opening a new one if fewer than {@code maxReaders} exist, and otherwise
+     * waiting for one to be returned.
+     */
+    private Reader borrowReader() throws SQLException {
+      Reader reader = idleReaders.poll();
+      if (reader != null) {
+        return reader;
+      }
+
+      int open = openReaders.get();
+      while (open < maxReaders) {
+        if (openReaders.compareAndSet(open, open + 1)) {
+          try {
+            return new Reader(openConnection(databasePath, /* readOnly */ true));
+          } catch (SQLException e) {
+            openReaders.decrementAndGet();
+            throw e;
+          }
+        }
+        open = openReaders.get();
+      }
 
-    private synchronized Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
-      fetchContent.setBytes(1, getBytes(contentHash));
-      ResultSet rs = fetchContent.executeQuery();
-      return rs.next()
-          ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
-          : Optional.empty();
+      try {
+        return idleReaders.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for a connection to " + databasePath, e);
+      }
     }
 
-    private synchronized void accessMetadata(RuleKey ruleKey) throws SQLException {
-      updateMetadataTime.setBytes(1, getBytes(ruleKey));
-      updateMetadataTime.executeUpdate();
+    private void returnReader(Reader reader) {
+      idleReaders.add(reader);
     }
 
-    private synchronized void accessContent(RuleKey contentHash) throws SQLException {
-      updateContentTime.setBytes(1, getBytes(contentHash));
-      updateContentTime.executeUpdate();
+    private Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
+      Reader reader = borrowReader();
+      try {
+        reader.fetchMetadata.setBytes(1, getBytes(ruleKey));
+        try (ResultSet rs = reader.fetchMetadata.executeQuery()) {
+          return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
+        }
+      } finally {
+        returnReader(reader);
+      }
     }
 
-    private synchronized void storeMetadata(ImmutableSet<RuleKey> ruleKeys, byte[] metadata)
-        throws SQLException {
-      for (RuleKey ruleKey : ruleKeys) {
-        storeMetadata.setBytes(1, getBytes(ruleKey));
-        storeMetadata.setBytes(2, metadata);
-        storeMetadata.addBatch();
+    private Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
+      Reader reader = borrowReader();
+      try {
+        reader.fetchContent.setBytes(1, getBytes(contentHash));
+        try (ResultSet rs = reader.fetchContent.executeQuery()) {
+          return rs.next()
+              ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
+              : Optional.empty();
+        }
+      } finally {
+        returnReader(reader);
       }
-      storeMetadata.executeBatch();
     }
 
-    private synchronized void storeArtifact(Iterable<RuleKey> hashes, byte[] artifact, long size)
-        throws SQLException {
-      for (RuleKey contentHash : hashes) {
-        storeArtifact.setBytes(1, getBytes(contentHash));
-        storeArtifact.setBytes(2, artifact);
-        storeArtifact.setLong(3, size);
-        storeArtifact.addBatch();
+    private void accessMetadata(RuleKey ruleKey) throws SQLException {
+      pendingMetadataAccesses.add(getBytes(ruleKey));
+      tryFlushAccesses();
+    }
+
+    private void accessContent(RuleKey contentHash) throws SQLException {
+      pendingContentAccesses.add(getBytes(contentHash));
+      tryFlushAccesses();
+    }
+
+    /** Flushes queued access times unless another thread is already writing to this shard. */
+    private void tryFlushAccesses() throws SQLException {
+      if (writeLock.tryLock()) {
+        try {
+          flushAccesses();
+        } finally {
+          writeLock.unlock();
+        }
       }
-      storeArtifact.executeBatch();
     }
 
-    private synchronized void storeFilepath(Iterable<RuleKey> ruleKeys, String filepath, long size)
+    /** Must be called with {@code writeLock} held. */
+    private void flushAccesses() throws SQLException {
+      flushAccesses(pendingMetadataAccesses, updateMetadataTime);
+      flushAccesses(pendingContentAccesses, updateContentTime);
+    }
+
+    private static void flushAccesses(Queue<byte[]> pending, PreparedStatement update)
         throws SQLException {
-      for (RuleKey ruleKey : ruleKeys) {
-        storeFilepath.setBytes(1, getBytes(ruleKey));
-        storeFilepath.setString(2, filepath);
-        storeFilepath.setLong(3, size);
-        storeFilepath.addBatch();
+      boolean batched = false;
+      for (byte[] key = pending.poll(); key != null; key = pending.poll()) {
+        update.setBytes(1, key);
+        update.addBatch();
+        batched = true;
+      }
+      if (batched) {
+        update.executeBatch();
       }
-      storeFilepath.executeBatch();
     }
 
-    private synchronized int deleteMetadata(Timestamp evictionCutoff) throws SQLException {
-      deleteMetadataBeforeCutoff.setTimestamp(1, evictionCutoff);
-      return deleteMetadataBeforeCutoff.executeUpdate();
+    private void storeMetadata(Iterable<RuleKey> ruleKeys, byte[] metadata) throws SQLException {
+      writeLock.lock();
+      try {
+        flushAccesses();
+        for (RuleKey ruleKey : ruleKeys) {
+          storeMetadata.setBytes(1, getBytes(ruleKey));
+          storeMetadata.setBytes(2, metadata);
+          storeMetadata.addBatch();
+        }
+        storeMetadata.executeBatch();
+      } finally {
+        writeLock.unlock();
+      }
     }
 
-    private synchronized int deleteContent(Timestamp evictionCutoff) throws SQLException {
-      deleteContentBeforeCutoff.setTimestamp(1, evictionCutoff);
-      return deleteContentBeforeCutoff.executeUpdate();
+    private void storeArtifact(Iterable<RuleKey> hashes, byte[] artifact, long size)
+        throws SQLException {
+      writeLock.lock();
+      try {
+        flushAccesses();
+        for (RuleKey contentHash : hashes) {
+          storeArtifact.setBytes(1, getBytes(contentHash));
+          storeArtifact.setBytes(2, artifact);
+          storeArtifact.setLong(3, size);
+          storeArtifact.addBatch();
+        }
+        storeArtifact.executeBatch();
+      } finally {
+        writeLock.unlock();
+      }
     }
 
-    private synchronized void deleteContent(RuleKey contentHash) throws SQLException {
-      deleteContentForHash.setBytes(1, getBytes(contentHash));
-      deleteContentForHash.executeUpdate();
+    private void storeFilepath(Iterable<RuleKey> ruleKeys, String filepath, long size)
+        throws SQLException {
+      writeLock.lock();
+      try {
+        flushAccesses();
+        for (RuleKey ruleKey : ruleKeys) {
+          storeFilepath.setBytes(1, getBytes(ruleKey));
+          storeFilepath.setString(2, filepath);
+          storeFilepath.setLong(3, size);
+          storeFilepath.addBatch();
+        }
+        storeFilepath.executeBatch();
+      } finally {
+        writeLock.unlock();
+      }
     }
 
-    private synchronized long totalSize() throws SQLException {
-      ResultSet rs = contentSize.executeQuery();
-      if (!rs.next()) {
-        throw new SQLException("Query failed: total size of artifacts");
+    private int deleteMetadata(Timestamp evictionCutoff) throws SQLException {
+      writeLock.lock();
+      try {
+        flushAccesses();
+        deleteMetadataBeforeCutoff.setTimestamp(1, evictionCutoff);
+        return deleteMetadataBeforeCutoff.executeUpdate();
+      } finally {
+        writeLock.unlock();
       }
-
-      return rs.getLong(1);
     }
 
-    private synchronized Pair<Iterable<String>, Timestamp> getContentToEvict(long minToDelete)
-        throws SQLException {
-      ImmutableList.Builder<String> filepaths = ImmutableList.builder();
-      long deleted = 0;
+    private int deleteContent(Timestamp evictionCutoff) throws SQLException {
+      writeLock.lock();
+      try {
+        flushAccesses();
+        deleteContentBeforeCutoff.setTimestamp(1, evictionCutoff);
+        return deleteContentBeforeCutoff.executeUpdate();
+      } finally {
+        writeLock.unlock();
+      }
+    }
 
-      ResultSet artifacts = selectContentByTime.executeQuery();
-      while (deleted < minToDelete && artifacts.next()) {
-        String filepath = artifacts.getString(1);
-        long sizeBytes = artifacts.getLong(2);
+    private void deleteContent(RuleKey contentHash) throws SQLException {
+      writeLock.lock();
+      try {
+        deleteContentForHash.setBytes(1, getBytes(contentHash));
+        deleteContentForHash.executeUpdate();
+      } finally {
+        writeLock.unlock();
+      }
+    }
 
-        // from database constraint, exactly one of filepath/artifact is null
-        if (Objects.nonNull(filepath)) {
-          LOG.verbose("Deleting path [%s] of total size [%d] bytes.", filepath, sizeBytes);
-          filepaths.add(filepath);
-        } else {
-          LOG.verbose("Deleting inlined artifact of size [%d] bytes.", sizeBytes);
+    private long totalSize() throws SQLException {
+      writeLock.lock();
+      try (ResultSet rs = contentSize.executeQuery()) {
+        if (!rs.next()) {
+          throw new SQLException("Query failed: total size of artifacts");
         }
 
-        deleted += sizeBytes;
+        return rs.getLong(1);
+      } finally {
+        writeLock.unlock();
       }
+    }
 
-      Timestamp evictionCutoff;
-      if (artifacts.next()) {
-        evictionCutoff = artifacts.getTimestamp(3);
-      } else {
-        evictionCutoff = Timestamp.from(Instant.now());
-      }
+    /**
+     * Returns this shard's least recently accessed content, oldest first, until at least {@code
+     * minToDelete} bytes are covered, followed by the next oldest entry if there is one.
+     */
+    private ImmutableList<EvictionCandidate> getEvictionCandidates(long minToDelete)
+        throws SQLException {
+      writeLock.lock();
+      try {
+        flushAccesses();
+        ImmutableList.Builder<EvictionCandidate> candidates = ImmutableList.builder();
+        long covered = 0;
+
+        try (ResultSet artifacts = selectContentByTime.executeQuery()) {
+          while (artifacts.next()) {
+            long sizeBytes = artifacts.getLong(2);
+            candidates.add(
+                new EvictionCandidate(
+                    artifacts.getString(1), sizeBytes, artifacts.getTimestamp(3)));
+            if (covered >= minToDelete) {
+              break;
+            }
+            covered += sizeBytes;
+          }
+        }
 
-      return new Pair<>(filepaths.build(), evictionCutoff);
+        return candidates.build();
+      } finally {
+        writeLock.unlock();
+      }
     }
 
     private static byte[] getBytes(RuleKey ruleKey) {
@@ -755,14 +993,49 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
 
     private void close() {
+      writeLock.lock();
       try {
+        flushAccesses();
+        for (Reader reader = idleReaders.poll(); reader != null; reader = idleReaders.poll()) {
+          reader.connection.close();
+        }
         connection.close();
       } catch (SQLException e) {
         throw new RuntimeException(e);
+      } finally {
+        writeLock.unlock();
       }
     }
   }
 
+  /** A read-only connection to a shard, with the lookup statements prepared on it. */
+  private static class Reader {
+    private final Connection connection;
+    private final PreparedStatement fetchMetadata;
+    private final PreparedStatement fetchContent;
+
+    private Reader(Connection connection) throws SQLException {
+      this.connection = connection;
+      this.fetchMetadata =
+          connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
+      this.fetchContent =
+          connection.prepareStatement(
+              "SELECT artifact, filepath, size FROM content WHERE sha1 = ?");
+    }
+  }
+
+  private static class EvictionCandidate {
+    @Nullable private final String filepath;
+    private final long size;
+    private final Timestamp accessed;
+
+    EvictionCandidate(@Nullable String filepath, long size, Timestamp accessed) {
+      this.filepath = filepath;
+      this.size = size;
+      this.accessed = accessed;
+    }
+  }
+
   private static class Content {
     private final byte[] artifact;
     private final String filepath;
@@ -32,7 +32,6 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.types.Pair;
 import com.facebook.buck.util.types.Unit;
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -61,7 +60,7 @@ import javax.annotation.Nullable;
  */
 public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
 
-  @VisibleForTesting static final String METADATA_KEY = "TWO_LEVEL_CACHE_CONTENT_HASH";
+  static final String METADATA_KEY = "TWO_LEVEL_CACHE_CONTENT_HASH";
   private static final String COUNTER_CATEGORY = "buck_two_level_cache_stats";
 
   private static final Logger LOG = Logger.get(TwoLevelArtifactCacheDecorator.class);
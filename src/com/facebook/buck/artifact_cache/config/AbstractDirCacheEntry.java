@@ -31,4 +31,15 @@ abstract class AbstractDirCacheEntry {
   public abstract Optional<Long> getMaxSizeBytes();
 
   public abstract CacheReadMode getCacheReadMode();
+
+  @Value.Default
+  public DirCacheLayout getLayout() {
+    return DirCacheLayout.RULE_KEY;
+  }
+
+  /** Whether eviction is driven by a persistent access log instead of walking the cache. */
+  @Value.Default
+  public boolean isEvictionIndexEnabled() {
+    return false;
+  }
 }
@@ -48,6 +48,12 @@ abstract class AbstractHttpCacheEntry {
 
   public abstract Optional<Long> getMaxStoreSize();
 
+  /** Whether fetched artifacts are unpacked while they download, instead of afterwards. */
+  @Value.Default
+  public boolean isStreamingFetchEnabled() {
+    return false;
+  }
+
   // We're connected to a wifi hotspot that has been explicitly blacklisted from connecting to
   // a distributed cache.
   public boolean isWifiUsableForDistributedCache(Optional<String> currentWifiSsid) {
@@ -33,4 +33,16 @@ abstract class AbstractSQLiteCacheEntry {
   public abstract Optional<Long> getMaxInlinedSizeBytes();
 
   public abstract CacheReadMode getCacheReadMode();
+
+  /** Number of database files the metadata and content tables are sharded across. */
+  @Value.Default
+  public int getShards() {
+    return 1;
+  }
+
+  /** Maximum number of read-only connections opened per shard. */
+  @Value.Default
+  public int getReadersPerShard() {
+    return 1;
+  }
 }
@@ -61,6 +61,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String HTTP_CACHE_ERROR_MESSAGE_NAME = "http_error_message_format";
   private static final String HTTP_CACHE_ERROR_MESSAGE_LIMIT_NAME = "http_error_message_limit";
   private static final String HTTP_MAX_STORE_SIZE = "http_max_store_size";
+  private static final String HTTP_STREAMING_FETCH = "http_streaming_fetch";
   private static final String HTTP_THREAD_POOL_SIZE = "http_thread_pool_size";
   private static final String HTTP_THREAD_POOL_KEEP_ALIVE_DURATION_MILLIS =
       "http_thread_pool_keep_alive_duration_millis";
@@ -86,6 +87,8 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String DIR_MODE_FIELD = "dir_mode";
   private static final String DIR_MAX_SIZE_FIELD = "dir_max_size";
   private static final String DIR_CACHE_NAMES_FIELD_NAME = "dir_cache_names";
+  private static final String DIR_LAYOUT_FIELD = "dir_layout";
+  private static final String DIR_EVICTION_INDEX_FIELD = "dir_eviction_index";
   private static final ImmutableSet<String> DIR_CACHE_DESCRIPTION_FIELDS =
       ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD);
 
@@ -106,6 +109,8 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String SQLITE_MAX_SIZE_FIELD = "sqlite_max_size";
   private static final String SQLITE_MAX_INLINED_SIZE_FIELD = "sqlite_inlined_size";
   private static final String SQLITE_CACHE_NAMES_FIELD_NAME = "sqlite_cache_names";
+  private static final String SQLITE_SHARDS_FIELD = "sqlite_shards";
+  private static final String SQLITE_READERS_PER_SHARD_FIELD = "sqlite_readers_per_shard";
 
   private static final String SERVED_CACHE_ENABLED_FIELD_NAME = "serve_local_cache";
   private static final String DEFAULT_SERVED_CACHE_MODE = CacheReadMode.READONLY.name();
@@ -135,6 +140,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   public static final String MULTI_FETCH = "multi_fetch";
   private static final String MULTI_FETCH_LIMIT = "multi_fetch_limit";
   public static final String MULTI_CHECK = "multi_check";
+  private static final String LAYERED_MULTI_FETCH = "layered_multi_fetch";
   private static final int DEFAULT_MULTI_FETCH_LIMIT = 100;
 
   private static final String ENV_VAR_SUFFIX = "_env_var";
@@ -163,6 +169,14 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     return buckConfig.getBooleanValue(CACHE_SECTION_NAME, MULTI_CHECK, false);
   }
 
+  /**
+   * Whether fetches should be queued and sent through the configured caches in batches, with hits
+   * written back to the earlier caches in a single store.
+   */
+  public boolean getLayeredMultiFetchEnabled() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, LAYERED_MULTI_FETCH, false);
+  }
+
   @Override
   public BuckConfig getDelegate() {
     return buckConfig;
@@ -511,11 +525,19 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     Optional<Long> maxSizeBytes =
         buckConfig.getValue(section, DIR_MAX_SIZE_FIELD).map(SizeUnit::parseBytes);
 
+    DirCacheLayout layout =
+        buckConfig
+            .getEnum(section, DIR_LAYOUT_FIELD, DirCacheLayout.class)
+            .orElse(DirCacheLayout.RULE_KEY);
+
     return DirCacheEntry.builder()
         .setName(cacheName)
         .setCacheDir(pathToCacheDir)
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
+        .setLayout(layout)
+        .setEvictionIndexEnabled(
+            buckConfig.getBooleanValue(section, DIR_EVICTION_INDEX_FIELD, false))
         .build();
   }
 
@@ -552,6 +574,8 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
             CACHE_SECTION_NAME, HTTP_CACHE_ERROR_MESSAGE_NAME, DEFAULT_HTTP_CACHE_ERROR_MESSAGE));
     builder.setErrorMessageLimit(getErrorMessageLimit());
     builder.setMaxStoreSize(buckConfig.getLong(CACHE_SECTION_NAME, HTTP_MAX_STORE_SIZE));
+    builder.setStreamingFetchEnabled(
+        buckConfig.getBooleanValue(CACHE_SECTION_NAME, HTTP_STREAMING_FETCH, false));
 
     return builder.build();
   }
@@ -572,13 +596,18 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     Optional<Long> maxInlinedSizeBytes =
         buckConfig.getValue(section, SQLITE_MAX_INLINED_SIZE_FIELD).map(SizeUnit::parseBytes);
 
-    return SQLiteCacheEntry.builder()
-        .setName(cacheName)
-        .setCacheDir(pathToCacheDir)
-        .setCacheReadMode(readMode)
-        .setMaxSizeBytes(maxSizeBytes)
-        .setMaxInlinedSizeBytes(maxInlinedSizeBytes)
-        .build();
+    SQLiteCacheEntry.Builder builder =
+        SQLiteCacheEntry.builder()
+            .setName(cacheName)
+            .setCacheDir(pathToCacheDir)
+            .setCacheReadMode(readMode)
+            .setMaxSizeBytes(maxSizeBytes)
+            .setMaxInlinedSizeBytes(maxInlinedSizeBytes);
+    buckConfig.getInteger(section, SQLITE_SHARDS_FIELD).ifPresent(builder::setShards);
+    buckConfig
+        .getInteger(section, SQLITE_READERS_PER_SHARD_FIELD)
+        .ifPresent(builder::setReadersPerShard);
+    return builder.build();
   }
 
   public ImmutableSet<String> getBlacklistedWifiSsids() {
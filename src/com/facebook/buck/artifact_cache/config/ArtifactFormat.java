@@ -0,0 +1,26 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache.config;
+
+/** Describes how the outputs of a rule are packed into an artifact before storing it in a cache. */
+public enum ArtifactFormat {
+  // A tarball compressed as a single zstd stream.
+  TAR_ZSTD,
+  // A zstd archive: every file is compressed on its own and an index at the end of the archive
+  // locates them, so single files can be read without unpacking the rest.
+  ZSTD_ARCHIVE,
+}
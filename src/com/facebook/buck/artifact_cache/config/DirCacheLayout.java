@@ -0,0 +1,26 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache.config;
+
+/** Describes how a dir cache arranges its entries on disk. */
+public enum DirCacheLayout {
+  // One artifact file and one metadata file per rule key.
+  RULE_KEY,
+  // One blob per distinct artifact content, plus a metadata file and a small index file per rule
+  // key naming the blob. Identical outputs of different rule keys are stored once.
+  CONTENT_ADDRESSED,
+}
@@ -39,6 +39,10 @@ import com.facebook.buck.util.json.ObjectMappers;
 import com.facebook.buck.util.types.Pair;
 import com.facebook.buck.util.unarchive.ArchiveFormat;
 import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.facebook.buck.util.unarchive.Unarchiver;
+import com.facebook.buck.util.zstd.ZstdArchiveFormat;
+import com.facebook.buck.util.zstd.ZstdArchiveUnarchiver;
+import com.facebook.buck.util.zstd.ZstdDictionaryStore;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
@@ -363,14 +367,16 @@ public class CacheCommand extends AbstractCommand {
     }
     ImmutableList<Path> paths;
     try {
+      Unarchiver unarchiver =
+          ZstdArchiveFormat.isZstdArchive(artifact)
+              ? new ZstdArchiveUnarchiver(ZstdDictionaryStore.inMemory())
+              : ArchiveFormat.TAR_ZSTD.getUnarchiver();
       paths =
-          ArchiveFormat.TAR_ZSTD
-              .getUnarchiver()
-              .extractArchive(
-                  projectFilesystemFactory,
-                  artifact.toAbsolutePath(),
-                  tmpDir,
-                  ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+          unarchiver.extractArchive(
+              projectFilesystemFactory,
+              artifact.toAbsolutePath(),
+              tmpDir,
+              ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
     } catch (IOException e) {
       resultString.append(String.format("%s %s !(Unable to extract) %s\n", ruleKey, buckTarget, e));
       return false;
@@ -141,6 +141,10 @@ public class FetchCommand extends BuildCommand {
                   cachingBuildEngineBuckConfig.getBuildDepFiles(),
                   cachingBuildEngineBuckConfig.getBuildMaxDepFileCacheEntries(),
                   cachingBuildEngineBuckConfig.getBuildArtifactCacheSizeLimit(),
+                  cachingBuildEngineBuckConfig.getBuildArtifactPrefetchSizeLimit(),
+                  cachingBuildEngineBuckConfig.getBuildArtifactFormat(),
+                  cachingBuildEngineBuckConfig.isLazyCacheMaterializationEnabled(),
+                  cachingBuildEngineBuckConfig.getBuildRuleDurationStoreIfEnabled(),
                   actionGraphAndBuilder.getActionGraphBuilder(),
                   actionGraphAndBuilder.getBuildEngineActionToBuildRuleResolver(),
                   params.getTargetConfigurationSerializer(),
@@ -20,6 +20,7 @@ import static com.facebook.buck.util.string.MoreStrings.linesToText;
 import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactCaches;
 import com.facebook.buck.artifact_cache.ClientCertificateHandler;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
@@ -1341,7 +1342,8 @@ public final class MainRunner {
                   manifestServiceSupplier,
                   fileHashCache,
                   buildTargetFactory,
-                  targetSpecResolver);
+                  targetSpecResolver,
+                  artifactCacheFactory::newInstance);
 
           // Because the Parser is potentially constructed before the CounterRegistry,
           // we need to manually register its counters after it's created.
@@ -1734,7 +1736,8 @@ public final class MainRunner {
       ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
       FileHashLoader fileHashLoader,
       UnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory,
-      TargetSpecResolver targetSpecResolver)
+      TargetSpecResolver targetSpecResolver,
+      Supplier<ArtifactCache> artifactCacheSupplier)
       throws IOException, InterruptedException {
     Optional<WatchmanWatcher> watchmanWatcher = Optional.empty();
     if (watchman.getTransportPath().isPresent()) {
@@ -1790,7 +1793,8 @@ public final class MainRunner {
             buildEventBus,
             manifestServiceSupplier,
             fileHashLoader,
-            unconfiguredBuildTargetFactory),
+            unconfiguredBuildTargetFactory,
+            artifactCacheSupplier),
         buckGlobalState.getTypeCoercerFactory(),
         new InstrumentedVersionedTargetGraphCache(
             buckGlobalState.getVersionedTargetGraphCache(), new InstrumentingCacheStatsTracker()),
@@ -604,6 +604,10 @@ public class TestCommand extends BuildCommand {
                     cachingBuildEngineBuckConfig.getBuildDepFiles(),
                     cachingBuildEngineBuckConfig.getBuildMaxDepFileCacheEntries(),
                     cachingBuildEngineBuckConfig.getBuildArtifactCacheSizeLimit(),
+                    cachingBuildEngineBuckConfig.getBuildArtifactPrefetchSizeLimit(),
+                    cachingBuildEngineBuckConfig.getBuildArtifactFormat(),
+                    cachingBuildEngineBuckConfig.isLazyCacheMaterializationEnabled(),
+                    cachingBuildEngineBuckConfig.getBuildRuleDurationStoreIfEnabled(),
                     actionGraphAndBuilder.getActionGraphBuilder(),
                     actionGraphAndBuilder.getBuildEngineActionToBuildRuleResolver(),
                     params.getTargetConfigurationSerializer(),
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -121,7 +122,7 @@ public class ThriftOutput<T> {
       nodeToAttributesFunction.apply(node).forEach(fromNode::putToNodeAttributes);
       thriftDag.addToNodes(fromNode);
 
-      ImmutableSet<T> outgoingNodes =
+      Set<T> outgoingNodes =
           Optional.ofNullable(graph.getOutgoingNodesFor(node)).orElseGet(() -> ImmutableSet.of());
       for (T outgoingNode : outgoingNodes) {
         if (!filterPredicate.test(outgoingNode)) {
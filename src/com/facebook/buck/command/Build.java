@@ -290,9 +290,7 @@ public class Build implements Closeable {
       throws IOException {
     setupBuildSymlinks();
 
-    return rulesToBuild.stream()
-        .map(rule -> buildEngine.build(buildContext, executionContext, rule))
-        .collect(ImmutableList.toImmutableList());
+    return buildEngine.build(buildContext, executionContext, rulesToBuild);
   }
 
   private BuildExecutionResult waitForBuildToFinish(
@@ -177,6 +177,10 @@ public class BuildExecutor {
         engineConfig.getBuildDepFiles(),
         engineConfig.getBuildMaxDepFileCacheEntries(),
         engineConfig.getBuildArtifactCacheSizeLimit(),
+        engineConfig.getBuildArtifactPrefetchSizeLimit(),
+        engineConfig.getBuildArtifactFormat(),
+        engineConfig.isLazyCacheMaterializationEnabled(),
+        engineConfig.getBuildRuleDurationStoreIfEnabled(),
         actionGraphAndBuilder.getActionGraphBuilder(),
         actionGraphAndBuilder.getBuildEngineActionToBuildRuleResolver(),
         targetConfigurationSerializer,
@@ -24,6 +24,7 @@ import com.facebook.buck.core.model.UnconfiguredBuildTargetView;
 import com.facebook.buck.core.util.immutables.BuckStyleTuple;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.google.common.annotations.VisibleForTesting;
+import java.nio.file.Path;
 import java.util.Optional;
 import org.immutables.value.Value;
 
@@ -47,6 +48,15 @@ public abstract class AbstractBuildBuckConfig implements ConfigView<BuckConfig>
     return getDelegate().getInteger(CACHE_SECTION, "max_action_graph_cache_entries").orElse(1);
   }
 
+  /**
+   * @return the maximum number of rule keys the daemon keeps between builds, or empty if they
+   *     aren't bounded.
+   */
+  @Value.Lazy
+  public Optional<Long> getMaxRuleKeyCacheEntries() {
+    return getDelegate().getLong(CACHE_SECTION, "max_rule_key_cache_entries");
+  }
+
   /**
    * Whether Buck should use Buck binary hash or git commit id as the core key in all rule keys.
    *
@@ -240,6 +250,17 @@ public abstract class AbstractBuildBuckConfig implements ConfigView<BuckConfig>
         .orElse(FileHashCacheMode.DEFAULT);
   }
 
+  /**
+   * @return the directory in which to keep file hashes across daemon restarts with {@link
+   *     FileHashCacheMode#PERSISTENT_PREFIX_TREE}, if not the default one in buck-out.
+   */
+  @Value.Lazy
+  public Optional<Path> getPersistentFileHashCacheDir() {
+    return getDelegate()
+        .getPath(BUILD_SECTION, "persistent_file_hash_cache_dir", false)
+        .map(getDelegate()::resolvePathThatMayBeOutsideTheProjectFilesystem);
+  }
+
   /** @return a target that points to a {@code platform} rule that describes the host platform. */
   @Value.Lazy
   public Optional<UnconfiguredBuildTargetView> getHostPlatform() {
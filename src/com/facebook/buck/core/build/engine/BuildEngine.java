@@ -20,6 +20,7 @@ import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
@@ -38,6 +39,16 @@ public interface BuildEngine {
   BuildEngineResult build(
       BuildEngineBuildContext buildContext, ExecutionContext executionContext, BuildRule rule);
 
+  /** Build the given build rules and return a future to the success of each, in the same order. */
+  default ImmutableList<BuildEngineResult> build(
+      BuildEngineBuildContext buildContext,
+      ExecutionContext executionContext,
+      ImmutableList<BuildRule> rules) {
+    return rules.stream()
+        .map(rule -> build(buildContext, executionContext, rule))
+        .collect(ImmutableList.toImmutableList());
+  }
+
   /**
    * Returns the build result of the build rule associated with the given build target. Returns
    * {@code null} if the build rule has not yet been built.
@@ -107,6 +107,11 @@ public class BuildInfo {
    */
   public static final String MANIFEST = "MANIFEST";
 
+  /**
+   * Name of the file holding the cache artifact of a rule whose outputs have not been unpacked yet.
+   */
+  public static final String PENDING_ARTIFACT = "PENDING_ARTIFACT";
+
   /** Utility class: do not instantiate. */
   private BuildInfo() {}
 
@@ -19,6 +19,7 @@ package com.facebook.buck.core.build.engine.cache.manager;
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.ExtractingLazyPath;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
@@ -36,16 +37,27 @@ import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.util.unarchive.ArchiveFormat;
 import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.facebook.buck.util.unarchive.Unarchiver;
+import com.facebook.buck.util.unarchive.Untar;
+import com.facebook.buck.util.zstd.ZstdArchiveFormat;
+import com.facebook.buck.util.zstd.ZstdArchiveUnarchiver;
+import com.facebook.buck.util.zstd.ZstdDictionaryStore;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.Optional;
 
 public class BuildCacheArtifactFetcher {
 
@@ -117,20 +129,73 @@ public class BuildCacheArtifactFetcher {
   public ListenableFuture<CacheResult>
       tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
           RuleKey ruleKey, ArtifactCache artifactCache, ProjectFilesystem filesystem) {
+    return tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
+        ruleKey, artifactCache, filesystem, /* deferOutputs */ false);
+  }
+
+  /**
+   * Fetches the artifact of the rule and unpacks it.
+   *
+   * @param deferOutputs if true, only the metadata of the artifact is unpacked, and the artifact is
+   *     kept for {@link BuildCacheArtifactMaterializer} to unpack the outputs once they are needed.
+   */
+  public ListenableFuture<CacheResult>
+      tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
+          RuleKey ruleKey,
+          ArtifactCache artifactCache,
+          ProjectFilesystem filesystem,
+          boolean deferOutputs) {
     if (!rule.isCacheable()) {
       return Futures.immediateFuture(CacheResult.ignored());
     }
 
     // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
     // that we are creating a zip-based FileSystem.
-    LazyPath lazyZipPath =
-        new LazyPath() {
+    ExtractingLazyPath lazyZipPath =
+        new ExtractingLazyPath() {
           @Override
           protected Path create() throws IOException {
             return Files.createTempFile(
                 "buck_artifact_" + MostFiles.sanitize(rule.getBuildTarget().getShortName()),
                 ".zip");
           }
+
+          @Override
+          protected Optional<ImmutableSet<Path>> extract(
+              ImmutableMap<String, String> metadata, InputStream artifact) throws IOException {
+            if (deferOutputs || !metadata.containsKey(BuildInfo.MetadataKey.ORIGIN_BUILD_ID)) {
+              // Leave it to extractArtifactFromCacheResult() to unpack or reject this artifact.
+              return Optional.empty();
+            }
+            try (Scope ignored = buildRuleScope()) {
+              onOutputsWillChange.call();
+              InputStream stream = new BufferedInputStream(artifact);
+              stream.mark(ZstdArchiveFormat.MAGIC_LENGTH);
+              boolean isZstdArchive = ZstdArchiveFormat.isZstdArchive(stream);
+              stream.reset();
+              if (isZstdArchive) {
+                return Optional.of(
+                    new ZstdArchiveUnarchiver(ZstdDictionaryStore.inMemory())
+                        .extractArchive(
+                            stream, filesystem, ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES));
+              }
+              return Optional.of(
+                  Untar.zstdUnarchiver()
+                      .extractArchive(
+                          stream, filesystem, ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES));
+            }
+          }
+
+          @Override
+          protected void discard(ImmutableSet<Path> extractedPaths) throws IOException {
+            try (Scope ignored = buildRuleScope()) {
+              // The metadata may have been overwritten by the invalid artifact.
+              onDiskBuildInfo.deleteExistingMetadata();
+              for (Path path : extractedPaths) {
+                filesystem.deleteFileAtPathIfExists(path);
+              }
+            }
+          }
         };
 
     // TODO(mbolin): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
@@ -158,7 +223,8 @@ public class BuildCacheArtifactFetcher {
                 }
 
                 return Futures.immediateFuture(
-                    extractArtifactFromCacheResult(ruleKey, lazyZipPath, filesystem, cacheResult));
+                    extractArtifactFromCacheResult(
+                        ruleKey, lazyZipPath, filesystem, cacheResult, deferOutputs));
               }
             },
             executorService),
@@ -207,7 +273,11 @@ public class BuildCacheArtifactFetcher {
   }
 
   private CacheResult extractArtifactFromCacheResult(
-      RuleKey ruleKey, LazyPath lazyZipPath, ProjectFilesystem filesystem, CacheResult cacheResult)
+      RuleKey ruleKey,
+      ExtractingLazyPath lazyZipPath,
+      ProjectFilesystem filesystem,
+      CacheResult cacheResult,
+      boolean deferOutputs)
       throws IOException {
 
     // We only unpack artifacts from hits.
@@ -215,7 +285,13 @@ public class BuildCacheArtifactFetcher {
       LOG.debug("Cache miss for '%s' with rulekey '%s'", rule, ruleKey);
       return cacheResult;
     }
-    onOutputsWillChange.call();
+
+    // The cache may already have unpacked the artifact while downloading it, in which case the
+    // outputs have been replaced and must not be cleared again.
+    Optional<ImmutableSet<Path>> streamedFiles = lazyZipPath.getExtractedPaths();
+    if (!streamedFiles.isPresent()) {
+      onOutputsWillChange.call();
+    }
 
     Preconditions.checkState(cacheResult.metadata().isPresent());
     Preconditions.checkArgument(cacheResult.getType() == CacheResultType.HIT);
@@ -252,20 +328,59 @@ public class BuildCacheArtifactFetcher {
           ruleKey,
           BuildInfo.MetadataKey.ORIGIN_BUILD_ID);
 
-      ImmutableSet<Path> extractedFiles =
-          ArchiveFormat.TAR_ZSTD
-              .getUnarchiver()
-              .extractArchive(
+      ImmutableSet<Path> extractedFiles;
+      if (streamedFiles.isPresent()) {
+        extractedFiles = streamedFiles.get();
+      } else {
+        Unarchiver unarchiver =
+            ZstdArchiveFormat.isZstdArchive(zipPath)
+                ? new ZstdArchiveUnarchiver(ZstdDictionaryStore.inMemory())
+                : ArchiveFormat.TAR_ZSTD.getUnarchiver();
+        if (deferOutputs) {
+          // Only unpack the artifact metadata, which is all the build engine reads until something
+          // needs the outputs themselves.
+          Path metadataDirectory =
+              BuildInfo.getPathToArtifactMetadataDirectory(rule.getBuildTarget(), filesystem);
+          extractedFiles =
+              unarchiver.extractArchive(
+                  zipPath.toAbsolutePath(),
+                  filesystem,
+                  metadataDirectory,
+                  Optional.of(metadataDirectory),
+                  ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+        } else {
+          extractedFiles =
+              unarchiver.extractArchive(
                   zipPath.toAbsolutePath(),
                   filesystem,
                   ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+        }
+      }
 
-      onDiskBuildInfo.validateArtifact(extractedFiles);
-      fullSize = Long.parseLong(onDiskBuildInfo.getValue(BuildInfo.MetadataKey.OUTPUT_SIZE).get());
+      if (deferOutputs && !streamedFiles.isPresent()) {
+        // The outputs aren't on disk, so only check that the metadata is there.
+        for (String key :
+            ImmutableList.of(
+                BuildInfo.MetadataKey.RECORDED_PATHS, BuildInfo.MetadataKey.OUTPUT_SIZE)) {
+          if (!onDiskBuildInfo.getValue(key).isPresent()) {
+            throw new IOException(String.format("Artifact is missing metadata for key %s", key));
+          }
+        }
+        fullSize =
+            Long.parseLong(onDiskBuildInfo.getValue(BuildInfo.MetadataKey.OUTPUT_SIZE).get());
+        Path pendingArtifact = BuildCacheArtifactMaterializer.getPendingArtifactPath(rule);
+        filesystem.mkdirs(pendingArtifact.getParent());
+        Files.move(
+            zipPath, filesystem.resolve(pendingArtifact), StandardCopyOption.REPLACE_EXISTING);
+      } else {
+        onDiskBuildInfo.validateArtifact(extractedFiles);
+        fullSize =
+            Long.parseLong(onDiskBuildInfo.getValue(BuildInfo.MetadataKey.OUTPUT_SIZE).get());
 
-      // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave it
-      // around for debugging purposes.
-      Files.delete(zipPath);
+        // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave
+        // it around for debugging purposes.
+        Files.delete(zipPath);
+      }
 
       // TODO(cjhopman): This should probably record metadata with the buildInfoRecorder, not
       // directly into the buildInfoStore.
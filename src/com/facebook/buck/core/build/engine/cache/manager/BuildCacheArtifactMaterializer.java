@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.cache.manager;
+
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.unarchive.ArchiveFormat;
+import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.facebook.buck.util.unarchive.Unarchiver;
+import com.facebook.buck.util.zstd.ZstdArchiveFormat;
+import com.facebook.buck.util.zstd.ZstdArchiveUnarchiver;
+import com.facebook.buck.util.zstd.ZstdDictionaryStore;
+import com.google.common.util.concurrent.Striped;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Unpacks the outputs of rules whose cache artifacts were fetched without unpacking them.
+ *
+ * <p>With lazy cache materialization, {@link BuildCacheArtifactFetcher} only unpacks the metadata
+ * of an artifact fetched by rule key and keeps the artifact itself with the rule's other metadata.
+ * The outputs are unpacked the first time something reads them: a rule that depends on them being
+ * built, or the rule being one of the targets of the build. Rules whose dependents are fetched from
+ * the cache as well never have their outputs written to disk.
+ */
+public class BuildCacheArtifactMaterializer {
+
+  private static final Logger LOG = Logger.get(BuildCacheArtifactMaterializer.class);
+
+  private final Striped<Lock> locks = Striped.lock(64);
+
+  /** @return the path of the artifact whose outputs are waiting to be unpacked for the rule. */
+  public static Path getPendingArtifactPath(BuildRule rule) {
+    return BuildInfo.getPathToOtherMetadataDirectory(
+            rule.getBuildTarget(), rule.getProjectFilesystem())
+        .resolve(BuildInfo.PENDING_ARTIFACT);
+  }
+
+  /** Forgets the pending artifact of a rule whose outputs are about to be replaced. */
+  public static void discardPendingArtifact(BuildRule rule) throws IOException {
+    rule.getProjectFilesystem().deleteFileAtPathIfExists(getPendingArtifactPath(rule));
+  }
+
+  /**
+   * Unpacks the outputs of the rule and of its runtime deps, transitively, which are needed to use
+   * those outputs.
+   */
+  public void materialize(BuildRule rule, RuleDepsCache ruleDeps) throws IOException {
+    Set<BuildRule> seen = new HashSet<>();
+    Deque<BuildRule> toMaterialize = new ArrayDeque<>();
+    seen.add(rule);
+    toMaterialize.add(rule);
+    while (!toMaterialize.isEmpty()) {
+      BuildRule next = toMaterialize.remove();
+      materialize(next);
+      for (BuildRule runtimeDep : ruleDeps.getRuntimeDeps(next)) {
+        if (seen.add(runtimeDep)) {
+          toMaterialize.add(runtimeDep);
+        }
+      }
+    }
+  }
+
+  /** Unpacks the outputs of the rule, if they haven't been already. */
+  public void materialize(BuildRule rule) throws IOException {
+    ProjectFilesystem filesystem = rule.getProjectFilesystem();
+    Path pendingArtifact = getPendingArtifactPath(rule);
+    if (!filesystem.exists(pendingArtifact)) {
+      return;
+    }
+
+    Lock lock = locks.get(rule.getBuildTarget());
+    lock.lock();
+    try {
+      // Another dependent may have unpacked the outputs while we were waiting.
+      if (!filesystem.exists(pendingArtifact)) {
+        return;
+      }
+      LOG.debug("Unpacking the outputs of %s fetched from the cache.", rule);
+      Path artifact = filesystem.resolve(pendingArtifact);
+      Unarchiver unarchiver =
+          ZstdArchiveFormat.isZstdArchive(artifact)
+              ? new ZstdArchiveUnarchiver(ZstdDictionaryStore.inMemory())
+              : ArchiveFormat.TAR_ZSTD.getUnarchiver();
+      try {
+        unarchiver.extractArchive(
+            artifact, filesystem, ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+      } catch (IOException e) {
+        throw new IOException(
+            String.format(
+                "%s unpacking the outputs of %s fetched from the cache. "
+                    + "Suggested fix: try `buck clean`",
+                e.getMessage(), rule.getBuildTarget()),
+            e);
+      }
+      filesystem.deleteFileAtPath(pendingArtifact);
+    } finally {
+      lock.unlock();
+    }
+  }
+}
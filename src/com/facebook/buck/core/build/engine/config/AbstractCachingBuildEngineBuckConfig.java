@@ -15,12 +15,15 @@
  */
 package com.facebook.buck.core.build.engine.config;
 
+import com.facebook.buck.artifact_cache.config.ArtifactFormat;
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
+import com.facebook.buck.core.build.stats.BuildRuleDurationStore;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.ConfigView;
 import com.facebook.buck.core.resources.ResourcesConfig;
 import com.facebook.buck.core.util.immutables.BuckStyleTuple;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.manifestservice.ManifestService;
 import com.facebook.buck.util.ThrowingCloseableMemoizedSupplier;
 import java.io.IOException;
@@ -62,6 +65,51 @@ abstract class AbstractCachingBuildEngineBuckConfig implements ConfigView<BuckCo
     return getDelegate().getLong("build", "artifact_cache_size_limit");
   }
 
+  /**
+   * @return how many bytes of artifacts the build engine may fetch ahead of the rules that need
+   *     them, or empty to not fetch ahead at all.
+   */
+  public Optional<Long> getBuildArtifactPrefetchSizeLimit() {
+    return getDelegate().getLong("build", "artifact_prefetch_size_limit");
+  }
+
+  /** @return how the build engine packs the outputs of a rule into an artifact. */
+  public ArtifactFormat getBuildArtifactFormat() {
+    return getDelegate()
+        .getEnum("build", "artifact_format", ArtifactFormat.class)
+        .orElse(ArtifactFormat.TAR_ZSTD);
+  }
+
+  /**
+   * @return whether the outputs of rules fetched from the cache are only unpacked once a rule that
+   *     depends on them is built, or once they are requested.
+   */
+  public boolean isLazyCacheMaterializationEnabled() {
+    return getDelegate().getBooleanValue("build", "lazy_cache_materialization", false);
+  }
+
+  /**
+   * @return whether the build engine gives threads and resources to the rules with the longest
+   *     remaining critical path first, going by how long rules took in previous builds.
+   */
+  public boolean isCriticalPathSchedulingEnabled() {
+    return getDelegate().getBooleanValue("build", "critical_path_scheduling", false);
+  }
+
+  /**
+   * @return the durations of rules in previous builds to schedule by, if scheduling by critical
+   *     path is enabled.
+   */
+  public Optional<BuildRuleDurationStore> getBuildRuleDurationStoreIfEnabled() {
+    if (!isCriticalPathSchedulingEnabled()) {
+      return Optional.empty();
+    }
+    ProjectFilesystem filesystem = getDelegate().getFilesystem();
+    return Optional.of(
+        BuildRuleDurationStore.load(
+            filesystem.resolve(filesystem.getBuckPaths().getBuckOut().resolve("rule_durations"))));
+  }
+
   /** @return whether the ManifestService should be used for ManifestRuleKey caching. */
   public boolean isManifestServiceEnabled() {
     return getDelegate().getBooleanValue("build", "enable_manifest_service", false);
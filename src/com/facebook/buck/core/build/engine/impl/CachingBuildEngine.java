@@ -18,6 +18,8 @@ package com.facebook.buck.core.build.engine.impl;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.PrefetchingArtifactCache;
+import com.facebook.buck.artifact_cache.config.ArtifactFormat;
 import com.facebook.buck.core.build.action.resolver.BuildEngineActionToBuildRuleResolver;
 import com.facebook.buck.core.build.buildable.context.BuildableContext;
 import com.facebook.buck.core.build.engine.BuildEngine;
@@ -30,6 +32,7 @@ import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoRecorder;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
 import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
+import com.facebook.buck.core.build.engine.cache.manager.BuildCacheArtifactMaterializer;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
 import com.facebook.buck.core.build.engine.config.ResourceAwareSchedulingInfo;
 import com.facebook.buck.core.build.engine.delegate.CachingBuildEngineDelegate;
@@ -37,6 +40,7 @@ import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.build.event.BuildRuleEvent;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.build.stats.BuildRuleDurationStore;
 import com.facebook.buck.core.build.stats.BuildRuleDurationTracker;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.TargetConfigurationSerializer;
@@ -63,6 +67,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -115,6 +120,14 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final ConcurrentMap<BuildTarget, ListenableFuture<BuildResult>> results =
       Maps.newConcurrentMap();
 
+  /** The artifact cache of each build, wrapped to fetch artifacts ahead of the rules using them. */
+  private final ConcurrentMap<ArtifactCache, PrefetchingArtifactCache> prefetchingCaches =
+      Maps.newConcurrentMap();
+
+  /** Unpacks the outputs of rules fetched from the cache once something needs them. */
+  private final BuildCacheArtifactMaterializer artifactMaterializer =
+      new BuildCacheArtifactMaterializer();
+
   private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
   private final ConcurrentLinkedQueue<WeakReference<CachingBuildRuleBuilder>> ruleBuilders =
       new ConcurrentLinkedQueue<>();
@@ -128,6 +141,10 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final BuildRuleResolver resolver;
   private final TargetConfigurationSerializer targetConfigurationSerializer;
   private final Optional<Long> artifactCacheSizeLimit;
+  private final Optional<Long> artifactPrefetchSizeLimit;
+  private final ArtifactFormat artifactFormat;
+  private final boolean lazyCacheMaterialization;
+  private final Optional<CriticalPathScheduler> criticalPathScheduler;
   private final FileHashCache fileHashCache;
   @VisibleForTesting final RuleKeyFactories ruleKeyFactories;
   private final ResourceAwareSchedulingInfo resourceAwareSchedulingInfo;
@@ -155,6 +172,10 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       DepFiles depFiles,
       long maxDepFileCacheEntries,
       Optional<Long> artifactCacheSizeLimit,
+      Optional<Long> artifactPrefetchSizeLimit,
+      ArtifactFormat artifactFormat,
+      boolean lazyCacheMaterialization,
+      Optional<BuildRuleDurationStore> buildRuleDurationStore,
       BuildRuleResolver resolver,
       BuildEngineActionToBuildRuleResolver actionToBuildRuleResolver,
       TargetConfigurationSerializer targetConfigurationSerializer,
@@ -171,6 +192,10 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
         depFiles,
         maxDepFileCacheEntries,
         artifactCacheSizeLimit,
+        artifactPrefetchSizeLimit,
+        artifactFormat,
+        lazyCacheMaterialization,
+        buildRuleDurationStore,
         resolver,
         buildInfoStoreManager,
         actionToBuildRuleResolver,
@@ -200,6 +225,10 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       DepFiles depFiles,
       long maxDepFileCacheEntries,
       Optional<Long> artifactCacheSizeLimit,
+      Optional<Long> artifactPrefetchSizeLimit,
+      ArtifactFormat artifactFormat,
+      boolean lazyCacheMaterialization,
+      Optional<BuildRuleDurationStore> buildRuleDurationStore,
       BuildRuleResolver resolver,
       BuildInfoStoreManager buildInfoStoreManager,
       BuildEngineActionToBuildRuleResolver actionToBuildRuleResolver,
@@ -218,6 +247,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     this.depFiles = depFiles;
     this.maxDepFileCacheEntries = maxDepFileCacheEntries;
     this.artifactCacheSizeLimit = artifactCacheSizeLimit;
+    this.artifactPrefetchSizeLimit = artifactPrefetchSizeLimit;
+    this.artifactFormat = artifactFormat;
+    this.lazyCacheMaterialization = lazyCacheMaterialization;
     this.resolver = resolver;
     this.targetConfigurationSerializer = targetConfigurationSerializer;
 
@@ -227,6 +259,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     this.buildInfoStoreManager = buildInfoStoreManager;
 
     this.ruleDeps = new DefaultRuleDepsCache(resolver, actionToBuildRuleResolver);
+    this.criticalPathScheduler =
+        buildRuleDurationStore.map(store -> new CriticalPathScheduler(ruleDeps, store));
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
     this.defaultRuleKeyDiagnostics = defaultRuleKeyDiagnostics;
     this.consoleLogBuildFailuresInline = consoleLogBuildFailuresInline;
@@ -252,6 +286,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       }
       terminateBuildWithFailure(new CancellationException("Cancelling due to engine shutdown."));
       Futures.allAsList(asyncCallbacks).get();
+      prefetchingCaches.values().forEach(PrefetchingArtifactCache::discardStagedArtifacts);
+      criticalPathScheduler.ifPresent(CriticalPathScheduler::saveDurations);
     } catch (InterruptedException e) {
       e.printStackTrace();
     } catch (IOException | ExecutionException e) {
@@ -363,11 +399,43 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     // Get the future holding the result for this rule and, if we have no additional runtime deps
     // to attach, return it.
     ListenableFuture<RuleKey> ruleKey = calculateRuleKey(rule, buildContext);
+    if (buildContext.getArtifactCache() instanceof PrefetchingArtifactCache) {
+      Futures.addCallback(
+          ruleKey,
+          new FutureCallback<RuleKey>() {
+            @Override
+            public void onSuccess(RuleKey key) {
+              prefetchArtifact(rule, key, buildContext);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              // The failure is reported by the build of the rule itself.
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
     ListenableFuture<BuildResult> result =
         Futures.transformAsync(
             ruleKey,
             input -> processBuildRule(rule, buildContext, executionContext),
             serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
+    criticalPathScheduler.ifPresent(
+        scheduler ->
+            Futures.addCallback(
+                result,
+                new FutureCallback<BuildResult>() {
+                  @Override
+                  public void onSuccess(BuildResult buildResult) {
+                    recordDurationIfBuiltLocally(scheduler, buildResult);
+                  }
+
+                  @Override
+                  public void onFailure(Throwable t) {
+                    // Only the durations of rules that were built are worth keeping.
+                  }
+                },
+                MoreExecutors.directExecutor()));
     if (!(rule instanceof HasRuntimeDeps)) {
       future.setFuture(result);
       return future;
@@ -402,6 +470,36 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     return future;
   }
 
+  private void recordDurationIfBuiltLocally(CriticalPathScheduler scheduler, BuildResult result) {
+    if (result.isSuccess() && result.getSuccess() == BuildRuleSuccessType.BUILT_LOCALLY) {
+      scheduler.recordDuration(
+          result.getRule(),
+          buildRuleDurationTracker.getDuration(result.getRule()).getWallMillisDuration());
+    }
+  }
+
+  /**
+   * Starts fetching the artifact of a rule that will have to wait for its deps to be built before
+   * it can look itself up in the cache, so that the lookup is done by the time the deps are.
+   */
+  private void prefetchArtifact(
+      BuildRule rule, RuleKey key, BuildEngineBuildContext buildContext) {
+    if (!rule.isCacheable() || rule.getBuildDeps().isEmpty() || firstFailure.get() != null) {
+      return;
+    }
+    OnDiskBuildInfo onDiskBuildInfo =
+        buildContext.createOnDiskBuildInfoFor(
+            rule.getBuildTarget(),
+            rule.getProjectFilesystem(),
+            buildInfoStoreManager.get(rule.getProjectFilesystem()));
+    if (key.equals(onDiskBuildInfo.getRuleKey(BuildInfo.MetadataKey.RULE_KEY).orElse(null))) {
+      // The rule will be skipped without going to the cache.
+      return;
+    }
+    ((PrefetchingArtifactCache) buildContext.getArtifactCache())
+        .prefetch(rule.getBuildTarget(), key, rule.getProjectFilesystem());
+  }
+
   public ListenableFuture<?> walkRule(BuildRule rule, Set<BuildRule> seen) {
     return Futures.transformAsync(
         Futures.immediateFuture(ruleDeps.get(rule)),
@@ -435,17 +533,63 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     return ruleKeyCalculator.calculate(context.getEventBus(), rule);
   }
 
+  @Override
+  public ImmutableList<BuildEngineResult> build(
+      BuildEngineBuildContext buildContext,
+      ExecutionContext executionContext,
+      ImmutableList<BuildRule> rules) {
+    // Prioritizing by critical path needs all the rules asked for, so register them before any of
+    // their deps is scheduled.
+    criticalPathScheduler.ifPresent(scheduler -> scheduler.addTopLevelRules(rules));
+    return BuildEngine.super.build(buildContext, executionContext, rules);
+  }
+
   @Override
   public BuildEngineResult build(
       BuildEngineBuildContext buildContext, ExecutionContext executionContext, BuildRule rule) {
     // Keep track of all jobs that run asynchronously with respect to the build dep chain.  We want
     // to make sure we wait for these before calling yielding the final build result.
     registerTopLevelRule(rule, buildContext.getEventBus());
+    criticalPathScheduler.ifPresent(scheduler -> scheduler.addTopLevelRule(rule));
     ListenableFuture<BuildResult> resultFuture =
-        getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
+        getBuildRuleResultWithRuntimeDeps(
+            rule, withPrefetchingArtifactCache(buildContext), executionContext);
+    // The outputs of the rules asked for are read once the build is done, so unpack them if they
+    // were fetched from the cache without unpacking.
+    resultFuture =
+        Futures.transform(
+            resultFuture,
+            this::materializeOutputs,
+            serviceByAdjustingDefaultWeightsTo(CACHE_CHECK_RESOURCE_AMOUNTS));
     return BuildEngineResult.builder().setResult(resultFuture).build();
   }
 
+  private BuildResult materializeOutputs(BuildResult result) {
+    if (!result.isSuccess()) {
+      return result;
+    }
+    try {
+      artifactMaterializer.materialize(result.getRule(), ruleDeps);
+    } catch (IOException e) {
+      return BuildResult.failure(result.getRule(), e);
+    }
+    return result;
+  }
+
+  private BuildEngineBuildContext withPrefetchingArtifactCache(
+      BuildEngineBuildContext buildContext) {
+    // Only these modes build a rule's deps before looking it up in the cache, which leaves time to
+    // fetch its artifact in the background.
+    if (!artifactPrefetchSizeLimit.isPresent()
+        || (buildMode != BuildType.DEEP && buildMode != BuildType.POPULATE_FROM_REMOTE_CACHE)) {
+      return buildContext;
+    }
+    return buildContext.withArtifactCache(
+        prefetchingCaches.computeIfAbsent(
+            buildContext.getArtifactCache(),
+            cache -> new PrefetchingArtifactCache(cache, artifactPrefetchSizeLimit.get())));
+  }
+
   @Nullable
   @Override
   public BuildResult getBuildRuleResult(BuildTarget buildTarget)
@@ -481,6 +625,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
         new CachingBuildRuleBuilder(
             new DefaultBuildRuleBuilderDelegate(this, buildContext),
             artifactCacheSizeLimit,
+            artifactFormat,
+            lazyCacheMaterialization,
+            artifactMaterializer,
             buildInfoStoreManager,
             buildMode,
             buildRuleDurationTracker,
@@ -493,7 +640,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
             targetConfigurationSerializer,
             resourceAwareSchedulingInfo,
             ruleKeyFactories,
-            service,
+            servicePrioritizedFor(rule),
             this.ruleDeps,
             rule,
             buildContext,
@@ -511,6 +658,17 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     return cachingBuildRuleBuilder.build();
   }
 
+  /**
+   * @return the service to do the work of {@code rule} with, which gives the rules with the longest
+   *     remaining critical path resources first when scheduling by critical path.
+   */
+  private WeightedListeningExecutorService servicePrioritizedFor(BuildRule rule) {
+    if (!criticalPathScheduler.isPresent()) {
+      return service;
+    }
+    return service.withDefaultPriority(criticalPathScheduler.get().getPriority(rule));
+  }
+
   public static class DefaultBuildRuleBuilderDelegate
       implements CachingBuildRuleBuilder.BuildRuleBuilderDelegate {
     private final CachingBuildEngine cachingBuildEngine;
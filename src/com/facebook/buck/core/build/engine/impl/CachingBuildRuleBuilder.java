@@ -21,6 +21,7 @@ import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.RuleKeyCacheResult;
 import com.facebook.buck.artifact_cache.RuleKeyCacheResultEvent;
+import com.facebook.buck.artifact_cache.config.ArtifactFormat;
 import com.facebook.buck.core.build.buildable.context.BuildableContext;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.engine.BuildEngineBuildContext;
@@ -34,6 +35,7 @@ import com.facebook.buck.core.build.engine.buildinfo.BuildInfo.MetadataKey;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoRecorder;
 import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
 import com.facebook.buck.core.build.engine.cache.manager.BuildCacheArtifactFetcher;
+import com.facebook.buck.core.build.engine.cache.manager.BuildCacheArtifactMaterializer;
 import com.facebook.buck.core.build.engine.cache.manager.BuildCacheArtifactUploader;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
 import com.facebook.buck.core.build.engine.cache.manager.BuildRuleScopeManager;
@@ -148,6 +150,9 @@ class CachingBuildRuleBuilder {
   private final BuildContext buildRuleBuildContext;
   private final ArtifactCache artifactCache;
   private final BuildId buildId;
+  private final RuleDepsCache ruleDeps;
+  private final boolean lazyCacheMaterialization;
+  private final BuildCacheArtifactMaterializer artifactMaterializer;
   private final Set<String> depsWithCacheMiss = Collections.synchronizedSet(new HashSet<>());
 
   private final BuildRuleScopeManager buildRuleScopeManager;
@@ -194,6 +199,9 @@ class CachingBuildRuleBuilder {
   public CachingBuildRuleBuilder(
       BuildRuleBuilderDelegate buildRuleBuilderDelegate,
       Optional<Long> artifactCacheSizeLimit,
+      ArtifactFormat artifactFormat,
+      boolean lazyCacheMaterialization,
+      BuildCacheArtifactMaterializer artifactMaterializer,
       BuildInfoStoreManager buildInfoStoreManager,
       BuildType buildMode,
       BuildRuleDurationTracker buildRuleDurationTracker,
@@ -236,6 +244,9 @@ class CachingBuildRuleBuilder {
     this.buildRuleBuildContext = buildContext.getBuildContext();
     this.artifactCache = buildContext.getArtifactCache();
     this.buildId = buildContext.getBuildId();
+    this.ruleDeps = ruleDeps;
+    this.lazyCacheMaterialization = lazyCacheMaterialization;
+    this.artifactMaterializer = artifactMaterializer;
 
     this.defaultKey = ruleKeyFactories.getDefaultRuleKeyFactory().build(rule);
 
@@ -313,7 +324,8 @@ class CachingBuildRuleBuilder {
             manifestRuleKeyManager,
             eventBus,
             artifactCache,
-            artifactCacheSizeLimit);
+            artifactCacheSizeLimit,
+            artifactFormat);
     this.customBuildRuleStrategy = customBuildRuleStrategy;
   }
 
@@ -572,6 +584,14 @@ class CachingBuildRuleBuilder {
       executePostBuildSteps(((HasPostBuildSteps) rule).getPostBuildSteps(buildRuleBuildContext));
     }
 
+    long outputSize =
+        Long.parseLong(onDiskBuildInfo.getValue(BuildInfo.MetadataKey.OUTPUT_SIZE).get());
+
+    // Without recorded hashes, the outputs will be hashed from disk, so they have to be there.
+    if (!shouldWriteOutputHashes(outputSize)) {
+      artifactMaterializer.materialize(rule);
+    }
+
     // Invalidate any cached hashes for the output paths, since we've updated them.
     for (Path path : onDiskBuildInfo.getOutputPaths()) {
       fileHashCache.invalidate(rule.getProjectFilesystem().resolve(path));
@@ -580,8 +600,6 @@ class CachingBuildRuleBuilder {
     // If this rule was fetched from cache, seed the file hash cache with the recorded
     // output hashes from the build metadata.  Skip this if the output size is too big for
     // input-based rule keys.
-    long outputSize =
-        Long.parseLong(onDiskBuildInfo.getValue(BuildInfo.MetadataKey.OUTPUT_SIZE).get());
 
     if (shouldWriteOutputHashes(outputSize)) {
       Optional<ImmutableMap<String, String>> hashes =
@@ -1133,7 +1151,8 @@ class CachingBuildRuleBuilder {
                 defaultKey,
                 artifactCache,
                 // TODO(simons): This should be a shared between all tests, not one per cell
-                rule.getProjectFilesystem()),
+                rule.getProjectFilesystem(),
+                shouldDeferOutputs()),
         cacheResult -> {
           RuleKeyCacheResult ruleKeyCacheResult =
               RuleKeyCacheResult.builder()
@@ -1152,6 +1171,13 @@ class CachingBuildRuleBuilder {
         MoreExecutors.directExecutor());
   }
 
+  private boolean shouldDeferOutputs() {
+    // Rules that read their own outputs once they are fetched need them right away.
+    return lazyCacheMaterialization
+        && !(rule instanceof InitializableFromDisk)
+        && !(rule instanceof HasPostBuildSteps);
+  }
+
   private Optional<BuildResult> getBuildResultForRuleKeyCacheResult(CacheResult cacheResult) {
     if (!cacheResult.getType().isSuccess()) {
       return Optional.empty();
@@ -1159,7 +1185,8 @@ class CachingBuildRuleBuilder {
     return Optional.of(success(BuildRuleSuccessType.FETCHED_FROM_CACHE, cacheResult));
   }
 
-  private ListenableFuture<Optional<BuildResult>> handleDepsResults(List<BuildResult> depResults) {
+  private ListenableFuture<Optional<BuildResult>> handleDepsResults(List<BuildResult> depResults)
+      throws IOException {
     for (BuildResult depResult : depResults) {
       if (buildMode != BuildType.POPULATE_FROM_REMOTE_CACHE && !depResult.isSuccess()) {
         return Futures.immediateFuture(Optional.of(canceled(depResult.getFailure())));
@@ -1173,6 +1200,16 @@ class CachingBuildRuleBuilder {
         depsWithCacheMiss.add(depResult.getRule().getFullyQualifiedName());
       }
     }
+
+    // Checking the other caches and building locally both read the outputs of the deps, which may
+    // not have been unpacked when they were fetched from the cache.
+    try (Scope ignored = buildRuleScope()) {
+      for (BuildResult depResult : depResults) {
+        if (depResult.isSuccess()) {
+          artifactMaterializer.materialize(depResult.getRule(), ruleDeps);
+        }
+      }
+    }
     depsAreAvailable = true;
     return Futures.immediateFuture(Optional.empty());
   }
@@ -1209,6 +1246,7 @@ class CachingBuildRuleBuilder {
       ((InitializableFromDisk<?>) rule).getBuildOutputInitializer().invalidate();
     }
     onDiskBuildInfo.deleteExistingMetadata();
+    BuildCacheArtifactMaterializer.discardPendingArtifact(rule);
     // TODO(cjhopman): Delete old outputs.
   }
 
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.build.stats.BuildRuleDurationStore;
+import com.facebook.buck.core.rules.BuildRule;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Prioritizes the rules of a build by their remaining critical path: how long it takes, at least,
+ * to build the rule and then the rules depending on it up to the rules asked for, going by the
+ * durations of previous builds.
+ *
+ * <p>Rules never built before are assumed to take the average duration of the rules that were, so
+ * that without any history the rules are prioritized by the number of rules depending on them in a
+ * row.
+ */
+class CriticalPathScheduler {
+
+  private final RuleDepsCache ruleDeps;
+  private final BuildRuleDurationStore durationStore;
+
+  @GuardedBy("this")
+  private final Set<BuildRule> topLevelRules = new HashSet<>();
+
+  /** Top-level rules whose deps haven't been prioritized yet. */
+  @GuardedBy("this")
+  private final Set<BuildRule> newTopLevelRules = new LinkedHashSet<>();
+
+  /**
+   * Whether {@link #newTopLevelRules} may be non-empty, so that looking up a priority only takes
+   * the lock when there is something to update.
+   */
+  private volatile boolean hasNewTopLevelRules = false;
+
+  /**
+   * Remaining critical path of the rules reachable from {@link #topLevelRules}, in millis. Only
+   * written while holding the lock, but read without it.
+   */
+  private final Map<BuildRule, Long> priorities = new ConcurrentHashMap<>();
+
+  /** Assumed duration of rules never built before, or 0 until priorities were first computed. */
+  private volatile long defaultDurationMillis = 0;
+
+  CriticalPathScheduler(RuleDepsCache ruleDeps, BuildRuleDurationStore durationStore) {
+    this.ruleDeps = ruleDeps;
+    this.durationStore = durationStore;
+  }
+
+  /** Adds a rule asked to be built, whose deps are then prioritized by paths leading to it. */
+  synchronized void addTopLevelRule(BuildRule rule) {
+    if (topLevelRules.add(rule)) {
+      newTopLevelRules.add(rule);
+      hasNewTopLevelRules = true;
+    }
+  }
+
+  /**
+   * Adds the rules asked to be built. Adding all of them before any priority is asked for lets
+   * their deps be prioritized in a single pass.
+   */
+  synchronized void addTopLevelRules(Iterable<BuildRule> rules) {
+    rules.forEach(this::addTopLevelRule);
+  }
+
+  /**
+   * @return the remaining critical path of {@code rule} in millis. The first time this is called
+   *     after top-level rules were added, the priorities of the rules reachable from them are
+   *     updated.
+   */
+  long getPriority(BuildRule rule) {
+    if (hasNewTopLevelRules) {
+      prioritizeNewTopLevelRules();
+    }
+    Long priority = priorities.get(rule);
+    return priority == null ? getDurationMillis(rule) : priority;
+  }
+
+  private synchronized void prioritizeNewTopLevelRules() {
+    if (!newTopLevelRules.isEmpty()) {
+      updatePriorities();
+      newTopLevelRules.clear();
+    }
+    hasNewTopLevelRules = false;
+  }
+
+  /** Records how long building {@code rule} locally took, to prioritize by in later builds. */
+  void recordDuration(BuildRule rule, long durationMillis) {
+    durationStore.record(rule.getBuildTarget(), durationMillis);
+  }
+
+  /** Keeps the durations recorded in this build for later builds. */
+  void saveDurations() {
+    durationStore.save();
+  }
+
+  private long getDurationMillis(BuildRule rule) {
+    return durationStore.getDurationMillis(rule.getBuildTarget()).orElse(defaultDurationMillis);
+  }
+
+  /**
+   * Raises the priorities of the rules reachable from the new top-level rules to the critical path
+   * they have below those. A rule's critical path is the longest one below any top-level rule, so
+   * this only walks the rules reachable from the new top-level ones.
+   */
+  @GuardedBy("this")
+  private void updatePriorities() {
+    if (defaultDurationMillis == 0) {
+      defaultDurationMillis = Math.max(1, durationStore.getAverageDurationMillis());
+    }
+
+    // Going through the rules so that each comes after all of the rules depending on it, the
+    // longest path above a rule is known by the time it is reached.
+    List<BuildRule> rules = getRulesOrderedByDependents(newTopLevelRules);
+    Map<BuildRule, Long> longestPathsAbove = new HashMap<>();
+    for (BuildRule rule : rules) {
+      long priority = longestPathsAbove.getOrDefault(rule, 0L) + getDurationMillis(rule);
+      priorities.merge(rule, priority, Math::max);
+      for (BuildRule dep : ruleDeps.get(rule)) {
+        longestPathsAbove.merge(dep, priority, Math::max);
+      }
+    }
+  }
+
+  /** @return the rules reachable from {@code roots}, each after all of its dependents. */
+  @GuardedBy("this")
+  private List<BuildRule> getRulesOrderedByDependents(Set<BuildRule> roots) {
+    // Reverse post-order of a depth first walk of the deps.
+    List<BuildRule> postOrder = new ArrayList<>();
+    Set<BuildRule> visited = new HashSet<>();
+    Deque<BuildRule> rules = new ArrayDeque<>();
+    Deque<Iterator<BuildRule>> remainingDeps = new ArrayDeque<>();
+    for (BuildRule root : roots) {
+      if (!visited.add(root)) {
+        continue;
+      }
+      rules.push(root);
+      remainingDeps.push(ruleDeps.get(root).iterator());
+      while (!rules.isEmpty()) {
+        Iterator<BuildRule> deps = remainingDeps.peek();
+        if (deps.hasNext()) {
+          BuildRule dep = deps.next();
+          if (visited.add(dep)) {
+            rules.push(dep);
+            remainingDeps.push(ruleDeps.get(dep).iterator());
+          }
+        } else {
+          postOrder.add(rules.pop());
+          remainingDeps.pop();
+        }
+      }
+    }
+    Collections.reverse(postOrder);
+    return postOrder;
+  }
+}
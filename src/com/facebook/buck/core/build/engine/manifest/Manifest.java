@@ -22,6 +22,7 @@ import com.facebook.buck.core.sourcepath.ArchiveMemberSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.types.Pair;
@@ -39,8 +40,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -171,6 +174,22 @@ public class Manifest {
     }
   }
 
+  /** Hint to {@code fileHashLoader} that the files pointed to by the source paths are needed. */
+  private static void prefetchSourcePaths(
+      FileHashLoader fileHashLoader, SourcePathResolver resolver, Iterable<SourcePath> paths) {
+    Map<ProjectFilesystem, List<Path>> pathsByFilesystem = new LinkedHashMap<>();
+    for (SourcePath path : paths) {
+      SourcePath file =
+          path instanceof ArchiveMemberSourcePath
+              ? ((ArchiveMemberSourcePath) path).getArchiveSourcePath()
+              : path;
+      pathsByFilesystem
+          .computeIfAbsent(resolver.getFilesystem(file), filesystem -> new ArrayList<>())
+          .add(resolver.getRelativePath(file));
+    }
+    pathsByFilesystem.forEach(fileHashLoader::prefetch);
+  }
+
   private static ArchiveMemberPath getArchiveMemberPath(
       SourcePathResolver resolver, ArchiveMemberSourcePath archivePath) {
     return ArchiveMemberPath.of(
@@ -226,6 +245,7 @@ public class Manifest {
             universe,
             path -> sourcePathToManifestHeader(path, resolver),
             interestingPaths::contains);
+    prefetchSourcePaths(fileHashLoader, resolver, mappedUniverse.values());
 
     // Find a matching entry.
     for (Pair<RuleKey, int[]> entry : entries) {
@@ -270,6 +290,7 @@ public class Manifest {
     // Create a multimap from paths we care about to SourcePaths that maps to them.
     ImmutableListMultimap<Object, SourcePath> sortedUniverse =
         index(universe, path -> sourcePathToManifestPathKey(path, resolver), inputPaths::contains);
+    prefetchSourcePaths(fileHashLoader, resolver, sortedUniverse.values());
 
     // Record the Entry.
     int index = 0;
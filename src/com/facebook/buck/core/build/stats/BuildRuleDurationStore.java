@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.stats;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.util.log.Logger;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Durations of building rules locally in previous builds, kept in a file so that a build can tell
+ * ahead of time how long each of its rules will take.
+ *
+ * <p>The duration of a rule is a moving average over its builds, each new build counting for half.
+ * The file holds a line per rule with its duration in milliseconds and its fully qualified name,
+ * separated by a tab. A file that can't be read is ignored, and one that can't be written is left
+ * as it was, as the durations only serve as hints.
+ */
+public class BuildRuleDurationStore {
+
+  private static final Logger LOG = Logger.get(BuildRuleDurationStore.class);
+
+  private static final String HEADER = "# buck rule durations v1";
+
+  private final Path path;
+  private final ConcurrentMap<String, Long> durationsMillis;
+  private final AtomicBoolean changed = new AtomicBoolean();
+
+  private BuildRuleDurationStore(Path path, ConcurrentMap<String, Long> durationsMillis) {
+    this.path = path;
+    this.durationsMillis = durationsMillis;
+  }
+
+  /** @return the durations kept in {@code path}, which is created once they are saved. */
+  public static BuildRuleDurationStore load(Path path) {
+    ConcurrentMap<String, Long> durationsMillis = new ConcurrentHashMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      if (!HEADER.equals(reader.readLine())) {
+        throw new IOException("Unexpected header");
+      }
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        int separator = line.indexOf('\t');
+        if (separator < 0) {
+          throw new IOException("Malformed line: " + line);
+        }
+        durationsMillis.put(
+            line.substring(separator + 1), Long.parseLong(line.substring(0, separator)));
+      }
+    } catch (NoSuchFileException e) {
+      // Nothing has been built yet.
+    } catch (IOException | NumberFormatException e) {
+      LOG.warn(e, "Ignoring the unreadable rule durations in %s.", path);
+      durationsMillis.clear();
+    }
+    return new BuildRuleDurationStore(path, durationsMillis);
+  }
+
+  /** @return how long building {@code target} locally took, or empty if it was never built. */
+  public OptionalLong getDurationMillis(BuildTarget target) {
+    Long duration = durationsMillis.get(target.getFullyQualifiedName());
+    return duration == null ? OptionalLong.empty() : OptionalLong.of(duration);
+  }
+
+  /** @return the average duration of the rules in this store, or 0 if there are none. */
+  public long getAverageDurationMillis() {
+    long total = 0;
+    int count = 0;
+    for (long duration : durationsMillis.values()) {
+      total += duration;
+      count++;
+    }
+    return count == 0 ? 0 : total / count;
+  }
+
+  /** Records that building {@code target} locally took {@code durationMillis}. */
+  public void record(BuildTarget target, long durationMillis) {
+    durationsMillis.merge(
+        target.getFullyQualifiedName(),
+        durationMillis,
+        (previous, current) -> (previous + current) / 2);
+    changed.set(true);
+  }
+
+  /** Writes the durations to the file they were loaded from, if any were recorded since. */
+  public void save() {
+    if (!changed.getAndSet(false)) {
+      return;
+    }
+    Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try {
+      Files.createDirectories(path.getParent());
+      try (BufferedWriter writer = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
+        writer.write(HEADER);
+        writer.newLine();
+        for (Map.Entry<String, Long> entry : durationsMillis.entrySet()) {
+          writer.write(Long.toString(entry.getValue()));
+          writer.write('\t');
+          writer.write(entry.getKey());
+          writer.newLine();
+        }
+      }
+      Files.move(
+          tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to save the rule durations to %s.", path);
+    }
+  }
+}
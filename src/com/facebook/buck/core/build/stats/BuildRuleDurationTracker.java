@@ -44,6 +44,12 @@ public class BuildRuleDurationTracker {
     durations.put(rule.getBuildTarget(), new DurationHolder(duration));
   }
 
+  /** @return the duration of the work on {@code rule} that has finished so far. */
+  public ClockDuration getDuration(BuildRule rule) {
+    DurationHolder holder = durations.get(rule.getBuildTarget());
+    return holder == null ? ClockDuration.ZERO : holder.getFinishedDuration();
+  }
+
   public ClockDuration doBeginning(BuildRule rule, long wallMillisTime, long nanoTime) {
     return durations
         .computeIfAbsent(rule.getBuildTarget(), (key) -> new DurationHolder())
@@ -97,6 +103,10 @@ public class BuildRuleDurationTracker {
           threadUserNanoDuration);
     }
 
+    public synchronized ClockDuration getFinishedDuration() {
+      return new ClockDuration(wallMillisDuration, nanoDuration, threadUserNanoDuration);
+    }
+
     public synchronized ClockDuration doBeginning(long wallMillisTime, long nanoTime) {
       if (inProgressCount++ == 0) {
         wallMillisStarted = wallMillisTime;
@@ -23,7 +23,15 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import javax.annotation.Nullable;
 
-/** Contains cached action graphs. */
+/**
+ * Contains cached action graphs.
+ *
+ * <p>Cached graphs, and the rules {@link IncrementalActionGraphGenerator} carries over from one
+ * graph to the next, only live in memory: they are build rule instances, which are handed to the
+ * next {@link ActionGraphBuilder} as they are. The modern build rule serialization only covers the
+ * {@code Buildable} of a rule, not the rule around it, so there is no way yet to bring rules back
+ * after a restart without constructing them again.
+ */
 public class ActionGraphCache {
 
   private final Cache<TargetGraph, ActionGraphAndBuilder> previousActionGraphs;
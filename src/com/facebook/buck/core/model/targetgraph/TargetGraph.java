@@ -19,6 +19,7 @@ package com.facebook.buck.core.model.targetgraph;
 import com.facebook.buck.core.exceptions.DependencyStack;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.util.graph.AbstractBreadthFirstTraversal;
+import com.facebook.buck.core.util.graph.CompactDirectedGraph;
 import com.facebook.buck.core.util.graph.DirectedAcyclicGraph;
 import com.facebook.buck.core.util.graph.MutableDirectedGraph;
 import com.facebook.buck.util.MoreMaps;
@@ -50,9 +51,11 @@ public class TargetGraph extends DirectedAcyclicGraph<TargetNode<?>> {
   }
 
   private void verifyVisibilityIntegrity() {
-    for (TargetNode<?> node : getNodes()) {
-      for (TargetNode<?> dep : getOutgoingNodesFor(node)) {
-        dep.isVisibleToOrThrow(node);
+    CompactDirectedGraph<TargetNode<?>> graph = getCompactGraph();
+    for (int id = 0; id < graph.getNodeCount(); id++) {
+      TargetNode<?> node = graph.getNode(id);
+      for (int i = 0; i < graph.getOutgoingNodeCount(id); i++) {
+        graph.getNode(graph.getOutgoingNodeId(id, i)).isVisibleToOrThrow(node);
       }
     }
   }
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.UnmodifiableIterator;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * An immutable directed graph that numbers its nodes and keeps its edges in arrays, in compressed
+ * sparse row form: the sinks of the edges leaving node {@code i} are the ids from {@code
+ * outgoingOffsets[i]} up to {@code outgoingOffsets[i + 1]} in {@code outgoingIds}, and the sources
+ * of the edges reaching it are found the same way in the incoming arrays.
+ *
+ * <p>This takes a few ints per edge, where a multimap takes several objects, and going through the
+ * graph by node id allocates nothing per node. The methods of {@link TraversableGraph} are there
+ * for compatibility, and return the nodes at either end of the edges of a node as a view over the
+ * arrays rather than a copy.
+ *
+ * @param <T> the type of object stored as nodes in this graph
+ */
+public final class CompactDirectedGraph<T> implements TraversableGraph<T> {
+
+  /** Returned by {@link #getNodeId(Object)} for nodes not in the graph. */
+  public static final int NO_NODE = -1;
+
+  private final ImmutableSet<T> nodes;
+  private final ImmutableList<T> nodesById;
+
+  /** Open addressing hash table from nodes to their ids, with linear probing. */
+  private final Object[] indexKeys;
+
+  private final int[] indexIds;
+
+  private final int[] outgoingOffsets;
+  private final int[] outgoingIds;
+  private final int[] incomingOffsets;
+  private final int[] incomingIds;
+
+  private CompactDirectedGraph(TraversableGraph<T> graph) {
+    this.nodes = ImmutableSet.copyOf(graph.getNodes());
+    this.nodesById = nodes.asList();
+
+    int tableSize = Integer.highestOneBit(Math.max(2, nodes.size()) * 2 - 1) * 2;
+    this.indexKeys = new Object[tableSize];
+    this.indexIds = new int[tableSize];
+    for (int id = 0; id < nodesById.size(); id++) {
+      int slot = findSlot(nodesById.get(id));
+      indexKeys[slot] = nodesById.get(id);
+      indexIds[slot] = id;
+    }
+
+    this.outgoingOffsets = new int[nodesById.size() + 1];
+    this.outgoingIds = copyEdges(graph, true, outgoingOffsets);
+    this.incomingOffsets = new int[nodesById.size() + 1];
+    this.incomingIds = copyEdges(graph, false, incomingOffsets);
+  }
+
+  /** @return a compact copy of {@code graph}, whose edges must all be between its nodes. */
+  public static <T> CompactDirectedGraph<T> copyOf(TraversableGraph<T> graph) {
+    return new CompactDirectedGraph<>(graph);
+  }
+
+  private int[] copyEdges(TraversableGraph<T> graph, boolean outgoing, int[] offsets) {
+    int[] ids = new int[nodesById.size()];
+    // One more than the id of the last node with an edge to or from each node, to skip duplicates.
+    int[] lastNodeIds = new int[nodesById.size()];
+    int edgeCount = 0;
+    for (int id = 0; id < nodesById.size(); id++) {
+      offsets[id] = edgeCount;
+      T node = nodesById.get(id);
+      for (T other : outgoing ? graph.getOutgoingNodesFor(node) : graph.getIncomingNodesFor(node)) {
+        int otherId = getNodeId(other);
+        Preconditions.checkArgument(
+            otherId != NO_NODE, "Edge between %s and %s leaves the graph", node, other);
+        if (lastNodeIds[otherId] == id + 1) {
+          continue;
+        }
+        lastNodeIds[otherId] = id + 1;
+        if (edgeCount == ids.length) {
+          ids = Arrays.copyOf(ids, ids.length * 2 + 1);
+        }
+        ids[edgeCount++] = otherId;
+      }
+    }
+    offsets[nodesById.size()] = edgeCount;
+    return edgeCount == ids.length ? ids : Arrays.copyOf(ids, edgeCount);
+  }
+
+  private int findSlot(Object node) {
+    int mask = indexKeys.length - 1;
+    int slot = smear(node.hashCode()) & mask;
+    while (indexKeys[slot] != null && !indexKeys[slot].equals(node)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static int smear(int hashCode) {
+    return 0x1b873593 * Integer.rotateLeft(hashCode * 0xcc9e2d51, 15);
+  }
+
+  public int getNodeCount() {
+    return nodesById.size();
+  }
+
+  public int getEdgeCount() {
+    return outgoingIds.length;
+  }
+
+  /** @return the node numbered {@code id}, ids going from 0 to the number of nodes excluded. */
+  public T getNode(int id) {
+    return nodesById.get(id);
+  }
+
+  /** @return the id of {@code node}, or {@link #NO_NODE} if it is not in the graph. */
+  public int getNodeId(T node) {
+    int slot = findSlot(node);
+    return indexKeys[slot] == null ? NO_NODE : indexIds[slot];
+  }
+
+  public int getOutgoingNodeCount(int id) {
+    return outgoingOffsets[id + 1] - outgoingOffsets[id];
+  }
+
+  /** @return the id of the {@code index}th sink of the edges leaving node {@code id}. */
+  public int getOutgoingNodeId(int id, int index) {
+    Preconditions.checkElementIndex(index, getOutgoingNodeCount(id));
+    return outgoingIds[outgoingOffsets[id] + index];
+  }
+
+  public int getIncomingNodeCount(int id) {
+    return incomingOffsets[id + 1] - incomingOffsets[id];
+  }
+
+  /** @return the id of the {@code index}th source of the edges reaching node {@code id}. */
+  public int getIncomingNodeId(int id, int index) {
+    Preconditions.checkElementIndex(index, getIncomingNodeCount(id));
+    return incomingIds[incomingOffsets[id] + index];
+  }
+
+  /** Passes the ids of the sinks of the edges leaving node {@code id} to {@code consumer}. */
+  public void forEachOutgoingNodeId(int id, IntConsumer consumer) {
+    for (int i = outgoingOffsets[id]; i < outgoingOffsets[id + 1]; i++) {
+      consumer.accept(outgoingIds[i]);
+    }
+  }
+
+  /** Passes the ids of the sources of the edges reaching node {@code id} to {@code consumer}. */
+  public void forEachIncomingNodeId(int id, IntConsumer consumer) {
+    for (int i = incomingOffsets[id]; i < incomingOffsets[id + 1]; i++) {
+      consumer.accept(incomingIds[i]);
+    }
+  }
+
+  /**
+   * @return the ids of the nodes reachable from the nodes numbered {@code rootIds} following the
+   *     outgoing edges, roots included.
+   */
+  public BitSet getReachableNodeIds(int... rootIds) {
+    BitSet reached = new BitSet(getNodeCount());
+    int[] stack = new int[getNodeCount()];
+    int stackSize = 0;
+    for (int rootId : rootIds) {
+      if (!reached.get(rootId)) {
+        reached.set(rootId);
+        stack[stackSize++] = rootId;
+      }
+    }
+    while (stackSize > 0) {
+      int id = stack[--stackSize];
+      for (int i = outgoingOffsets[id]; i < outgoingOffsets[id + 1]; i++) {
+        int sinkId = outgoingIds[i];
+        if (!reached.get(sinkId)) {
+          reached.set(sinkId);
+          stack[stackSize++] = sinkId;
+        }
+      }
+    }
+    return reached;
+  }
+
+  /** @return whether there is no cycle in the graph, including edges from a node to itself. */
+  public boolean isAcyclic() {
+    return sortTopologically(new int[getNodeCount()]) == getNodeCount();
+  }
+
+  /**
+   * @return the ids of all nodes, each after the sinks of its outgoing edges. Nodes are taken in
+   *     the same order as {@link TopologicalSort#sort(TraversableGraph)} does.
+   * @throws IllegalStateException if the graph has a cycle.
+   */
+  public int[] getTopologicalOrder() {
+    int[] order = new int[getNodeCount()];
+    Preconditions.checkState(sortTopologically(order) == order.length, "Graph must be acyclic");
+    return order;
+  }
+
+  /**
+   * Fills {@code order} with the ids of the nodes whose outgoing edges all lead to nodes before
+   * them, starting with the nodes with no outgoing edges.
+   *
+   * @return how many ids were put in {@code order}, which is less than the number of nodes only if
+   *     the graph has a cycle.
+   */
+  private int sortTopologically(int[] order) {
+    int[] remainingOutgoingCounts = new int[getNodeCount()];
+    int count = 0;
+    for (int id = 0; id < getNodeCount(); id++) {
+      remainingOutgoingCounts[id] = getOutgoingNodeCount(id);
+      if (remainingOutgoingCounts[id] == 0) {
+        order[count++] = id;
+      }
+    }
+    // The ids in order double as the queue of nodes whose sources may be ready next.
+    for (int next = 0; next < count; next++) {
+      int id = order[next];
+      for (int i = incomingOffsets[id]; i < incomingOffsets[id + 1]; i++) {
+        int sourceId = incomingIds[i];
+        if (--remainingOutgoingCounts[sourceId] == 0) {
+          order[count++] = sourceId;
+        }
+      }
+    }
+    return count;
+  }
+
+  /** @return an unmodifiable view of the sinks of the edges leaving {@code source}. */
+  @Override
+  public Set<T> getOutgoingNodesFor(T source) {
+    int id = getNodeId(source);
+    return id == NO_NODE
+        ? ImmutableSet.of()
+        : getNodes(outgoingIds, outgoingOffsets[id], outgoingOffsets[id + 1]);
+  }
+
+  /** @return an unmodifiable view of the sources of the edges reaching {@code sink}. */
+  @Override
+  public Set<T> getIncomingNodesFor(T sink) {
+    int id = getNodeId(sink);
+    return id == NO_NODE
+        ? ImmutableSet.of()
+        : getNodes(incomingIds, incomingOffsets[id], incomingOffsets[id + 1]);
+  }
+
+  private Set<T> getNodes(int[] ids, int from, int to) {
+    return from == to ? ImmutableSet.of() : new NodeSet(ids, from, to);
+  }
+
+  /**
+   * The nodes numbered by the ids from {@code from} up to {@code to} in an edge array. Edges are
+   * copied without duplicates, so the ids make a set as they are.
+   */
+  private final class NodeSet extends AbstractSet<T> {
+    private final int[] ids;
+    private final int from;
+    private final int to;
+
+    NodeSet(int[] ids, int from, int to) {
+      this.ids = ids;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public int size() {
+      return to - from;
+    }
+
+    @Override
+    public boolean contains(Object object) {
+      if (object == null) {
+        return false;
+      }
+      int slot = findSlot(object);
+      if (indexKeys[slot] == null) {
+        return false;
+      }
+      int id = indexIds[slot];
+      for (int i = from; i < to; i++) {
+        if (ids[i] == id) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return new UnmodifiableIterator<T>() {
+        private int next = from;
+
+        @Override
+        public boolean hasNext() {
+          return next < to;
+        }
+
+        @Override
+        public T next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return nodesById.get(ids[next++]);
+        }
+      };
+    }
+  }
+
+  @Override
+  public ImmutableSet<T> getNodesWithNoOutgoingEdges() {
+    return getNodesWithNoEdges(outgoingOffsets);
+  }
+
+  @Override
+  public ImmutableSet<T> getNodesWithNoIncomingEdges() {
+    return getNodesWithNoEdges(incomingOffsets);
+  }
+
+  private ImmutableSet<T> getNodesWithNoEdges(int[] offsets) {
+    ImmutableSet.Builder<T> builder = ImmutableSet.builder();
+    for (int id = 0; id < getNodeCount(); id++) {
+      if (offsets[id] == offsets[id + 1]) {
+        builder.add(nodesById.get(id));
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public ImmutableSet<T> getNodes() {
+    return nodes;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof CompactDirectedGraph)) {
+      return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    CompactDirectedGraph<T> that = (CompactDirectedGraph<T>) other;
+    if (!nodes.equals(that.nodes) || getEdgeCount() != that.getEdgeCount()) {
+      return false;
+    }
+    for (T node : nodes) {
+      if (!getOutgoingNodesFor(node).equals(that.getOutgoingNodesFor(node))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    // Like the hash code of a set of edges, so that it doesn't depend on the order of the nodes.
+    int edgesHashCode = 0;
+    for (int id = 0; id < getNodeCount(); id++) {
+      int sourceHashCode = nodesById.get(id).hashCode();
+      for (int i = outgoingOffsets[id]; i < outgoingOffsets[id + 1]; i++) {
+        edgesHashCode += 31 * sourceHashCode + nodesById.get(outgoingIds[i]).hashCode();
+      }
+    }
+    return Objects.hash(nodes, edgesHashCode);
+  }
+}
@@ -18,46 +18,49 @@ package com.facebook.buck.core.util.graph;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Sets;
-import java.util.Objects;
+import java.util.Set;
 
+/**
+ * An immutable directed graph without cycles, kept as a {@link CompactDirectedGraph}. Use {@link
+ * #getCompactGraph()} to go through large graphs by node id without looking up each node.
+ */
 public class DirectedAcyclicGraph<T> implements TraversableGraph<T> {
 
-  private final ImmutableSet<T> nodes;
-  private final ImmutableSetMultimap<T, T> outgoingEdges;
-  private final ImmutableSetMultimap<T, T> incomingEdges;
+  private final CompactDirectedGraph<T> graph;
 
   public DirectedAcyclicGraph(MutableDirectedGraph<T> graph) {
-    Preconditions.checkState(graph.isAcyclic(), "Graph must by acyclic");
-    this.nodes = graph.createImmutableCopyOfNodes();
-    this.outgoingEdges = graph.createImmutableCopyOfOutgoingEdges();
-    this.incomingEdges = graph.createImmutableCopyOfIncomingEdges();
+    this.graph = CompactDirectedGraph.copyOf(graph);
+    Preconditions.checkState(this.graph.isAcyclic(), "Graph must by acyclic");
+  }
+
+  /** @return the compact form of this graph, numbering its nodes in the order of their set. */
+  public CompactDirectedGraph<T> getCompactGraph() {
+    return graph;
   }
 
   @Override
-  public ImmutableSet<T> getOutgoingNodesFor(T source) {
-    return outgoingEdges.get(source);
+  public Set<T> getOutgoingNodesFor(T source) {
+    return graph.getOutgoingNodesFor(source);
   }
 
   @Override
-  public ImmutableSet<T> getIncomingNodesFor(T sink) {
-    return incomingEdges.get(sink);
+  public Set<T> getIncomingNodesFor(T sink) {
+    return graph.getIncomingNodesFor(sink);
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoOutgoingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, outgoingEdges.keySet()));
+    return graph.getNodesWithNoOutgoingEdges();
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoIncomingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, incomingEdges.keySet()));
+    return graph.getNodesWithNoIncomingEdges();
   }
 
   @Override
   public ImmutableSet<T> getNodes() {
-    return nodes;
+    return graph.getNodes();
   }
 
   @Override
@@ -67,13 +70,11 @@ public class DirectedAcyclicGraph<T> implements TraversableGraph<T> {
     }
 
     DirectedAcyclicGraph<?> that = (DirectedAcyclicGraph<?>) other;
-    return Objects.equals(this.nodes, that.nodes)
-        && Objects.equals(this.outgoingEdges, that.outgoingEdges)
-        && Objects.equals(this.incomingEdges, that.incomingEdges);
+    return graph.equals(that.graph);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(nodes, outgoingEdges, incomingEdges);
+    return graph.hashCode();
   }
 }
@@ -18,7 +18,6 @@ package com.facebook.buck.core.util.graph;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimaps;
@@ -200,18 +199,6 @@ public final class MutableDirectedGraph<T> implements TraversableGraph<T> {
     return Sets.difference(nodes, outgoingEdges.keySet());
   }
 
-  ImmutableSet<T> createImmutableCopyOfNodes() {
-    return ImmutableSet.copyOf(nodes);
-  }
-
-  ImmutableSetMultimap<T, T> createImmutableCopyOfOutgoingEdges() {
-    return ImmutableSetMultimap.copyOf(outgoingEdges);
-  }
-
-  ImmutableSetMultimap<T, T> createImmutableCopyOfIncomingEdges() {
-    return ImmutableSetMultimap.copyOf(incomingEdges);
-  }
-
   /**
    * Implementation of
    * http://en.wikipedia.org/wiki/Tarjan%E2%80%99s_strongly_connected_components_algorithm used to
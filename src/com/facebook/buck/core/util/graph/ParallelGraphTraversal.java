@@ -0,0 +1,223 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import com.facebook.buck.util.function.ThrowingConsumer;
+import com.google.common.base.Throwables;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Visits every node of a DAG on a {@link ForkJoinPool}, each node as soon as the nodes it has to
+ * come after have been visited, so that independent work on the nodes runs in parallel.
+ *
+ * <p>Bottom-up, a node comes after the sinks of its outgoing edges, as with {@link
+ * AbstractBottomUpTraversal}. Top-down, it comes after the sources of its incoming edges. The graph
+ * is checked for cycles before anything is visited, and the cycle reported for a given graph is
+ * always the same one, however the work would have been scheduled.
+ *
+ * @param <T> the type of node in the graph
+ */
+public class ParallelGraphTraversal<T> {
+
+  private final CompactDirectedGraph<T> graph;
+  private final ForkJoinPool pool;
+
+  private ParallelGraphTraversal(CompactDirectedGraph<T> graph, ForkJoinPool pool) {
+    this.graph = graph;
+    this.pool = pool;
+  }
+
+  /**
+   * @param graph the graph to traverse, which is copied to a {@link CompactDirectedGraph} unless it
+   *     is a {@link DirectedAcyclicGraph} already.
+   * @param pool the pool to visit the nodes on.
+   * @throws CycleException if the graph has a cycle.
+   */
+  public static <T> ParallelGraphTraversal<T> of(TraversableGraph<T> graph, ForkJoinPool pool)
+      throws CycleException {
+    CompactDirectedGraph<T> compactGraph =
+        graph instanceof DirectedAcyclicGraph
+            ? ((DirectedAcyclicGraph<T>) graph).getCompactGraph()
+            : CompactDirectedGraph.copyOf(graph);
+    if (!compactGraph.isAcyclic()) {
+      throw new CycleException(findFirstCycle(compactGraph));
+    }
+    return new ParallelGraphTraversal<>(compactGraph, pool);
+  }
+
+  /**
+   * Visits each node after the sinks of its outgoing edges. If a visit fails, no node is visited
+   * after it, and the first failure is thrown once the visits already started are done.
+   */
+  public <E extends Exception> void traverseBottomUp(ThrowingConsumer<T, E> visitor)
+      throws E, InterruptedException {
+    traverse(visitor, true);
+  }
+
+  /**
+   * Visits each node after the sources of its incoming edges. If a visit fails, no node is visited
+   * after it, and the first failure is thrown once the visits already started are done.
+   */
+  public <E extends Exception> void traverseTopDown(ThrowingConsumer<T, E> visitor)
+      throws E, InterruptedException {
+    traverse(visitor, false);
+  }
+
+  private <E extends Exception> void traverse(ThrowingConsumer<T, E> visitor, boolean bottomUp)
+      throws E, InterruptedException {
+    Traversal<E> traversal = new Traversal<>(visitor, bottomUp);
+    pool.execute(traversal);
+    try {
+      traversal.get();
+    } catch (InterruptedException e) {
+      traversal.failure.compareAndSet(null, e);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+
+    Exception failure = traversal.failure.get();
+    if (failure != null) {
+      Throwables.throwIfUnchecked(failure);
+      @SuppressWarnings("unchecked")
+      E visitorFailure = (E) failure;
+      throw visitorFailure;
+    }
+  }
+
+  /** Starts visiting the nodes that don't have to come after any other, and waits for all. */
+  private class Traversal<E extends Exception> extends CountedCompleter<Void> {
+    private final ThrowingConsumer<T, E> visitor;
+    private final boolean bottomUp;
+    private final AtomicIntegerArray remainingPredecessorCounts;
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    private Traversal(ThrowingConsumer<T, E> visitor, boolean bottomUp) {
+      this.visitor = visitor;
+      this.bottomUp = bottomUp;
+      this.remainingPredecessorCounts = new AtomicIntegerArray(graph.getNodeCount());
+      for (int id = 0; id < graph.getNodeCount(); id++) {
+        remainingPredecessorCounts.set(id, getPredecessorCount(id));
+      }
+    }
+
+    private int getPredecessorCount(int id) {
+      return bottomUp ? graph.getOutgoingNodeCount(id) : graph.getIncomingNodeCount(id);
+    }
+
+    @Override
+    public void compute() {
+      for (int id = 0; id < graph.getNodeCount(); id++) {
+        if (getPredecessorCount(id) == 0) {
+          addToPendingCount(1);
+          new NodeVisit<>(this, this, id).fork();
+        }
+      }
+      tryComplete();
+    }
+  }
+
+  /** Visits a node, then starts visiting the nodes that were only waiting for it. */
+  private class NodeVisit<E extends Exception> extends CountedCompleter<Void> {
+    private final Traversal<E> traversal;
+    private final int id;
+
+    private NodeVisit(CountedCompleter<?> completer, Traversal<E> traversal, int id) {
+      super(completer);
+      this.traversal = traversal;
+      this.id = id;
+    }
+
+    @Override
+    public void compute() {
+      if (traversal.failure.get() == null) {
+        try {
+          traversal.visitor.accept(graph.getNode(id));
+          startSuccessors();
+        } catch (Exception e) {
+          traversal.failure.compareAndSet(null, e);
+        }
+      }
+      tryComplete();
+    }
+
+    private void startSuccessors() {
+      int count =
+          traversal.bottomUp ? graph.getIncomingNodeCount(id) : graph.getOutgoingNodeCount(id);
+      for (int i = 0; i < count; i++) {
+        int successorId =
+            traversal.bottomUp ? graph.getIncomingNodeId(id, i) : graph.getOutgoingNodeId(id, i);
+        if (traversal.remainingPredecessorCounts.decrementAndGet(successorId) == 0) {
+          addToPendingCount(1);
+          new NodeVisit<>(this, traversal, successorId).fork();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the first cycle found going depth first through the graph from its nodes and along
+   *     their outgoing edges in order, starting and ending with the same node.
+   */
+  private static <T> List<T> findFirstCycle(CompactDirectedGraph<T> graph) {
+    // 0 for nodes not reached yet, 1 for nodes on the current path, 2 for nodes fully explored.
+    byte[] states = new byte[graph.getNodeCount()];
+    int[] path = new int[graph.getNodeCount()];
+    int[] nextEdges = new int[graph.getNodeCount()];
+    for (int root = 0; root < graph.getNodeCount(); root++) {
+      if (states[root] != 0) {
+        continue;
+      }
+      int depth = 0;
+      path[0] = root;
+      nextEdges[0] = 0;
+      states[root] = 1;
+      while (depth >= 0) {
+        int id = path[depth];
+        if (nextEdges[depth] == graph.getOutgoingNodeCount(id)) {
+          states[id] = 2;
+          depth--;
+          continue;
+        }
+        int sinkId = graph.getOutgoingNodeId(id, nextEdges[depth]++);
+        if (states[sinkId] == 1) {
+          Deque<T> cycle = new ArrayDeque<>();
+          cycle.add(graph.getNode(sinkId));
+          for (int i = depth; path[i] != sinkId; i--) {
+            cycle.addFirst(graph.getNode(path[i]));
+          }
+          cycle.addFirst(graph.getNode(sinkId));
+          return new ArrayList<>(cycle);
+        } else if (states[sinkId] == 0) {
+          states[sinkId] = 1;
+          path[++depth] = sinkId;
+          nextEdges[depth] = 0;
+        }
+      }
+    }
+    throw new IllegalStateException("Graph has no cycle");
+  }
+}
@@ -44,6 +44,9 @@ public class TopologicalSort {
 
   /** Returns a topologically sorted list of the nodes in the graph. */
   public static <T> ImmutableList<T> sort(TraversableGraph<T> graph) {
+    if (graph instanceof DirectedAcyclicGraph) {
+      return sortCompact(((DirectedAcyclicGraph<T>) graph).getCompactGraph());
+    }
     return sortImpl(graph, LinkedHashSet::new);
   }
 
@@ -96,6 +99,15 @@ public class TopologicalSort {
     return sortImpl(graph, levelSetFactory);
   }
 
+  /** Gives the same order as {@link #sortImpl} does, going through the graph by node id. */
+  private static <T> ImmutableList<T> sortCompact(CompactDirectedGraph<T> graph) {
+    ImmutableList.Builder<T> toReturn = ImmutableList.builder();
+    for (int id : graph.getTopologicalOrder()) {
+      toReturn.add(graph.getNode(id));
+    }
+    return toReturn.build();
+  }
+
   // TODO(cjhopman): The implementations here aren't great and should be improved and migrated to
   // GraphTraversables (probably).
   private static <T> ImmutableList<T> sortImpl(
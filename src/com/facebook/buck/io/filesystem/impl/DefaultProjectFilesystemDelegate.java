@@ -20,10 +20,11 @@ import com.facebook.buck.io.filesystem.ProjectFilesystemDelegate;
 import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
-import com.google.common.io.ByteSource;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
@@ -34,6 +35,10 @@ import java.nio.file.Path;
  */
 public final class DefaultProjectFilesystemDelegate implements ProjectFilesystemDelegate {
 
+  private static final int READ_BUFFER_BYTES = 64 * 1024;
+  private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocate(READ_BUFFER_BYTES));
+
   private final Path root;
 
   public DefaultProjectFilesystemDelegate(Path root) {
@@ -51,17 +56,20 @@ public final class DefaultProjectFilesystemDelegate implements ProjectFilesystem
     try {
       // Normally, we would just use `Files.hash(fileToHash.toFile(), Hashing.sha1())`, but if
       // fileToHash is backed by Jimfs, its toFile() method throws an UnsupportedOperationException.
-      // Creating the input stream via java.nio.file.Files.newInputStream() avoids this issue.
-      ByteSource source =
-          new ByteSource() {
-            @Override
-            public InputStream openStream() throws IOException {
-              // No need to wrap with BufferedInputStream because ByteSource uses
-              // ByteStreams.copy(), which already buffers.
-              return Files.newInputStream(fileToHash);
-            }
-          };
-      HashCode hashCode = source.hash(Hashing.sha1());
+      // Opening the channel via java.nio.file.Files.newByteChannel() avoids this issue. Reading
+      // into a buffer reused by the thread avoids copying through a stream and allocating for
+      // every file. Mapping the file instead would keep it locked on Windows until collected.
+      Hasher hasher = Hashing.sha1().newHasher();
+      ByteBuffer buffer = READ_BUFFER.get();
+      try (SeekableByteChannel channel = Files.newByteChannel(fileToHash)) {
+        buffer.clear();
+        while (channel.read(buffer) != -1) {
+          buffer.flip();
+          hasher.putBytes(buffer);
+          buffer.clear();
+        }
+      }
+      HashCode hashCode = hasher.hash();
 
       return Sha1HashCode.fromHashCode(hashCode);
 
@@ -16,7 +16,13 @@
 
 package com.facebook.buck.io.watchman;
 
+import com.facebook.buck.util.bser.BserReader;
+import com.facebook.buck.util.bser.BserSerializer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -25,6 +31,61 @@ public interface WatchmanClient extends AutoCloseable {
   Optional<? extends Map<String, ? extends Object>> queryWithTimeout(
       long timeoutNanos, Object... query) throws IOException, InterruptedException;
 
+  /**
+   * Sends several queries at once, which clients keeping a connection to watchman can pipeline so
+   * that they cost a single round trip.
+   *
+   * @return the response to each query, in the order of {@code queries}, or an empty response for
+   *     each query that was not answered within {@code timeoutNanos}.
+   */
+  default List<Optional<? extends Map<String, ? extends Object>>> queryBatchWithTimeout(
+      long timeoutNanos, List<? extends List<? extends Object>> queries)
+      throws IOException, InterruptedException {
+    List<Optional<? extends Map<String, ? extends Object>>> responses =
+        new ArrayList<>(queries.size());
+    for (List<? extends Object> query : queries) {
+      responses.add(queryWithTimeout(timeoutNanos, query.toArray()));
+    }
+    return responses;
+  }
+
+  /**
+   * Like {@link #queryBatchWithTimeout(long, List)}, but hands each response to {@code decoder} as
+   * it is encoded, so that large responses can be walked without materializing them.
+   *
+   * <p>The default implementation encodes the responses of {@link #queryBatchWithTimeout(long,
+   * List)} again.
+   */
+  default <T> List<Optional<T>> queryBatchWithTimeout(
+      long timeoutNanos, List<? extends List<? extends Object>> queries, ResponseDecoder<T> decoder)
+      throws IOException, InterruptedException {
+    BserSerializer serializer = new BserSerializer();
+    BserReader reader = new BserReader();
+    List<Optional<T>> results = new ArrayList<>(queries.size());
+    for (Optional<? extends Map<String, ? extends Object>> response :
+        queryBatchWithTimeout(timeoutNanos, queries)) {
+      if (!response.isPresent()) {
+        results.add(Optional.empty());
+        continue;
+      }
+      ByteArrayOutputStream encodedResponse = new ByteArrayOutputStream();
+      serializer.serializeToStream(response.get(), encodedResponse);
+      reader.readPdu(new ByteArrayInputStream(encodedResponse.toByteArray()));
+      results.add(Optional.of(decoder.decode(reader)));
+    }
+    return results;
+  }
+
+  /** Decodes watchman responses straight from their BSER encoding. */
+  @FunctionalInterface
+  interface ResponseDecoder<T> {
+    /**
+     * @param reader positioned before the response, which is only valid until this method
+     *     returns.
+     */
+    T decode(BserReader reader) throws IOException;
+  }
+
   @Override
   void close() throws IOException;
 }
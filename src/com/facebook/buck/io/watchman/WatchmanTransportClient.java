@@ -22,40 +22,59 @@ import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.bser.BserDeserializer;
+import com.facebook.buck.util.bser.BserReader;
 import com.facebook.buck.util.bser.BserSerializer;
 import com.facebook.buck.util.timing.Clock;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import javax.annotation.Nullable;
 
+/**
+ * A {@link WatchmanClient} talking to watchman over a single connection.
+ *
+ * <p>Queries are pipelined: they are written as soon as they are issued, from any number of
+ * threads, and their responses are read back in the order the queries were written, which is the
+ * order in which watchman answers them. Callers waiting for slow queries therefore do not hold back
+ * the queries of other callers, and a batch of queries costs a single round trip.
+ */
 class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
 
   private static final Logger LOG = Logger.get(WatchmanTransportClient.class);
   private static final long POLL_TIME_NANOS = TimeUnit.SECONDS.toNanos(1);
 
-  private final ListeningExecutorService listeningExecutorService;
+  // Reads and writes happen on threads of their own, so that interrupting a caller does not close
+  // the connection under the queries of other callers.
+  private final ListeningExecutorService writerExecutorService;
+  private final ListeningExecutorService readerExecutorService;
   private final Clock clock;
   private final Transport transport;
   private final Console console;
   private final BserSerializer bserSerializer;
   private final BserDeserializer bserDeserializer;
+  private final BserReader bserReader;
 
   private boolean disabledWarningShown = false;
 
   public WatchmanTransportClient(Console console, Clock clock, Transport transport) {
-    this.listeningExecutorService = listeningDecorator(newSingleThreadExecutor("Watchman"));
+    this.writerExecutorService = listeningDecorator(newSingleThreadExecutor("Watchman writer"));
+    this.readerExecutorService = listeningDecorator(newSingleThreadExecutor("Watchman"));
     this.console = console;
     this.clock = clock;
     this.transport = transport;
     this.bserSerializer = new BserSerializer();
     this.bserDeserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    this.bserReader = new BserReader();
   }
 
   @Override
@@ -66,12 +85,59 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
 
   private Optional<Map<String, Object>> queryListWithTimeout(long timeoutNanos, List<Object> query)
       throws IOException, InterruptedException {
-    ListenableFuture<Optional<Map<String, Object>>> future =
-        listeningExecutorService.submit(() -> sendWatchmanQuery(query));
+    return waitForResponses(timeoutNanos, sendWatchmanQuery(query, this::decodeToMap), query)
+        .flatMap(response -> response);
+  }
+
+  @Override
+  public List<Optional<? extends Map<String, ? extends Object>>> queryBatchWithTimeout(
+      long timeoutNanos, List<? extends List<? extends Object>> queries)
+      throws IOException, InterruptedException {
+    return new ArrayList<>(queryBatchWithTimeout(timeoutNanos, queries, this::decodeToMap));
+  }
+
+  /**
+   * Writes all {@code queries} before waiting for the first response, so that watchman can work on
+   * them while the responses of the previous ones are being read. On timeout, the responses that
+   * did arrive are still returned, so only the queries that weren't answered come back empty.
+   */
+  @Override
+  public <T> List<Optional<T>> queryBatchWithTimeout(
+      long timeoutNanos, List<? extends List<? extends Object>> queries, ResponseDecoder<T> decoder)
+      throws IOException, InterruptedException {
+    List<ListenableFuture<Optional<T>>> responses = new ArrayList<>(queries.size());
+    for (List<? extends Object> query : queries) {
+      responses.add(sendWatchmanQuery(query, decoder));
+    }
+    Optional<List<Optional<T>>> result =
+        waitForResponses(timeoutNanos, Futures.allAsList(responses), queries);
+    if (!result.isPresent()) {
+      List<Optional<T>> partial = new ArrayList<>(queries.size());
+      for (ListenableFuture<Optional<T>> response : responses) {
+        partial.add(getIfAnswered(response));
+      }
+      return partial;
+    }
+    return result.get();
+  }
+
+  private static <T> Optional<T> getIfAnswered(ListenableFuture<Optional<T>> response) {
+    if (!response.isDone()) {
+      return Optional.empty();
+    }
+    try {
+      return Futures.getDone(response);
+    } catch (ExecutionException | CancellationException e) {
+      return Optional.empty();
+    }
+  }
+
+  private <T> Optional<T> waitForResponses(
+      long timeoutNanos, ListenableFuture<T> future, Object query)
+      throws IOException, InterruptedException {
     try {
       long startTimeNanos = clock.nanoTime();
-      Optional<Map<String, Object>> result =
-          waitForQueryNotifyingUserIfSlow(future, timeoutNanos, query);
+      Optional<T> result = waitForQueryNotifyingUserIfSlow(future, timeoutNanos, query);
       long elapsedNanos = clock.nanoTime() - startTimeNanos;
       LOG.debug("Query %s returned in %d ms", query, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
       return result;
@@ -88,7 +154,8 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
   public void close() throws IOException {
     LOG.debug("Closing Watchman transport.");
     transport.close();
-    listeningExecutorService.shutdown();
+    writerExecutorService.shutdown();
+    readerExecutorService.shutdown();
   }
 
   private synchronized void showDisabledWarning(long timeoutNanos) {
@@ -107,12 +174,12 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
             TimeUnit.NANOSECONDS.toSeconds(timeoutNanos));
   }
 
-  private Optional<Map<String, Object>> waitForQueryNotifyingUserIfSlow(
-      ListenableFuture<Optional<Map<String, Object>>> future, long timeoutNanos, List<Object> query)
+  private <T> Optional<T> waitForQueryNotifyingUserIfSlow(
+      ListenableFuture<T> future, long timeoutNanos, Object query)
       throws InterruptedException, ExecutionException {
     long queryStartNanos = clock.nanoTime();
     try {
-      return future.get(Math.min(timeoutNanos, POLL_TIME_NANOS), TimeUnit.NANOSECONDS);
+      return Optional.of(future.get(Math.min(timeoutNanos, POLL_TIME_NANOS), TimeUnit.NANOSECONDS));
     } catch (TimeoutException e) {
       long remainingNanos = timeoutNanos - (clock.nanoTime() - queryStartNanos);
       if (remainingNanos > 0) {
@@ -121,7 +188,7 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
           console.getStdErr().getRawStream().format("Waiting for watchman query...\n");
         }
         try {
-          return future.get(remainingNanos, TimeUnit.NANOSECONDS);
+          return Optional.of(future.get(remainingNanos, TimeUnit.NANOSECONDS));
         } catch (TimeoutException te) {
           LOG.debug("Timed out");
         }
@@ -134,17 +201,70 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
     }
   }
 
+  /**
+   * Queues {@code query} to be written to watchman and its response to be read back.
+   *
+   * <p>Both queues are appended to under the same lock, so the n-th response read is the one to the
+   * n-th query written. A response is only read once its query was written successfully, otherwise
+   * the write failure is reported instead.
+   */
+  private synchronized <T> ListenableFuture<Optional<T>> sendWatchmanQuery(
+      List<? extends Object> query, ResponseDecoder<T> decoder) {
+    ListenableFuture<?> written =
+        writerExecutorService.submit(
+            () -> {
+              LOG.verbose("Sending query: %s", query);
+              bserSerializer.serializeToStream(query, transport.getOutputStream());
+              return null;
+            });
+    return readerExecutorService.submit(
+        () -> {
+          try {
+            written.get();
+          } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+              throw (IOException) e.getCause();
+            }
+            throw e;
+          }
+          return receiveWatchmanResponse(decoder);
+        });
+  }
+
+  /** Only called on the reader thread, which owns {@link #bserReader}. */
+  private <T> Optional<T> receiveWatchmanResponse(ResponseDecoder<T> decoder) throws IOException {
+    do {
+      bserReader.readPdu(transport.getInputStream());
+    } while (isUnilateral());
+    bserReader.rewind();
+    return Optional.ofNullable(decoder.decode(bserReader));
+  }
+
+  /** Whether the message just read is an unsolicited one, like a log, and not a response. */
+  private boolean isUnilateral() throws IOException {
+    if (bserReader.next() != BserReader.Token.START_OBJECT) {
+      return false;
+    }
+    while (bserReader.next() == BserReader.Token.FIELD_NAME) {
+      boolean unilateral = bserReader.textEquals("unilateral");
+      BserReader.Token value = bserReader.next();
+      if (unilateral) {
+        return value == BserReader.Token.TRUE;
+      }
+      bserReader.skipChildren();
+    }
+    return false;
+  }
+
   @SuppressWarnings("unchecked")
-  private Optional<Map<String, Object>> sendWatchmanQuery(List<Object> query) throws IOException {
-    LOG.verbose("Sending query: %s", query);
-    bserSerializer.serializeToStream(query, transport.getOutputStream());
-    Object response = bserDeserializer.deserializeBserValue(transport.getInputStream());
+  @Nullable
+  private Map<String, Object> decodeToMap(BserReader reader) throws IOException {
+    Object response = bserDeserializer.deserializeBserValue(reader);
     LOG.verbose("Got response: %s", response);
     Map<String, Object> responseMap = (Map<String, Object>) response;
     if (responseMap == null) {
       LOG.error("Unrecognized Watchman response");
-      return Optional.empty();
     }
-    return Optional.of(responseMap);
+    return responseMap;
   }
 }
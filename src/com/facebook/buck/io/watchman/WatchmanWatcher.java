@@ -24,6 +24,7 @@ import com.facebook.buck.event.WatchmanStatusEvent;
 import com.facebook.buck.io.filesystem.PathMatcher;
 import com.facebook.buck.io.watchman.WatchmanEvent.Type;
 import com.facebook.buck.util.Threads;
+import com.facebook.buck.util.bser.BserReader;
 import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.annotations.VisibleForTesting;
@@ -48,6 +49,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 
 /** Queries Watchman for changes to a path. */
 public class WatchmanWatcher {
@@ -202,38 +204,51 @@ public class WatchmanWatcher {
     buckEventBus.post(WatchmanStatusEvent.started());
 
     try {
-      List<Callable<Unit>> watchmanQueries = new ArrayList<>();
+      // Send the queries of all cells over one connection at once, this can be significant if you
+      // have a lot of cells.
+      List<Path> cellPaths = new ArrayList<>();
+      List<ImmutableList<Object>> cellQueries = new ArrayList<>();
       for (Path cellPath : queries.keySet()) {
-        watchmanQueries.add(
+        WatchmanQuery query = queries.get(cellPath);
+        WatchmanCursor cursor = cursors.get(cellPath);
+        if (query != null && cursor != null) {
+          cellPaths.add(cellPath);
+          cellQueries.add(query.toList(cursor.get()));
+        }
+      }
+      List<Optional<QueryResponse>> queryResponses =
+          cellQueries.isEmpty()
+              ? ImmutableList.of()
+              : queryWatchman(buckEventBus, cellPaths, cellQueries);
+
+      List<Callable<Unit>> responseProcessors = new ArrayList<>();
+      for (int i = 0; i < cellPaths.size(); i++) {
+        Path cellPath = cellPaths.get(i);
+        Optional<QueryResponse> queryResponse = queryResponses.get(i);
+        responseProcessors.add(
             () -> {
-              WatchmanQuery query = queries.get(cellPath);
-              WatchmanCursor cursor = cursors.get(cellPath);
-              if (query != null && cursor != null) {
-                try (SimplePerfEvent.Scope perfEvent =
-                        SimplePerfEvent.scope(
-                            buckEventBus, PerfEventId.of("check_watchman"), "cell", cellPath);
-                    WatchmanClient client = watchmanClientFactory.newInstance()) {
-                  // Include the cellPath in the finished event so it can be matched with the begin
-                  // event.
-                  perfEvent.appendFinishedInfo("cell", cellPath);
-                  postEvents(
-                      buckEventBus,
-                      freshInstanceAction,
-                      cellPath,
-                      client,
-                      query,
-                      cursor,
-                      filesHaveChanged,
-                      perfEvent);
-                }
+              try (SimplePerfEvent.Scope perfEvent =
+                  SimplePerfEvent.scope(
+                      buckEventBus, PerfEventId.of("check_watchman"), "cell", cellPath)) {
+                // Include the cellPath in the finished event so it can be matched with the begin
+                // event.
+                perfEvent.appendFinishedInfo("cell", cellPath);
+                postEvents(
+                    buckEventBus,
+                    freshInstanceAction,
+                    cellPath,
+                    queryResponse,
+                    queries.get(cellPath),
+                    cursors.get(cellPath),
+                    filesHaveChanged,
+                    perfEvent);
               }
               return Unit.UNIT;
             });
       }
 
-      // Run all of the Watchman queries in parallel. This can be significant if you have a lot of
-      // cells.
-      List<Future<Unit>> futures = executorService.invokeAll(watchmanQueries);
+      // Process the responses of all cells in parallel.
+      List<Future<Unit>> futures = executorService.invokeAll(responseProcessors);
       for (Future<Unit> future : futures) {
         try {
           future.get();
@@ -257,186 +272,277 @@ public class WatchmanWatcher {
     }
   }
 
-  @SuppressWarnings("unchecked")
+  private List<Optional<QueryResponse>> queryWatchman(
+      BuckEventBus buckEventBus, List<Path> cellPaths, List<ImmutableList<Object>> cellQueries)
+      throws IOException, InterruptedException {
+    try (SimplePerfEvent.Scope ignored =
+            SimplePerfEvent.scope(buckEventBus, PerfEventId.of("query_watchman"));
+        WatchmanClient client = watchmanClientFactory.newInstance()) {
+      return client.queryBatchWithTimeout(
+          TimeUnit.MILLISECONDS.toNanos(timeoutMillis), cellQueries, QueryResponse::decode);
+    } catch (InterruptedException e) {
+      String message = "The communication with watchman daemon has been interrupted.";
+      LOG.warn(e, message);
+      // Events may have been lost, signal overflow.
+      for (Path cellPath : cellPaths) {
+        postWatchEvent(buckEventBus, ImmutableWatchmanOverflowEvent.of(cellPath, message));
+      }
+      Threads.interruptCurrentThread();
+      throw e;
+    } catch (IOException e) {
+      String message =
+          "There was an error while communicating with the watchman daemon: " + e.getMessage();
+      LOG.error(e, message);
+      // Events may have been lost, signal overflow.
+      for (Path cellPath : cellPaths) {
+        postWatchEvent(buckEventBus, ImmutableWatchmanOverflowEvent.of(cellPath, message));
+      }
+      throw e;
+    }
+  }
+
   private void postEvents(
       BuckEventBus buckEventBus,
       FreshInstanceAction freshInstanceAction,
       Path cellPath,
-      WatchmanClient client,
+      Optional<QueryResponse> queryResponse,
       WatchmanQuery query,
       WatchmanCursor cursor,
       AtomicBoolean filesHaveChanged,
-      SimplePerfEvent.Scope perfEvent)
-      throws IOException, InterruptedException {
-    try {
-      Optional<? extends Map<String, ? extends Object>> queryResponse;
-      try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(buckEventBus, "query")) {
-        queryResponse =
-            client.queryWithTimeout(
-                TimeUnit.MILLISECONDS.toNanos(timeoutMillis), query.toList(cursor.get()).toArray());
+      SimplePerfEvent.Scope perfEvent) {
+    try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(buckEventBus, "process_response")) {
+      if (!queryResponse.isPresent()) {
+        LOG.warn(
+            "Could not get response from Watchman for query %s within %d ms",
+            query, timeoutMillis);
+        postWatchEvent(
+            buckEventBus,
+            ImmutableWatchmanOverflowEvent.of(
+                cellPath,
+                "Timed out after "
+                    + TimeUnit.MILLISECONDS.toSeconds(timeoutMillis)
+                    + " sec waiting for watchman query."));
+        filesHaveChanged.set(true);
+        return;
       }
 
-      try (SimplePerfEvent.Scope ignored =
-          SimplePerfEvent.scope(buckEventBus, "process_response")) {
-        if (!queryResponse.isPresent()) {
-          LOG.warn(
-              "Could not get response from Watchman for query %s within %d ms",
-              query, timeoutMillis);
-          postWatchEvent(
-              buckEventBus,
-              ImmutableWatchmanOverflowEvent.of(
-                  cellPath,
-                  "Timed out after "
-                      + TimeUnit.MILLISECONDS.toSeconds(timeoutMillis)
-                      + " sec waiting for watchman query."));
-          filesHaveChanged.set(true);
-          return;
-        }
+      QueryResponse response = queryResponse.get();
+      if (response.error != null) {
+        // This message is not de-duplicated via WatchmanDiagnostic.
+        WatchmanWatcherException e = new WatchmanWatcherException(response.error);
+        LOG.debug(e, "Error in Watchman output. Posting an overflow event to flush the caches");
+        postWatchEvent(
+            buckEventBus,
+            ImmutableWatchmanOverflowEvent.of(
+                cellPath, "Watchman error occurred: " + e.getMessage()));
+        throw e;
+      }
 
-        Map<String, ? extends Object> response = queryResponse.get();
-        String error = (String) response.get("error");
-        if (error != null) {
-          // This message is not de-duplicated via WatchmanDiagnostic.
-          WatchmanWatcherException e = new WatchmanWatcherException(error);
-          LOG.debug(e, "Error in Watchman output. Posting an overflow event to flush the caches");
-          postWatchEvent(
-              buckEventBus,
-              ImmutableWatchmanOverflowEvent.of(
-                  cellPath, "Watchman error occurred: " + e.getMessage()));
-          throw e;
-        }
+      if (cursor.get().startsWith("c:")) {
+        // Update the clockId
+        String newCursor = Optional.ofNullable(response.clock).orElse(WatchmanFactory.NULL_CLOCK);
+        LOG.debug("Updating Watchman Cursor from %s to %s", cursor.get(), newCursor);
+        cursor.set(newCursor);
+      }
 
-        if (cursor.get().startsWith("c:")) {
-          // Update the clockId
-          String newCursor =
-              Optional.ofNullable((String) response.get("clock"))
-                  .orElse(WatchmanFactory.NULL_CLOCK);
-          LOG.debug("Updating Watchman Cursor from %s to %s", cursor.get(), newCursor);
-          cursor.set(newCursor);
-        }
+      if (response.warning != null) {
+        buckEventBus.post(
+            new WatchmanDiagnosticEvent(
+                WatchmanDiagnostic.of(WatchmanDiagnostic.Level.WARNING, response.warning)));
+      }
 
-        String warning = (String) response.get("warning");
-        if (warning != null) {
-          buckEventBus.post(
-              new WatchmanDiagnosticEvent(
-                  WatchmanDiagnostic.of(WatchmanDiagnostic.Level.WARNING, warning)));
+      if (response.isFreshInstance) {
+        LOG.debug(
+            "Watchman indicated a fresh instance (fresh instance action %s)", freshInstanceAction);
+        switch (freshInstanceAction) {
+          case NONE:
+            break;
+          case POST_OVERFLOW_EVENT:
+            postWatchEvent(
+                buckEventBus,
+                ImmutableWatchmanOverflowEvent.of(
+                    cellPath, "Watchman has been initialized recently."));
+            break;
         }
+        filesHaveChanged.set(true);
+        return;
+      }
 
-        Boolean isFreshInstance = (Boolean) response.get("is_fresh_instance");
-        if (isFreshInstance != null && isFreshInstance) {
-          LOG.debug(
-              "Watchman indicated a fresh instance (fresh instance action %s)",
-              freshInstanceAction);
-          switch (freshInstanceAction) {
-            case NONE:
-              break;
-            case POST_OVERFLOW_EVENT:
-              postWatchEvent(
-                  buckEventBus,
-                  ImmutableWatchmanOverflowEvent.of(
-                      cellPath, "Watchman has been initialized recently."));
-              break;
-          }
+      if (response.fileCount < 0) {
+        if (freshInstanceAction == FreshInstanceAction.NONE) {
           filesHaveChanged.set(true);
-          return;
         }
+        return;
+      }
+      LOG.debug("Watchman indicated %d changes", response.fileCount);
+      if (response.fileCount > OVERFLOW_THRESHOLD) {
+        LOG.warn(
+            "Posting overflow event: too many files changed: %d > %d",
+            response.fileCount, OVERFLOW_THRESHOLD);
+        postWatchEvent(
+            buckEventBus, ImmutableWatchmanOverflowEvent.of(cellPath, "Too many files changed."));
+        filesHaveChanged.set(true);
+        return;
+      }
+      List<FileChange> files = response.files;
+      if (files.size() < TRACE_CHANGES_THRESHOLD) {
+        perfEvent.appendFinishedInfo("files", Lists.transform(files, FileChange::toString));
+      } else {
+        perfEvent.appendFinishedInfo(
+            "files_sample",
+            Lists.transform(files.subList(0, TRACE_CHANGES_THRESHOLD), FileChange::toString));
+      }
 
-        List<Map<String, Object>> files = (List<Map<String, Object>>) response.get("files");
-        if (files == null) {
-          if (freshInstanceAction == FreshInstanceAction.NONE) {
-            filesHaveChanged.set(true);
-          }
-          return;
-        }
-        LOG.debug("Watchman indicated %d changes", files.size());
-        if (files.size() > OVERFLOW_THRESHOLD) {
-          LOG.warn(
-              "Posting overflow event: too many files changed: %d > %d",
-              files.size(), OVERFLOW_THRESHOLD);
+      FileSystem fileSystem = cellPath.getFileSystem();
+      List<WatchmanMultiplePathEvent.Change> changes = new ArrayList<>(files.size());
+      for (FileChange file : files) {
+        if (file.name == null) {
+          LOG.warn("Filename missing from watchman file response %s", file);
           postWatchEvent(
-              buckEventBus, ImmutableWatchmanOverflowEvent.of(cellPath, "Too many files changed."));
+              buckEventBus,
+              ImmutableWatchmanOverflowEvent.of(
+                  cellPath, "Filename missing from watchman response."));
           filesHaveChanged.set(true);
           return;
         }
-        if (files.size() < TRACE_CHANGES_THRESHOLD) {
-          perfEvent.appendFinishedInfo("files", files);
-        } else {
-          perfEvent.appendFinishedInfo("files_sample", files.subList(0, TRACE_CHANGES_THRESHOLD));
+
+        Path filePath = fileSystem.getPath(file.name);
+
+        changes.add(new ImmutableChange(file.type, filePath, file.kind));
+
+        if (file.type != WatchmanEvent.Type.DIRECTORY) {
+          // WatchmanPathEvent is sent for everything but directories - this is legacy
+          // behavior and we want to keep it.
+          // TODO(buck_team): switch everything to use WatchmanMultiplePathEvent and retire
+          // WatchmanPathEvent
+          postWatchEvent(
+              buckEventBus, ImmutableWatchmanPathEvent.of(cellPath, file.kind, filePath));
         }
+      }
 
-        FileSystem fileSystem = cellPath.getFileSystem();
-        List<WatchmanMultiplePathEvent.Change> changes = new ArrayList<>(files.size());
-        for (Map<String, Object> file : files) {
-          String fileName = (String) file.get("name");
-          if (fileName == null) {
-            LOG.warn("Filename missing from watchman file response %s", file);
-            postWatchEvent(
-                buckEventBus,
-                ImmutableWatchmanOverflowEvent.of(
-                    cellPath, "Filename missing from watchman response."));
-            filesHaveChanged.set(true);
-            return;
-          }
-          Boolean fileNew = (Boolean) file.get("new");
-          WatchmanEvent.Kind kind = WatchmanEvent.Kind.MODIFY;
-          if (fileNew != null && fileNew) {
-            kind = WatchmanEvent.Kind.CREATE;
-          }
-          Boolean fileExists = (Boolean) file.get("exists");
-          if (fileExists != null && !fileExists) {
-            kind = WatchmanEvent.Kind.DELETE;
-          }
+      if (!changes.isEmpty()) {
+        postWatchEvent(buckEventBus, new ImmutableWatchmanMultiplePathEvent(cellPath, changes));
+      }
 
-          // Following legacy behavior, everything we get from Watchman is interpreted as file
-          // changes unless explicitly specified with `type` field
-          WatchmanEvent.Type type = Type.FILE;
-          String stype = (String) file.get("type");
-          if (stype != null) {
-            switch (stype) {
-              case "d":
-                type = Type.DIRECTORY;
-                break;
-              case "l":
-                type = Type.SYMLINK;
-                break;
-            }
-          }
+      if (!files.isEmpty() || freshInstanceAction == FreshInstanceAction.NONE) {
+        filesHaveChanged.set(true);
+      }
+    }
+  }
 
-          Path filePath = fileSystem.getPath(fileName);
+  /**
+   * The parts of the response to a {@code since} query that are looked at, decoded straight from
+   * BSER. Responses list every file changed since the last query, which after switching revisions
+   * can be hundreds of thousands of them, so they are not materialized as maps first.
+   */
+  private static class QueryResponse {
+    @Nullable private String error;
+    @Nullable private String clock;
+    @Nullable private String warning;
+    private boolean isFreshInstance;
 
-          changes.add(new ImmutableChange(type, filePath, kind));
+    /** Number of files changed, or -1 if the response has no list of files. */
+    private int fileCount = -1;
 
-          if (type != WatchmanEvent.Type.DIRECTORY) {
-            // WatchmanPathEvent is sent for everything but directories - this is legacy
-            // behavior and we want to keep it.
-            // TODO(buck_team): switch everything to use WatchmanMultiplePathEvent and retire
-            // WatchmanPathEvent
-            postWatchEvent(buckEventBus, ImmutableWatchmanPathEvent.of(cellPath, kind, filePath));
-          }
-        }
+    /** Files changed, only decoded when there are not too many of them. */
+    private List<FileChange> files = ImmutableList.of();
 
-        if (!changes.isEmpty()) {
-          postWatchEvent(buckEventBus, new ImmutableWatchmanMultiplePathEvent(cellPath, changes));
+    static QueryResponse decode(BserReader reader) throws IOException {
+      if (reader.next() != BserReader.Token.START_OBJECT) {
+        throw new IOException("Unrecognized Watchman response");
+      }
+      QueryResponse response = new QueryResponse();
+      while (reader.next() == BserReader.Token.FIELD_NAME) {
+        if (reader.textEquals("error")) {
+          response.error = nextString(reader);
+        } else if (reader.textEquals("clock")) {
+          response.clock = nextString(reader);
+        } else if (reader.textEquals("warning")) {
+          response.warning = nextString(reader);
+        } else if (reader.textEquals("is_fresh_instance")) {
+          response.isFreshInstance = reader.next() == BserReader.Token.TRUE;
+        } else if (reader.textEquals("files")) {
+          response.decodeFiles(reader);
+        } else {
+          reader.next();
+          reader.skipChildren();
         }
+      }
+      return response;
+    }
 
-        if (!files.isEmpty() || freshInstanceAction == FreshInstanceAction.NONE) {
-          filesHaveChanged.set(true);
+    private void decodeFiles(BserReader reader) throws IOException {
+      if (reader.next() != BserReader.Token.START_ARRAY) {
+        reader.skipChildren();
+        return;
+      }
+      fileCount = reader.getSize();
+      if (fileCount > OVERFLOW_THRESHOLD) {
+        reader.skipChildren();
+        return;
+      }
+      files = new ArrayList<>(fileCount);
+      while (reader.next() == BserReader.Token.START_OBJECT) {
+        files.add(FileChange.decode(reader));
+      }
+    }
+
+    @Nullable
+    private static String nextString(BserReader reader) throws IOException {
+      if (reader.next() == BserReader.Token.STRING) {
+        return reader.getString();
+      }
+      reader.skipChildren();
+      return null;
+    }
+  }
+
+  /** A file listed in the response to a {@code since} query. */
+  private static class FileChange {
+    @Nullable private String name;
+    private WatchmanEvent.Kind kind = WatchmanEvent.Kind.MODIFY;
+    // Following legacy behavior, everything we get from Watchman is interpreted as file changes
+    // unless explicitly specified with `type` field
+    private WatchmanEvent.Type type = Type.FILE;
+
+    static FileChange decode(BserReader reader) throws IOException {
+      FileChange file = new FileChange();
+      boolean isNew = false;
+      boolean exists = true;
+      while (reader.next() == BserReader.Token.FIELD_NAME) {
+        if (reader.textEquals("name")) {
+          file.name = QueryResponse.nextString(reader);
+        } else if (reader.textEquals("new")) {
+          isNew = reader.next() == BserReader.Token.TRUE;
+        } else if (reader.textEquals("exists")) {
+          exists = reader.next() != BserReader.Token.FALSE;
+        } else if (reader.textEquals("type")) {
+          if (reader.next() == BserReader.Token.STRING) {
+            if (reader.textEquals("d")) {
+              file.type = Type.DIRECTORY;
+            } else if (reader.textEquals("l")) {
+              file.type = Type.SYMLINK;
+            }
+          } else {
+            reader.skipChildren();
+          }
+        } else {
+          reader.next();
+          reader.skipChildren();
         }
       }
-    } catch (InterruptedException e) {
-      String message = "The communication with watchman daemon has been interrupted.";
-      LOG.warn(e, message);
-      // Events may have been lost, signal overflow.
-      postWatchEvent(buckEventBus, ImmutableWatchmanOverflowEvent.of(cellPath, message));
-      Threads.interruptCurrentThread();
-      throw e;
-    } catch (IOException e) {
-      String message =
-          "There was an error while communicating with the watchman daemon: " + e.getMessage();
-      LOG.error(e, message);
-      // Events may have been lost, signal overflow.
-      postWatchEvent(buckEventBus, ImmutableWatchmanOverflowEvent.of(cellPath, message));
-      throw e;
+      if (isNew) {
+        file.kind = WatchmanEvent.Kind.CREATE;
+      }
+      if (!exists) {
+        file.kind = WatchmanEvent.Kind.DELETE;
+      }
+      return file;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("{name=%s, kind=%s, type=%s}", name, kind, type);
     }
   }
 
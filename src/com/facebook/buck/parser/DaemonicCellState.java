@@ -26,31 +26,42 @@ import com.facebook.buck.core.model.targetgraph.raw.UnconfiguredTargetNode;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
+import com.facebook.buck.skylark.io.impl.GlobIndex;
+import com.facebook.buck.skylark.parser.ExtensionDataCache;
 import com.facebook.buck.util.concurrent.AutoCloseableLock;
-import com.facebook.buck.util.concurrent.AutoCloseableReadWriteUpdateLock;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
-import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.Striped;
 import java.nio.file.Path;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
 import java.util.function.Function;
-import javax.annotation.concurrent.GuardedBy;
 
+/**
+ * Caches of a {@link Cell} kept by the daemon between commands.
+ *
+ * <p>Lookups don't take locks. Changes are serialized per build file and per unflavored build
+ * target by striped locks, so invalidating one package doesn't block parsing in unrelated parts of
+ * the cell.
+ */
 class DaemonicCellState {
 
   private static final Logger LOG = Logger.get(DaemonicCellState.class);
 
+  /** Number of locks that build files and build targets are spread across. */
+  private static final int LOCK_STRIPES = 64;
+
   /**
    * Cache of {@link BuildTarget} to some computed value at the {@link Cell} bases
    *
@@ -61,7 +72,6 @@ class DaemonicCellState {
     private final CellCacheType<K, T> type;
 
     /** Unbounded cache for all computed objects associated with build targets. */
-    @GuardedBy("rawAndComputedNodesLock")
     public final ConcurrentMapCache<K, T> allComputedNodes =
         new ConcurrentMapCache<>(parsingThreads);
 
@@ -70,36 +80,39 @@ class DaemonicCellState {
      * given unflavored build target.
      *
      * <p>This map is used to locate all the build targets that need to be invalidated when a build
-     * build file that produced those build targets has changed.
+     * build file that produced those build targets has changed. Each set is only accessed while
+     * holding the lock of its unflavored build target.
      */
-    @GuardedBy("rawAndComputedNodesLock")
-    private final SetMultimap<UnflavoredBuildTargetView, K> targetsCornucopia =
-        HashMultimap.create();
+    private final ConcurrentMap<UnflavoredBuildTargetView, Set<K>> targetsCornucopia =
+        new ConcurrentHashMap<>();
 
     Cache(CellCacheType<K, T> type) {
       this.type = type;
     }
 
+    /** Must be called while holding the lock of {@code target}. */
     private void invalidateFor(UnflavoredBuildTargetView target) {
-      Set<K> keys = targetsCornucopia.removeAll(target);
-      allComputedNodes.invalidateAll(keys);
+      Set<K> keys = targetsCornucopia.remove(target);
+      if (keys != null) {
+        allComputedNodes.invalidateAll(keys);
+      }
     }
 
     public Optional<T> lookupComputedNode(K target) throws BuildTargetException {
-      try (AutoCloseableLock readLock = rawAndComputedNodesLock.readLock()) {
-        return Optional.ofNullable(allComputedNodes.getIfPresent(target));
-      }
+      return Optional.ofNullable(allComputedNodes.getIfPresent(target));
     }
 
     public T putComputedNodeIfNotPresent(K target, T targetNode) throws BuildTargetException {
-      try (AutoCloseableLock writeLock = rawAndComputedNodesLock.writeLock()) {
+      UnflavoredBuildTargetView unflavoredTarget =
+          type.keyToUnflavoredBuildTargetView.apply(target);
+      try (AutoCloseableLock lock = lockTarget(unflavoredTarget)) {
         T updatedNode = allComputedNodes.putIfAbsentAndGet(target, targetNode);
         Preconditions.checkState(
-            allRawNodeTargets.contains(type.keyToUnflavoredBuildTargetView.apply(target)),
+            allRawNodeTargets.contains(unflavoredTarget),
             "Added %s to computed nodes, which isn't present in raw nodes",
             target);
         if (updatedNode.equals(targetNode)) {
-          targetsCornucopia.put(type.keyToUnflavoredBuildTargetView.apply(target), target);
+          targetsCornucopia.computeIfAbsent(unflavoredTarget, t -> new HashSet<>()).add(target);
         }
         return updatedNode;
       }
@@ -118,8 +131,7 @@ class DaemonicCellState {
    * <p>The purpose of this set is to invalidate build file manifests produced from the build files
    * that include changes files.
    */
-  @GuardedBy("rawAndComputedNodesLock")
-  private final SetMultimap<Path, Path> buildFileDependents;
+  private final ConcurrentMap<Path, Set<Path>> buildFileDependents;
 
   /**
    * Contains environment variables used during parsing of a particular build file.
@@ -128,11 +140,9 @@ class DaemonicCellState {
    * variables used during parsing of a build file that produced that build file manifest have
    * changed.
    */
-  @GuardedBy("rawAndComputedNodesLock")
-  private final Map<Path, ImmutableMap<String, Optional<String>>> buildFileEnv;
+  private final ConcurrentMap<Path, ImmutableMap<String, Optional<String>>> buildFileEnv;
 
   /** Used as an unbounded cache to stored build file manifests by build file path. */
-  @GuardedBy("rawAndComputedNodesLock")
   private final ConcurrentMapCache<Path, BuildFileManifest> allBuildFileManifests;
 
   /**
@@ -143,9 +153,14 @@ class DaemonicCellState {
    * Cache#allComputedNodes}) is also in {@link #allBuildFileManifests}, as we use the latter to
    * handle invalidations.
    */
-  @GuardedBy("rawAndComputedNodesLock")
   private final Set<UnflavoredBuildTargetView> allRawNodeTargets;
 
+  /** Extension files evaluated by the Skylark parsers of this cell. */
+  private final ExtensionDataCache extensionDataCache;
+
+  /** Directory listings used to evaluate globs of build files in this cell. */
+  private final GlobIndex globIndex;
+
   /** Type-safe accessor to one of state caches */
   static class CellCacheType<K, T> {
     private final Function<DaemonicCellState, Cache<K, T>> getCache;
@@ -187,7 +202,15 @@ class DaemonicCellState {
 
   private final Cache<UnconfiguredBuildTargetView, UnconfiguredTargetNode> rawTargetNodeCache;
 
-  private final AutoCloseableReadWriteUpdateLock rawAndComputedNodesLock;
+  /** Serialize changes to the caches made for the same build file. */
+  private final Striped<Lock> buildFileLocks = Striped.lock(LOCK_STRIPES);
+
+  /**
+   * Serialize changes to the caches made for the same unflavored build target. May be taken while
+   * holding a lock of {@link #buildFileLocks}, never the other way around.
+   */
+  private final Striped<Lock> targetLocks = Striped.lock(LOCK_STRIPES);
+
   private final int parsingThreads;
 
   DaemonicCellState(Cell cell, int parsingThreads) {
@@ -195,11 +218,12 @@ class DaemonicCellState {
     this.parsingThreads = parsingThreads;
     this.cellRoot = cell.getRoot();
     this.cellCanonicalName = cell.getCanonicalName();
-    this.buildFileDependents = HashMultimap.create();
-    this.buildFileEnv = new HashMap<>();
+    this.buildFileDependents = new ConcurrentHashMap<>();
+    this.buildFileEnv = new ConcurrentHashMap<>();
     this.allBuildFileManifests = new ConcurrentMapCache<>(parsingThreads);
-    this.allRawNodeTargets = new HashSet<>();
-    this.rawAndComputedNodesLock = new AutoCloseableReadWriteUpdateLock();
+    this.allRawNodeTargets = ConcurrentHashMap.newKeySet();
+    this.extensionDataCache = new ExtensionDataCache();
+    this.globIndex = GlobIndex.of(cell.getFilesystem());
     this.targetNodeCache = new Cache<>(TARGET_NODE_CACHE_TYPE);
     this.rawTargetNodeCache = new Cache<>(RAW_TARGET_NODE_CACHE_TYPE);
   }
@@ -217,10 +241,24 @@ class DaemonicCellState {
     return type.getCache.apply(this);
   }
 
+  ExtensionDataCache getExtensionDataCache() {
+    return extensionDataCache;
+  }
+
+  GlobIndex getGlobIndex() {
+    return globIndex;
+  }
+
+  private AutoCloseableLock lockBuildFile(Path buildFile) {
+    return AutoCloseableLock.createFor(buildFileLocks.get(buildFile));
+  }
+
+  private AutoCloseableLock lockTarget(UnflavoredBuildTargetView target) {
+    return AutoCloseableLock.createFor(targetLocks.get(target));
+  }
+
   Optional<BuildFileManifest> lookupBuildFileManifest(Path buildFile) {
-    try (AutoCloseableLock readLock = rawAndComputedNodesLock.readLock()) {
-      return Optional.ofNullable(allBuildFileManifests.getIfPresent(buildFile));
-    }
+    return Optional.ofNullable(allBuildFileManifests.getIfPresent(buildFile));
   }
 
   BuildFileManifest putBuildFileManifestIfNotPresent(
@@ -228,7 +266,7 @@ class DaemonicCellState {
       BuildFileManifest buildFileManifest,
       ImmutableSet<Path> dependentsOfEveryNode,
       ImmutableMap<String, Optional<String>> env) {
-    try (AutoCloseableLock writeLock = rawAndComputedNodesLock.writeLock()) {
+    try (AutoCloseableLock lock = lockBuildFile(buildFile)) {
       BuildFileManifest updated =
           allBuildFileManifests.putIfAbsentAndGet(buildFile, buildFileManifest);
       for (Map<String, Object> node : updated.getTargets().values()) {
@@ -241,7 +279,15 @@ class DaemonicCellState {
         // We now know all the nodes. They all implicitly depend on everything in
         // the "dependentsOfEveryNode" set.
         for (Path dependent : dependentsOfEveryNode) {
-          buildFileDependents.put(dependent, buildFile);
+          // Added atomically so that a concurrent invalidation of the dependent can't drop it.
+          buildFileDependents.compute(
+              dependent,
+              (path, buildFiles) -> {
+                Set<Path> updatedBuildFiles =
+                    buildFiles == null ? ConcurrentHashMap.newKeySet() : buildFiles;
+                updatedBuildFiles.add(buildFile);
+                return updatedBuildFiles;
+              });
         }
       }
       return updated;
@@ -249,8 +295,9 @@ class DaemonicCellState {
   }
 
   int invalidatePath(Path path) {
-    try (AutoCloseableLock writeLock = rawAndComputedNodesLock.writeLock()) {
-      int invalidatedRawNodes = 0;
+    extensionDataCache.invalidate(path);
+    int invalidatedRawNodes = 0;
+    try (AutoCloseableLock lock = lockBuildFile(path)) {
       BuildFileManifest buildFileManifest = allBuildFileManifests.getIfPresent(path);
       if (buildFileManifest != null) {
         ImmutableMap<String, Map<String, Object>> rawNodes = buildFileManifest.getTargets();
@@ -261,16 +308,22 @@ class DaemonicCellState {
               UnflavoredBuildTargetFactory.createFromRawNode(
                   cellRoot, cellCanonicalName, rawNode, path);
           LOG.debug("Invalidating target for path %s: %s", path, target);
-          for (Cache<?, ?> cache : typedNodeCaches()) {
-            cache.invalidateFor(target);
+          try (AutoCloseableLock targetLock = lockTarget(target)) {
+            for (Cache<?, ?> cache : typedNodeCaches()) {
+              cache.invalidateFor(target);
+            }
+            allRawNodeTargets.remove(target);
           }
-          allRawNodeTargets.remove(target);
         }
         allBuildFileManifests.invalidate(path);
       }
+      buildFileEnv.remove(path);
+    }
 
-      // We may have been given a file that other build files depend on. Iteratively remove those.
-      Iterable<Path> dependents = buildFileDependents.get(path);
+    // We may have been given a file that other build files depend on. Iteratively remove those.
+    // Build file locks are never nested, so this is done after releasing the lock of this file.
+    Set<Path> dependents = buildFileDependents.remove(path);
+    if (dependents != null) {
       LOG.verbose("Invalidating dependents for path %s: %s", path, dependents);
       for (Path dependent : dependents) {
         if (dependent.equals(path)) {
@@ -278,19 +331,14 @@ class DaemonicCellState {
         }
         invalidatedRawNodes += invalidatePath(dependent);
       }
-      buildFileDependents.removeAll(path);
-      buildFileEnv.remove(path);
-
-      return invalidatedRawNodes;
     }
+
+    return invalidatedRawNodes;
   }
 
   Optional<MapDifference<String, String>> invalidateIfEnvHasChanged(Cell cell, Path buildFile) {
     // Invalidate if env vars have changed.
-    ImmutableMap<String, Optional<String>> usedEnv;
-    try (AutoCloseableLock readLock = rawAndComputedNodesLock.readLock()) {
-      usedEnv = buildFileEnv.get(buildFile);
-    }
+    ImmutableMap<String, Optional<String>> usedEnv = buildFileEnv.get(buildFile);
     if (usedEnv == null) {
       this.cell.set(cell);
       return Optional.empty();
@@ -315,6 +363,8 @@ class DaemonicCellState {
 
   /** @return {@code true} if the given path has dependencies that are present in the given set. */
   boolean pathDependentPresentIn(Path path, Set<Path> buildFiles) {
-    return !Collections.disjoint(buildFileDependents.get(cellRoot.resolve(path)), buildFiles);
+    return !Collections.disjoint(
+        buildFileDependents.getOrDefault(cellRoot.resolve(path), Collections.emptySet()),
+        buildFiles);
   }
 }
@@ -38,8 +38,8 @@ import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
-import com.facebook.buck.util.concurrent.AutoCloseableLock;
-import com.facebook.buck.util.concurrent.AutoCloseableReadWriteLock;
+import com.facebook.buck.skylark.io.impl.GlobIndex;
+import com.facebook.buck.skylark.parser.ExtensionDataCache;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
@@ -64,7 +64,6 @@ import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
@@ -266,7 +265,6 @@ public class DaemonicParserState {
    * for cache invalidation. Please see {@link #invalidateBasedOn(WatchmanPathEvent)} for example
    * usage.
    */
-  @GuardedBy("cellStateLock")
   private final ConcurrentMap<Path, DaemonicCellState> cellPathToDaemonicState;
 
   private final DaemonicCacheView<BuildTarget, TargetNode<?>> targetNodeCache =
@@ -297,11 +295,7 @@ public class DaemonicParserState {
    * The default includes used by the previous run of the parser in each cell (the key is the cell's
    * root path). If this value changes, then we need to invalidate all the caches.
    */
-  @GuardedBy("cachedStateLock")
-  private Map<Path, Iterable<String>> cachedIncludes;
-
-  private final AutoCloseableReadWriteLock cachedStateLock;
-  private final AutoCloseableReadWriteLock cellStateLock;
+  private final Map<Path, Iterable<String>> cachedIncludes;
 
   public DaemonicParserState(int parsingThreads) {
     this.parsingThreads = parsingThreads;
@@ -343,9 +337,6 @@ public class DaemonicParserState {
         new ConcurrentHashMap<>(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, parsingThreads);
 
     this.rawNodeCache = new DaemonicRawCacheView();
-
-    this.cachedStateLock = new AutoCloseableReadWriteLock();
-    this.cellStateLock = new AutoCloseableReadWriteLock();
   }
 
   LoadingCache<Cell, BuildFileTree> getBuildFileTrees() {
@@ -380,22 +371,32 @@ public class DaemonicParserState {
     return rawNodeCache;
   }
 
+  /**
+   * @return the cache of extension files evaluated by the Skylark parsers of {@code cell}, which is
+   *     kept across commands and invalidated along with the build files loading them.
+   */
+  public ExtensionDataCache getExtensionDataCache(Cell cell) {
+    invalidateIfProjectBuildFileParserStateChanged(cell);
+    return getOrCreateCellState(cell).getExtensionDataCache();
+  }
+
+  /**
+   * @return the directory listings of {@code cell} that globs are evaluated against, which are kept
+   *     across commands and updated as files are added and removed.
+   */
+  public GlobIndex getGlobIndex(Cell cell) {
+    invalidateIfProjectBuildFileParserStateChanged(cell);
+    return getOrCreateCellState(cell).getGlobIndex();
+  }
+
   @Nullable
   private DaemonicCellState getCellState(Cell cell) {
-    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
-      return cellPathToDaemonicState.get(cell.getRoot());
-    }
+    return cellPathToDaemonicState.get(cell.getRoot());
   }
 
   private DaemonicCellState getOrCreateCellState(Cell cell) {
-    try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
-      DaemonicCellState state = cellPathToDaemonicState.get(cell.getRoot());
-      if (state == null) {
-        state = new DaemonicCellState(cell, parsingThreads);
-        cellPathToDaemonicState.put(cell.getRoot(), state);
-      }
-      return state;
-    }
+    return cellPathToDaemonicState.computeIfAbsent(
+        cell.getRoot(), root -> new DaemonicCellState(cell, parsingThreads));
   }
 
   @Subscribe
@@ -421,37 +422,35 @@ public class DaemonicParserState {
     // We only care about creation and deletion events because modified should result in a
     // rule key change.  For parsing, these are the only events we need to care about.
     if (isPathCreateOrDeleteEvent(event)) {
-      try (AutoCloseableLock readLock = cellStateLock.readLock()) {
-        for (DaemonicCellState state : cellPathToDaemonicState.values()) {
+      for (DaemonicCellState state : cellPathToDaemonicState.values()) {
+        state.getGlobIndex().invalidate(fullPath);
+        try {
+          Cell cell = state.getCell();
+          BuildFileTree buildFiles = buildFileTrees.get(cell);
+
+          if (fullPath.endsWith(cell.getBuckConfigView(ParserConfig.class).getBuildFileName())) {
+            LOG.debug(
+                "Build file %s changed, invalidating build file tree for cell %s", fullPath, cell);
+            // If a build file has been added or removed, reconstruct the build file tree.
+            buildFileTrees.invalidate(cell);
+          }
+
+          // Added or removed files can affect globs, so invalidate the package build file
+          // "containing" {@code path} unless its filename matches a temp file pattern.
+          if (!cell.getFilesystem().isIgnored(path)) {
+            invalidateContainingBuildFile(state, cell, buildFiles, path);
+          } else {
+            LOG.debug(
+                "Not invalidating the owning build file of %s because it is a temporary file.",
+                fullPath);
+          }
+        } catch (ExecutionException | UncheckedExecutionException e) {
           try {
-            Cell cell = state.getCell();
-            BuildFileTree buildFiles = buildFileTrees.get(cell);
-
-            if (fullPath.endsWith(cell.getBuckConfigView(ParserConfig.class).getBuildFileName())) {
-              LOG.debug(
-                  "Build file %s changed, invalidating build file tree for cell %s",
-                  fullPath, cell);
-              // If a build file has been added or removed, reconstruct the build file tree.
-              buildFileTrees.invalidate(cell);
-            }
-
-            // Added or removed files can affect globs, so invalidate the package build file
-            // "containing" {@code path} unless its filename matches a temp file pattern.
-            if (!cell.getFilesystem().isIgnored(path)) {
-              invalidateContainingBuildFile(state, cell, buildFiles, path);
-            } else {
-              LOG.debug(
-                  "Not invalidating the owning build file of %s because it is a temporary file.",
-                  fullPath);
-            }
-          } catch (ExecutionException | UncheckedExecutionException e) {
-            try {
-              Throwables.throwIfInstanceOf(e, BuildFileParseException.class);
-              Throwables.throwIfUnchecked(e);
-              throw new RuntimeException(e);
-            } catch (BuildFileParseException bfpe) {
-              LOG.warn("Unable to parse already parsed build file.", bfpe);
-            }
+            Throwables.throwIfInstanceOf(e, BuildFileParseException.class);
+            Throwables.throwIfUnchecked(e);
+            throw new RuntimeException(e);
+          } catch (BuildFileParseException bfpe) {
+            LOG.warn("Unable to parse already parsed build file.", bfpe);
           }
         }
       }
@@ -469,11 +468,9 @@ public class DaemonicParserState {
    * file.
    */
   private boolean configurationRulesDependOn(Path path) {
-    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
-      for (DaemonicCellState state : cellPathToDaemonicState.values()) {
-        if (state.pathDependentPresentIn(path, configurationBuildFiles)) {
-          return true;
-        }
+    for (DaemonicCellState state : cellPathToDaemonicState.values()) {
+      if (state.pathDependentPresentIn(path, configurationBuildFiles)) {
+        return true;
       }
     }
     return false;
@@ -483,10 +480,8 @@ public class DaemonicParserState {
 
     // The paths from watchman are not absolute. Because of this, we adopt a conservative approach
     // to invalidating the caches.
-    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
-      for (DaemonicCellState state : cellPathToDaemonicState.values()) {
-        invalidatePath(state, path);
-      }
+    for (DaemonicCellState state : cellPathToDaemonicState.values()) {
+      invalidatePath(state, path);
     }
   }
 
@@ -559,62 +554,50 @@ public class DaemonicParserState {
 
   private boolean invalidateIfBuckConfigOrEnvHasChanged(
       Cell cell, Path buildFile, BuckEventBus eventBus) {
-    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
-      DaemonicCellState state = cellPathToDaemonicState.get(cell.getRoot());
-      if (state == null) {
-        return false;
-      }
-
-      // Keep track of any invalidations.
-      boolean hasInvalidated = false;
-
-      // Currently, if `.buckconfig` settings change, we restart the entire daemon, meaning checking
-      // for `.buckconfig`-based invalidations is redundant. (see
-      // {@link com.facebook.buck.cli.DaemonLifecycleManager#getDaemon} for where we restart the
-      // daemon and {@link com.facebook.buck.config.BuckConfig's static initializer for the
-      // whitelist of fields.
-
-      // Invalidate based on env vars.
-      Optional<MapDifference<String, String>> envDiff =
-          state.invalidateIfEnvHasChanged(cell, buildFile);
-      if (envDiff.isPresent()) {
-        hasInvalidated = true;
-        MapDifference<String, String> diff = envDiff.get();
-        LOG.info("Invalidating cache on environment change (%s)", diff);
-        Set<String> environmentChanges = new HashSet<>();
-        environmentChanges.addAll(diff.entriesOnlyOnLeft().keySet());
-        environmentChanges.addAll(diff.entriesOnlyOnRight().keySet());
-        environmentChanges.addAll(diff.entriesDiffering().keySet());
-        cacheInvalidatedByEnvironmentVariableChangeCounter.addAll(environmentChanges);
-        eventBus.post(ParsingEvent.environmentalChange(environmentChanges.toString()));
-      }
+    DaemonicCellState state = cellPathToDaemonicState.get(cell.getRoot());
+    if (state == null) {
+      return false;
+    }
 
-      return hasInvalidated;
+    // Keep track of any invalidations.
+    boolean hasInvalidated = false;
+
+    // Currently, if `.buckconfig` settings change, we restart the entire daemon, meaning checking
+    // for `.buckconfig`-based invalidations is redundant. (see
+    // {@link com.facebook.buck.cli.DaemonLifecycleManager#getDaemon} for where we restart the
+    // daemon and {@link com.facebook.buck.config.BuckConfig's static initializer for the
+    // whitelist of fields.
+
+    // Invalidate based on env vars.
+    Optional<MapDifference<String, String>> envDiff =
+        state.invalidateIfEnvHasChanged(cell, buildFile);
+    if (envDiff.isPresent()) {
+      hasInvalidated = true;
+      MapDifference<String, String> diff = envDiff.get();
+      LOG.info("Invalidating cache on environment change (%s)", diff);
+      Set<String> environmentChanges = new HashSet<>();
+      environmentChanges.addAll(diff.entriesOnlyOnLeft().keySet());
+      environmentChanges.addAll(diff.entriesOnlyOnRight().keySet());
+      environmentChanges.addAll(diff.entriesDiffering().keySet());
+      cacheInvalidatedByEnvironmentVariableChangeCounter.addAll(environmentChanges);
+      eventBus.post(ParsingEvent.environmentalChange(environmentChanges.toString()));
     }
+
+    return hasInvalidated;
   }
 
   private boolean invalidateIfProjectBuildFileParserStateChanged(Cell cell) {
     Iterable<String> defaultIncludes =
         cell.getBuckConfig().getView(ParserConfig.class).getDefaultIncludes();
 
-    boolean invalidatedByDefaultIncludesChange = false;
-    Iterable<String> expected;
-    try (AutoCloseableLock readLock = cachedStateLock.readLock()) {
-      expected = cachedIncludes.get(cell.getRoot());
-
-      if (expected == null || !Iterables.elementsEqual(defaultIncludes, expected)) {
-        // Someone's changed the default includes. That's almost definitely caused all our lovingly
-        // cached data to be enormously wonky.
-        invalidatedByDefaultIncludesChange = true;
-      }
-
-      if (!invalidatedByDefaultIncludesChange) {
-        return false;
-      }
-    }
-    try (AutoCloseableLock writeLock = cachedStateLock.writeLock()) {
-      cachedIncludes.put(cell.getRoot(), defaultIncludes);
+    Iterable<String> expected = cachedIncludes.get(cell.getRoot());
+    if (expected != null && Iterables.elementsEqual(defaultIncludes, expected)) {
+      return false;
     }
+
+    // Someone's changed the default includes. That's almost definitely caused all our lovingly
+    // cached data to be enormously wonky.
+    cachedIncludes.put(cell.getRoot(), defaultIncludes);
     if (invalidateCellCaches(cell)) {
       LOG.warn(
           "Invalidating cache on default includes change (%s != %s)", expected, defaultIncludes);
@@ -625,33 +608,28 @@ public class DaemonicParserState {
 
   public boolean invalidateCellCaches(Cell cell) {
     LOG.debug("Starting to invalidate caches for %s..", cell.getRoot());
-    try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
-      boolean invalidated = cellPathToDaemonicState.containsKey(cell.getRoot());
-      cellPathToDaemonicState.remove(cell.getRoot());
-      if (invalidated) {
-        LOG.debug("Cell cache data invalidated.");
-      } else {
-        LOG.debug("Cell caches were empty, no data invalidated.");
-      }
-
-      return invalidated;
+    boolean invalidated = cellPathToDaemonicState.remove(cell.getRoot()) != null;
+    if (invalidated) {
+      LOG.debug("Cell cache data invalidated.");
+    } else {
+      LOG.debug("Cell caches were empty, no data invalidated.");
     }
+
+    return invalidated;
   }
 
   public boolean invalidateAllCaches() {
     LOG.debug("Starting to invalidate all caches..");
-    try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
-      boolean invalidated = !cellPathToDaemonicState.isEmpty();
-      cellPathToDaemonicState.clear();
-      buildFileTrees.invalidateAll();
-      configurationBuildFiles.clear();
-      if (invalidated) {
-        LOG.debug("Cache data invalidated.");
-      } else {
-        LOG.debug("Caches were empty, no data invalidated.");
-      }
-      return invalidated;
+    boolean invalidated = !cellPathToDaemonicState.isEmpty();
+    cellPathToDaemonicState.clear();
+    buildFileTrees.invalidateAll();
+    configurationBuildFiles.clear();
+    if (invalidated) {
+      LOG.debug("Cache data invalidated.");
+    } else {
+      LOG.debug("Caches were empty, no data invalidated.");
     }
+    return invalidated;
   }
 
   public ImmutableList<Counter> getCounters() {
@@ -667,8 +645,6 @@ public class DaemonicParserState {
 
   @Override
   public String toString() {
-    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
-      return String.format("memoized=%s", cellPathToDaemonicState);
-    }
+    return String.format("memoized=%s", cellPathToDaemonicState);
   }
 }
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.parser;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
 import com.facebook.buck.command.config.ConfigIgnoredByDaemon;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.config.BuckConfig;
@@ -46,10 +48,12 @@ import com.facebook.buck.parser.decorators.EventReportingProjectBuildFileParser;
 import com.facebook.buck.parser.options.ProjectBuildFileParserOptions;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.skylark.io.GlobberFactory;
+import com.facebook.buck.skylark.io.impl.GlobIndex;
 import com.facebook.buck.skylark.io.impl.HybridGlobberFactory;
 import com.facebook.buck.skylark.io.impl.NativeGlobber;
 import com.facebook.buck.skylark.io.impl.SyncCookieState;
 import com.facebook.buck.skylark.parser.BuckGlobals;
+import com.facebook.buck.skylark.parser.ExtensionDataCache;
 import com.facebook.buck.skylark.parser.RuleFunctionFactory;
 import com.facebook.buck.skylark.parser.SkylarkProjectBuildFileParser;
 import com.facebook.buck.util.Console;
@@ -65,6 +69,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class DefaultProjectBuildFileParserFactory implements ProjectBuildFileParserFactory {
@@ -77,7 +82,18 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
   private final ThrowingCloseableMemoizedSupplier<ManifestService, IOException>
       manifestServiceSupplier;
   private final FileHashLoader fileHashLoader;
+  private final Function<Cell, ExtensionDataCache> extensionDataCacheProvider;
+  private final Function<Cell, GlobIndex> globIndexProvider;
+  private final Supplier<ArtifactCache> artifactCacheSupplier;
 
+  /**
+   * @param extensionDataCacheProvider provides the cache of evaluated extensions that Skylark
+   *     parsers created for a cell share.
+   * @param globIndexProvider provides the directory listings Skylark parsers created for a cell
+   *     evaluate globs against when globs are configured to be answered from an index.
+   * @param artifactCacheSupplier supplies the artifact cache parsed build files are shared through
+   *     when the parser cache is configured to use it.
+   */
   public DefaultProjectBuildFileParserFactory(
       TypeCoercerFactory typeCoercerFactory,
       Console console,
@@ -86,7 +102,10 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       boolean enableProfiling,
       Optional<AtomicLong> processedBytes,
       ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
-      FileHashLoader fileHashLoader) {
+      FileHashLoader fileHashLoader,
+      Function<Cell, ExtensionDataCache> extensionDataCacheProvider,
+      Function<Cell, GlobIndex> globIndexProvider,
+      Supplier<ArtifactCache> artifactCacheSupplier) {
     this.typeCoercerFactory = typeCoercerFactory;
     this.console = console;
     this.pythonInterpreterProvider = pythonInterpreterProvider;
@@ -95,6 +114,9 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
     this.processedBytes = processedBytes;
     this.manifestServiceSupplier = manifestServiceSupplier;
     this.fileHashLoader = fileHashLoader;
+    this.extensionDataCacheProvider = extensionDataCacheProvider;
+    this.globIndexProvider = globIndexProvider;
+    this.artifactCacheSupplier = artifactCacheSupplier;
   }
 
   public DefaultProjectBuildFileParserFactory(
@@ -104,7 +126,10 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       Optional<AtomicLong> processedBytes,
       KnownRuleTypesProvider knownRuleTypesProvider,
       ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
-      FileHashLoader fileHashLoader) {
+      FileHashLoader fileHashLoader,
+      Function<Cell, ExtensionDataCache> extensionDataCacheProvider,
+      Function<Cell, GlobIndex> globIndexProvider,
+      Supplier<ArtifactCache> artifactCacheSupplier) {
     this(
         typeCoercerFactory,
         Console.createNullConsole(),
@@ -113,7 +138,10 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
         enableProfiling,
         processedBytes,
         manifestServiceSupplier,
-        fileHashLoader);
+        fileHashLoader,
+        extensionDataCacheProvider,
+        globIndexProvider,
+        artifactCacheSupplier);
   }
 
   public DefaultProjectBuildFileParserFactory(
@@ -131,7 +159,10 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
         false,
         Optional.empty(),
         manifestServiceSupplier,
-        fileHashLoader);
+        fileHashLoader,
+        cell -> new ExtensionDataCache(),
+        cell -> GlobIndex.of(cell.getFilesystem()),
+        NoopArtifactCache::new);
   }
 
   /**
@@ -205,7 +236,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
     AbstractParserCacheConfig parserCacheConfig = buckConfig.getView(ParserCacheConfig.class);
     if (parserCacheConfig.isParserCacheEnabled()) {
       ParserCache parserCache =
-          ParserCache.of(buckConfig, filesystem, manifestServiceSupplier, eventBus);
+          ParserCache.of(
+              buckConfig, filesystem, manifestServiceSupplier, artifactCacheSupplier, eventBus);
       return CachingProjectBuildFileParserDecorator.of(
           parserCache, skylarkParser, buckConfig.getConfig(), filesystem, fileHashLoader);
     }
@@ -247,6 +279,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
                           cell,
                           typeCoercerFactory,
                           knownRuleTypesProvider.getUserDefinedRuleTypes(cell),
+                          extensionDataCacheProvider.apply(cell),
+                          globIndexProvider.apply(cell),
                           eventBus,
                           buildFileParserOptions,
                           parserConfig.getSkylarkGlobHandler()),
@@ -263,6 +297,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
                       cell,
                       typeCoercerFactory,
                       knownRuleTypesProvider.getUserDefinedRuleTypes(cell),
+                      extensionDataCacheProvider.apply(cell),
+                      globIndexProvider.apply(cell),
                       eventBus,
                       buildFileParserOptions,
                       parserConfig.getSkylarkGlobHandler()),
@@ -314,12 +350,15 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       Cell cell,
       TypeCoercerFactory typeCoercerFactory,
       KnownUserDefinedRuleTypes knownUserDefinedRuleTypes,
+      ExtensionDataCache extensionDataCache,
+      GlobIndex globIndex,
       BuckEventBus eventBus,
       ProjectBuildFileParserOptions buildFileParserOptions,
       SkylarkGlobHandler skylarkGlobHandler) {
     GlobberFactory globberFactory;
     try {
-      globberFactory = getSkylarkGlobberFactory(buildFileParserOptions, skylarkGlobHandler);
+      globberFactory =
+          getSkylarkGlobberFactory(buildFileParserOptions, skylarkGlobHandler, globIndex);
     } catch (IOException e) {
       throw new RuntimeException(
           "Watchman glob handler was requested, but Watchman client cannot be created", e);
@@ -362,7 +401,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
               SkylarkFilesystem.using(cell.getFilesystem()),
               buckGlobals,
               eventHandler,
-              globberFactory);
+              globberFactory,
+              extensionDataCache);
 
       // All built-ins should have already been discovered. Freezing improves performance by
       // avoiding synchronization during query operations. This operation is idempotent, so it's
@@ -381,16 +421,23 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
   }
 
   private static GlobberFactory getSkylarkGlobberFactory(
-      ProjectBuildFileParserOptions buildFileParserOptions, SkylarkGlobHandler skylarkGlobHandler)
+      ProjectBuildFileParserOptions buildFileParserOptions,
+      SkylarkGlobHandler skylarkGlobHandler,
+      GlobIndex globIndex)
       throws IOException {
+    // Without watchman, nothing would keep the index up to date.
+    if (skylarkGlobHandler == SkylarkGlobHandler.JAVA
+        || buildFileParserOptions.getWatchman() == WatchmanFactory.NULL_WATCHMAN) {
+      return NativeGlobber::create;
+    }
+    if (skylarkGlobHandler == SkylarkGlobHandler.INDEX) {
+      return basePath -> NativeGlobber.create(basePath, globIndex);
+    }
     SyncCookieState syncCookieState = new SyncCookieState();
-    return skylarkGlobHandler == SkylarkGlobHandler.JAVA
-            || buildFileParserOptions.getWatchman() == WatchmanFactory.NULL_WATCHMAN
-        ? NativeGlobber::create
-        : HybridGlobberFactory.using(
-            buildFileParserOptions.getWatchman().createClient(),
-            syncCookieState,
-            buildFileParserOptions.getProjectRoot(),
-            buildFileParserOptions.getWatchman().getProjectWatches());
+    return HybridGlobberFactory.using(
+        buildFileParserOptions.getWatchman().createClient(),
+        syncCookieState,
+        buildFileParserOptions.getProjectRoot(),
+        buildFileParserOptions.getWatchman().getProjectWatches());
   }
 }
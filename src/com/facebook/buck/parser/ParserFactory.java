@@ -15,6 +15,8 @@
  */
 package com.facebook.buck.parser;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
 import com.facebook.buck.core.parser.buildtargetparser.UnconfiguredBuildTargetViewFactory;
 import com.facebook.buck.core.rules.knowntypes.provider.KnownRuleTypesProvider;
 import com.facebook.buck.event.BuckEventBus;
@@ -25,6 +27,7 @@ import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.util.ThrowingCloseableMemoizedSupplier;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import java.io.IOException;
+import java.util.function.Supplier;
 
 /** Responsible for creating an instance of {@link Parser}. */
 public class ParserFactory {
@@ -42,6 +45,39 @@ public class ParserFactory {
       ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
       FileHashLoader fileHashLoader,
       UnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory) {
+    return create(
+        typeCoercerFactory,
+        marshaller,
+        knownRuleTypesProvider,
+        parserPythonInterpreterProvider,
+        daemonicParserState,
+        targetSpecResolver,
+        watchman,
+        eventBus,
+        manifestServiceSupplier,
+        fileHashLoader,
+        unconfiguredBuildTargetFactory,
+        NoopArtifactCache::new);
+  }
+
+  /**
+   * Creates an instance of {@link Parser} that shares parsed build files through the artifact
+   * cache supplied by {@code artifactCacheSupplier} when that is enabled in the parser cache
+   * configuration.
+   */
+  public static Parser create(
+      TypeCoercerFactory typeCoercerFactory,
+      ConstructorArgMarshaller marshaller,
+      KnownRuleTypesProvider knownRuleTypesProvider,
+      ParserPythonInterpreterProvider parserPythonInterpreterProvider,
+      DaemonicParserState daemonicParserState,
+      TargetSpecResolver targetSpecResolver,
+      Watchman watchman,
+      BuckEventBus eventBus,
+      ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
+      FileHashLoader fileHashLoader,
+      UnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory,
+      Supplier<ArtifactCache> artifactCacheSupplier) {
     return new ParserWithConfigurableAttributes(
         daemonicParserState,
         new PerBuildStateFactoryWithConfigurableAttributes(
@@ -53,7 +89,8 @@ public class ParserFactory {
             eventBus,
             manifestServiceSupplier,
             fileHashLoader,
-            unconfiguredBuildTargetFactory),
+            unconfiguredBuildTargetFactory,
+            artifactCacheSupplier),
         targetSpecResolver,
         eventBus);
   }
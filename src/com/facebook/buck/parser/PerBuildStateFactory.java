@@ -16,6 +16,8 @@
 
 package com.facebook.buck.parser;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
 import com.facebook.buck.core.parser.buildtargetparser.UnconfiguredBuildTargetViewFactory;
 import com.facebook.buck.core.rules.knowntypes.provider.KnownRuleTypesProvider;
 import com.facebook.buck.event.BuckEventBus;
@@ -28,18 +30,22 @@ import com.facebook.buck.util.hashing.FileHashLoader;
 import java.io.IOException;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 public abstract class PerBuildStateFactory {
 
   protected final ThrowingCloseableMemoizedSupplier<ManifestService, IOException>
       manifestServiceSupplier;
   protected final FileHashLoader fileHashLoader;
+  protected final Supplier<ArtifactCache> artifactCacheSupplier;
 
   protected PerBuildStateFactory(
       ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
-      FileHashLoader fileHashLoader) {
+      FileHashLoader fileHashLoader,
+      Supplier<ArtifactCache> artifactCacheSupplier) {
     this.manifestServiceSupplier = manifestServiceSupplier;
     this.fileHashLoader = fileHashLoader;
+    this.artifactCacheSupplier = artifactCacheSupplier;
   }
 
   /**
@@ -66,7 +72,8 @@ public abstract class PerBuildStateFactory {
         eventBus,
         manifestServiceSupplier,
         fileHashLoader,
-        unconfiguredBuildTargetFactory);
+        unconfiguredBuildTargetFactory,
+        NoopArtifactCache::new);
   }
 
   public PerBuildState create(
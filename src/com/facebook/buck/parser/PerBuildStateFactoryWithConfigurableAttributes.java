@@ -16,6 +16,7 @@
 
 package com.facebook.buck.parser;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.model.impl.MultiPlatformTargetConfigurationTransformer;
@@ -57,6 +58,7 @@ import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /** Version of {@link PerBuildStateFactory} that supports configurable attributes. */
 class PerBuildStateFactoryWithConfigurableAttributes extends PerBuildStateFactory {
@@ -78,8 +80,9 @@ class PerBuildStateFactoryWithConfigurableAttributes extends PerBuildStateFactor
       BuckEventBus eventBus,
       ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
       FileHashLoader fileHashLoader,
-      UnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory) {
-    super(manifestServiceSupplier, fileHashLoader);
+      UnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory,
+      Supplier<ArtifactCache> artifactCacheSupplier) {
+    super(manifestServiceSupplier, fileHashLoader, artifactCacheSupplier);
     this.typeCoercerFactory = typeCoercerFactory;
     this.marshaller = marshaller;
     this.knownRuleTypesProvider = knownRuleTypesProvider;
@@ -111,10 +114,13 @@ class PerBuildStateFactoryWithConfigurableAttributes extends PerBuildStateFactor
             parseProcessedBytes,
             knownRuleTypesProvider,
             manifestServiceSupplier,
-            fileHashLoader);
+            fileHashLoader,
+            daemonicParserState::getExtensionDataCache,
+            daemonicParserState::getGlobIndex,
+            artifactCacheSupplier);
     ProjectBuildFileParserPool projectBuildFileParserPool =
         new ProjectBuildFileParserPool(
-            numParsingThreads, // Max parsers to create per cell.
+            numParsingThreads, // Max parsers to create across all cells.
             projectBuildFileParserFactory,
             parsingContext.isProfilingEnabled());
 
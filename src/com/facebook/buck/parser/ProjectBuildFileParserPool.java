@@ -24,32 +24,61 @@ import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.ProjectBuildFileParser;
 import com.facebook.buck.parser.api.Syntax;
 import com.facebook.buck.parser.config.ParserConfig;
-import com.facebook.buck.util.concurrent.ResourcePool;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 /**
  * Allows multiple concurrently executing futures to share a constrained number of parsers.
  *
- * <p>Parser instances are lazily created up till a fixed maximum. If more than max parser are
- * requested the associated 'requests' are queued up. As soon as a parser is returned it will be
- * used to satisfy the first pending request, otherwise it is "parked".
+ * <p>Parsers of all cells draw from a single budget. Parser instances are lazily created while
+ * requests are waiting for one, until the budget is used up. From then on, a parser that has no
+ * waiting requests for its cell is retired to make room for a parser of a cell that has some, so
+ * that parsers don't sit idle in one cell while requests queue up in another.
+ *
+ * <p>Waiting requests are handed parsers newest first. Build files are requested as the targets
+ * depending on them are parsed, so the newest requests continue the dependency chains that were
+ * followed most recently, and parsing the deepest chains early keeps them from determining how
+ * long parsing takes. The order in which results are used does not depend on it.
  */
 class ProjectBuildFileParserPool implements AutoCloseable {
   private static final Logger LOG = Logger.get(ProjectBuildFileParserPool.class);
 
-  private final int maxParsersPerCell;
+  private final int maxParsers;
+
+  /** Parsers created for each cell, whether idle or parsing. */
+  @GuardedBy("this")
+  private final Map<Cell, List<ProjectBuildFileParser>> createdParsers;
+
+  /** Parsers that are not parsing for each cell, the most recently used first. */
+  @GuardedBy("this")
+  private final Map<Cell, Deque<ProjectBuildFileParser>> idleParsers;
+
+  /** Number of parsers that exist or are being created, across all cells. */
+  @GuardedBy("this")
+  private int parserCount;
 
+  /** Requests waiting for a parser, the newest first. */
   @GuardedBy("this")
-  private final Map<Cell, ResourcePool<ProjectBuildFileParser>> parserResourcePools;
+  private final Deque<ParseRequest> pendingRequests;
 
   @GuardedBy("this")
   private final Map<Cell, ProjectBuildFileParser> nonPooledCells;
@@ -58,15 +87,18 @@ class ProjectBuildFileParserPool implements AutoCloseable {
   private final AtomicBoolean closing;
   private final boolean enableProfiler;
 
-  /** @param maxParsersPerCell maximum number of parsers to create for a single cell. */
+  /** @param maxParsers maximum number of parsers to create for all cells together. */
   public ProjectBuildFileParserPool(
-      int maxParsersPerCell,
+      int maxParsers,
       ProjectBuildFileParserFactory projectBuildFileParserFactory,
       boolean enableProfiler) {
-    Preconditions.checkArgument(maxParsersPerCell > 0);
+    Preconditions.checkArgument(maxParsers > 0);
 
-    this.maxParsersPerCell = maxParsersPerCell;
-    this.parserResourcePools = new HashMap<>();
+    this.maxParsers = maxParsers;
+    this.createdParsers = new HashMap<>();
+    this.idleParsers = new HashMap<>();
+    this.parserCount = 0;
+    this.pendingRequests = new ArrayDeque<>();
     this.nonPooledCells = new HashMap<>();
     this.projectBuildFileParserFactory = projectBuildFileParserFactory;
     this.closing = new AtomicBoolean(false);
@@ -89,28 +121,174 @@ class ProjectBuildFileParserPool implements AutoCloseable {
     Preconditions.checkState(!closing.get());
 
     if (shouldUsePoolForCell(cell)) {
-      return getResourcePoolForCell(buckEventBus, cell, watchman)
-          .scheduleOperationWithResource(
-              parser -> parser.getBuildFileManifest(buildFile), executorService);
+      ParseRequest request =
+          new ParseRequest(buckEventBus, cell, watchman, buildFile, executorService);
+      synchronized (this) {
+        pendingRequests.addFirst(request);
+        scheduleRequests();
+      }
+      // If someone else calls cancel on the result it makes it impossible to wait for the parser
+      // to be returned, which then makes shutdown code exit too early.
+      return Futures.nonCancellationPropagating(request.result);
     }
     ProjectBuildFileParser parser = getParserForCell(buckEventBus, cell, watchman);
     return executorService.submit(() -> parser.getBuildFileManifest(buildFile));
   }
 
-  private synchronized ResourcePool<ProjectBuildFileParser> getResourcePoolForCell(
-      BuckEventBus buckEventBus, Cell cell, Watchman watchman) {
-    return parserResourcePools.computeIfAbsent(
-        cell,
-        c ->
-            new ResourcePool<>(
-                maxParsersPerCell,
-                // If the Python process garbles the output stream then the bser codec doesn't
-                // always
-                // recover and subsequent attempts at invoking the parser will fail.
-                ResourcePool.ResourceUsageErrorPolicy.RETIRE,
-                () ->
-                    projectBuildFileParserFactory.createBuildFileParser(
-                        buckEventBus, c, watchman, false)));
+  /** Hands parsers to as many waiting requests as the budget allows. */
+  private synchronized void scheduleRequests() {
+    while (!closing.get() && !pendingRequests.isEmpty()) {
+      ParseRequest request = pollRequestWithIdleParser();
+      if (request != null) {
+        Deque<ProjectBuildFileParser> cellParsers = idleParsers.get(request.cell);
+        ProjectBuildFileParser parser = cellParsers.pollFirst();
+        if (cellParsers.isEmpty()) {
+          idleParsers.remove(request.cell);
+        }
+        schedule(request, parser, null);
+        continue;
+      }
+      ProjectBuildFileParser retiredParser = null;
+      if (parserCount >= maxParsers) {
+        retiredParser = pollIdleParser();
+        if (retiredParser == null) {
+          // Every parser is busy, the next one to be returned will schedule more requests.
+          return;
+        }
+      } else {
+        parserCount++;
+      }
+      schedule(pendingRequests.pollFirst(), null, retiredParser);
+    }
+  }
+
+  /** Removes the newest request for which an idle parser is available. */
+  @GuardedBy("this")
+  @Nullable
+  private ParseRequest pollRequestWithIdleParser() {
+    if (idleParsers.isEmpty()) {
+      return null;
+    }
+    Iterator<ParseRequest> requests = pendingRequests.iterator();
+    while (requests.hasNext()) {
+      ParseRequest request = requests.next();
+      if (idleParsers.containsKey(request.cell)) {
+        requests.remove();
+        return request;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes one of the idle parsers, the least recently used one of its cell, for the slot it
+   * takes up in the budget to be given to a parser of another cell.
+   */
+  @GuardedBy("this")
+  @Nullable
+  private ProjectBuildFileParser pollIdleParser() {
+    Iterator<Map.Entry<Cell, Deque<ProjectBuildFileParser>>> cells =
+        idleParsers.entrySet().iterator();
+    if (!cells.hasNext()) {
+      return null;
+    }
+    Map.Entry<Cell, Deque<ProjectBuildFileParser>> cellParsers = cells.next();
+    ProjectBuildFileParser parser = cellParsers.getValue().pollLast();
+    if (cellParsers.getValue().isEmpty()) {
+      cells.remove();
+    }
+    createdParsers.get(cellParsers.getKey()).remove(parser);
+    return parser;
+  }
+
+  /**
+   * Runs {@code request} on its executor with {@code parser}, or with a parser created for it if
+   * {@code parser} is {@code null}. A parser created for it replaces {@code retiredParser}, if
+   * any, which gets closed first.
+   */
+  @GuardedBy("this")
+  private void schedule(
+      ParseRequest request,
+      @Nullable ProjectBuildFileParser parser,
+      @Nullable ProjectBuildFileParser retiredParser) {
+    try {
+      request.executorService.execute(() -> run(request, parser, retiredParser));
+    } catch (RejectedExecutionException e) {
+      request.result.setException(e);
+      if (retiredParser != null) {
+        closeParser(retiredParser);
+      }
+      if (parser == null) {
+        parserCount--;
+      } else {
+        returnParser(request.cell, parser, false);
+      }
+    }
+  }
+
+  private void run(
+      ParseRequest request,
+      @Nullable ProjectBuildFileParser parser,
+      @Nullable ProjectBuildFileParser retiredParser) {
+    if (retiredParser != null) {
+      closeParser(retiredParser);
+    }
+    if (parser == null) {
+      try {
+        parser =
+            projectBuildFileParserFactory.createBuildFileParser(
+                request.buckEventBus, request.cell, request.watchman, false);
+      } catch (RuntimeException e) {
+        synchronized (this) {
+          parserCount--;
+          scheduleRequests();
+        }
+        request.result.setException(e);
+        return;
+      }
+      synchronized (this) {
+        createdParsers.computeIfAbsent(request.cell, c -> new ArrayList<>()).add(parser);
+      }
+    }
+    // If the Python process garbles the output stream then the bser codec doesn't always recover
+    // and subsequent attempts at invoking the parser will fail.
+    boolean parserIsDefunct = true;
+    try {
+      request.result.set(parser.getBuildFileManifest(request.buildFile));
+      parserIsDefunct = false;
+    } catch (UndeclaredThrowableException e) {
+      // Report the checked exception thrown through a proxy, as Futures.transformAsync does.
+      request.result.setException(e.getCause());
+    } catch (Throwable t) {
+      request.result.setException(t);
+    } finally {
+      returnParser(request.cell, parser, parserIsDefunct);
+    }
+  }
+
+  private void returnParser(Cell cell, ProjectBuildFileParser parser, boolean parserIsDefunct) {
+    boolean closeParser;
+    synchronized (this) {
+      closeParser = parserIsDefunct || closing.get();
+      if (closeParser) {
+        createdParsers.get(cell).remove(parser);
+        parserCount--;
+      } else {
+        idleParsers.computeIfAbsent(cell, c -> new ArrayDeque<>()).addFirst(parser);
+      }
+      scheduleRequests();
+    }
+    if (closeParser) {
+      closeParser(parser);
+    }
+  }
+
+  private static void closeParser(ProjectBuildFileParser parser) {
+    try {
+      parser.close();
+    } catch (Exception e) {
+      LOG.info(e, "Error shutting down a parser.");
+    }
   }
 
   private synchronized ProjectBuildFileParser getParserForCell(
@@ -125,16 +303,14 @@ class ProjectBuildFileParserPool implements AutoCloseable {
       return;
     }
     synchronized (this) {
-      for (ResourcePool<ProjectBuildFileParser> resourcePool : parserResourcePools.values()) {
-        resourcePool.callOnEachResource(
-            parser -> {
-              try {
-                parser.reportProfile();
-              } catch (IOException exception) {
-                LOG.debug(
-                    exception, "Exception raised during reportProfile() and we're ignoring it");
-              }
-            });
+      for (List<ProjectBuildFileParser> cellParsers : createdParsers.values()) {
+        for (ProjectBuildFileParser parser : cellParsers) {
+          try {
+            parser.reportProfile();
+          } catch (IOException exception) {
+            LOG.debug(exception, "Exception raised during reportProfile() and we're ignoring it");
+          }
+        }
       }
     }
   }
@@ -142,14 +318,28 @@ class ProjectBuildFileParserPool implements AutoCloseable {
   @Override
   public void close() {
     reportProfile();
-    ImmutableSet<ResourcePool<ProjectBuildFileParser>> resourcePools;
+    ImmutableList<ParseRequest> cancelledRequests;
+    ImmutableList<ProjectBuildFileParser> unusedParsers;
     ImmutableSet<ProjectBuildFileParser> parsers;
     synchronized (this) {
       Preconditions.checkState(!closing.get());
       closing.set(true);
-      resourcePools = ImmutableSet.copyOf(parserResourcePools.values());
+      cancelledRequests = ImmutableList.copyOf(pendingRequests);
+      pendingRequests.clear();
+      // Parsers that are in use are closed once they are returned.
+      ImmutableList.Builder<ProjectBuildFileParser> idle = ImmutableList.builder();
+      for (Map.Entry<Cell, Deque<ProjectBuildFileParser>> cellParsers : idleParsers.entrySet()) {
+        idle.addAll(cellParsers.getValue());
+        createdParsers.get(cellParsers.getKey()).removeAll(cellParsers.getValue());
+        parserCount -= cellParsers.getValue().size();
+      }
+      idleParsers.clear();
+      unusedParsers = idle.build();
       parsers = ImmutableSet.copyOf(nonPooledCells.values());
     }
+    for (ParseRequest request : cancelledRequests) {
+      request.result.cancel(false);
+    }
     for (ProjectBuildFileParser parser : parsers) {
       try {
         parser.close();
@@ -157,7 +347,7 @@ class ProjectBuildFileParserPool implements AutoCloseable {
         throw new RuntimeException("Could not properly close a parser.", e);
       }
     }
-    resourcePools.forEach(ResourcePool::close);
+    unusedParsers.forEach(ProjectBuildFileParserPool::closeParser);
   }
 
   /**
@@ -174,4 +364,27 @@ class ProjectBuildFileParserPool implements AutoCloseable {
     return parserConfig.isPolyglotParsingEnabled()
         || parserConfig.getDefaultBuildFileSyntax() == Syntax.PYTHON_DSL;
   }
+
+  /** A build file waiting to be parsed with a pooled parser. */
+  private static class ParseRequest {
+    private final BuckEventBus buckEventBus;
+    private final Cell cell;
+    private final Watchman watchman;
+    private final Path buildFile;
+    private final ListeningExecutorService executorService;
+    private final SettableFuture<BuildFileManifest> result = SettableFuture.create();
+
+    private ParseRequest(
+        BuckEventBus buckEventBus,
+        Cell cell,
+        Watchman watchman,
+        Path buildFile,
+        ListeningExecutorService executorService) {
+      this.buckEventBus = buckEventBus;
+      this.cell = cell;
+      this.watchman = watchman;
+      this.buildFile = buildFile;
+      this.executorService = executorService;
+    }
+  }
 }
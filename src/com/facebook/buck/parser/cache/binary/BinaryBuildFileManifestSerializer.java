@@ -0,0 +1,564 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache.binary;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
+import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
+import com.facebook.buck.parser.exceptions.ImmutableParsingError;
+import com.facebook.buck.parser.exceptions.ParsingError;
+import com.facebook.buck.parser.syntax.ImmutableListWithSelects;
+import com.facebook.buck.parser.syntax.ImmutableSelectorValue;
+import com.facebook.buck.parser.syntax.ListWithSelects;
+import com.facebook.buck.parser.syntax.SelectorValue;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Serializes {@link BuildFileManifest}s to a compact binary form, for caches that hold the
+ * manifests of a whole repository.
+ *
+ * <p>Every distinct string of a manifest, such as attribute names, rule types and paths, is written
+ * once to a table at the start and referred to by its index afterwards. Deserialized manifests
+ * share a single instance of each of those strings. Values of types the format doesn't know about
+ * are embedded in their JSON form, so anything {@link BuildFileManifestSerializer} handles can be
+ * serialized.
+ */
+public class BinaryBuildFileManifestSerializer {
+
+  private static final byte[] MAGIC = {'B', 'F', 'M'};
+  private static final byte VERSION = 1;
+
+  /**
+   * Names this format and its version, for caches to key manifests by, so that clients using other
+   * formats never read them.
+   */
+  public static final String FORMAT_ID = "BuildFileManifest.binary.v" + VERSION;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte TRUE = 2;
+  private static final byte FALSE = 3;
+  private static final byte INTEGER = 4;
+  private static final byte LONG = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte LIST = 7;
+  private static final byte SET = 8;
+  private static final byte SORTED_SET = 9;
+  private static final byte MAP = 10;
+  private static final byte SORTED_MAP = 11;
+  private static final byte OPTIONAL_EMPTY = 12;
+  private static final byte OPTIONAL = 13;
+  private static final byte LIST_WITH_SELECTS = 14;
+  private static final byte SELECTOR_VALUE = 15;
+  private static final byte JSON = 16;
+
+  private BinaryBuildFileManifestSerializer() {}
+
+  /**
+   * Serializes an instance of {@link BuildFileManifest} to a byte array.
+   *
+   * @param buildFileManifest the instance of {@link BuildFileManifest} to be serialized.
+   * @return a byte array with the serialized manifest.
+   */
+  public static byte[] serialize(BuildFileManifest buildFileManifest) throws IOException {
+    Writer writer = new Writer();
+    writer.writeManifest(buildFileManifest);
+    return writer.toByteArray();
+  }
+
+  /**
+   * Deserializes an instance of {@link BuildFileManifest} from a byte array. Manifests serialized
+   * by {@link BuildFileManifestSerializer}, as older cache entries are, are read as well.
+   *
+   * @param buildFileManifestBytes the bytes for the manifest to be deserialized.
+   * @return a new instance of {@link BuildFileManifest} serialized from the {@code
+   *     buildFileManifestBytes}.
+   */
+  public static BuildFileManifest deserialize(byte[] buildFileManifestBytes) throws IOException {
+    if (!hasMagic(buildFileManifestBytes)) {
+      return BuildFileManifestSerializer.deserialize(buildFileManifestBytes);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(buildFileManifestBytes);
+    buffer.position(MAGIC.length);
+    byte version = buffer.get();
+    if (version != VERSION) {
+      throw new IOException("Unsupported build file manifest format version: " + version);
+    }
+    try {
+      return new Reader(buffer).readManifest();
+    } catch (BufferUnderflowException
+        | IndexOutOfBoundsException
+        | NegativeArraySizeException
+        | IllegalArgumentException e) {
+      throw new IOException("Malformed build file manifest.", e);
+    }
+  }
+
+  private static boolean hasMagic(byte[] bytes) {
+    if (bytes.length <= MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (bytes[i] != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isNaturalOrder(Comparator<?> comparator) {
+    return comparator == null
+        || comparator.equals(Ordering.natural())
+        || comparator.equals(Comparator.naturalOrder());
+  }
+
+  /** Writes a manifest, collecting the strings it contains into a table. */
+  private static class Writer {
+    private final Map<String, Integer> stringIndices = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(body);
+
+    void writeManifest(BuildFileManifest manifest) throws IOException {
+      writeVarInt(manifest.getTargets().size());
+      for (Map.Entry<String, Map<String, Object>> target : manifest.getTargets().entrySet()) {
+        writeString(target.getKey());
+        writeValue(target.getValue());
+      }
+
+      writeStrings(manifest.getIncludes());
+
+      writeVarInt(manifest.getConfigs().size());
+      for (Map.Entry<String, Object> config : manifest.getConfigs().entrySet()) {
+        writeString(config.getKey());
+        writeValue(config.getValue());
+      }
+
+      writeBoolean(manifest.getEnv().isPresent());
+      if (manifest.getEnv().isPresent()) {
+        ImmutableMap<String, Optional<String>> env = manifest.getEnv().get();
+        writeVarInt(env.size());
+        for (Map.Entry<String, Optional<String>> variable : env.entrySet()) {
+          writeString(variable.getKey());
+          writeBoolean(variable.getValue().isPresent());
+          if (variable.getValue().isPresent()) {
+            writeString(variable.getValue().get());
+          }
+        }
+      }
+
+      writeVarInt(manifest.getGlobManifest().size());
+      for (GlobSpecWithResult glob : manifest.getGlobManifest()) {
+        writeStrings(glob.getGlobSpec().getInclude());
+        writeStrings(glob.getGlobSpec().getExclude());
+        writeBoolean(glob.getGlobSpec().getExcludeDirectories());
+        writeStrings(glob.getFilePaths());
+      }
+
+      writeVarInt(manifest.getErrors().size());
+      for (ParsingError error : manifest.getErrors()) {
+        writeString(error.getMessage());
+        writeStrings(error.getStackTrace());
+      }
+    }
+
+    byte[] toByteArray() throws IOException {
+      out.flush();
+      ByteArrayOutputStream result = new ByteArrayOutputStream(body.size() + 16 * strings.size());
+      DataOutputStream header = new DataOutputStream(result);
+      header.write(MAGIC);
+      header.writeByte(VERSION);
+      writeVarInt(header, strings.size());
+      for (String string : strings) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(header, bytes.length);
+        header.write(bytes);
+      }
+      header.flush();
+      body.writeTo(result);
+      return result.toByteArray();
+    }
+
+    private void writeValue(Object value) throws IOException {
+      if (value == null) {
+        out.writeByte(NULL);
+      } else if (value instanceof String) {
+        out.writeByte(STRING);
+        writeString((String) value);
+      } else if (value instanceof Boolean) {
+        out.writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Integer) {
+        out.writeByte(INTEGER);
+        writeVarLong(zigZag((Integer) value));
+      } else if (value instanceof Long) {
+        out.writeByte(LONG);
+        writeVarLong(zigZag((Long) value));
+      } else if (value instanceof Double) {
+        out.writeByte(DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (value instanceof List) {
+        out.writeByte(LIST);
+        writeValues((List<?>) value);
+      } else if (value instanceof SortedSet
+          && isNaturalOrder(((SortedSet<?>) value).comparator())) {
+        out.writeByte(SORTED_SET);
+        writeValues((SortedSet<?>) value);
+      } else if (value instanceof Set) {
+        out.writeByte(SET);
+        writeValues((Set<?>) value);
+      } else if (value instanceof SortedMap
+          && isNaturalOrder(((SortedMap<?, ?>) value).comparator())) {
+        out.writeByte(SORTED_MAP);
+        writeEntries((SortedMap<?, ?>) value);
+      } else if (value instanceof Map) {
+        out.writeByte(MAP);
+        writeEntries((Map<?, ?>) value);
+      } else if (value instanceof Optional) {
+        Optional<?> optional = (Optional<?>) value;
+        if (optional.isPresent()) {
+          out.writeByte(OPTIONAL);
+          writeValue(optional.get());
+        } else {
+          out.writeByte(OPTIONAL_EMPTY);
+        }
+      } else if (value instanceof ListWithSelects) {
+        out.writeByte(LIST_WITH_SELECTS);
+        writeValues(((ListWithSelects) value).getElements());
+        writeString(((ListWithSelects) value).getType().getName());
+      } else if (value instanceof SelectorValue) {
+        out.writeByte(SELECTOR_VALUE);
+        writeEntries(((SelectorValue) value).getDictionary());
+        writeString(((SelectorValue) value).getNoMatchError());
+      } else {
+        // Wrapped in an array so that the type of the value is written along with it.
+        byte[] json = ObjectMappers.WRITER_WITH_TYPE.writeValueAsBytes(new Object[] {value});
+        out.writeByte(JSON);
+        writeVarInt(json.length);
+        out.write(json);
+      }
+    }
+
+    private void writeValues(Collection<?> values) throws IOException {
+      writeVarInt(values.size());
+      for (Object value : values) {
+        writeValue(value);
+      }
+    }
+
+    private void writeEntries(Map<?, ?> entries) throws IOException {
+      writeVarInt(entries.size());
+      for (Map.Entry<?, ?> entry : entries.entrySet()) {
+        writeValue(entry.getKey());
+        writeValue(entry.getValue());
+      }
+    }
+
+    private void writeStrings(Collection<String> values) throws IOException {
+      writeVarInt(values.size());
+      for (String value : values) {
+        writeString(value);
+      }
+    }
+
+    private void writeString(String string) throws IOException {
+      Integer index = stringIndices.get(string);
+      if (index == null) {
+        index = strings.size();
+        strings.add(string);
+        stringIndices.put(string, index);
+      }
+      writeVarInt(index);
+    }
+
+    private void writeBoolean(boolean value) throws IOException {
+      out.writeBoolean(value);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+      writeVarInt(out, value);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        out.writeByte((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      out.writeByte((int) value);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+      while ((value & ~0x7F) != 0) {
+        out.writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      out.writeByte(value);
+    }
+
+    private static long zigZag(long value) {
+      return (value << 1) ^ (value >> 63);
+    }
+  }
+
+  /** Reads a manifest after its string table. */
+  private static class Reader {
+    private final ByteBuffer in;
+    private final String[] strings;
+
+    Reader(ByteBuffer in) {
+      this.in = in;
+      this.strings = new String[readVarInt()];
+      for (int i = 0; i < strings.length; i++) {
+        int length = readVarInt();
+        strings[i] = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+      }
+    }
+
+    BuildFileManifest readManifest() throws IOException {
+      int targetCount = readVarInt();
+      ImmutableMap.Builder<String, Map<String, Object>> targets =
+          ImmutableMap.builderWithExpectedSize(targetCount);
+      for (int i = 0; i < targetCount; i++) {
+        String name = readString();
+        Object attributes = readValue();
+        if (!(attributes instanceof Map)) {
+          throw new IOException("Attributes of target " + name + " are not a map.");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> attributesMap = (Map<String, Object>) attributes;
+        targets.put(name, attributesMap);
+      }
+
+      ImmutableSortedSet<String> includes = ImmutableSortedSet.copyOf(readStrings());
+
+      int configCount = readVarInt();
+      ImmutableMap.Builder<String, Object> configs =
+          ImmutableMap.builderWithExpectedSize(configCount);
+      for (int i = 0; i < configCount; i++) {
+        configs.put(readString(), readValue());
+      }
+
+      Optional<ImmutableMap<String, Optional<String>>> env = Optional.empty();
+      if (readBoolean()) {
+        int variableCount = readVarInt();
+        ImmutableMap.Builder<String, Optional<String>> variables =
+            ImmutableMap.builderWithExpectedSize(variableCount);
+        for (int i = 0; i < variableCount; i++) {
+          String name = readString();
+          variables.put(name, readBoolean() ? Optional.of(readString()) : Optional.empty());
+        }
+        env = Optional.of(variables.build());
+      }
+
+      int globCount = readVarInt();
+      ImmutableList.Builder<GlobSpecWithResult> globs =
+          ImmutableList.builderWithExpectedSize(globCount);
+      for (int i = 0; i < globCount; i++) {
+        GlobSpec globSpec =
+            GlobSpec.builder()
+                .setInclude(readStrings())
+                .setExclude(readStrings())
+                .setExcludeDirectories(readBoolean())
+                .build();
+        globs.add(GlobSpecWithResult.of(globSpec, ImmutableSet.copyOf(readStrings())));
+      }
+
+      int errorCount = readVarInt();
+      ImmutableList.Builder<ParsingError> errors =
+          ImmutableList.builderWithExpectedSize(errorCount);
+      for (int i = 0; i < errorCount; i++) {
+        errors.add(ImmutableParsingError.of(readString(), readStrings()));
+      }
+
+      return ImmutableBuildFileManifest.of(
+          targets.build(), includes, configs.build(), env, globs.build(), errors.build());
+    }
+
+    private Object readValue() throws IOException {
+      byte tag = in.get();
+      switch (tag) {
+        case NULL:
+          return null;
+        case STRING:
+          return readString();
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case INTEGER:
+          return (int) unZigZag(readVarLong());
+        case LONG:
+          return unZigZag(readVarLong());
+        case DOUBLE:
+          return in.getDouble();
+        case LIST:
+          {
+            List<Object> values = readValues();
+            return values.contains(null)
+                ? Collections.unmodifiableList(values)
+                : ImmutableList.copyOf(values);
+          }
+        case SET:
+          {
+            List<Object> values = readValues();
+            return values.contains(null)
+                ? Collections.unmodifiableSet(new LinkedHashSet<>(values))
+                : ImmutableSet.copyOf(values);
+          }
+        case SORTED_SET:
+          {
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            ImmutableSortedSet<Object> set =
+                ImmutableSortedSet.copyOf((Comparator) Ordering.natural(), readValues());
+            return set;
+          }
+        case MAP:
+          {
+            Map<Object, Object> entries = readEntries();
+            return entries.containsKey(null) || entries.containsValue(null)
+                ? Collections.unmodifiableMap(entries)
+                : ImmutableMap.copyOf(entries);
+          }
+        case SORTED_MAP:
+          {
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            ImmutableSortedMap<Object, Object> map =
+                ImmutableSortedMap.copyOf(readEntries(), (Comparator) Ordering.natural());
+            return map;
+          }
+        case OPTIONAL_EMPTY:
+          return Optional.empty();
+        case OPTIONAL:
+          return Optional.of(readValue());
+        case LIST_WITH_SELECTS:
+          {
+            ImmutableList<Object> elements = ImmutableList.copyOf(readValues());
+            String type = readString();
+            try {
+              return ImmutableListWithSelects.of(elements, Class.forName(type));
+            } catch (ClassNotFoundException e) {
+              throw new IOException("Unknown type of select() list: " + type, e);
+            }
+          }
+        case SELECTOR_VALUE:
+          {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> dictionary = (Map<String, Object>) (Map<?, ?>) readEntries();
+            return ImmutableSelectorValue.of(ImmutableMap.copyOf(dictionary), readString());
+          }
+        case JSON:
+          {
+            int length = readVarInt();
+            Object[] value =
+                ObjectMappers.READER_WITH_TYPE
+                    .forType(Object[].class)
+                    .readValue(in.array(), in.position(), length);
+            in.position(in.position() + length);
+            if (value.length != 1) {
+              throw new IOException("Malformed JSON value.");
+            }
+            return value[0];
+          }
+        default:
+          throw new IOException("Unknown value tag: " + tag);
+      }
+    }
+
+    private List<Object> readValues() throws IOException {
+      int count = readVarInt();
+      List<Object> values = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        values.add(readValue());
+      }
+      return values;
+    }
+
+    private Map<Object, Object> readEntries() throws IOException {
+      int count = readVarInt();
+      Map<Object, Object> entries = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        Object key = readValue();
+        entries.put(key, readValue());
+      }
+      return entries;
+    }
+
+    private ImmutableList<String> readStrings() {
+      int count = readVarInt();
+      ImmutableList.Builder<String> values = ImmutableList.builderWithExpectedSize(count);
+      for (int i = 0; i < count; i++) {
+        values.add(readString());
+      }
+      return values.build();
+    }
+
+    private String readString() {
+      return strings[readVarInt()];
+    }
+
+    private boolean readBoolean() {
+      return in.get() != 0;
+    }
+
+    private int readVarInt() {
+      return (int) readVarLong();
+    }
+
+    private long readVarLong() {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = in.get();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Malformed variable length integer.");
+    }
+
+    private static long unZigZag(long value) {
+      return (value >>> 1) ^ -(value & 1);
+    }
+  }
+}
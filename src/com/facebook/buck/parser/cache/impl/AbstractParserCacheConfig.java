@@ -34,6 +34,7 @@ public abstract class AbstractParserCacheConfig implements ConfigView<BuckConfig
   static final String PARSER_CACHE_SECTION_NAME = "parser";
   static final String PARSER_CACHE_LOCAL_LOCATION_NAME = "dir";
   private static final String PARSER_CACHE_LOCAL_MODE_NAME = "dir_mode";
+  private static final String PARSER_CACHE_ARTIFACT_CACHE_MODE_NAME = "artifact_cache_mode";
   private static final String DEFAULT_PARSER_CACHE_MODE_VALUE = "NONE";
 
   private static final String MANIFEST_SERVICE_SECTION_NAME = "manifestservice";
@@ -175,10 +176,30 @@ public abstract class AbstractParserCacheConfig implements ConfigView<BuckConfig
     return ParserCacheAccessMode.NONE;
   }
 
+  /** @returns the access mode for the {@link ArtifactCacheStorage}. */
+  @Value.Lazy
+  public ParserCacheAccessMode getArtifactCacheAccessMode() {
+    try {
+      return getCacheMode(PARSER_CACHE_ARTIFACT_CACHE_MODE_NAME);
+    } catch (ParserCacheException t) {
+      LOG.error(t, "Could not get ParserCacheAccessMode for the artifact cache.");
+      return ParserCacheAccessMode.NONE;
+    }
+  }
+
+  /**
+   * @returns {@code true} if the {@link ArtifactCacheStorage} is enabled, otherwise {@code false}.
+   */
+  public boolean isArtifactParserCacheEnabled() {
+    return getArtifactCacheAccessMode() != ParserCacheAccessMode.NONE;
+  }
+
   /**
    * @returns {@code true} if there is a cache storage that is enabled. Otherwise, {@code false}.
    */
   public boolean isParserCacheEnabled() {
-    return isDirParserCacheEnabled() || isRemoteParserCacheEnabled();
+    return isDirParserCacheEnabled()
+        || isRemoteParserCacheEnabled()
+        || isArtifactParserCacheEnabled();
   }
 }
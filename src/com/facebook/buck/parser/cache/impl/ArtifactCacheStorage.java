@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache.impl;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.cache.ParserCacheStorage;
+import com.facebook.buck.parser.cache.binary.BinaryBuildFileManifestSerializer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An implementation of the {@link ParserCacheStorage} interface backed by an {@link ArtifactCache},
+ * so that parsed build files can be shared through the dir and HTTP caches that already hold build
+ * artifacts. A worker with an empty checkout can then get the manifests of a whole repository from
+ * the cache instead of evaluating its build files.
+ *
+ * <p>Both fingerprints are hashes of everything the manifest was produced from, so a single key
+ * derived from them addresses the manifest and a single round trip fetches it. Identical manifests
+ * are stored once when the artifact cache stores its artifacts by content.
+ */
+public class ArtifactCacheStorage implements ParserCacheStorage {
+  private static final Logger LOG = Logger.get(ArtifactCacheStorage.class);
+
+  // Keeps parser entries apart from build artifacts, and from entries of other manifest formats.
+  private static final String KEY_NAMESPACE = "parser.BuildFileManifest.v1";
+
+  private final ArtifactCache artifactCache;
+  private final ProjectFilesystem filesystem;
+  private final ParserCacheAccessMode cacheAccessMode;
+
+  private ArtifactCacheStorage(
+      ArtifactCache artifactCache,
+      ProjectFilesystem filesystem,
+      ParserCacheAccessMode cacheAccessMode) {
+    this.artifactCache = artifactCache;
+    this.filesystem = filesystem;
+    this.cacheAccessMode = cacheAccessMode;
+  }
+
+  /**
+   * Static factory for creating {@link ArtifactCacheStorage} objects.
+   *
+   * @param artifactCache the {@link ArtifactCache} to keep the manifests in.
+   * @param parserCacheConfig the {@code parserCacheConfig} object to be used for this parsing.
+   * @param filesystem the {@link ProjectFilesystem} to stage manifests in while they are
+   *     transferred.
+   * @return a new instance of fully instantiated artifact cache storage.
+   */
+  public static ArtifactCacheStorage of(
+      ArtifactCache artifactCache,
+      AbstractParserCacheConfig parserCacheConfig,
+      ProjectFilesystem filesystem) {
+    Preconditions.checkState(
+        parserCacheConfig.isArtifactParserCacheEnabled(),
+        "Invalid state: ArtifactCacheStorage should not be instantiated if the cache is disabled.");
+    return new ArtifactCacheStorage(
+        artifactCache, filesystem, parserCacheConfig.getArtifactCacheAccessMode());
+  }
+
+  private boolean isReadAllowed() {
+    return cacheAccessMode.isReadable();
+  }
+
+  private boolean isWriteAllowed() {
+    return cacheAccessMode.isWritable() && artifactCache.getCacheReadMode().isWritable();
+  }
+
+  /** @return the key the manifest with the given fingerprints is stored under. */
+  @VisibleForTesting
+  static RuleKey getCacheKey(HashCode weakFingerprint, HashCode strongFingerprint) {
+    return new RuleKey(
+        Hashing.sha1()
+            .newHasher()
+            .putString(KEY_NAMESPACE, StandardCharsets.UTF_8)
+            .putBytes(weakFingerprint.asBytes())
+            .putBytes(strongFingerprint.asBytes())
+            .hash());
+  }
+
+  @Override
+  public void storeBuildFileManifest(
+      HashCode weakFingerprint, HashCode strongFingerprint, byte[] serializedBuildFileManifest)
+      throws IOException {
+    if (!isWriteAllowed()) {
+      return;
+    }
+
+    Path manifestPath = filesystem.createTempFile("parser-cache", ".manifest");
+    filesystem.writeBytesToPath(serializedBuildFileManifest, manifestPath);
+    // The upload happens in the background, the file is not needed anymore once it completes.
+    artifactCache
+        .store(
+            ArtifactInfo.builder()
+                .addRuleKeys(getCacheKey(weakFingerprint, strongFingerprint))
+                .build(),
+            BorrowablePath.borrowablePath(filesystem.resolve(manifestPath)))
+        .addListener(() -> deleteQuietly(manifestPath), MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public Optional<BuildFileManifest> getBuildFileManifest(
+      HashCode weakFingerprint, HashCode strongFingerprint)
+      throws IOException, InterruptedException {
+    if (!isReadAllowed()) {
+      return Optional.empty();
+    }
+
+    Stopwatch timer = null;
+    if (LOG.isVerboseEnabled()) {
+      timer = Stopwatch.createStarted();
+    }
+
+    Path manifestPath = filesystem.createTempFile("parser-cache", ".manifest");
+    try {
+      CacheResult result;
+      try {
+        result =
+            artifactCache
+                .fetchAsync(
+                    null,
+                    getCacheKey(weakFingerprint, strongFingerprint),
+                    LazyPath.ofInstance(filesystem.resolve(manifestPath)))
+                .get();
+      } catch (ExecutionException e) {
+        throw new IOException("Failed to fetch the build file manifest.", e.getCause());
+      }
+      if (!result.getType().isSuccess()) {
+        return Optional.empty();
+      }
+      return Optional.of(
+          BinaryBuildFileManifestSerializer.deserialize(
+              Files.readAllBytes(filesystem.resolve(manifestPath))));
+    } finally {
+      deleteQuietly(manifestPath);
+      if (timer != null) {
+        LOG.verbose(
+            "Time to complete getBuildFileManifest: %d ns.",
+            timer.stop().elapsed(TimeUnit.NANOSECONDS));
+      }
+    }
+  }
+
+  @Override
+  public void deleteCacheEntries(HashCode weakFingerprint, HashCode strongFingerprint)
+      throws IOException, InterruptedException {
+    if (!isWriteAllowed()) {
+      return;
+    }
+    try {
+      artifactCache
+          .deleteAsync(ImmutableList.of(getCacheKey(weakFingerprint, strongFingerprint)))
+          .get();
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to delete cache entries from artifact cache", e.getCause());
+    }
+  }
+
+  private void deleteQuietly(Path path) {
+    try {
+      filesystem.deleteFileAtPathIfExists(path);
+    } catch (IOException e) {
+      LOG.debug(e, "Could not delete %s.", path);
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.parser.cache.impl;
 
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.parser.cache.binary.BinaryBuildFileManifestSerializer;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.config.Config;
 import com.facebook.buck.util.environment.Architecture;
@@ -59,7 +60,8 @@ public final class Fingerprinter {
   private Fingerprinter() {}
 
   /**
-   * Gets the weak fingerprint for this configuration.
+   * Gets the weak fingerprint for this configuration. It includes the format manifests are stored
+   * in, so that clients storing them in another format don't share entries with this one.
    *
    * @param buildFile the path to the BUCK file build spec of interest.
    * @param config the {@link Config} object to calculate the weak fingerprint for
@@ -69,6 +71,7 @@ public final class Fingerprinter {
   public static HashCode getWeakFingerprint(Path buildFile, Config config) {
     Hasher hasher = Hashing.sha256().newHasher();
     return hasher
+        .putString(BinaryBuildFileManifestSerializer.FORMAT_ID, StandardCharsets.UTF_8)
         .putString(buildFile.toString(), StandardCharsets.UTF_8)
         .putBytes(config.getOrderIndependentHashCode().asBytes())
         .putString(Platform.detect().name(), StandardCharsets.UTF_8)
@@ -20,7 +20,7 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.cache.ParserCacheException;
 import com.facebook.buck.parser.cache.ParserCacheStorage;
-import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
+import com.facebook.buck.parser.cache.binary.BinaryBuildFileManifestSerializer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
 import com.google.common.hash.HashCode;
@@ -159,7 +159,7 @@ public class HybridCacheStorage implements ParserCacheStorage {
         localCacheStorage.storeBuildFileManifest(
             weakFingerprint,
             strongFingerprint,
-            BuildFileManifestSerializer.serialize(remoteBuildFileManifest.get()));
+            BinaryBuildFileManifestSerializer.serialize(remoteBuildFileManifest.get()));
         return remoteBuildFileManifest;
       }
 
@@ -22,7 +22,7 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.cache.ParserCacheException;
 import com.facebook.buck.parser.cache.ParserCacheStorage;
-import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
+import com.facebook.buck.parser.cache.binary.BinaryBuildFileManifestSerializer;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.hash.HashCode;
@@ -172,7 +172,7 @@ public class LocalCacheStorage implements ParserCacheStorage {
         return Optional.empty();
       }
 
-      return Optional.of(BuildFileManifestSerializer.deserialize(data));
+      return Optional.of(BinaryBuildFileManifestSerializer.deserialize(data));
     } finally {
       if (timer != null) {
         LOG.verbose(
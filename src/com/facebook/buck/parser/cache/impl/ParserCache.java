@@ -16,6 +16,8 @@
 
 package com.facebook.buck.parser.cache.impl;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.PerfEventId;
@@ -25,7 +27,7 @@ import com.facebook.buck.manifestservice.ManifestService;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.ProjectBuildFileParser;
 import com.facebook.buck.parser.cache.ParserCacheStorage;
-import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
+import com.facebook.buck.parser.cache.binary.BinaryBuildFileManifestSerializer;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.util.ThrowingCloseableMemoizedSupplier;
 import com.google.common.annotations.VisibleForTesting;
@@ -33,6 +35,7 @@ import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /** This class implements the caching behavior for parsing build specs. */
 public class ParserCache {
@@ -57,9 +60,26 @@ public class ParserCache {
       ProjectFilesystem filesystem,
       ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
       BuckEventBus eventBus) {
+    return of(buckConfig, filesystem, manifestServiceSupplier, NoopArtifactCache::new, eventBus);
+  }
+
+  /**
+   * Creates a {@link ParserCache} object.
+   *
+   * @param filesystem the {link ProjectFilesystem} to use for locating the local cache.
+   * @param artifactCacheSupplier supplies the {@link ArtifactCache} to share parsed build files
+   *     through, when that is enabled.
+   * @return a new instance of a caching parser.
+   */
+  public static ParserCache of(
+      BuckConfig buckConfig,
+      ProjectFilesystem filesystem,
+      ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
+      Supplier<ArtifactCache> artifactCacheSupplier,
+      BuckEventBus eventBus) {
     return new ParserCache(
         ParserCacheStorageFactory.createParserCacheStorage(
-            buckConfig, filesystem, manifestServiceSupplier),
+            buckConfig, filesystem, manifestServiceSupplier, artifactCacheSupplier),
         eventBus);
   }
 
@@ -84,7 +104,7 @@ public class ParserCache {
       throws InterruptedException, IOException {
     try (SimplePerfEvent.Scope scope =
         SimplePerfEvent.scope(eventBus, eventIdStore, "path", buildFile.toString())) {
-      byte[] serializedManifest = BuildFileManifestSerializer.serialize(buildFileManifest);
+      byte[] serializedManifest = BinaryBuildFileManifestSerializer.serialize(buildFileManifest);
       parserCacheStorage.storeBuildFileManifest(
           weakFingerprint, strongFingerprint, serializedManifest);
     }
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.parser.cache.impl;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.manifestservice.ManifestService;
@@ -23,6 +24,9 @@ import com.facebook.buck.parser.cache.ParserCacheStorage;
 import com.facebook.buck.util.ThrowingCloseableMemoizedSupplier;
 import com.google.common.base.Preconditions;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Factory for creating the appropriate {@link ParserCacheStorage}, based on the {@link
@@ -46,6 +50,14 @@ public class ParserCacheStorageFactory {
     return RemoteManifestServiceCacheStorage.of(manifestServiceSupplier.get(), parserCacheConfig);
   }
 
+  private static ParserCacheStorage createArtifactCacheParserStorage(
+      AbstractParserCacheConfig parserCacheConfig,
+      ProjectFilesystem filesystem,
+      Supplier<ArtifactCache> artifactCacheSupplier) {
+    Preconditions.checkState(parserCacheConfig.isArtifactParserCacheEnabled());
+    return ArtifactCacheStorage.of(artifactCacheSupplier.get(), parserCacheConfig, filesystem);
+  }
+
   /**
    * @returns the appropriate {@link ParserCacheStorage} implementation based on the parameters
    *     passed in.
@@ -53,27 +65,28 @@ public class ParserCacheStorageFactory {
   static ParserCacheStorage createParserCacheStorage(
       BuckConfig buckConfig,
       ProjectFilesystem filesystem,
-      ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier) {
-    // TODO(buck_team): Generalize this to return a list of parser storages (see TODOs in
-    // HybridCacheStorage.java).
+      ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier,
+      Supplier<ArtifactCache> artifactCacheSupplier) {
     AbstractParserCacheConfig parserCacheConfig = obtainParserCacheConfig(buckConfig);
-    Preconditions.checkState(
-        parserCacheConfig.isDirParserCacheEnabled()
-            || parserCacheConfig.isRemoteParserCacheEnabled());
-
-    if (parserCacheConfig.isDirParserCacheEnabled()
-        && parserCacheConfig.isRemoteParserCacheEnabled()) {
-      ParserCacheStorage localStorage = createLocalParserStorage(parserCacheConfig, filesystem);
-      ParserCacheStorage remoteManifestStorage =
-          createRemoteManifestParserStorage(parserCacheConfig, manifestServiceSupplier);
-
-      return HybridCacheStorage.of(localStorage, remoteManifestStorage);
-    }
+    Preconditions.checkState(parserCacheConfig.isParserCacheEnabled());
 
+    // Storages are consulted in this order, the ones that are cheaper to read from first.
+    List<ParserCacheStorage> storages = new ArrayList<>();
     if (parserCacheConfig.isDirParserCacheEnabled()) {
-      return createLocalParserStorage(parserCacheConfig, filesystem);
+      storages.add(createLocalParserStorage(parserCacheConfig, filesystem));
+    }
+    if (parserCacheConfig.isRemoteParserCacheEnabled()) {
+      storages.add(createRemoteManifestParserStorage(parserCacheConfig, manifestServiceSupplier));
+    }
+    if (parserCacheConfig.isArtifactParserCacheEnabled()) {
+      storages.add(
+          createArtifactCacheParserStorage(parserCacheConfig, filesystem, artifactCacheSupplier));
     }
 
-    return createRemoteManifestParserStorage(parserCacheConfig, manifestServiceSupplier);
+    ParserCacheStorage storage = storages.get(storages.size() - 1);
+    for (int i = storages.size() - 2; i >= 0; i--) {
+      storage = HybridCacheStorage.of(storages.get(i), storage);
+    }
+    return storage;
   }
 }
@@ -21,7 +21,7 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.manifestservice.ManifestService;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.cache.ParserCacheStorage;
-import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
+import com.facebook.buck.parser.cache.binary.BinaryBuildFileManifestSerializer;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
@@ -145,7 +145,7 @@ public class RemoteManifestServiceCacheStorage implements ParserCacheStorage {
             // do not try to extract bytes from it.
             if (strongFingerprintManifest.getValuesSize() > 0) {
               return Optional.of(
-                  BuildFileManifestSerializer.deserialize(
+                  BinaryBuildFileManifestSerializer.deserialize(
                       strongFingerprintManifest.getValues().get(0).array()));
             }
           } catch (ExecutionException | TimeoutException e) {
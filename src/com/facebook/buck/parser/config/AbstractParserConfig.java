@@ -58,6 +58,11 @@ public abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
   public enum SkylarkGlobHandler {
     JAVA,
     WATCHMAN,
+    /**
+     * Evaluates globs in Java against directory listings that the daemon keeps in memory and
+     * updates from watchman events.
+     */
+    INDEX,
     ;
   }
 
@@ -0,0 +1,638 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.build.action.BuildEngineAction;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.MoreSuppliers;
+import com.facebook.buck.util.cache.CacheStatsTracker;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link RuleKey} cache which, unlike {@link DefaultRuleKeyCache}, holds a bounded number of rule
+ * keys, so that the memory used by a long-lived daemon doesn't grow with the size of the repo.
+ *
+ * <p>The cache is split into segments, each guarded by its own lock, and each storing the hashes of
+ * its rule keys off-heap in a {@link RuleKeySlab}. Once the cache is full, the least recently used
+ * entries that no other entry depends on are evicted, taking turns between segments, along with the
+ * dependencies that only they kept cached. Evicting an entry that others depend on would forget
+ * which entries were computed from it, so such entries are never evicted on their own. This way
+ * rules of action graphs that are no longer used are evicted from the top down, without evicting
+ * the rules of the current one that depend on entries which are also used by older graphs. Entries
+ * looked up while computing another entry's rule key count as its dependencies from that point on,
+ * so they are not evicted before the rule key computed from them is cached.
+ */
+public class BoundedRuleKeyCache implements TrackableRuleKeyCache<RuleKey> {
+
+  private static final Logger LOG = Logger.get(BoundedRuleKeyCache.class);
+
+  private static final int DEFAULT_SEGMENTS = 16;
+
+  private final Segment[] segments;
+  private final long maxEntries;
+
+  /** The number of nodes across all segments, including those still being computed. */
+  private final AtomicLong size = new AtomicLong();
+
+  /** The segment to look for an entry to evict in next. */
+  private final AtomicInteger evictionCursor = new AtomicInteger();
+
+  /** A map for rule key inputs to nodes that use them. */
+  private final ConcurrentHashMap<RuleKeyInput, Set<Node>> inputsIndex = new ConcurrentHashMap<>();
+
+  /** The node whose rule key the current thread is computing, if any. */
+  private final ThreadLocal<Node> computing = new ThreadLocal<>();
+
+  /** @param maxEntries the maximum number of rule keys to keep. */
+  public BoundedRuleKeyCache(long maxEntries) {
+    this(DEFAULT_SEGMENTS, maxEntries);
+  }
+
+  @VisibleForTesting
+  BoundedRuleKeyCache(int segmentCount, long maxEntries) {
+    Preconditions.checkArgument(segmentCount > 0, "There must be at least one segment");
+    Preconditions.checkArgument(maxEntries > 0, "The cache must hold at least one entry");
+    this.maxEntries = maxEntries;
+    this.segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  private Segment segmentFor(Object key) {
+    return segments[Math.floorMod(System.identityHashCode(key), segments.length)];
+  }
+
+  private <K> RuleKey calculateNode(
+      Node node,
+      K key,
+      Function<K, RuleKeyResult<RuleKey>> create,
+      CacheStatsTracker statsTracker) {
+    Preconditions.checkArgument(
+        key instanceof BuildEngineAction || key instanceof AddsToRuleKey,
+        "%s must be one of either a `BuildEngineAction` or `AddsToRuleKey`",
+        key.getClass());
+
+    RuleKeyResult<RuleKey> result;
+    Node enclosing = computing.get();
+    computing.set(node);
+    try {
+      result = create.apply(key);
+    } catch (RuntimeException | Error e) {
+      unlink(node, unpin(node), ImmutableList.of());
+      throw e;
+    } finally {
+      computing.set(enclosing);
+    }
+
+    ImmutableList.Builder<Node> deps = ImmutableList.builder();
+    for (Object dependency : result.deps) {
+      Segment segment = segmentFor(dependency);
+      segment.lock.lock();
+      try {
+        Node dep = segment.getOrCreate(dependency);
+        if (dep.dependents.isEmpty()) {
+          segment.roots.remove(new IdentityWrapper(dependency));
+        }
+        dep.dependents.add(node);
+        deps.add(dep);
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    // The entries looked up while computing the rule key that it didn't end up depending on are no
+    // longer kept cached on its behalf.
+    ImmutableSet<Node> linked = ImmutableSet.copyOf(deps.build());
+    unlink(
+        node,
+        unpin(node).stream()
+            .filter(pinned -> !linked.contains(pinned))
+            .collect(ImmutableList.toImmutableList()),
+        ImmutableList.of());
+    ImmutableList<RuleKeyInput> inputs = ImmutableList.copyOf(result.inputs);
+    for (RuleKeyInput input : inputs) {
+      inputsIndex.compute(
+          input,
+          (ignored, nodes) -> {
+            if (nodes == null) {
+              nodes = new HashSet<>();
+            }
+            nodes.add(node);
+            return nodes;
+          });
+    }
+
+    Segment segment = segmentFor(key);
+    boolean stored = false;
+    segment.lock.lock();
+    try {
+      // The node may have been invalidated while its rule key was being computed, in which case
+      // the rule key must not be cached.
+      IdentityWrapper wrapper = new IdentityWrapper(key);
+      if (segment.nodes.get(wrapper) == node) {
+        node.slot = segment.slab.put(result.result.getHashCode());
+        node.pending = null;
+        node.deps = deps.build();
+        node.inputs = inputs;
+        if (node.dependents.isEmpty()) {
+          segment.roots.put(wrapper, node);
+        }
+        stored = true;
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+
+    if (stored) {
+      evictIfNeeded(statsTracker);
+    } else {
+      unlink(node, deps.build(), inputs);
+    }
+    return result.result;
+  }
+
+  /** Returns the nodes pinned while computing the given one, which are no longer pinned by it. */
+  private static ImmutableList<Node> unpin(Node node) {
+    ImmutableList<Node> pinned = ImmutableList.copyOf(node.pinned);
+    node.pinned.clear();
+    return pinned;
+  }
+
+  private <K> RuleKey getNode(
+      K key, Function<K, RuleKeyResult<RuleKey>> create, CacheStatsTracker statsTracker) {
+    CacheStatsTracker.CacheRequest request = statsTracker.startRequest();
+    Segment segment = segmentFor(key);
+    Node dependent = computing.get();
+    Supplier<RuleKey> supplier;
+    segment.lock.lock();
+    try {
+      Node node = segment.getOrCreate(key);
+      if (dependent != null) {
+        segment.pin(node, dependent);
+      }
+      if (node.slot >= 0) {
+        request.recordHit();
+        segment.touch(key);
+        return segment.slab.get(node.slot);
+      }
+      if (node.pending == null) {
+        request.recordMiss();
+        // The rule key is computed outside of the lock, as computing it looks up the rule keys of
+        // its dependencies.
+        node.pending = MoreSuppliers.memoize(() -> calculateNode(node, key, create, statsTracker));
+        request.recordLoadSuccess();
+      } else {
+        request.recordHit();
+      }
+      supplier = node.pending;
+    } finally {
+      segment.lock.unlock();
+    }
+    return supplier.get();
+  }
+
+  @Nullable
+  @Override
+  public RuleKey get(BuildEngineAction action, CacheStatsTracker statsTracker) {
+    CacheStatsTracker.CacheRequest request = statsTracker.startRequest();
+    Segment segment = segmentFor(action);
+    Supplier<RuleKey> supplier = null;
+    segment.lock.lock();
+    try {
+      Node node = segment.nodes.get(new IdentityWrapper(action));
+      if (node != null && node.slot >= 0) {
+        request.recordHit();
+        segment.touch(action);
+        return segment.slab.get(node.slot);
+      }
+      if (node != null) {
+        supplier = node.pending;
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+    if (supplier != null) {
+      request.recordHit();
+      return supplier.get();
+    }
+    request.recordMiss();
+    return null;
+  }
+
+  @Override
+  public RuleKey get(
+      BuildEngineAction action,
+      Function<? super BuildEngineAction, RuleKeyResult<RuleKey>> create,
+      CacheStatsTracker statsTracker) {
+    return getNode(action, create, statsTracker);
+  }
+
+  @Override
+  public RuleKey get(
+      AddsToRuleKey appendable,
+      Function<? super AddsToRuleKey, RuleKeyResult<RuleKey>> create,
+      CacheStatsTracker statsTracker) {
+    return getNode(appendable, create, statsTracker);
+  }
+
+  private boolean isCachedNode(Object object) {
+    Segment segment = segmentFor(object);
+    segment.lock.lock();
+    try {
+      return segment.nodes.containsKey(new IdentityWrapper(object));
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  @VisibleForTesting
+  boolean isCached(BuildEngineAction rule) {
+    return isCachedNode(rule);
+  }
+
+  @VisibleForTesting
+  boolean isCached(AddsToRuleKey appendable) {
+    return isCachedNode(appendable);
+  }
+
+  /**
+   * Evicts entries that nothing depends on, and the dependencies only they kept cached, until the
+   * cache fits its capacity, or until all the remaining entries are being computed or depended on
+   * by entries being computed.
+   */
+  private void evictIfNeeded(CacheStatsTracker statsTracker) {
+    while (size.get() > maxEntries) {
+      Node victim = null;
+      for (int i = 0; i < segments.length && victim == null; i++) {
+        Segment segment =
+            segments[Math.floorMod(evictionCursor.getAndIncrement(), segments.length)];
+        segment.lock.lock();
+        try {
+          victim = segment.evictLeastRecentlyUsedRoot();
+        } finally {
+          segment.lock.unlock();
+        }
+      }
+      if (victim == null) {
+        return;
+      }
+      Deque<Node> toEvict = new ArrayDeque<>();
+      toEvict.add(victim);
+      while (!toEvict.isEmpty()) {
+        Node node = toEvict.remove();
+        LOG.verbose("evicting node %s", node.key);
+        statsTracker.recordEviction();
+        for (Node dep : node.deps) {
+          Segment segment = segmentFor(dep.key);
+          segment.lock.lock();
+          try {
+            dep.dependents.remove(node);
+            if (dep.dependents.isEmpty() && segment.onNoDependents(dep, /* evict */ true)) {
+              toEvict.add(dep);
+            }
+          } finally {
+            segment.lock.unlock();
+          }
+        }
+        unlinkInputs(node, node.inputs);
+      }
+    }
+  }
+
+  /** Removes the nodes, and all their transitive dependents, from the cache. */
+  private void removeNodes(Iterable<Node> nodes, CacheStatsTracker statsTracker) {
+    Deque<Node> toRemove = new ArrayDeque<>();
+    nodes.forEach(toRemove::add);
+    while (!toRemove.isEmpty()) {
+      Node node = toRemove.remove();
+      Segment segment = segmentFor(node.key);
+      ImmutableList<Node> dependents;
+      segment.lock.lock();
+      try {
+        // This node may have already been removed due to being someone else's reverse dependency.
+        if (!segment.remove(node)) {
+          continue;
+        }
+        dependents = ImmutableList.copyOf(node.dependents);
+        node.dependents.clear();
+      } finally {
+        segment.lock.unlock();
+      }
+      LOG.verbose("invalidating node %s", node.key);
+      statsTracker.recordEviction();
+      unlink(node, node.deps, node.inputs);
+      toRemove.addAll(dependents);
+    }
+  }
+
+  /** Removes the edges from the given dependencies and inputs to a node no longer cached. */
+  private void unlink(Node node, ImmutableList<Node> deps, ImmutableList<RuleKeyInput> inputs) {
+    for (Node dep : deps) {
+      Segment segment = segmentFor(dep.key);
+      segment.lock.lock();
+      try {
+        dep.dependents.remove(node);
+        if (dep.dependents.isEmpty()) {
+          segment.onNoDependents(dep, /* evict */ false);
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    unlinkInputs(node, inputs);
+  }
+
+  private void unlinkInputs(Node node, ImmutableList<RuleKeyInput> inputs) {
+    for (RuleKeyInput input : inputs) {
+      inputsIndex.computeIfPresent(
+          input,
+          (ignored, nodes) -> {
+            nodes.remove(node);
+            return nodes.isEmpty() ? null : nodes;
+          });
+    }
+  }
+
+  /** Invalidate the given inputs and all their transitive dependents. */
+  @Override
+  public void invalidateInputs(Iterable<RuleKeyInput> inputs, CacheStatsTracker statsTracker) {
+    List<Node> nodes = new ArrayList<>();
+    for (RuleKeyInput input : inputs) {
+      LOG.verbose("invalidating input %s", input);
+      Set<Node> inputNodes = inputsIndex.remove(input);
+      if (inputNodes != null) {
+        nodes.addAll(inputNodes);
+      }
+    }
+    if (!nodes.isEmpty()) {
+      removeNodes(nodes, statsTracker);
+    }
+  }
+
+  /**
+   * Invalidate all inputs *not* from the given {@link ProjectFilesystem}s and their transitive
+   * dependents.
+   */
+  @Override
+  public void invalidateAllExceptFilesystems(
+      ImmutableSet<ProjectFilesystem> filesystems, CacheStatsTracker statsTracker) {
+    if (filesystems.isEmpty()) {
+      invalidateAll(statsTracker);
+    } else {
+      invalidateInputs(
+          inputsIndex.keySet().stream()
+              .filter(input -> !filesystems.contains(input.getFilesystem()))
+              .collect(Collectors.toList()),
+          statsTracker);
+    }
+  }
+
+  /**
+   * Invalidate all inputs from a given {@link ProjectFilesystem} and their transitive dependents.
+   */
+  @Override
+  public void invalidateFilesystem(ProjectFilesystem filesystem, CacheStatsTracker statsTracker) {
+    invalidateInputs(
+        inputsIndex.keySet().stream()
+            .filter(input -> filesystem.equals(input.getFilesystem()))
+            .collect(Collectors.toList()),
+        statsTracker);
+  }
+
+  /** Invalidate everything in the cache. */
+  @Override
+  public void invalidateAll(CacheStatsTracker statsTracker) {
+    for (Segment segment : segments) {
+      segment.lock.lock();
+      try {
+        statsTracker.recordEviction(segment.nodes.size());
+        size.addAndGet(-segment.nodes.size());
+        segment.nodes.clear();
+        segment.roots.clear();
+        segment.slab.clear();
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    inputsIndex.clear();
+  }
+
+  @Override
+  public ImmutableList<Map.Entry<BuildRule, RuleKey>> getCachedBuildRules() {
+    ImmutableList.Builder<Map.Entry<BuildRule, RuleKey>> builder = ImmutableList.builder();
+    for (Segment segment : segments) {
+      segment.lock.lock();
+      try {
+        for (Node node : segment.nodes.values()) {
+          if (node.key instanceof BuildRule && node.slot >= 0) {
+            builder.add(
+                new AbstractMap.SimpleEntry<>((BuildRule) node.key, segment.slab.get(node.slot)));
+          }
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return builder.build();
+  }
+
+  /** @return the number of entries in the cache, including those still being computed. */
+  @VisibleForTesting
+  long size() {
+    return size.get();
+  }
+
+  /** A part of the cache, whose nodes and the edges between them are guarded by its lock. */
+  private final class Segment {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<IdentityWrapper, Node> nodes = new HashMap<>();
+
+    /**
+     * The cached nodes that no other node depends on, which are the ones that can be evicted, from
+     * the least to the most recently used.
+     */
+    private final LinkedHashMap<IdentityWrapper, Node> roots =
+        new LinkedHashMap<>(16, 0.75f, /* accessOrder */ true);
+
+    private final RuleKeySlab slab = new RuleKeySlab();
+
+    private Node getOrCreate(Object key) {
+      return nodes.computeIfAbsent(
+          new IdentityWrapper(key),
+          ignored -> {
+            size.incrementAndGet();
+            return new Node(key);
+          });
+    }
+
+    /**
+     * Records {@code dependent}, whose rule key is being computed, as depending on {@code node}
+     * already, so that the node is neither evicted before the dependent is cached nor invalidated
+     * without it.
+     */
+    private void pin(Node node, Node dependent) {
+      if (node.dependents.isEmpty()) {
+        roots.remove(new IdentityWrapper(node.key));
+      }
+      if (node.dependents.add(dependent)) {
+        dependent.pinned.add(node);
+      }
+    }
+
+    /** Marks the node of the given key as the most recently used one, if it can be evicted. */
+    private void touch(Object key) {
+      roots.get(new IdentityWrapper(key));
+    }
+
+    /** @return whether the node was cached, in which case it no longer is. */
+    private boolean remove(Node node) {
+      IdentityWrapper wrapper = new IdentityWrapper(node.key);
+      if (!nodes.remove(wrapper, node)) {
+        return false;
+      }
+      roots.remove(wrapper);
+      size.decrementAndGet();
+      if (node.slot >= 0) {
+        slab.free(node.slot);
+        node.slot = -1;
+      }
+      return true;
+    }
+
+    /**
+     * Called once the last node depending on the given one no longer does.
+     *
+     * @param evict whether to evict the node if it is cached, rather than making it evictable.
+     * @return whether a cached node was evicted, in which case its edges are left to the caller.
+     */
+    private boolean onNoDependents(Node node, boolean evict) {
+      IdentityWrapper wrapper = new IdentityWrapper(node.key);
+      if (nodes.get(wrapper) != node) {
+        return false;
+      }
+      if (node.slot >= 0) {
+        if (evict) {
+          return remove(node);
+        }
+        roots.put(wrapper, node);
+      } else if (node.pending == null) {
+        // The node was only created to record its dependents, none of which are left.
+        remove(node);
+      }
+      return false;
+    }
+
+    /** @return the least recently used node that nothing depends on, after removing it. */
+    @Nullable
+    private Node evictLeastRecentlyUsedRoot() {
+      Iterator<Node> iterator = roots.values().iterator();
+      if (!iterator.hasNext()) {
+        return null;
+      }
+      Node node = iterator.next();
+      remove(node);
+      return node;
+    }
+  }
+
+  private static final class Node {
+
+    private final Object key;
+
+    /** The slot of the rule key in the segment's slab, or -1 if it is not cached (yet). */
+    private int slot = -1;
+
+    /**
+     * Computes the rule key, serializing its computation separately from the segment's lock. Null
+     * once the rule key is cached, or if the instance was created in response to recording a
+     * dependent.
+     */
+    @Nullable private Supplier<RuleKey> pending;
+
+    /** Nodes that depend on this one, which are invalidated along with it. */
+    private final Set<Node> dependents = new HashSet<>();
+
+    /** Nodes that this one depends on, whose dependents this node has been added to. */
+    private ImmutableList<Node> deps = ImmutableList.of();
+
+    private ImmutableList<RuleKeyInput> inputs = ImmutableList.of();
+
+    /**
+     * Nodes looked up while this node's rule key is being computed, which this node has been added
+     * to the dependents of. Only accessed by the thread computing the rule key.
+     */
+    private final List<Node> pinned = new ArrayList<>();
+
+    private Node(Object key) {
+      this.key = key;
+    }
+  }
+
+  /**
+   * A wrapper class which uses identity equality and hash code. Intended to wrap keys used in a
+   * map.
+   */
+  private static final class IdentityWrapper {
+
+    private final Object delegate;
+
+    private IdentityWrapper(Object delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(delegate);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof IdentityWrapper)) {
+        return false;
+      }
+      return delegate == ((IdentityWrapper) obj).delegate;
+    }
+  }
+}
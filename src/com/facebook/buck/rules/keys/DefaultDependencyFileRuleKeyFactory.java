@@ -105,6 +105,9 @@ public final class DefaultDependencyFileRuleKeyFactory implements DependencyFile
             rule.getCoveredByDepFilePredicate(ruleFinder.getSourcePathResolver()),
             rule.getExistenceOfInterestPredicate(ruleFinder.getSourcePathResolver()),
             RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
+    // The dep-file lists most of the files the key is made of, so start hashing them all at once
+    // rather than one at a time as the rule's fields are added.
+    fileHashLoader.prefetch(rule.getProjectFilesystem(), builder.depFilePossiblePaths);
     ruleKeyFieldLoader.setFields(builder, rule, keyType.toRuleKeyType());
     Result<RuleKey> result = builder.buildResult(RuleKey::new);
     return RuleKeyAndInputs.of(result.getRuleKey(), result.getSourcePaths());
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores the hashes of {@link RuleKey}s in fixed-size slots of off-heap memory, so that caching
+ * many of them adds neither objects nor bytes to the Java heap.
+ *
+ * <p>Slots are identified by an int, which callers keep in place of the {@link RuleKey}. Freed
+ * slots are reused before the slab grows. This class is not thread-safe.
+ */
+final class RuleKeySlab {
+
+  /** The longest hash that fits in a slot, which is enough for SHA-256. */
+  static final int MAX_HASH_BYTES = 32;
+
+  private static final int SLOT_SIZE = 1 + MAX_HASH_BYTES;
+  private static final int SLOTS_PER_CHUNK = 1024;
+
+  private final List<ByteBuffer> chunks = new ArrayList<>();
+  private int[] freeSlots = new int[16];
+  private int freeSlotCount = 0;
+  private int nextSlot = 0;
+
+  /** @return the slot now holding the given hash. */
+  int put(HashCode hashCode) {
+    byte[] bytes = hashCode.asBytes();
+    Preconditions.checkArgument(
+        bytes.length <= MAX_HASH_BYTES, "Rule key hash of %s bytes is too long", bytes.length);
+
+    int slot;
+    if (freeSlotCount > 0) {
+      slot = freeSlots[--freeSlotCount];
+    } else {
+      slot = nextSlot++;
+      if (slot / SLOTS_PER_CHUNK == chunks.size()) {
+        chunks.add(ByteBuffer.allocateDirect(SLOTS_PER_CHUNK * SLOT_SIZE));
+      }
+    }
+
+    ByteBuffer chunk = chunks.get(slot / SLOTS_PER_CHUNK);
+    int offset = (slot % SLOTS_PER_CHUNK) * SLOT_SIZE;
+    chunk.put(offset, (byte) bytes.length);
+    for (int i = 0; i < bytes.length; i++) {
+      chunk.put(offset + 1 + i, bytes[i]);
+    }
+    return slot;
+  }
+
+  /** @return the rule key whose hash is held by the given slot. */
+  RuleKey get(int slot) {
+    ByteBuffer chunk = chunks.get(slot / SLOTS_PER_CHUNK);
+    int offset = (slot % SLOTS_PER_CHUNK) * SLOT_SIZE;
+    byte[] bytes = new byte[chunk.get(offset)];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = chunk.get(offset + 1 + i);
+    }
+    return new RuleKey(HashCode.fromBytes(bytes));
+  }
+
+  /** Makes the slot available to later calls to {@link #put(HashCode)}. */
+  void free(int slot) {
+    if (freeSlotCount == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+    }
+    freeSlots[freeSlotCount++] = slot;
+  }
+
+  /** Frees all the slots, and the memory holding them. */
+  void clear() {
+    chunks.clear();
+    freeSlots = new int[16];
+    freeSlotCount = 0;
+    nextSlot = 0;
+  }
+}
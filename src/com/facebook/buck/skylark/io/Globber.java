@@ -17,7 +17,9 @@
 package com.facebook.buck.skylark.io;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -29,4 +31,20 @@ public interface Globber {
   Set<String> run(
       Collection<String> include, Collection<String> exclude, boolean excludeDirectories)
       throws IOException, InterruptedException;
+
+  /**
+   * Resolves several globs at once, which implementations querying a service like watchman can
+   * send together instead of one after the other.
+   *
+   * @return the paths matching each glob, in the order of {@code globSpecs}.
+   */
+  default List<Set<String>> runAll(List<GlobSpec> globSpecs)
+      throws IOException, InterruptedException {
+    List<Set<String>> results = new ArrayList<>(globSpecs.size());
+    for (GlobSpec globSpec : globSpecs) {
+      results.add(
+          run(globSpec.getInclude(), globSpec.getExclude(), globSpec.getExcludeDirectories()));
+    }
+    return results;
+  }
 }
@@ -21,8 +21,11 @@ import com.facebook.buck.skylark.io.GlobSpecWithResult;
 import com.facebook.buck.skylark.io.Globber;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -80,6 +83,29 @@ public class CachingGlobber implements Globber {
     return expandedPaths;
   }
 
+  @Override
+  public List<Set<String>> runAll(List<GlobSpec> globSpecs)
+      throws IOException, InterruptedException {
+    Set<GlobSpec> missingGlobSpecs = new LinkedHashSet<>();
+    for (GlobSpec globSpec : globSpecs) {
+      if (!cache.containsKey(globSpec)) {
+        missingGlobSpecs.add(globSpec);
+      }
+    }
+    if (!missingGlobSpecs.isEmpty()) {
+      List<GlobSpec> globSpecsToRun = new ArrayList<>(missingGlobSpecs);
+      List<Set<String>> results = delegate.runAll(globSpecsToRun);
+      for (int i = 0; i < globSpecsToRun.size(); i++) {
+        cache.put(globSpecsToRun.get(i), results.get(i));
+      }
+    }
+    List<Set<String>> expandedPaths = new ArrayList<>(globSpecs.size());
+    for (GlobSpec globSpec : globSpecs) {
+      expandedPaths.add(cache.get(globSpec));
+    }
+    return expandedPaths;
+  }
+
   /**
    * @return Glob manifest that includes information about expanded paths for each requested {@link
    *     GlobSpec}.
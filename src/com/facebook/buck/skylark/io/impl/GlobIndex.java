@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.pathformat.PathFormatter;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.UnixGlob;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Directory listings and file types of a cell kept in memory, so that globs of build files can be
+ * evaluated without touching the disk once the directories they cover have been listed.
+ *
+ * <p>The index is meant to be kept for the lifetime of the daemon and must be told about every
+ * file that is created or deleted through {@link #invalidate(java.nio.file.Path)}, which is what
+ * watchman events are for. Paths ignored by the cell are not watched, so they are never indexed.
+ * Files whose changes the daemon does not track, like editors' temporary files, may be listed
+ * after they are gone, the same way build files globbing them are not parsed again.
+ *
+ * <p>Only the type of files is kept up to date, the other attributes of cached {@link FileStatus}es
+ * should not be relied on.
+ */
+public class GlobIndex implements UnixGlob.FilesystemCalls {
+
+  private final ProjectFilesystem filesystem;
+  private final String rootPath;
+
+  /** Entries of listed directories, keyed by the absolute path of the directory. */
+  private final ConcurrentNavigableMap<String, Collection<Dirent>> directoryEntries =
+      new ConcurrentSkipListMap<>();
+
+  /** Statuses of files with symlinks followed, keyed by the absolute path of the file. */
+  private final ConcurrentNavigableMap<String, Optional<FileStatus>> fileStatuses =
+      new ConcurrentSkipListMap<>();
+
+  /**
+   * Incremented before any entry is invalidated, so that a lookup racing with an invalidation can
+   * tell that what it read from disk may be outdated.
+   */
+  private final AtomicLong generation = new AtomicLong();
+
+  private GlobIndex(ProjectFilesystem filesystem) {
+    this.filesystem = filesystem;
+    this.rootPath = PathFormatter.pathWithUnixSeparators(filesystem.getRootPath());
+  }
+
+  /** Creates an empty index of the files in {@code filesystem}. */
+  public static GlobIndex of(ProjectFilesystem filesystem) {
+    return new GlobIndex(filesystem);
+  }
+
+  @Override
+  public Collection<Dirent> readdir(Path path) throws IOException {
+    String key = path.getPathString();
+    Collection<Dirent> entries = directoryEntries.get(key);
+    if (entries != null) {
+      return entries;
+    }
+    if (!isIndexed(key)) {
+      return UnixGlob.DEFAULT_SYSCALLS.readdir(path);
+    }
+    long expectedGeneration = generation.get();
+    entries = ImmutableList.copyOf(UnixGlob.DEFAULT_SYSCALLS.readdir(path));
+    directoryEntries.put(key, entries);
+    if (generation.get() != expectedGeneration) {
+      directoryEntries.remove(key, entries);
+    }
+    return entries;
+  }
+
+  @Override
+  public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+    if (symlinks != Symlinks.FOLLOW) {
+      return UnixGlob.DEFAULT_SYSCALLS.statIfFound(path, symlinks);
+    }
+    String key = path.getPathString();
+    Optional<FileStatus> status = fileStatuses.get(key);
+    if (status != null) {
+      return status.orElse(null);
+    }
+    if (!isIndexed(key)) {
+      return UnixGlob.DEFAULT_SYSCALLS.statIfFound(path, symlinks);
+    }
+    long expectedGeneration = generation.get();
+    FileStatus linkStatus = UnixGlob.DEFAULT_SYSCALLS.statIfFound(path, Symlinks.NOFOLLOW);
+    if (linkStatus != null && linkStatus.isSymbolicLink()) {
+      // Changes to the target of a symlink are not reported for the symlink.
+      return UnixGlob.DEFAULT_SYSCALLS.statIfFound(path, symlinks);
+    }
+    status = Optional.ofNullable(linkStatus);
+    fileStatuses.put(key, status);
+    if (generation.get() != expectedGeneration) {
+      fileStatuses.remove(key, status);
+    }
+    return linkStatus;
+  }
+
+  @Override
+  public Dirent.Type getType(Path path, Symlinks symlinks) throws IOException {
+    return UnixGlob.statusToDirentType(statIfFound(path, symlinks));
+  }
+
+  /**
+   * Drops what is known about the file or directory at {@code path}, which must be absolute, and
+   * about the directory containing it. Everything under {@code path} is dropped as well, since a
+   * deleted directory may not be reported for each of its files.
+   */
+  public void invalidate(java.nio.file.Path path) {
+    generation.incrementAndGet();
+    String key = PathFormatter.pathWithUnixSeparators(path);
+    invalidateSubtree(directoryEntries, key);
+    invalidateSubtree(fileStatuses, key);
+    java.nio.file.Path parent = path.getParent();
+    if (parent != null) {
+      directoryEntries.remove(PathFormatter.pathWithUnixSeparators(parent));
+    }
+  }
+
+  private static void invalidateSubtree(ConcurrentNavigableMap<String, ?> entries, String key) {
+    entries.remove(key);
+    // '0' follows '/', so this covers exactly the paths starting with "key/".
+    entries.subMap(key + '/', key + '0').clear();
+  }
+
+  private boolean isIndexed(String path) {
+    if (!path.startsWith(rootPath)) {
+      return false;
+    }
+    if (path.length() == rootPath.length()) {
+      return true;
+    }
+    if (path.charAt(rootPath.length()) != '/') {
+      return false;
+    }
+    return !filesystem.isIgnored(filesystem.getPath(path.substring(rootPath.length() + 1)));
+  }
+}
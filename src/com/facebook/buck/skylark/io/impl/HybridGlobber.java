@@ -16,11 +16,14 @@
 
 package com.facebook.buck.skylark.io.impl;
 
+import com.facebook.buck.skylark.io.GlobSpec;
 import com.facebook.buck.skylark.io.Globber;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.vfs.UnixGlob;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
@@ -51,6 +54,20 @@ public class HybridGlobber implements Globber {
     return fallbackGlobber.run(include, exclude, excludeDirectories);
   }
 
+  @Override
+  public List<Set<String>> runAll(List<GlobSpec> globSpecs)
+      throws IOException, InterruptedException {
+    for (GlobSpec globSpec : globSpecs) {
+      checkPatternsForError(globSpec.getInclude());
+      checkPatternsForError(globSpec.getExclude());
+    }
+    Optional<List<ImmutableSet<String>>> watchmanResults = watchmanGlobber.runAll(globSpecs);
+    if (watchmanResults.isPresent()) {
+      return new ArrayList<>(watchmanResults.get());
+    }
+    return fallbackGlobber.runAll(globSpecs);
+  }
+
   private void checkPatternsForError(Collection<String> include) {
     for (String pattern : include) {
       String error = UnixGlob.checkPatternForError(pattern);
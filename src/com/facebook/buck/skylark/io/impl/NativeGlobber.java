@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.vfs.UnixGlob;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A Java native glob function implementation that allows resolving file paths based on include
@@ -37,8 +38,12 @@ public class NativeGlobber implements Globber {
   /** Path used as a root when resolving patterns. */
   private final Path basePath;
 
-  private NativeGlobber(Path basePath) {
+  /** Filesystem calls used to list directories and to get types of files. */
+  private final AtomicReference<UnixGlob.FilesystemCalls> syscalls;
+
+  private NativeGlobber(Path basePath, UnixGlob.FilesystemCalls syscalls) {
     this.basePath = basePath;
+    this.syscalls = new AtomicReference<>(syscalls);
   }
 
   /**
@@ -53,9 +58,9 @@ public class NativeGlobber implements Globber {
       Collection<String> include, Collection<String> exclude, boolean excludeDirectories)
       throws IOException {
     ImmutableSet<String> includePaths =
-        resolvePathsMatchingGlobPatterns(include, basePath, excludeDirectories);
+        resolvePathsMatchingGlobPatterns(include, excludeDirectories);
     ImmutableSet<String> excludePaths =
-        resolvePathsMatchingGlobPatterns(exclude, basePath, excludeDirectories);
+        resolvePathsMatchingGlobPatterns(exclude, excludeDirectories);
     return Sets.difference(includePaths, excludePaths);
   }
 
@@ -63,14 +68,13 @@ public class NativeGlobber implements Globber {
    * Resolves provided list of glob patterns into a set of paths.
    *
    * @param patterns The glob patterns to resolve.
-   * @param basePath The base path used when resolving glob patterns.
    * @param excludeDirectories Flag indicating whether directories should be excluded from result.
    * @return The set of paths corresponding to requested patterns.
    */
-  private static ImmutableSet<String> resolvePathsMatchingGlobPatterns(
-      Collection<String> patterns, Path basePath, boolean excludeDirectories) throws IOException {
+  private ImmutableSet<String> resolvePathsMatchingGlobPatterns(
+      Collection<String> patterns, boolean excludeDirectories) throws IOException {
     return UnixGlob.forPath(basePath).addPatterns(patterns)
-        .setExcludeDirectories(excludeDirectories).glob().stream()
+        .setExcludeDirectories(excludeDirectories).setFilesystemCalls(syscalls).glob().stream()
         .map(includePath -> includePath.relativeTo(basePath).getPathString())
         .collect(ImmutableSet.toImmutableSet());
   }
@@ -81,6 +85,16 @@ public class NativeGlobber implements Globber {
    * @param basePath The base path relative to which paths matching glob patterns will be resolved.
    */
   public static NativeGlobber create(Path basePath) {
-    return new NativeGlobber(basePath);
+    return create(basePath, UnixGlob.DEFAULT_SYSCALLS);
+  }
+
+  /**
+   * Factory method for creating {@link NativeGlobber} instances that look at the filesystem
+   * through {@code syscalls}, like a {@link GlobIndex} of the cell.
+   *
+   * @param basePath The base path relative to which paths matching glob patterns will be resolved.
+   */
+  public static NativeGlobber create(Path basePath, UnixGlob.FilesystemCalls syscalls) {
+    return new NativeGlobber(basePath, syscalls);
   }
 }
@@ -18,11 +18,13 @@ package com.facebook.buck.skylark.io.impl;
 
 import com.facebook.buck.io.watchman.WatchmanClient;
 import com.facebook.buck.io.watchman.WatchmanQueryFailedException;
+import com.facebook.buck.skylark.io.GlobSpec;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
@@ -151,14 +153,53 @@ public class WatchmanGlobber {
     if (!result.isPresent()) {
       return Optional.empty();
     }
+    return Optional.of(getFiles(result.get()));
+  }
+
+  /**
+   * Resolves all {@code globSpecs} with a single batch of Watchman queries.
+   *
+   * @return The paths matching each glob, in the order of {@code globSpecs}, or {@link
+   *     Optional#empty()} if Watchman did not answer all of them.
+   * @throws WatchmanQueryFailedException Watchman returned an error response.
+   */
+  public Optional<List<ImmutableSet<String>>> runAll(List<GlobSpec> globSpecs)
+      throws IOException, InterruptedException, WatchmanQueryFailedException {
+    List<ImmutableList<Object>> watchmanQueries = new ArrayList<>(globSpecs.size());
+    for (GlobSpec globSpec : globSpecs) {
+      watchmanQueries.add(
+          ImmutableList.of(
+              "query",
+              watchmanWatchRoot,
+              createWatchmanQuery(
+                  globSpec.getInclude(),
+                  globSpec.getExclude(),
+                  globSpec.getExcludeDirectories()
+                      ? EnumSet.of(Option.EXCLUDE_DIRECTORIES)
+                      : EnumSet.noneOf(Option.class))));
+    }
+
+    List<Optional<? extends Map<String, ? extends Object>>> results =
+        watchmanClient.queryBatchWithTimeout(TIMEOUT_NANOS, watchmanQueries);
+    List<ImmutableSet<String>> files = new ArrayList<>(results.size());
+    for (Optional<? extends Map<String, ? extends Object>> result : results) {
+      if (!result.isPresent()) {
+        return Optional.empty();
+      }
+      files.add(getFiles(result.get()));
+    }
+    return Optional.of(files);
+  }
 
-    @Nullable Object error = result.get().get("error");
+  private static ImmutableSet<String> getFiles(Map<String, ?> result)
+      throws WatchmanQueryFailedException {
+    @Nullable Object error = result.get("error");
     if (error != null) {
       throw new WatchmanQueryFailedException(error.toString());
     }
     @SuppressWarnings("unchecked")
-    List<String> files = (List<String>) result.get().get("files");
-    return Optional.of(ImmutableSet.copyOf(files));
+    List<String> files = (List<String>) result.get("files");
+    return ImmutableSet.copyOf(files);
   }
 
   /**
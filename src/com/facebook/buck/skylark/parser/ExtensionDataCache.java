@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.parser;
+
+import com.facebook.buck.io.pathformat.PathFormatter;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Evaluated extension files shared by all Skylark parsers of a cell, so that an extension loaded by
+ * many build files is parsed and evaluated once instead of once per parser.
+ *
+ * <p>Extensions are frozen once evaluated, which makes it safe for parsers to use them
+ * concurrently. An extension stays cached until its file or any file it transitively loads is
+ * reported as changed through {@link #invalidate(Path)}.
+ */
+public class ExtensionDataCache {
+
+  private final ConcurrentMap<String, ExtensionData> extensions = new ConcurrentHashMap<>();
+
+  /** Maps every loaded file to the paths of the cached extensions evaluated using it. */
+  @GuardedBy("this")
+  private final Map<String, Set<String>> dependents = new HashMap<>();
+
+  /** @return the extension evaluated from {@code path}, or {@code null} if it is not cached. */
+  @Nullable
+  ExtensionData get(com.google.devtools.build.lib.vfs.Path path) {
+    return extensions.get(path.toString());
+  }
+
+  /** Caches {@code extension} until any of the files it was evaluated from changes. */
+  synchronized void put(ExtensionData extension) {
+    String path = extension.getPath().toString();
+    extensions.put(path, extension);
+    for (String loadedPath : extension.getLoadTransitiveClosure()) {
+      dependents.computeIfAbsent(loadedPath, p -> new HashSet<>()).add(path);
+    }
+  }
+
+  /**
+   * Drops the extensions that were evaluated using the file at {@code path}, which must be
+   * absolute.
+   */
+  public synchronized void invalidate(Path path) {
+    Set<String> invalidated = dependents.remove(PathFormatter.pathWithUnixSeparators(path));
+    if (invalidated != null) {
+      extensions.keySet().removeAll(invalidated);
+    }
+  }
+}
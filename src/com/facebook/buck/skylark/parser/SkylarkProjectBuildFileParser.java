@@ -34,7 +34,6 @@ import com.facebook.buck.parser.implicit.PackageImplicitIncludesFinder;
 import com.facebook.buck.parser.options.ProjectBuildFileParserOptions;
 import com.facebook.buck.parser.syntax.ImmutableListWithSelects;
 import com.facebook.buck.parser.syntax.ImmutableSelectorValue;
-import com.facebook.buck.skylark.io.GlobSpec;
 import com.facebook.buck.skylark.io.GlobSpecWithResult;
 import com.facebook.buck.skylark.io.Globber;
 import com.facebook.buck.skylark.io.GlobberFactory;
@@ -82,10 +81,12 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
@@ -109,6 +110,7 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
   private final GlobberFactory globberFactory;
   private final Cache<com.google.devtools.build.lib.vfs.Path, BuildFileAST> astCache;
   private final Cache<com.google.devtools.build.lib.vfs.Path, ExtensionData> extensionDataCache;
+  private final ExtensionDataCache sharedExtensionDataCache;
   private final LoadingCache<LoadImport, IncludesData> includesDataCache;
   private final PackageImplicitIncludesFinder packageImplicitIncludeFinder;
 
@@ -118,13 +120,15 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       FileSystem fileSystem,
       BuckGlobals buckGlobals,
       EventHandler eventHandler,
-      GlobberFactory globberFactory) {
+      GlobberFactory globberFactory,
+      ExtensionDataCache sharedExtensionDataCache) {
     this.options = options;
     this.buckEventBus = buckEventBus;
     this.fileSystem = fileSystem;
     this.eventHandler = eventHandler;
     this.buckGlobals = buckGlobals;
     this.globberFactory = globberFactory;
+    this.sharedExtensionDataCache = sharedExtensionDataCache;
 
     this.astCache = CacheBuilder.newBuilder().build();
     this.extensionDataCache = CacheBuilder.newBuilder().build();
@@ -152,7 +156,8 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
         other.fileSystem,
         other.buckGlobals,
         other.eventHandler,
-        other.globberFactory);
+        other.globberFactory,
+        other.sharedExtensionDataCache);
   }
 
   /** Create an instance of Skylark project build file parser using provided options. */
@@ -163,8 +168,36 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       BuckGlobals buckGlobals,
       EventHandler eventHandler,
       GlobberFactory globberFactory) {
+    return using(
+        options,
+        buckEventBus,
+        fileSystem,
+        buckGlobals,
+        eventHandler,
+        globberFactory,
+        new ExtensionDataCache());
+  }
+
+  /**
+   * Create an instance of Skylark project build file parser using provided options, which reuses
+   * extensions evaluated by other parsers sharing {@code sharedExtensionDataCache}.
+   */
+  public static SkylarkProjectBuildFileParser using(
+      ProjectBuildFileParserOptions options,
+      BuckEventBus buckEventBus,
+      FileSystem fileSystem,
+      BuckGlobals buckGlobals,
+      EventHandler eventHandler,
+      GlobberFactory globberFactory,
+      ExtensionDataCache sharedExtensionDataCache) {
     return new SkylarkProjectBuildFileParser(
-        options, buckEventBus, fileSystem, buckGlobals, eventHandler, globberFactory);
+        options,
+        buckEventBus,
+        fileSystem,
+        buckGlobals,
+        eventHandler,
+        globberFactory,
+        sharedExtensionDataCache);
   }
 
   @Override
@@ -718,10 +751,50 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
    */
   private @Nullable ExtensionData lookupExtensionForImport(
       com.google.devtools.build.lib.vfs.Path path, String importString) {
-    ExtensionData ext = extensionDataCache.getIfPresent(path);
+    ExtensionData ext = lookupExtension(path);
     return ext == null ? ext : ExtensionData.copyOf(ext).withImportString(importString);
   }
 
+  /**
+   * Retrieves extension data from this parser's cache or, failing that, from the cache shared with
+   * other parsers.
+   *
+   * @param path a path for the extension to lookup
+   * @return {@link ExtensionData} of the extension, or null if it has not been evaluated yet.
+   */
+  private @Nullable ExtensionData lookupExtension(com.google.devtools.build.lib.vfs.Path path) {
+    ExtensionData ext = extensionDataCache.getIfPresent(path);
+    if (ext == null) {
+      ext = sharedExtensionDataCache.get(path);
+      if (ext != null) {
+        adoptExtension(ext);
+      }
+    }
+    return ext;
+  }
+
+  /**
+   * Makes an extension evaluated by another parser, along with the extensions it loads, available
+   * to this one.
+   *
+   * <p>Rules defined in these extensions are registered again, since known user defined rule types
+   * may not outlive the parser which evaluated them.
+   */
+  private void adoptExtension(ExtensionData extension) {
+    for (ExtensionData dependency : extension.getDependencies()) {
+      if (extensionDataCache.getIfPresent(dependency.getPath()) == null) {
+        adoptExtension(dependency);
+      }
+    }
+    for (Object value : extension.getExtension().getBindings().values()) {
+      if (value instanceof SkylarkUserDefinedRule
+          && ((SkylarkUserDefinedRule) value).isExported()) {
+        buckGlobals.getKnownUserDefinedRuleTypes().addRule((SkylarkUserDefinedRule) value);
+      }
+    }
+    extensionDataCache.put(extension.getPath(), extension);
+  }
+
   /**
    * Loads extensions abstract syntax tree if needed.
    *
@@ -756,7 +829,7 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       load.addDependency(dependency);
       com.google.devtools.build.lib.vfs.Path extensionPath =
           getImportPath(dependency.getLabel(), dependency.getImport());
-      if (extensionDataCache.getIfPresent(extensionPath) == null) {
+      if (lookupExtension(extensionPath) == null) {
         // Schedule dependency to be loaded if needed.
         haveUnsatisfiedDeps = true;
         queue.push(new ExtensionLoadState(dependency, extensionPath));
@@ -892,6 +965,7 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
         work.removeFirst();
         extension = buildExtensionData(load);
         extensionDataCache.put(load.getPath(), extension);
+        sharedExtensionDataCache.put(extension);
       }
     }
 
@@ -976,12 +1050,14 @@ public class SkylarkProjectBuildFileParser implements ProjectBuildFileParser {
       Path buildFile, ImmutableList<GlobSpecWithResult> existingGlobsWithResults)
       throws IOException, InterruptedException {
     CachingGlobber globber = newGlobber(buildFile);
-    for (GlobSpecWithResult globSpecWithResult : existingGlobsWithResults) {
-      final GlobSpec globSpec = globSpecWithResult.getGlobSpec();
-      Set<String> globResult =
-          globber.run(
-              globSpec.getInclude(), globSpec.getExclude(), globSpec.getExcludeDirectories());
-      if (!globSpecWithResult.getFilePaths().equals(globResult)) {
+    // Globs are resolved together, so that they can be sent to watchman in a single batch.
+    List<Set<String>> globResults =
+        globber.runAll(
+            existingGlobsWithResults.stream()
+                .map(GlobSpecWithResult::getGlobSpec)
+                .collect(Collectors.toList()));
+    for (int i = 0; i < existingGlobsWithResults.size(); i++) {
+      if (!existingGlobsWithResults.get(i).getFilePaths().equals(globResults.get(i))) {
         return false;
       }
     }
@@ -247,6 +247,7 @@ public final class BuckGlobalState implements Closeable {
   public void close() {
     shutdownPersistentWorkerPools();
     shutdownWebServer();
+    closeFileHashCaches();
   }
 
   private void shutdownPersistentWorkerPools() {
@@ -259,6 +260,14 @@ public final class BuckGlobalState implements Closeable {
     }
   }
 
+  private void closeFileHashCaches() {
+    for (ProjectFileHashCache hashCache : hashCaches) {
+      if (hashCache instanceof WatchedFileHashCache) {
+        ((WatchedFileHashCache) hashCache).close();
+      }
+    }
+  }
+
   private void shutdownWebServer() {
     if (webServer.isPresent()) {
       try {
@@ -41,8 +41,10 @@ import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.manifest.BuildFileManifestCache;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.rules.keys.BoundedRuleKeyCache;
 import com.facebook.buck.rules.keys.DefaultRuleKeyCache;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
+import com.facebook.buck.rules.keys.TrackableRuleKeyCache;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
@@ -86,7 +88,10 @@ public class BuckGlobalStateFactory {
         ImmutableList.builderWithExpectedSize(allCells.size() + 1);
     for (Cell subCell : allCells) {
       WatchedFileHashCache watchedCache =
-          new WatchedFileHashCache(subCell.getFilesystem(), buildBuckConfig.getFileHashCacheMode());
+          new WatchedFileHashCache(
+              subCell.getFilesystem(),
+              buildBuckConfig.getFileHashCacheMode(),
+              buildBuckConfig.getPersistentFileHashCacheDir());
       fileEventBus.register(watchedCache);
       hashCachesBuilder.add(watchedCache);
     }
@@ -114,10 +119,15 @@ public class BuckGlobalStateFactory {
     fileEventBus.register(daemonicParserState);
 
     // Build the the rule key cache recycler.
+    TrackableRuleKeyCache<RuleKey> ruleKeyCache =
+        buildBuckConfig
+            .getMaxRuleKeyCacheEntries()
+            .<TrackableRuleKeyCache<RuleKey>>map(BoundedRuleKeyCache::new)
+            .orElseGet(DefaultRuleKeyCache::new);
     RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler =
         RuleKeyCacheRecycler.createAndRegister(
             fileEventBus,
-            new DefaultRuleKeyCache<>(),
+            ruleKeyCache,
             RichStream.from(allCells).map(Cell::getFilesystem).toImmutableSet());
 
     Optional<WebServer> webServer;
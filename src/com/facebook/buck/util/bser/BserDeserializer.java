@@ -107,6 +107,21 @@ public class BserDeserializer {
     }
   }
 
+  /**
+   * Deserializes the value last read by {@code reader}, regardless of how much of it was walked.
+   *
+   * @return either a {@link String}, {@link Number}, {@link List}, {@link Map}, or {@code null},
+   *     depending on the type of the top-level encoded object.
+   */
+  @Nullable
+  public Object deserializeBserValue(BserReader reader) throws IOException {
+    try {
+      return deserializeRecursive(reader.getValueBuffer());
+    } catch (BufferUnderflowException e) {
+      throw new BserEofException("Prematurely reached end of BSER buffer", e);
+    }
+  }
+
   private ByteBuffer readBserBuffer(InputStream inputStream) throws IOException {
     ByteBuffer sniffBuffer = ByteBuffer.allocate(SNIFF_BUFFER_SIZE).order(ByteOrder.nativeOrder());
     Preconditions.checkState(sniffBuffer.hasArray());
@@ -199,6 +214,7 @@ public class BserDeserializer {
 
     // We use a CharsetDecoder here instead of String(byte[], Charset)
     // because we want it to throw an exception for any non-UTF-8 input.
+    int limit = buffer.limit();
     buffer.limit(buffer.position() + len);
 
     try {
@@ -209,7 +225,7 @@ public class BserDeserializer {
       // See: http://java-performance.info/string-intern-in-java-6-7-8/
       return utf8Decoder.decode(buffer).toString().intern();
     } finally {
-      buffer.limit(buffer.capacity());
+      buffer.limit(limit);
     }
   }
 
@@ -0,0 +1,488 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.bser;
+
+import static com.facebook.buck.util.bser.BserConstants.BSER_ARRAY;
+import static com.facebook.buck.util.bser.BserConstants.BSER_FALSE;
+import static com.facebook.buck.util.bser.BserConstants.BSER_INT16;
+import static com.facebook.buck.util.bser.BserConstants.BSER_INT32;
+import static com.facebook.buck.util.bser.BserConstants.BSER_INT64;
+import static com.facebook.buck.util.bser.BserConstants.BSER_INT8;
+import static com.facebook.buck.util.bser.BserConstants.BSER_NULL;
+import static com.facebook.buck.util.bser.BserConstants.BSER_OBJECT;
+import static com.facebook.buck.util.bser.BserConstants.BSER_REAL;
+import static com.facebook.buck.util.bser.BserConstants.BSER_SKIP;
+import static com.facebook.buck.util.bser.BserConstants.BSER_STRING;
+import static com.facebook.buck.util.bser.BserConstants.BSER_TEMPLATE;
+import static com.facebook.buck.util.bser.BserConstants.BSER_TRUE;
+
+import com.facebook.buck.util.bser.BserDeserializer.BserEofException;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * Pull-style reader for the BSER binary JSON format used by the Watchman service:
+ *
+ * <p>https://facebook.github.io/watchman/docs/bser.html
+ *
+ * <p>Unlike {@link BserDeserializer}, which turns a whole value into {@link java.util.Map}s and
+ * {@link java.util.List}s, the reader reports the value as a sequence of {@link Token}s read
+ * straight from the encoded bytes, so that responses listing hundreds of thousands of files can be
+ * walked without materializing them. Strings are only decoded when asked for, and the buffer
+ * holding the encoded value is reused for the next one, so that reading a value does not allocate
+ * once the buffer is large enough.
+ *
+ * <p>Arrays of objects encoded as templates are reported like any other array of objects.
+ *
+ * <p>Instances are not thread safe.
+ */
+public class BserReader {
+
+  /** The kinds of things a BSER value is made of. */
+  public enum Token {
+    START_ARRAY,
+    END_ARRAY,
+    START_OBJECT,
+    END_OBJECT,
+    FIELD_NAME,
+    STRING,
+    INTEGER,
+    REAL,
+    TRUE,
+    FALSE,
+    NULL,
+  }
+
+  // 2 bytes marker, 1 byte int size, up to 8 bytes int64 value
+  private static final int HEADER_BUFFER_SIZE = 11;
+
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+  private static final int INITIAL_DEPTH = 16;
+
+  // Kinds of containers being read.
+  private static final byte ARRAY = 0;
+  private static final byte OBJECT = 1;
+  private static final byte TEMPLATE = 2;
+  private static final byte TEMPLATE_ROW = 3;
+
+  private final ByteBuffer headerBuffer =
+      ByteBuffer.allocate(HEADER_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+  private final CharsetDecoder utf8Decoder =
+      StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT);
+  private ByteBuffer buffer =
+      ByteBuffer.allocate(INITIAL_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+
+  // The containers enclosing the current token, innermost last. Each one has a kind, the number of
+  // elements, fields or template rows left to read, whether the value of a field is to be read next
+  // and, in templates and their rows, where its keys start in templateKeys.
+  private int depth;
+  private byte[] containerKinds = new byte[INITIAL_DEPTH];
+  private int[] remaining = new int[INITIAL_DEPTH];
+  private boolean[] readingValue = new boolean[INITIAL_DEPTH];
+  private int[] keysStart = new int[INITIAL_DEPTH];
+
+  // Position and length of the keys of the templates being read, one pair per key.
+  private int[] templateKeys = new int[INITIAL_DEPTH * 2];
+  private int templateKeysEnd;
+
+  private boolean valueStarted;
+
+  // What is known about the current token.
+  @Nullable private Token currentToken;
+  private int currentSize;
+  private long currentLong;
+  private double currentDouble;
+  private int currentStringPosition;
+  private int currentStringLength;
+
+  /**
+   * Reads the next BSER-encoded value from the stream, replacing the one read before. Only the
+   * encoded bytes are read, they are then walked with {@link #next()}.
+   */
+  public void readPdu(InputStream inputStream) throws IOException {
+    headerBuffer.clear();
+    int headerBytesRead = ByteStreams.read(inputStream, headerBuffer.array(), 0, 3);
+    if (headerBytesRead < 3) {
+      throw new BserEofException(
+          String.format(
+              "Invalid BSER header (expected %d bytes, got %d bytes)", 3, headerBytesRead));
+    }
+    if (headerBuffer.get() != 0x00 || headerBuffer.get() != 0x01) {
+      throw new IOException("Invalid BSER header");
+    }
+    byte lengthType = headerBuffer.get();
+    int lengthBytes = getIntegerSize(lengthType);
+    int lengthBytesRead =
+        ByteStreams.read(inputStream, headerBuffer.array(), headerBuffer.position(), lengthBytes);
+    if (lengthBytesRead < lengthBytes) {
+      throw new BserEofException(
+          String.format(
+              "Invalid BSER header length (expected %d bytes, got %d bytes)",
+              lengthBytes, lengthBytesRead));
+    }
+    int length = readLength(headerBuffer, lengthType);
+
+    if (buffer.capacity() < length) {
+      buffer =
+          ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2))
+              .order(ByteOrder.nativeOrder());
+    }
+    int bytesRead = ByteStreams.read(inputStream, buffer.array(), 0, length);
+    if (bytesRead < length) {
+      throw new BserEofException(
+          String.format(
+              "Invalid BSER header (expected %d bytes, got %d bytes)", length, bytesRead));
+    }
+    buffer.clear();
+    buffer.limit(length);
+    rewind();
+  }
+
+  /** Goes back to the start of the value, so that it can be walked again. */
+  public void rewind() {
+    buffer.position(0);
+    depth = 0;
+    templateKeysEnd = 0;
+    valueStarted = false;
+    currentToken = null;
+  }
+
+  /** @return a buffer holding the encoded value, positioned at its start. */
+  ByteBuffer getValueBuffer() {
+    ByteBuffer valueBuffer = buffer.duplicate().order(ByteOrder.nativeOrder());
+    valueBuffer.position(0);
+    return valueBuffer;
+  }
+
+  /**
+   * Moves to the next token of the value.
+   *
+   * @return the next token, or {@code null} once the whole value has been read.
+   */
+  @Nullable
+  public Token next() throws IOException {
+    try {
+      currentToken = readToken();
+      return currentToken;
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new BserEofException("Prematurely reached end of BSER buffer", e);
+    }
+  }
+
+  /** @return the token last returned by {@link #next()}. */
+  @Nullable
+  public Token getCurrentToken() {
+    return currentToken;
+  }
+
+  /**
+   * Skips the elements or fields of the array or object the current token starts, moving to the
+   * matching end token. Does nothing for other tokens.
+   */
+  public void skipChildren() throws IOException {
+    if (currentToken != Token.START_ARRAY && currentToken != Token.START_OBJECT) {
+      return;
+    }
+    int startDepth = depth;
+    while (depth >= startDepth) {
+      if (next() == null) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the number of elements of the array started by the current token, or the number of
+   *     fields of the object started by it. Objects of templates may have fewer fields than this.
+   */
+  public int getSize() {
+    checkCurrentToken(Token.START_ARRAY, Token.START_OBJECT);
+    return currentSize;
+  }
+
+  /** @return the value of the current {@link Token#INTEGER}. */
+  public long getLong() {
+    checkCurrentToken(Token.INTEGER);
+    return currentLong;
+  }
+
+  /** @return the value of the current {@link Token#REAL}. */
+  public double getDouble() {
+    checkCurrentToken(Token.REAL);
+    return currentDouble;
+  }
+
+  /** @return the current {@link Token#STRING} or {@link Token#FIELD_NAME}, decoded. */
+  public String getString() throws IOException {
+    checkCurrentToken(Token.STRING, Token.FIELD_NAME);
+    int limit = buffer.limit();
+    int position = buffer.position();
+    buffer.limit(currentStringPosition + currentStringLength).position(currentStringPosition);
+    try {
+      // A CharsetDecoder, unlike String(byte[], Charset), throws for input that is not UTF-8.
+      return utf8Decoder.decode(buffer).toString();
+    } finally {
+      buffer.limit(limit).position(position);
+    }
+  }
+
+  /**
+   * Compares the current {@link Token#STRING} or {@link Token#FIELD_NAME} with {@code value}
+   * without decoding it, when {@code value} is ASCII as the names of fields usually are.
+   */
+  public boolean textEquals(String value) throws IOException {
+    checkCurrentToken(Token.STRING, Token.FIELD_NAME);
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c >= 0x80) {
+        return getString().equals(value);
+      }
+      if (i >= currentStringLength || buffer.get(currentStringPosition + i) != (byte) c) {
+        return false;
+      }
+    }
+    return length == currentStringLength;
+  }
+
+  private void checkCurrentToken(Token expected) {
+    Preconditions.checkState(
+        currentToken == expected,
+        "Expected %s but the current token is %s",
+        expected,
+        currentToken);
+  }
+
+  private void checkCurrentToken(Token expected, Token otherExpected) {
+    Preconditions.checkState(
+        currentToken == expected || currentToken == otherExpected,
+        "Expected %s or %s but the current token is %s",
+        expected,
+        otherExpected,
+        currentToken);
+  }
+
+  @Nullable
+  private Token readToken() throws IOException {
+    if (depth == 0) {
+      if (valueStarted) {
+        return null;
+      }
+      valueStarted = true;
+      return readValue(buffer.get());
+    }
+    int top = depth - 1;
+    switch (containerKinds[top]) {
+      case ARRAY:
+        if (remaining[top] == 0) {
+          depth--;
+          return Token.END_ARRAY;
+        }
+        remaining[top]--;
+        return readValue(buffer.get());
+      case OBJECT:
+        if (readingValue[top]) {
+          readingValue[top] = false;
+          return readValue(buffer.get());
+        }
+        if (remaining[top] == 0) {
+          depth--;
+          return Token.END_OBJECT;
+        }
+        remaining[top]--;
+        byte keyType = buffer.get();
+        if (keyType != BSER_STRING) {
+          throw new IOException(
+              String.format("Unrecognized BSER object key type %d, expected string", keyType));
+        }
+        readString();
+        readingValue[top] = true;
+        return Token.FIELD_NAME;
+      case TEMPLATE:
+        if (remaining[top] == 0) {
+          templateKeysEnd = keysStart[top];
+          depth--;
+          return Token.END_ARRAY;
+        }
+        remaining[top]--;
+        currentSize = (templateKeysEnd - keysStart[top]) / 2;
+        push(TEMPLATE_ROW, currentSize, keysStart[top]);
+        return Token.START_OBJECT;
+      case TEMPLATE_ROW:
+        if (readingValue[top]) {
+          readingValue[top] = false;
+          return readValue(buffer.get());
+        }
+        // The keys of nested templates are gone by now, so the keys of this row end the list.
+        int keyCount = (templateKeysEnd - keysStart[top]) / 2;
+        while (remaining[top] > 0) {
+          int key = keysStart[top] + (keyCount - remaining[top]) * 2;
+          remaining[top]--;
+          if (buffer.get(buffer.position()) == BSER_SKIP) {
+            buffer.get();
+            continue;
+          }
+          currentStringPosition = templateKeys[key];
+          currentStringLength = templateKeys[key + 1];
+          readingValue[top] = true;
+          return Token.FIELD_NAME;
+        }
+        depth--;
+        return Token.END_OBJECT;
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  private Token readValue(byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+      case BSER_INT16:
+      case BSER_INT32:
+      case BSER_INT64:
+        currentLong = readInteger(buffer, type);
+        return Token.INTEGER;
+      case BSER_REAL:
+        currentDouble = buffer.getDouble();
+        return Token.REAL;
+      case BSER_TRUE:
+        return Token.TRUE;
+      case BSER_FALSE:
+        return Token.FALSE;
+      case BSER_NULL:
+        return Token.NULL;
+      case BSER_STRING:
+        readString();
+        return Token.STRING;
+      case BSER_ARRAY:
+        currentSize = readLength(buffer, buffer.get());
+        push(ARRAY, currentSize, templateKeysEnd);
+        return Token.START_ARRAY;
+      case BSER_OBJECT:
+        currentSize = readLength(buffer, buffer.get());
+        push(OBJECT, currentSize, templateKeysEnd);
+        return Token.START_OBJECT;
+      case BSER_TEMPLATE:
+        return readTemplate();
+      default:
+        throw new IOException(String.format("Unrecognized BSER value type %d", type));
+    }
+  }
+
+  private Token readTemplate() throws IOException {
+    byte arrayType = buffer.get();
+    if (arrayType != BSER_ARRAY) {
+      throw new IOException(String.format("Expected ARRAY to follow TEMPLATE, got %d", arrayType));
+    }
+    int keysStart = templateKeysEnd;
+    int keyCount = readLength(buffer, buffer.get());
+    if (templateKeys.length < templateKeysEnd + keyCount * 2) {
+      templateKeys =
+          Arrays.copyOf(
+              templateKeys, Math.max(templateKeysEnd + keyCount * 2, templateKeys.length * 2));
+    }
+    for (int i = 0; i < keyCount; i++) {
+      byte keyType = buffer.get();
+      if (keyType != BSER_STRING) {
+        throw new IOException(
+            String.format("Unrecognized BSER template key type %d, expected string", keyType));
+      }
+      readString();
+      templateKeys[templateKeysEnd++] = currentStringPosition;
+      templateKeys[templateKeysEnd++] = currentStringLength;
+    }
+    currentSize = readLength(buffer, buffer.get());
+    push(TEMPLATE, currentSize, keysStart);
+    return Token.START_ARRAY;
+  }
+
+  private void readString() throws IOException {
+    int length = readLength(buffer, buffer.get());
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    currentStringPosition = buffer.position();
+    currentStringLength = length;
+    buffer.position(currentStringPosition + length);
+  }
+
+  private void push(byte kind, int count, int keys) {
+    if (depth == containerKinds.length) {
+      int newDepth = depth * 2;
+      containerKinds = Arrays.copyOf(containerKinds, newDepth);
+      remaining = Arrays.copyOf(remaining, newDepth);
+      readingValue = Arrays.copyOf(readingValue, newDepth);
+      keysStart = Arrays.copyOf(keysStart, newDepth);
+    }
+    containerKinds[depth] = kind;
+    remaining[depth] = count;
+    readingValue[depth] = false;
+    keysStart[depth] = keys;
+    depth++;
+  }
+
+  private static int getIntegerSize(byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+        return 1;
+      case BSER_INT16:
+        return 2;
+      case BSER_INT32:
+        return 4;
+      case BSER_INT64:
+        return 8;
+      default:
+        throw new IOException(String.format("Unrecognized BSER header length type %d", type));
+    }
+  }
+
+  private static long readInteger(ByteBuffer buffer, byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+        return buffer.get();
+      case BSER_INT16:
+        return buffer.getShort();
+      case BSER_INT32:
+        return buffer.getInt();
+      case BSER_INT64:
+        return buffer.getLong();
+      default:
+        throw new IOException(String.format("Invalid BSER number encoding %d", type));
+    }
+  }
+
+  private static int readLength(ByteBuffer buffer, byte type) throws IOException {
+    long value = readInteger(buffer, type);
+    if (value > Integer.MAX_VALUE) {
+      throw new IOException(
+          String.format("BSER length out of range (%d > %d)", value, Integer.MAX_VALUE));
+    } else if (value < 0) {
+      throw new IOException(String.format("BSER length out of range (%d < 0)", value));
+    }
+    return (int) value;
+  }
+}
@@ -22,6 +22,16 @@ public enum FileHashCacheMode {
   PREFIX_TREE,
   LIMITED_PREFIX_TREE,
   LIMITED_PREFIX_TREE_PARALLEL,
-  PARALLEL_COMPARISON;
+  PARALLEL_COMPARISON,
+  /**
+   * Like {@link #PREFIX_TREE}, but the hashes of files watched by the daemon are also kept on disk,
+   * so that they don't need to be computed again after the daemon restarts unless the files change.
+   */
+  PERSISTENT_PREFIX_TREE,
+  /**
+   * Like {@link #PREFIX_TREE}, but with a prefix tree laid out in arrays rather than objects, which
+   * takes a fraction of the memory on repositories with millions of files.
+   */
+  COMPACT_PREFIX_TREE;
   public static final FileHashCacheMode DEFAULT = PREFIX_TREE;
 }
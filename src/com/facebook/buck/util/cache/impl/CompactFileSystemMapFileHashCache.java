@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.cache.FileHashCacheEngine;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.cache.JarHashCodeAndFileType;
+import com.facebook.buck.util.filesystem.CompactFileSystemMap;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * Like {@link FileSystemMapFileHashCache}, but backed by {@link CompactFileSystemMap}s, which take
+ * much less memory on large repositories.
+ */
+class CompactFileSystemMapFileHashCache implements FileHashCacheEngine {
+  private final CompactFileSystemMap<HashCodeAndFileType> loadingCache;
+  private final CompactFileSystemMap<Long> sizeCache;
+
+  private CompactFileSystemMapFileHashCache(
+      ValueLoader<HashCodeAndFileType> hashLoader,
+      ValueLoader<Long> sizeLoader,
+      ProjectFilesystem filesystem) {
+    this.loadingCache = new CompactFileSystemMap<>(path -> hashLoader.load(path), filesystem);
+    this.sizeCache = new CompactFileSystemMap<>(path -> sizeLoader.load(path), filesystem);
+  }
+
+  public static FileHashCacheEngine createWithStats(
+      ValueLoader<HashCodeAndFileType> hashLoader,
+      ValueLoader<Long> sizeLoader,
+      ProjectFilesystem filesystem) {
+    return new StatsTrackingFileHashCacheEngine(
+        new CompactFileSystemMapFileHashCache(hashLoader, sizeLoader, filesystem), "compact");
+  }
+
+  @Override
+  public void put(Path path, HashCodeAndFileType value) {
+    loadingCache.put(path, value);
+  }
+
+  @Override
+  public void putSize(Path path, long value) {
+    sizeCache.put(path, value);
+  }
+
+  @Override
+  public void invalidate(Path path) {
+    loadingCache.remove(path);
+    sizeCache.remove(path);
+  }
+
+  @Override
+  public void invalidateWithParents(Path path) {
+    invalidate(path);
+  }
+
+  @Override
+  public HashCode get(Path path) {
+    return loadingCache.get(path.normalize()).getHashCode();
+  }
+
+  @Override
+  public HashCode getForArchiveMember(Path archiveRelativePath, Path memberPath)
+      throws IOException {
+    Path relativeFilePath = archiveRelativePath.normalize();
+    JarHashCodeAndFileType fileHashCodeAndFileType =
+        (JarHashCodeAndFileType) loadingCache.get(relativeFilePath);
+    HashCodeAndFileType memberHashCodeAndFileType =
+        fileHashCodeAndFileType.getContents().get(memberPath);
+    if (memberHashCodeAndFileType == null) {
+      throw new NoSuchFileException(archiveRelativePath.toString());
+    }
+    return memberHashCodeAndFileType.getHashCode();
+  }
+
+  @Override
+  public long getSize(Path relativePath) {
+    return sizeCache.get(relativePath.normalize());
+  }
+
+  @Override
+  public void invalidateAll() {
+    loadingCache.removeAll();
+    sizeCache.removeAll();
+  }
+
+  @Override
+  @Nullable
+  public HashCodeAndFileType getIfPresent(Path path) {
+    return loadingCache.getIfPresent(path);
+  }
+
+  @Override
+  @Nullable
+  public Long getSizeIfPresent(Path path) {
+    return sizeCache.getIfPresent(path);
+  }
+
+  @Override
+  public ConcurrentMap<Path, HashCodeAndFileType> asMap() {
+    return new ConcurrentHashMap<>(loadingCache.asMap());
+  }
+
+  @Override
+  public List<AbstractBuckEvent> getStatsEvents() {
+    return Collections.emptyList();
+  }
+}
@@ -36,6 +36,7 @@ import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.List;
@@ -55,12 +56,32 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
 
   @VisibleForTesting FileHashCacheEngine fileHashCacheEngine;
 
+  /** Hashes of files kept across daemon restarts, if this cache uses a persistent store. */
+  final Optional<PersistentFileHashStore> persistentStore;
+
   protected DefaultFileHashCache(
       ProjectFilesystem projectFilesystem,
       Predicate<Path> ignoredPredicate,
       FileHashCacheMode fileHashCacheMode) {
+    this(projectFilesystem, ignoredPredicate, fileHashCacheMode, Optional.empty());
+  }
+
+  /**
+   * @param persistentStore where to keep the hashes of files across daemon restarts. Only used with
+   *     {@link FileHashCacheMode#PERSISTENT_PREFIX_TREE}, which otherwise behaves like {@link
+   *     FileHashCacheMode#PREFIX_TREE}.
+   */
+  protected DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Predicate<Path> ignoredPredicate,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashStore> persistentStore) {
     this.projectFilesystem = projectFilesystem;
     this.ignoredPredicate = ignoredPredicate;
+    this.persistentStore =
+        fileHashCacheMode == FileHashCacheMode.PERSISTENT_PREFIX_TREE
+            ? persistentStore
+            : Optional.empty();
     FileHashCacheEngine.ValueLoader<HashCodeAndFileType> hashLoader =
         path -> {
           try {
@@ -104,9 +125,15 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
         fileHashCacheEngine = LoadingCacheFileHashCache.createWithStats(hashLoader, sizeLoader);
         break;
       case PREFIX_TREE:
+      case PERSISTENT_PREFIX_TREE:
         fileHashCacheEngine =
             FileSystemMapFileHashCache.createWithStats(hashLoader, sizeLoader, projectFilesystem);
         break;
+      case COMPACT_PREFIX_TREE:
+        fileHashCacheEngine =
+            CompactFileSystemMapFileHashCache.createWithStats(
+                hashLoader, sizeLoader, projectFilesystem);
+        break;
       case LIMITED_PREFIX_TREE:
         fileHashCacheEngine =
             new StatsTrackingFileHashCacheEngine(
@@ -204,7 +231,20 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   }
 
   private HashCode getFileHashCode(Path path) throws IOException {
-    return projectFilesystem.computeSha1(path).asHashCode();
+    if (!persistentStore.isPresent()) {
+      return projectFilesystem.computeSha1(path).asHashCode();
+    }
+    // The attributes are read before hashing, so that a change made while hashing results in
+    // attributes which don't match the stored ones anymore.
+    BasicFileAttributes attributes =
+        projectFilesystem.readAttributes(path, BasicFileAttributes.class);
+    Optional<HashCode> storedHashCode = persistentStore.get().get(path, attributes);
+    if (storedHashCode.isPresent()) {
+      return storedHashCode.get();
+    }
+    HashCode hashCode = projectFilesystem.computeSha1(path).asHashCode();
+    persistentStore.get().put(path, attributes, hashCode);
+    return hashCode;
   }
 
   private long getPathSize(Path path) throws IOException {
@@ -244,6 +284,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   @Override
   public void invalidate(Path relativePath) {
     fileHashCacheEngine.invalidate(relativePath);
+    persistentStore.ifPresent(store -> store.invalidate(relativePath));
   }
 
   @Override
@@ -274,6 +315,11 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
         .map(HashCodeAndFileType::getHashCode);
   }
 
+  @Override
+  public void prefetch(Iterable<Path> relativePaths) {
+    ParallelFileHasher.prefetch(this, relativePaths);
+  }
+
   @Override
   public HashCode getForArchiveMember(Path relativeArchivePath, Path memberPath)
       throws IOException {
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.hashing.ProjectFileHashLoader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads the hashes of many files at once on a pool shared by all caches, so that hashing the files
+ * of a directory or the inputs of a rule after they changed isn't limited to a single thread.
+ *
+ * <p>Hashing is mostly waiting on reads, so the pool has more threads than there are cores. Callers
+ * wait for the whole batch to be loaded, helping with it when they are themselves hashing on the
+ * pool, so that nested batches, such as the files of a directory in a batch, can't starve it.
+ */
+class ParallelFileHasher {
+
+  private static final Logger LOG = Logger.get(ParallelFileHasher.class);
+
+  // Splitting stops at this many paths, which are then hashed one after the other.
+  private static final int PATHS_PER_TASK = 4;
+
+  private static final ForkJoinPool POOL =
+      new ForkJoinPool(
+          2 * Runtime.getRuntime().availableProcessors(),
+          pool -> {
+            ForkJoinWorkerThread thread =
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("file-hashing-" + thread.getPoolIndex());
+            return thread;
+          },
+          /* handler */ null,
+          /* asyncMode */ false);
+
+  private ParallelFileHasher() {}
+
+  /** Loads the hashes of those of {@code paths} which {@code loader} doesn't have yet. */
+  static void prefetch(ProjectFileHashLoader loader, Iterable<Path> paths) {
+    Set<Path> uniquePaths = new LinkedHashSet<>();
+    for (Path path : paths) {
+      uniquePaths.add(path);
+    }
+    List<Path> missing = new ArrayList<>(uniquePaths.size());
+    for (Path path : uniquePaths) {
+      if (!loader.getIfPresent(path).isPresent()) {
+        missing.add(path);
+      }
+    }
+    // A single file is hashed just as quickly by the caller itself.
+    if (missing.size() < 2) {
+      return;
+    }
+    HashTask task = new HashTask(loader, missing, 0, missing.size());
+    if (ForkJoinTask.getPool() == POOL) {
+      task.invoke();
+    } else {
+      POOL.invoke(task);
+    }
+  }
+
+  private static class HashTask extends RecursiveAction {
+    private final ProjectFileHashLoader loader;
+    private final List<Path> paths;
+    private final int from;
+    private final int to;
+
+    HashTask(ProjectFileHashLoader loader, List<Path> paths, int from, int to) {
+      this.loader = loader;
+      this.paths = paths;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > PATHS_PER_TASK) {
+        int middle = (from + to) >>> 1;
+        invokeAll(
+            new HashTask(loader, paths, from, middle), new HashTask(loader, paths, middle, to));
+        return;
+      }
+      for (int i = from; i < to; i++) {
+        Path path = paths.get(i);
+        try {
+          loader.get(path);
+        } catch (IOException | RuntimeException e) {
+          // The caller will get the same error once it asks for the hash itself.
+          LOG.verbose(e, "Unable to prefetch the hash of %s", path);
+        }
+      }
+    }
+  }
+}
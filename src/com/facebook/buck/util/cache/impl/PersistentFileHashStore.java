@@ -0,0 +1,409 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Persistent record of the hashes of files, along with the modification time, size and identity of
+ * the files they were computed from, so that files which haven't changed since can be looked up
+ * rather than hashed again after the daemon restarts.
+ *
+ * <p>The store is an append-only log of records, each covered by a checksum. On first use it is
+ * replayed through a memory mapping into an in-memory index. A record cut short or corrupted by a
+ * crash is discarded on replay, along with anything after it, and the log is compacted whenever it
+ * comes to mostly hold superseded records. Since every lookup checks the file's current attributes,
+ * a stale record only ever costs hashing the file again.
+ *
+ * <p>Compaction replaces the log file, so only one store may append to a log at a time. Stores
+ * obtained through {@link #open(Path)} are shared by everything in the process using the same log
+ * until the last of them is closed.
+ *
+ * <p>The attributes only identify the contents of a file if it can't have changed again within the
+ * same modification time, so hashes of files modified too recently are not stored.
+ */
+class PersistentFileHashStore implements Closeable {
+
+  private static final Logger LOG = Logger.get(PersistentFileHashStore.class);
+
+  private static final String COMPACTION_FILE_SUFFIX = ".tmp";
+
+  // checksum, modification time, size, file key, hash length and path length.
+  private static final int HEADER_BYTES =
+      Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES + Byte.BYTES + Short.BYTES;
+  private static final int MAX_PATH_BYTES = 0xFFFF;
+  // Compact once superseded records outnumber live entries by this factor.
+  private static final int COMPACTION_RATIO = 4;
+  private static final int MIN_RECORDS_BEFORE_COMPACTION = 1024;
+  // The coarsest modification time resolution of the filesystems in use, which is FAT's.
+  private static final long MODIFICATION_TIME_GRANULARITY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  // The stores obtained through open(), by log, along with how many times each is still open.
+  @GuardedBy("OPEN_STORES")
+  private static final Map<Path, PersistentFileHashStore> OPEN_STORES = new HashMap<>();
+
+  private final Path logPath;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private volatile boolean loaded = false;
+  // Set once reading or writing the log failed or the store was closed, after which the store is no
+  // longer used.
+  private volatile boolean disabled = false;
+  private long records = 0;
+  @Nullable private FileChannel channel;
+
+  @GuardedBy("OPEN_STORES")
+  private int openCount = 0;
+
+  /**
+   * @param logPath absolute path of the log, which is created on first use if needed. Nothing else
+   *     may write to it while this store is in use.
+   */
+  @VisibleForTesting
+  PersistentFileHashStore(Path logPath) {
+    Preconditions.checkArgument(logPath.isAbsolute(), "%s must be absolute", logPath);
+    this.logPath = logPath;
+  }
+
+  /**
+   * @return the store of the log at {@code logPath}, which is shared with whoever else in the
+   *     process has it open. Each call has to be matched by a call to {@link #close()}.
+   */
+  static PersistentFileHashStore open(Path logPath) {
+    synchronized (OPEN_STORES) {
+      PersistentFileHashStore store =
+          OPEN_STORES.computeIfAbsent(logPath, PersistentFileHashStore::new);
+      store.openCount++;
+      return store;
+    }
+  }
+
+  /**
+   * @return the hash stored for {@code path}, if it was computed from a file with the given
+   *     attributes.
+   */
+  Optional<HashCode> get(Path path, BasicFileAttributes attributes) {
+    if (!ensureLoaded()) {
+      return Optional.empty();
+    }
+    Entry entry = entries.get(path.toString());
+    if (entry == null || !entry.matches(attributes)) {
+      return Optional.empty();
+    }
+    return Optional.of(entry.hashCode);
+  }
+
+  /**
+   * Records the hash of {@code path}, computed from a file with the given attributes, unless the
+   * file was modified so recently that it may have changed again without its modification time
+   * changing.
+   */
+  void put(Path path, BasicFileAttributes attributes, HashCode hashCode) {
+    long modificationTime = getModificationTime(attributes);
+    if (TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - modificationTime
+        < MODIFICATION_TIME_GRANULARITY_NANOS) {
+      return;
+    }
+    if (!ensureLoaded()) {
+      return;
+    }
+    String key = path.toString();
+    Entry entry = new Entry(modificationTime, attributes.size(), getFileKey(attributes), hashCode);
+    if (entry.equals(entries.get(key))) {
+      return;
+    }
+    // Updating the index and appending the record under the same lock keeps the records of a path
+    // in the order its entry changed in, so that a replay can't resurrect an invalidated hash.
+    synchronized (this) {
+      entries.put(key, entry);
+      writeRecordOrDisable(key, entry);
+    }
+  }
+
+  /** Forgets the hash of {@code path}, which is known to have changed. */
+  void invalidate(Path path) {
+    // The log may still hold a record of the hash, which the change has to be recorded over.
+    if (!ensureLoaded()) {
+      return;
+    }
+    String key = path.toString();
+    synchronized (this) {
+      if (entries.remove(key) != null) {
+        writeRecordOrDisable(key, null);
+      }
+    }
+  }
+
+  /** Closes the log, once every user of a shared store has closed it. */
+  @Override
+  public void close() throws IOException {
+    synchronized (OPEN_STORES) {
+      if (openCount > 0 && --openCount > 0) {
+        return;
+      }
+      OPEN_STORES.remove(logPath, this);
+    }
+    // Writing after this would reopen the log behind the back of the next store opened for it.
+    disabled = true;
+    closeChannel();
+  }
+
+  private synchronized void closeChannel() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  @VisibleForTesting
+  Path getLogPath() {
+    return logPath;
+  }
+
+  /** @return whether the store can be used. */
+  private boolean ensureLoaded() {
+    if (loaded) {
+      return !disabled;
+    }
+    synchronized (this) {
+      if (!loaded) {
+        try {
+          if (Files.exists(logPath)) {
+            replay();
+            maybeCompact();
+          }
+        } catch (IOException e) {
+          disable(e);
+        }
+        loaded = true;
+      }
+    }
+    return !disabled;
+  }
+
+  private void disable(IOException e) {
+    LOG.warn(e, "Unable to use the file hash store in %s, hashing files instead.", logPath);
+    disabled = true;
+    entries.clear();
+  }
+
+  private void replay() throws IOException {
+    records = 0;
+    long validBytes = 0;
+    try (FileChannel readChannel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+      long size = readChannel.size();
+      if (size > Integer.MAX_VALUE) {
+        LOG.warn("Discarding %s, which is too large to replay.", logPath);
+        size = 0;
+      }
+      MappedByteBuffer buffer = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      while (buffer.remaining() >= HEADER_BYTES) {
+        int recordStart = buffer.position();
+        int checksum = buffer.getInt();
+        long modificationTime = buffer.getLong();
+        long fileSize = buffer.getLong();
+        int fileKey = buffer.getInt();
+        int hashLength = Byte.toUnsignedInt(buffer.get());
+        int pathLength = Short.toUnsignedInt(buffer.getShort());
+        if (buffer.remaining() < hashLength + pathLength) {
+          break;
+        }
+        byte[] hash = new byte[hashLength];
+        buffer.get(hash);
+        byte[] path = new byte[pathLength];
+        buffer.get(path);
+        ByteBuffer record = buffer.duplicate();
+        record.position(recordStart + Integer.BYTES).limit(buffer.position());
+        if (checksum(record) != checksum) {
+          break;
+        }
+        String key = new String(path, Charsets.UTF_8);
+        if (hashLength == 0) {
+          entries.remove(key);
+        } else {
+          entries.put(
+              key, new Entry(modificationTime, fileSize, fileKey, HashCode.fromBytes(hash)));
+        }
+        records++;
+        validBytes = buffer.position();
+      }
+    }
+
+    FileChannel channel = getChannel();
+    if (channel.size() > validBytes) {
+      LOG.warn(
+          "Discarding %d bytes of incomplete records in %s", channel.size() - validBytes, logPath);
+      channel.truncate(validBytes);
+    }
+  }
+
+  private void writeRecordOrDisable(String key, @Nullable Entry entry) {
+    if (disabled) {
+      return;
+    }
+    try {
+      writeRecord(key, entry);
+      maybeCompact();
+    } catch (IOException e) {
+      disable(e);
+    }
+  }
+
+  /** Appends a record of the entry for {@code key}, or of its removal if {@code entry} is null. */
+  private void writeRecord(String key, @Nullable Entry entry) throws IOException {
+    byte[] path = key.getBytes(Charsets.UTF_8);
+    if (path.length > MAX_PATH_BYTES) {
+      return;
+    }
+    byte[] hash = entry == null ? new byte[0] : entry.hashCode.asBytes();
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + hash.length + path.length);
+    buffer
+        .putInt(0)
+        .putLong(entry == null ? 0 : entry.modificationTime)
+        .putLong(entry == null ? 0 : entry.size)
+        .putInt(entry == null ? 0 : entry.fileKey)
+        .put((byte) hash.length)
+        .putShort((short) path.length)
+        .put(hash)
+        .put(path);
+    buffer.flip();
+    buffer.position(Integer.BYTES);
+    buffer.putInt(0, checksum(buffer));
+    buffer.position(0);
+    FileChannel channel = getChannel();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    records++;
+  }
+
+  private static int checksum(ByteBuffer buffer) {
+    CRC32 crc = new CRC32();
+    crc.update(buffer);
+    return (int) crc.getValue();
+  }
+
+  private FileChannel getChannel() throws IOException {
+    if (channel == null) {
+      Files.createDirectories(logPath.getParent());
+      channel =
+          FileChannel.open(
+              logPath,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND);
+    }
+    return channel;
+  }
+
+  private void maybeCompact() throws IOException {
+    if (records > MIN_RECORDS_BEFORE_COMPACTION && records > COMPACTION_RATIO * entries.size()) {
+      writeSnapshot();
+    }
+  }
+
+  /** Replaces the log with one record per live entry. */
+  private void writeSnapshot() throws IOException {
+    closeChannel();
+    Path compactionPath = logPath.resolveSibling(logPath.getFileName() + COMPACTION_FILE_SUFFIX);
+    channel =
+        FileChannel.open(
+            compactionPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    records = 0;
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      writeRecord(entry.getKey(), entry.getValue());
+    }
+    closeChannel();
+    Files.move(
+        compactionPath,
+        logPath,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static long getModificationTime(BasicFileAttributes attributes) {
+    return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+  }
+
+  /** @return a hash of what identifies the file on its filesystem, such as its inode. */
+  private static int getFileKey(BasicFileAttributes attributes) {
+    return Objects.hashCode(attributes.fileKey());
+  }
+
+  private static class Entry {
+    private final long modificationTime;
+    private final long size;
+    private final int fileKey;
+    private final HashCode hashCode;
+
+    Entry(long modificationTime, long size, int fileKey, HashCode hashCode) {
+      this.modificationTime = modificationTime;
+      this.size = size;
+      this.fileKey = fileKey;
+      this.hashCode = hashCode;
+    }
+
+    boolean matches(BasicFileAttributes attributes) {
+      return modificationTime == getModificationTime(attributes)
+          && size == attributes.size()
+          && fileKey == getFileKey(attributes);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Entry)) {
+        return false;
+      }
+      Entry that = (Entry) other;
+      return modificationTime == that.modificationTime
+          && size == that.size
+          && fileKey == that.fileKey
+          && hashCode.equals(that.hashCode);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(modificationTime, size, fileKey, hashCode);
+    }
+  }
+}
@@ -28,6 +28,9 @@ import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
@@ -203,6 +206,18 @@ public class StackedFileHashCache implements FileHashCache {
         .getSize(path);
   }
 
+  @Override
+  public void prefetch(ProjectFilesystem filesystem, Iterable<Path> paths) {
+    Map<ProjectFileHashCache, List<Path>> pathsByCache = new LinkedHashMap<>();
+    for (Path path : paths) {
+      Optional<? extends ProjectFileHashCache> cache = lookup(filesystem, path);
+      if (cache.isPresent()) {
+        pathsByCache.computeIfAbsent(cache.get(), c -> new ArrayList<>()).add(path);
+      }
+    }
+    pathsByCache.forEach(ProjectFileHashCache::prefetch);
+  }
+
   @Override
   public void set(ProjectFilesystem filesystem, Path path, HashCode hashCode) throws IOException {
     Optional<? extends ProjectFileHashCache> cache = lookup(filesystem, path);
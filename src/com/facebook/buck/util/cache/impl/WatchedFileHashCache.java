@@ -22,15 +22,68 @@ import com.facebook.buck.io.watchman.WatchmanOverflowEvent;
 import com.facebook.buck.io.watchman.WatchmanPathEvent;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Optional;
 
 public class WatchedFileHashCache extends DefaultFileHashCache {
 
   private static final Logger LOG = Logger.get(WatchedFileHashCache.class);
 
+  private static final String PERSISTENT_STORE_DIR = "file_hashes";
+
   public WatchedFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
-    super(projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
+    this(projectFilesystem, fileHashCacheMode, Optional.empty());
+  }
+
+  /**
+   * @param persistentStoreDir directory in which to keep the hashes of files across daemon
+   *     restarts with {@link FileHashCacheMode#PERSISTENT_PREFIX_TREE}. Defaults to a directory in
+   *     buck-out.
+   */
+  public WatchedFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<Path> persistentStoreDir) {
+    super(
+        projectFilesystem,
+        getDefaultPathPredicate(projectFilesystem),
+        fileHashCacheMode,
+        fileHashCacheMode == FileHashCacheMode.PERSISTENT_PREFIX_TREE
+            ? Optional.of(createPersistentStore(projectFilesystem, persistentStoreDir))
+            : Optional.empty());
+  }
+
+  private static PersistentFileHashStore createPersistentStore(
+      ProjectFilesystem projectFilesystem, Optional<Path> persistentStoreDir) {
+    Path dir =
+        persistentStoreDir.orElseGet(
+            () ->
+                projectFilesystem.resolve(
+                    projectFilesystem.getBuckPaths().getBuckOut().resolve(PERSISTENT_STORE_DIR)));
+    // Name the log after the cell, so that cells sharing a directory don't share a log.
+    String name =
+        Hashing.sha1()
+            .hashString(projectFilesystem.getRootPath().toString(), StandardCharsets.UTF_8)
+            .toString();
+    return PersistentFileHashStore.open(dir.resolve(name + ".log"));
+  }
+
+  /**
+   * Closes the store of the hashes kept across daemon restarts, if this cache has one. The cache
+   * hashes files itself from then on.
+   */
+  public void close() {
+    if (persistentStore.isPresent()) {
+      try {
+        persistentStore.get().close();
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to close the file hash store.");
+      }
+    }
   }
 
   /**
@@ -44,6 +97,7 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     Path path = event.getPath().normalize();
     LOG.verbose("Invalidating %s", path);
     fileHashCacheEngine.invalidateWithParents(path);
+    persistentStore.ifPresent(store -> store.invalidate(path));
   }
 
   @SuppressWarnings("unused")
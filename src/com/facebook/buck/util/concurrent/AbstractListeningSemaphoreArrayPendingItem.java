@@ -26,4 +26,10 @@ abstract class AbstractListeningSemaphoreArrayPendingItem {
   public abstract SettableFuture<Unit> getFuture();
 
   public abstract ResourceAmounts getResources();
+
+  /** Items with a higher priority are given resources first. */
+  public abstract long getPriority();
+
+  /** Tells apart items with the same priority, which are given resources in the order queued. */
+  public abstract long getSequenceNumber();
 }
@@ -17,29 +17,63 @@ package com.facebook.buck.util.concurrent;
 
 import com.facebook.buck.util.types.Unit;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
 
 /**
  * A semaphore using {@link ListenableFuture}s for acquisition of different resource types rather
  * than blocking.
+ *
+ * <p>Acquisitions that have to wait are given resources in the order of their priority, and then
+ * in the order they were made.
+ *
+ * <p>The semaphore takes no lock: the used amounts are updated with compare-and-set, and waiting
+ * acquisitions are given resources by one thread at a time, the one that finds no other thread
+ * doing it. Waiting acquisitions are queued by the resource types they need, so that with {@link
+ * ResourceAllocationFairness#FAST} those needing a resource that is used up are skipped at once.
  */
 public class ListeningMultiSemaphore {
 
-  private ResourceAmounts usedValues;
+  /** The priority of acquisitions that don't give one. */
+  public static final long DEFAULT_PRIORITY = 0;
+
+  private static final Comparator<ListeningSemaphoreArrayPendingItem> PENDING_ITEM_ORDER =
+      Comparator.comparingLong(ListeningSemaphoreArrayPendingItem::getPriority)
+          .reversed()
+          .thenComparingLong(ListeningSemaphoreArrayPendingItem::getSequenceNumber);
+
+  /** Resource classes are the sets of resource types amounts need, as bits of an index. */
+  private static final int RESOURCE_CLASS_COUNT = 1 << 4;
+
+  private final AtomicReference<ResourceAmounts> usedValues;
   private final ResourceAmounts maximumValues;
-  private final List<ListeningSemaphoreArrayPendingItem> pending = new LinkedList<>();
+  private final List<NavigableSet<ListeningSemaphoreArrayPendingItem>> pendingByResourceClass;
+  private final AtomicLong pendingSequenceNumber = new AtomicLong();
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final AtomicInteger pendingProcessingRequests = new AtomicInteger();
   private final ResourceAllocationFairness fairness;
 
   public ListeningMultiSemaphore(
       ResourceAmounts availableResources, ResourceAllocationFairness fairness) {
-    this.usedValues = ResourceAmounts.zero();
+    this.usedValues = new AtomicReference<>(ResourceAmounts.zero());
     this.maximumValues = availableResources;
+    this.pendingByResourceClass = new ArrayList<>(RESOURCE_CLASS_COUNT);
+    for (int i = 0; i < RESOURCE_CLASS_COUNT; i++) {
+      pendingByResourceClass.add(new ConcurrentSkipListSet<>(PENDING_ITEM_ORDER));
+    }
     this.fairness = fairness;
   }
 
@@ -53,19 +87,38 @@ public class ListeningMultiSemaphore {
    *     amounts, they will be capped to them.
    * @return Future that will be completed once resource will be acquired.
    */
-  public synchronized ListenableFuture<Unit> acquire(ResourceAmounts resources) {
+  public ListenableFuture<Unit> acquire(ResourceAmounts resources) {
+    return acquire(resources, DEFAULT_PRIORITY);
+  }
+
+  /**
+   * Like {@link #acquire(ResourceAmounts)}, but if resources have to be waited for, they are given
+   * to this acquisition before any waiting one with a lower priority.
+   *
+   * @param resources Resource amounts that need to be acquired.
+   * @param priority Priority of this acquisition over other ones waiting for resources.
+   * @return Future that will be completed once resource will be acquired.
+   */
+  public ListenableFuture<Unit> acquire(ResourceAmounts resources, long priority) {
     if (resources.equals(ResourceAmounts.zero())) {
       return Futures.immediateFuture(Unit.UNIT);
     }
 
     resources = capResourceAmounts(resources);
-    if (!checkIfResourcesAvailable(resources)) {
-      SettableFuture<Unit> pendingFuture = SettableFuture.create();
-      pending.add(ListeningSemaphoreArrayPendingItem.of(pendingFuture, resources));
-      return pendingFuture;
+    if (tryIncreaseUsedResources(resources)) {
+      return Futures.immediateFuture(null);
     }
-    increaseUsedResources(resources);
-    return Futures.immediateFuture(null);
+    SettableFuture<Unit> pendingFuture = SettableFuture.create();
+    pendingCount.incrementAndGet();
+    pendingByResourceClass
+        .get(getResourceClass(resources))
+        .add(
+            ListeningSemaphoreArrayPendingItem.of(
+                pendingFuture, resources, priority, pendingSequenceNumber.getAndIncrement()));
+    // Resources may have been released since they were found missing, before this item could be
+    // seen by the releasing thread.
+    processPendingItems();
+    return pendingFuture;
   }
 
   /**
@@ -81,37 +134,19 @@ public class ListeningMultiSemaphore {
 
     resources = capResourceAmounts(resources);
     decreaseUsedResources(resources);
-    processPendingFutures(getPendingItemsThatCanBeProcessed());
-  }
-
-  private synchronized ImmutableList<ListeningSemaphoreArrayPendingItem>
-      getPendingItemsThatCanBeProcessed() {
-    ImmutableList.Builder<ListeningSemaphoreArrayPendingItem> builder = ImmutableList.builder();
-
-    Iterator<ListeningSemaphoreArrayPendingItem> iterator = pending.iterator();
-    while (!getAvailableResources().equals(ResourceAmounts.zero()) && iterator.hasNext()) {
-      ListeningSemaphoreArrayPendingItem item = iterator.next();
-      if (checkIfResourcesAvailable(item.getResources())) {
-        builder.add(item);
-        increaseUsedResources(item.getResources());
-        iterator.remove();
-      } else if (!fairnessAllowsReordering()) {
-        break;
-      }
-    }
-    return builder.build();
+    processPendingItems();
   }
 
-  public synchronized ResourceAmounts getAvailableResources() {
-    return maximumValues.subtract(usedValues);
+  public ResourceAmounts getAvailableResources() {
+    return maximumValues.subtract(usedValues.get());
   }
 
-  public synchronized ResourceAmounts getMaximumValues() {
+  public ResourceAmounts getMaximumValues() {
     return maximumValues;
   }
 
-  public synchronized int getQueueLength() {
-    return pending.size();
+  public int getQueueLength() {
+    return pendingCount.get();
   }
 
   /**
@@ -127,31 +162,133 @@ public class ListeningMultiSemaphore {
         Math.min(amounts.getNetworkIO(), maximumValues.getNetworkIO()));
   }
 
-  private synchronized boolean checkIfResourcesAvailable(ResourceAmounts resources) {
-    Preconditions.checkState(
-        resources.allValuesLessThanOrEqual(maximumValues),
-        "Resource amounts (%s) must be capped to the maximum amounts (%s)",
-        resources,
-        maximumValues);
-    return usedValues.append(resources).allValuesLessThanOrEqual(maximumValues);
+  private boolean tryIncreaseUsedResources(ResourceAmounts resources) {
+    while (true) {
+      ResourceAmounts current = usedValues.get();
+      ResourceAmounts updatedAmounts = current.append(resources);
+      if (!updatedAmounts.allValuesLessThanOrEqual(maximumValues)) {
+        return false;
+      }
+      if (usedValues.compareAndSet(current, updatedAmounts)) {
+        return true;
+      }
+    }
+  }
+
+  private void decreaseUsedResources(ResourceAmounts resources) {
+    while (true) {
+      ResourceAmounts current = usedValues.get();
+      ResourceAmounts updatedAmounts = current.subtract(resources);
+      Preconditions.checkArgument(
+          !updatedAmounts.containsValuesLessThan(ResourceAmounts.zero()),
+          "Cannot increase available resources by %s. Current: %s, Maximum: %s",
+          resources,
+          current,
+          maximumValues);
+      if (usedValues.compareAndSet(current, updatedAmounts)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Gives resources to the pending items that can have them, unless another thread is doing so, in
+   * which case that thread goes through the pending items once more when it is done.
+   */
+  private void processPendingItems() {
+    if (pendingProcessingRequests.getAndIncrement() != 0) {
+      return;
+    }
+    List<ListeningSemaphoreArrayPendingItem> items = new ArrayList<>();
+    int requests = 1;
+    do {
+      if (fairnessAllowsReordering()) {
+        takePendingItemsThatCanBeProcessed(items);
+      } else {
+        takePendingItemsInOrder(items);
+      }
+      // Completing a future may release resources from this thread, which only asks for another
+      // pass, so the futures of each pass are completed before checking for more requests.
+      processPendingFutures(items);
+      items.clear();
+      requests = pendingProcessingRequests.addAndGet(-requests);
+    } while (requests != 0);
+  }
+
+  /** Takes the pending items in order for as long as there are resources for them. */
+  private void takePendingItemsInOrder(List<ListeningSemaphoreArrayPendingItem> items) {
+    while (true) {
+      ListeningSemaphoreArrayPendingItem first = null;
+      for (NavigableSet<ListeningSemaphoreArrayPendingItem> pending : pendingByResourceClass) {
+        ListeningSemaphoreArrayPendingItem item = getFirst(pending);
+        if (item != null && (first == null || PENDING_ITEM_ORDER.compare(item, first) < 0)) {
+          first = item;
+        }
+      }
+      if (first == null || !tryIncreaseUsedResources(first.getResources())) {
+        return;
+      }
+      pendingByResourceClass.get(getResourceClass(first.getResources())).remove(first);
+      pendingCount.decrementAndGet();
+      items.add(first);
+    }
+  }
+
+  /**
+   * Takes every pending item there are resources for, in order, skipping the queues of resource
+   * classes for which a resource is used up.
+   */
+  private void takePendingItemsThatCanBeProcessed(List<ListeningSemaphoreArrayPendingItem> items) {
+    PriorityQueue<PeekingIterator<ListeningSemaphoreArrayPendingItem>> queues =
+        new PriorityQueue<>(Comparator.comparing(PeekingIterator::peek, PENDING_ITEM_ORDER));
+    ResourceAmounts available = getAvailableResources();
+    for (int resourceClass = 1; resourceClass < RESOURCE_CLASS_COUNT; resourceClass++) {
+      NavigableSet<ListeningSemaphoreArrayPendingItem> pending =
+          pendingByResourceClass.get(resourceClass);
+      if (!pending.isEmpty() && isResourceClassAvailable(resourceClass, available)) {
+        PeekingIterator<ListeningSemaphoreArrayPendingItem> iterator =
+            Iterators.peekingIterator(pending.iterator());
+        if (iterator.hasNext()) {
+          queues.add(iterator);
+        }
+      }
+    }
+
+    while (!queues.isEmpty()) {
+      PeekingIterator<ListeningSemaphoreArrayPendingItem> iterator = queues.poll();
+      ListeningSemaphoreArrayPendingItem item = iterator.next();
+      if (tryIncreaseUsedResources(item.getResources())) {
+        iterator.remove();
+        pendingCount.decrementAndGet();
+        items.add(item);
+      }
+      if (iterator.hasNext()
+          && isResourceClassAvailable(
+              getResourceClass(item.getResources()), getAvailableResources())) {
+        queues.add(iterator);
+      }
+    }
+  }
+
+  @Nullable
+  private static ListeningSemaphoreArrayPendingItem getFirst(
+      NavigableSet<ListeningSemaphoreArrayPendingItem> pending) {
+    // Only the thread processing pending items removes them, so the set stays non-empty.
+    return pending.isEmpty() ? null : pending.first();
   }
 
-  private synchronized void increaseUsedResources(ResourceAmounts resources) {
-    usedValues = usedValues.append(resources);
+  private static int getResourceClass(ResourceAmounts amounts) {
+    return (amounts.getCpu() > 0 ? 1 : 0)
+        | (amounts.getMemory() > 0 ? 1 << 1 : 0)
+        | (amounts.getDiskIO() > 0 ? 1 << 2 : 0)
+        | (amounts.getNetworkIO() > 0 ? 1 << 3 : 0);
   }
 
-  private synchronized void decreaseUsedResources(ResourceAmounts resources) {
-    ResourceAmounts updatedAmounts = usedValues.subtract(resources);
-    Preconditions.checkArgument(
-        !updatedAmounts.containsValuesLessThan(ResourceAmounts.zero()),
-        "Cannot increase available resources by %s. Current: %s, Maximum: %s",
-        resources,
-        usedValues,
-        maximumValues);
-    usedValues = updatedAmounts;
+  private static boolean isResourceClassAvailable(int resourceClass, ResourceAmounts available) {
+    return (getResourceClass(available) & resourceClass) == resourceClass;
   }
 
-  private void processPendingFutures(ImmutableList<ListeningSemaphoreArrayPendingItem> items) {
+  private void processPendingFutures(List<ListeningSemaphoreArrayPendingItem> items) {
     ResourceAmounts failedAmounts = ResourceAmounts.zero();
 
     for (ListeningSemaphoreArrayPendingItem item : items) {
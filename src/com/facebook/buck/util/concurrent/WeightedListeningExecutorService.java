@@ -28,7 +28,8 @@ import javax.annotation.Nullable;
 
 /**
  * A {@link ListeningExecutorService} which gates execution using a {@link ListeningMultiSemaphore}
- * and allows resources to be assigned to submitted tasks.
+ * and allows resources to be assigned to submitted tasks. Tasks waiting for resources are run in
+ * the order of their priority.
  *
  * <p>NOTE: If futures for submitted jobs are cancelled while they are running, it's possible that
  * the semaphore will be released for that cancelled job before it is finished, meaning more jobs
@@ -37,14 +38,24 @@ import javax.annotation.Nullable;
 public class WeightedListeningExecutorService extends AbstractListeningExecutorService {
   private final ListeningMultiSemaphore semaphore;
   private final ResourceAmounts defaultValues;
+  private final long defaultPriority;
   private final ListeningExecutorService delegate;
 
   public WeightedListeningExecutorService(
       ListeningMultiSemaphore semaphore,
       ResourceAmounts defaultValues,
       ListeningExecutorService delegate) {
+    this(semaphore, defaultValues, ListeningMultiSemaphore.DEFAULT_PRIORITY, delegate);
+  }
+
+  private WeightedListeningExecutorService(
+      ListeningMultiSemaphore semaphore,
+      ResourceAmounts defaultValues,
+      long defaultPriority,
+      ListeningExecutorService delegate) {
     this.semaphore = semaphore;
     this.defaultValues = defaultValues;
+    this.defaultPriority = defaultPriority;
     this.delegate = delegate;
   }
 
@@ -61,14 +72,32 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
     if (newDefaultAmounts.equals(defaultValues)) {
       return this;
     }
-    return new WeightedListeningExecutorService(semaphore, newDefaultAmounts, delegate);
+    return new WeightedListeningExecutorService(
+        semaphore, newDefaultAmounts, defaultPriority, delegate);
+  }
+
+  /**
+   * Creates a new service whose tasks wait for resources ahead of the ones of services with a lower
+   * priority. The priority is kept by services created from the new one with {@link
+   * #withDefaultAmounts(ResourceAmounts)}.
+   *
+   * @param newDefaultPriority priority of the tasks submitted to the new service
+   * @return Service that uses the same semaphore, delegate and default amounts but with the given
+   *     priority.
+   */
+  public WeightedListeningExecutorService withDefaultPriority(long newDefaultPriority) {
+    if (newDefaultPriority == defaultPriority) {
+      return this;
+    }
+    return new WeightedListeningExecutorService(
+        semaphore, defaultValues, newDefaultPriority, delegate);
   }
 
   private <T> ListenableFuture<T> submitWithSemaphore(
       Callable<T> callable, ResourceAmounts amounts) {
     ListenableFuture<T> future =
         Futures.transformAsync(
-            semaphore.acquire(amounts),
+            semaphore.acquire(amounts, defaultPriority),
             input -> {
               try {
                 return Futures.immediateFuture(callable.call());
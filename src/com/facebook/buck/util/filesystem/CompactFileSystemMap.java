@@ -0,0 +1,639 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.util.filesystem;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.filesystem.FileSystemMap.ValueLoader;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import javax.annotation.Nullable;
+
+/**
+ * A map for a filesystem structure with the same behavior as {@link FileSystemMap}, laid out to
+ * take a fraction of its memory on trees with millions of files.
+ *
+ * <p>Rather than an object per node, a map per folder and a flat index keyed by full paths, nodes
+ * are indexes into parallel arrays holding their parent, their name, their first child and their
+ * siblings. Names are interned, so that a name shared by many paths, such as {@code BUCK} or {@code
+ * src}, is stored once. Children are found through a single open-addressing table of node indexes,
+ * hashed by parent and name. The indexes of removed nodes are reused, along with a generation
+ * number so that a value loaded for a removed path is never stored for the one reusing its node.
+ *
+ * <p>Like {@link FileSystemMap}, adding or removing paths is exclusive while lookups run in
+ * parallel: lookups read the arrays optimistically and only wait if they were modified meanwhile.
+ * Loading a value happens outside of the lock, at most once at a time per path, and may call back
+ * into the map.
+ *
+ * @param <T> The type to associate with a specific path.
+ */
+public class CompactFileSystemMap<T> {
+
+  private static final int ROOT = 0;
+  private static final int NONE = -1;
+  private static final long NOT_FOUND = -1;
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final ValueLoader<T> loader;
+  private final Path rootPath;
+  private final char separator;
+
+  private final StampedLock lock = new StampedLock();
+  // Values being loaded, by the handle of their node.
+  private final ConcurrentHashMap<Long, Loading<T>> loading = new ConcurrentHashMap<>();
+
+  // All of the following are only modified while holding the write lock.
+  private Nodes nodes = new Nodes(INITIAL_CAPACITY);
+  private int nodeCount;
+  private int freeNodes = NONE;
+  private int[] childSlots = new int[INITIAL_CAPACITY];
+  private int childCount;
+  private String[] names = new String[INITIAL_CAPACITY];
+  private int[] nameSlots = new int[INITIAL_CAPACITY];
+  private int nameCount;
+
+  public CompactFileSystemMap(ValueLoader<T> loader, ProjectFilesystem filesystem) {
+    this.loader = loader;
+    this.rootPath = filesystem.getPath("");
+    this.separator = rootPath.getFileSystem().getSeparator().charAt(0);
+    initRoot();
+  }
+
+  /**
+   * Puts a path and a value into the map.
+   *
+   * @param path The path to store.
+   * @param value The value to associate to the given path.
+   */
+  public void put(Path path, T value) {
+    long stamp = lock.writeLock();
+    try {
+      int node = getNode(findOrCreate(path));
+      nodes.values[node] = value;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Removes the given path, with the same semantics as {@link FileSystemMap#remove(Path)}: the
+   * nodes below it are discarded, the nodes above it lose their value, and those of them left
+   * without children are discarded as well.
+   *
+   * @param path The path specifying the branch to remove.
+   */
+  public void remove(Path path) {
+    int nameCount = path.getNameCount();
+    if (nameCount == 0) {
+      return;
+    }
+    long stamp = lock.writeLock();
+    try {
+      int[] ancestors = new int[nameCount];
+      int depth = 0;
+      int node = ROOT;
+      boolean partial = false;
+      for (int i = 0; i < nameCount; i++) {
+        ancestors[depth++] = node;
+        int name = findName(path.getName(i).toString());
+        int child = name == NONE ? NONE : findChild(node, name);
+        if (child == NONE) {
+          // Nothing to remove below here, but the nodes found so far still need to be updated.
+          partial = true;
+          break;
+        }
+        node = child;
+      }
+
+      if (!partial) {
+        removeSubtree(node);
+      }
+
+      // Clear the values of all nodes above, and remove those left without children.
+      while (depth > 0) {
+        int current = ancestors[--depth];
+        invalidateValue(current);
+        if (current != ROOT && nodes.firstChild[current] == NONE) {
+          removeSubtree(current);
+        }
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /** Empties the trie leaving only the root node available. */
+  public void removeAll() {
+    long stamp = lock.writeLock();
+    try {
+      for (int node = ROOT + 1; node < nodeCount; node++) {
+        if (nodes.names[node] != NONE) {
+          freeNode(node);
+        }
+      }
+      Arrays.fill(childSlots, 0);
+      childCount = 0;
+      names = new String[INITIAL_CAPACITY];
+      nameSlots = new int[INITIAL_CAPACITY];
+      nameCount = 0;
+      invalidateValue(ROOT);
+      nodes.firstChild[ROOT] = NONE;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Gets the value associated with the given path, loading it if needed.
+   *
+   * @param path The path to fetch.
+   * @return The value associated with the path.
+   */
+  public T get(Path path) {
+    long handle;
+    T value;
+    long stamp = lock.tryOptimisticRead();
+    handle = find(path);
+    value = getValue(handle);
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        handle = find(path);
+        value = getValue(handle);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    if (value != null) {
+      return value;
+    }
+
+    if (handle == NOT_FOUND) {
+      stamp = lock.writeLock();
+      try {
+        handle = findOrCreate(path);
+        value = getValue(handle);
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+      if (value != null) {
+        return value;
+      }
+    }
+    return load(path, handle);
+  }
+
+  /**
+   * Gets the value associated with the given path, if found, or `null` otherwise.
+   *
+   * @param path The path to fetch.
+   * @return The value associated with the path.
+   */
+  @Nullable
+  public T getIfPresent(Path path) {
+    long stamp = lock.tryOptimisticRead();
+    T value = getValue(find(path));
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        value = getValue(find(path));
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Returns a copy of the values stored in the trie as a map. N.B.: this is quite an expensive call
+   * to make, so use it wisely.
+   */
+  public ImmutableMap<Path, T> asMap() {
+    ImmutableMap.Builder<Path, T> builder = ImmutableMap.builder();
+    long stamp = lock.readLock();
+    try {
+      Nodes current = nodes;
+      StringBuilder path = new StringBuilder();
+      for (int node = ROOT + 1; node < nodeCount; node++) {
+        @SuppressWarnings("unchecked")
+        T value = (T) current.values[node];
+        if (value != null) {
+          path.setLength(0);
+          for (int n = node; n != ROOT; n = current.parents[n]) {
+            if (path.length() > 0) {
+              path.insert(0, separator);
+            }
+            path.insert(0, names[current.names[n]]);
+          }
+          builder.put(rootPath.resolve(path.toString()), value);
+        }
+      }
+    } finally {
+      lock.unlockRead(stamp);
+    }
+    return builder.build();
+  }
+
+  /** @return the number of nodes in the trie, including intermediate ones but not the root. */
+  @VisibleForTesting
+  int size() {
+    long stamp = lock.readLock();
+    try {
+      return childCount;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  private T load(Path path, long handle) {
+    Loading<T> pending = loading.computeIfAbsent(handle, h -> new Loading<>());
+    try {
+      synchronized (pending) {
+        if (pending.value == null) {
+          T value = getValueLocked(handle);
+          if (value == null) {
+            value = loader.load(path);
+            setValueIfCurrent(handle, value);
+          }
+          pending.value = value;
+        }
+        return pending.value;
+      }
+    } finally {
+      loading.remove(handle, pending);
+    }
+  }
+
+  @Nullable
+  private T getValueLocked(long handle) {
+    long stamp = lock.readLock();
+    try {
+      return getValue(handle);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /** Stores a loaded value, unless its path was removed or invalidated while it was loading. */
+  private void setValueIfCurrent(long handle, T value) {
+    long stamp = lock.writeLock();
+    try {
+      int node = getNode(handle);
+      if (nodes.generations[node] == getGeneration(handle)) {
+        nodes.values[node] = value;
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Reads the value of a node, which may be garbage if the lock isn't held, but never throws.
+   *
+   * @return the value of the node, or null if it has none or the handle doesn't refer to it.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  private T getValue(long handle) {
+    if (handle == NOT_FOUND) {
+      return null;
+    }
+    Nodes current = nodes;
+    int node = getNode(handle);
+    if (node >= current.values.length || current.generations[node] != getGeneration(handle)) {
+      return null;
+    }
+    return (T) current.values[node];
+  }
+
+  /**
+   * Finds the node of a path, with reads that may be inconsistent if the lock isn't held, but
+   * never throw nor loop forever.
+   *
+   * @return the handle of the node, or {@link #NOT_FOUND}.
+   */
+  private long find(Path path) {
+    int node = ROOT;
+    for (int i = 0, nameCount = path.getNameCount(); i < nameCount; i++) {
+      int name = findName(path.getName(i).toString());
+      if (name == NONE) {
+        return NOT_FOUND;
+      }
+      node = findChild(node, name);
+      if (node == NONE) {
+        return NOT_FOUND;
+      }
+    }
+    return toHandle(node, nodes.generations);
+  }
+
+  /** Creates the intermediate nodes and the leaf of a path if needed. */
+  private long findOrCreate(Path path) {
+    int node = ROOT;
+    for (int i = 0, nameCount = path.getNameCount(); i < nameCount; i++) {
+      int name = internName(path.getName(i).toString());
+      int child = findChild(node, name);
+      if (child == NONE) {
+        child = addChild(node, name);
+      }
+      node = child;
+    }
+    return toHandle(node, nodes.generations);
+  }
+
+  private void initRoot() {
+    nodeCount = 1;
+    nodes.names[ROOT] = NONE;
+    nodes.parents[ROOT] = NONE;
+    nodes.firstChild[ROOT] = NONE;
+  }
+
+  private int addChild(int parent, int name) {
+    int node;
+    if (freeNodes != NONE) {
+      node = freeNodes;
+      freeNodes = nodes.nextSibling[node];
+    } else {
+      if (nodeCount == nodes.parents.length) {
+        nodes = nodes.copyOf(nodeCount * 2);
+      }
+      node = nodeCount++;
+    }
+    Nodes current = nodes;
+    current.parents[node] = parent;
+    current.names[node] = name;
+    current.firstChild[node] = NONE;
+    current.previousSibling[node] = NONE;
+    current.nextSibling[node] = current.firstChild[parent];
+    if (current.firstChild[parent] != NONE) {
+      current.previousSibling[current.firstChild[parent]] = node;
+    }
+    current.firstChild[parent] = node;
+    insertChildSlot(node);
+    return node;
+  }
+
+  /** Unlinks a node from its parent and frees it along with all the nodes below it. */
+  private void removeSubtree(int node) {
+    Nodes current = nodes;
+    int parent = current.parents[node];
+    int previous = current.previousSibling[node];
+    int next = current.nextSibling[node];
+    if (previous == NONE) {
+      current.firstChild[parent] = next;
+    } else {
+      current.nextSibling[previous] = next;
+    }
+    if (next != NONE) {
+      current.previousSibling[next] = previous;
+    }
+
+    int[] pending = new int[8];
+    int count = 0;
+    pending[count++] = node;
+    while (count > 0) {
+      int removed = pending[--count];
+      for (int child = current.firstChild[removed];
+          child != NONE;
+          child = current.nextSibling[child]) {
+        if (count == pending.length) {
+          pending = Arrays.copyOf(pending, count * 2);
+        }
+        pending[count++] = child;
+      }
+      removeChildSlot(removed);
+      freeNode(removed);
+    }
+  }
+
+  /** Frees a node, which must have been removed from the children table if needed. */
+  private void freeNode(int node) {
+    Nodes current = nodes;
+    invalidateValue(node);
+    current.names[node] = NONE;
+    current.parents[node] = NONE;
+    current.firstChild[node] = NONE;
+    current.previousSibling[node] = NONE;
+    current.nextSibling[node] = freeNodes;
+    freeNodes = node;
+  }
+
+  /** Clears the value of a node, and discards any value being loaded for it. */
+  private void invalidateValue(int node) {
+    nodes.values[node] = null;
+    nodes.generations[node] = (nodes.generations[node] + 1) & Integer.MAX_VALUE;
+  }
+
+  private int findChild(int parent, int name) {
+    Nodes current = nodes;
+    int[] slots = childSlots;
+    int mask = slots.length - 1;
+    for (int i = childHash(parent, name) & mask, probes = 0;
+        probes < slots.length;
+        i = (i + 1) & mask, probes++) {
+      int node = slots[i] - 1;
+      if (node == NONE) {
+        return NONE;
+      }
+      if (node < current.parents.length
+          && current.parents[node] == parent
+          && current.names[node] == name) {
+        return node;
+      }
+    }
+    return NONE;
+  }
+
+  private void insertChildSlot(int node) {
+    if ((childCount + 1) * 3 > childSlots.length * 2) {
+      int[] old = childSlots;
+      childSlots = new int[old.length * 2];
+      for (int slot : old) {
+        if (slot != 0) {
+          placeChildSlot(slot - 1);
+        }
+      }
+    }
+    placeChildSlot(node);
+    childCount++;
+  }
+
+  private void placeChildSlot(int node) {
+    int mask = childSlots.length - 1;
+    int i = childSlotHash(node) & mask;
+    while (childSlots[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    childSlots[i] = node + 1;
+  }
+
+  /** Removes a node from the children table, shifting back the entries probing past it. */
+  private void removeChildSlot(int node) {
+    int[] slots = childSlots;
+    int mask = slots.length - 1;
+    int i = childSlotHash(node) & mask;
+    while (slots[i] != node + 1) {
+      i = (i + 1) & mask;
+    }
+    for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+      int home = childSlotHash(slots[j] - 1) & mask;
+      // Entries whose home slot lies cyclically in (i, j] are already where they can be found.
+      boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+      if (!reachable) {
+        slots[i] = slots[j];
+        i = j;
+      }
+    }
+    slots[i] = 0;
+    childCount--;
+  }
+
+  private int childSlotHash(int node) {
+    return childHash(nodes.parents[node], nodes.names[node]);
+  }
+
+  private static int childHash(int parent, int name) {
+    return mix(parent * 0x9E3779B9 + name);
+  }
+
+  private int findName(String segment) {
+    String[] currentNames = names;
+    int[] slots = nameSlots;
+    int mask = slots.length - 1;
+    for (int i = mix(segment.hashCode()) & mask, probes = 0;
+        probes < slots.length;
+        i = (i + 1) & mask, probes++) {
+      int name = slots[i] - 1;
+      if (name == NONE) {
+        return NONE;
+      }
+      if (name < currentNames.length) {
+        String candidate = currentNames[name];
+        if (segment.equals(candidate)) {
+          return name;
+        }
+      }
+    }
+    return NONE;
+  }
+
+  private int internName(String segment) {
+    int name = findName(segment);
+    if (name != NONE) {
+      return name;
+    }
+    if ((nameCount + 1) * 3 > nameSlots.length * 2) {
+      nameSlots = new int[nameSlots.length * 2];
+      for (int i = 0; i < nameCount; i++) {
+        placeNameSlot(i);
+      }
+    }
+    if (nameCount == names.length) {
+      names = Arrays.copyOf(names, nameCount * 2);
+    }
+    name = nameCount++;
+    names[name] = segment;
+    placeNameSlot(name);
+    return name;
+  }
+
+  private void placeNameSlot(int name) {
+    int mask = nameSlots.length - 1;
+    int i = mix(names[name].hashCode()) & mask;
+    while (nameSlots[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    nameSlots[i] = name + 1;
+  }
+
+  private static int mix(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x85EBCA6B;
+    hash ^= hash >>> 13;
+    return hash;
+  }
+
+  private static long toHandle(int node, int[] generations) {
+    return ((long) generations[node] << 32) | node;
+  }
+
+  private static int getNode(long handle) {
+    return (int) handle;
+  }
+
+  private static int getGeneration(long handle) {
+    return (int) (handle >>> 32);
+  }
+
+  /** The nodes of the trie, as parallel arrays indexed by node. */
+  private static class Nodes {
+    final int[] parents;
+    // Index of the interned name, or NONE if the node is free.
+    final int[] names;
+    final int[] firstChild;
+    // For free nodes, the next free node.
+    final int[] nextSibling;
+    final int[] previousSibling;
+    final int[] generations;
+    final Object[] values;
+
+    Nodes(int capacity) {
+      this(
+          new int[capacity],
+          new int[capacity],
+          new int[capacity],
+          new int[capacity],
+          new int[capacity],
+          new int[capacity],
+          new Object[capacity]);
+    }
+
+    private Nodes(
+        int[] parents,
+        int[] names,
+        int[] firstChild,
+        int[] nextSibling,
+        int[] previousSibling,
+        int[] generations,
+        Object[] values) {
+      this.parents = parents;
+      this.names = names;
+      this.firstChild = firstChild;
+      this.nextSibling = nextSibling;
+      this.previousSibling = previousSibling;
+      this.generations = generations;
+      this.values = values;
+    }
+
+    Nodes copyOf(int capacity) {
+      return new Nodes(
+          Arrays.copyOf(parents, capacity),
+          Arrays.copyOf(names, capacity),
+          Arrays.copyOf(firstChild, capacity),
+          Arrays.copyOf(nextSibling, capacity),
+          Arrays.copyOf(previousSibling, capacity),
+          Arrays.copyOf(generations, capacity),
+          Arrays.copyOf(values, capacity));
+    }
+  }
+
+  private static class Loading<T> {
+    @Nullable T value;
+  }
+}
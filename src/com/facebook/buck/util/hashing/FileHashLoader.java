@@ -53,4 +53,12 @@ public interface FileHashLoader {
   default long getSize(ProjectFilesystem filesystem, Path path) throws IOException {
     return getSize(filesystem.resolve(path));
   }
+
+  /**
+   * Hint that the hashes of the given relative {@link Path}s under the given {@link
+   * ProjectFilesystem} are about to be requested, so that loaders which can hash several files at
+   * once may do so ahead of time. Failures are not reported here, but by the following requests.
+   */
+  @SuppressWarnings("unused")
+  default void prefetch(ProjectFilesystem filesystem, Iterable<Path> paths) {}
 }
@@ -41,7 +41,10 @@ public class PathHashing {
     Preconditions.checkArgument(
         !root.equals(EMPTY_PATH), "Path to hash (%s) must not be empty", root);
     ImmutableSet.Builder<Path> children = ImmutableSet.builder();
-    for (Path path : ImmutableSortedSet.copyOf(projectFilesystem.getFilesUnderPath(root))) {
+    ImmutableSortedSet<Path> files =
+        ImmutableSortedSet.copyOf(projectFilesystem.getFilesUnderPath(root));
+    fileHashLoader.prefetch(files);
+    for (Path path : files) {
       FastPaths.hashPathFast(hasher, path);
       if (!root.equals(path)) {
         children.add(root.relativize(path));
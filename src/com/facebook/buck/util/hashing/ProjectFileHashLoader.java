@@ -32,4 +32,12 @@ public interface ProjectFileHashLoader {
   long getSize(Path path) throws IOException;
 
   Optional<HashCode> getIfPresent(Path path);
+
+  /**
+   * Hint that the hashes of the given paths are about to be requested, so that loaders which can
+   * hash several files at once may do so ahead of time. Failures are not reported here, but by the
+   * following requests.
+   */
+  @SuppressWarnings("unused")
+  default void prefetch(Iterable<Path> paths) {}
 }
@@ -26,7 +26,9 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
@@ -93,6 +95,37 @@ public class Untar extends Unarchiver {
         Platform.detect() == Platform.WINDOWS);
   }
 
+  /**
+   * Extract an archive read from a stream into the root of a filesystem
+   *
+   * <p>Entries are written out as soon as they are read, so this can unpack an archive while it is
+   * still being downloaded. The stream is not necessarily read to its end.
+   *
+   * @param archiveStream The archive contents. This is not closed.
+   * @param filesystem The filesystem that will be extracted into
+   * @param existingFileMode How to handle existing files
+   * @return A list of paths to files that were created (not directories)
+   * @throws IOException If the archive could not be extracted for any reason
+   */
+  public ImmutableSet<Path> extractArchive(
+      InputStream archiveStream, ProjectFilesystem filesystem, ExistingFileMode existingFileMode)
+      throws IOException {
+    InputStream unclosableStream =
+        new FilterInputStream(archiveStream) {
+          @Override
+          public void close() {}
+        };
+    return extractArchive(
+        unclosableStream,
+        "stream",
+        filesystem,
+        filesystem.getPath(""),
+        Optional.empty(),
+        existingFileMode,
+        PatternsMatcher.EMPTY,
+        Platform.detect() == Platform.WINDOWS);
+  }
+
   @VisibleForTesting
   ImmutableSet<Path> extractArchive(
       Path archiveFile,
@@ -103,6 +136,27 @@ public class Untar extends Unarchiver {
       PatternsMatcher entriesToExclude,
       boolean writeSymlinksAfterCreatingFiles)
       throws IOException {
+    return extractArchive(
+        Files.newInputStream(archiveFile),
+        archiveFile.toString(),
+        filesystem,
+        filesystemRelativePath,
+        stripPath,
+        existingFileMode,
+        entriesToExclude,
+        writeSymlinksAfterCreatingFiles);
+  }
+
+  private ImmutableSet<Path> extractArchive(
+      InputStream archiveStream,
+      String archiveDescription,
+      ProjectFilesystem filesystem,
+      Path filesystemRelativePath,
+      Optional<Path> stripPath,
+      ExistingFileMode existingFileMode,
+      PatternsMatcher entriesToExclude,
+      boolean writeSymlinksAfterCreatingFiles)
+      throws IOException {
 
     ImmutableSet.Builder<Path> paths = ImmutableSet.builder();
     HashSet<Path> dirsToTidy = new HashSet<>();
@@ -114,9 +168,9 @@ public class Untar extends Unarchiver {
     // all files are extracted, and /then/ try to do the links
     Map<Path, Path> windowsSymlinkMap = new HashMap<>();
 
-    try (TarArchiveInputStream archiveStream = getArchiveInputStream(archiveFile)) {
+    try (TarArchiveInputStream tarStream = getArchiveInputStream(archiveStream)) {
       TarArchiveEntry entry;
-      while ((entry = archiveStream.getNextTarEntry()) != null) {
+      while ((entry = tarStream.getNextTarEntry()) != null) {
         String entryName = entry.getName();
         if (entriesToExclude.matchesAny(entryName)) {
           continue;
@@ -146,7 +200,7 @@ public class Untar extends Unarchiver {
           paths.add(destPath);
           setAttributes(filesystem, destPath, entry);
         } else if (entry.isFile()) {
-          writeFile(creator, archiveStream, destPath);
+          writeFile(creator, tarStream, destPath);
           paths.add(destPath);
           setAttributes(filesystem, destPath, entry);
         }
@@ -155,7 +209,7 @@ public class Untar extends Unarchiver {
       writeWindowsSymlinks(creator, windowsSymlinkMap);
     } catch (CompressorException e) {
       throw new IOException(
-          String.format("Could not get decompressor for archive at %s", archiveFile), e);
+          String.format("Could not get decompressor for archive at %s", archiveDescription), e);
     }
 
     setDirectoryModificationTimes(filesystem, dirCreationTimes);
@@ -168,9 +222,9 @@ public class Untar extends Unarchiver {
     return filePaths;
   }
 
-  private TarArchiveInputStream getArchiveInputStream(Path tarFile)
-      throws IOException, CompressorException {
-    BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(tarFile));
+  private TarArchiveInputStream getArchiveInputStream(InputStream archiveStream)
+      throws CompressorException {
+    BufferedInputStream inputStream = new BufferedInputStream(archiveStream);
     if (compressorType.isPresent()) {
       return new TarArchiveInputStream(
           new CompressorStreamFactory()
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import com.google.common.base.MoreObjects;
+import java.util.Objects;
+
+/** A file or directory stored in a zstd archive. */
+public final class ZstdArchiveEntry {
+
+  /** The kinds of entries an archive can hold. */
+  public enum Type {
+    FILE,
+    DIRECTORY,
+  }
+
+  private final String name;
+  private final Type type;
+  private final int mode;
+  private final long modificationTime;
+  private final long size;
+  private final long compressedSize;
+  private final long dataOffset;
+
+  ZstdArchiveEntry(
+      String name,
+      Type type,
+      int mode,
+      long modificationTime,
+      long size,
+      long compressedSize,
+      long dataOffset) {
+    this.name = name;
+    this.type = type;
+    this.mode = mode;
+    this.modificationTime = modificationTime;
+    this.size = size;
+    this.compressedSize = compressedSize;
+    this.dataOffset = dataOffset;
+  }
+
+  /** @return the path of the entry, relative to the root of the archive. */
+  public String getName() {
+    return name;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public boolean isDirectory() {
+    return type == Type.DIRECTORY;
+  }
+
+  /** @return the posix mode bits of the entry. */
+  public int getMode() {
+    return mode;
+  }
+
+  /** @return the modification time of the entry, in milliseconds since the epoch. */
+  public long getModificationTime() {
+    return modificationTime;
+  }
+
+  /** @return the uncompressed size of the entry's contents. */
+  public long getSize() {
+    return size;
+  }
+
+  /** @return the size of the zstd frame holding the entry's contents. */
+  public long getCompressedSize() {
+    return compressedSize;
+  }
+
+  /** @return where the entry's zstd frame starts in the archive file. */
+  long getDataOffset() {
+    return dataOffset;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof ZstdArchiveEntry)) {
+      return false;
+    }
+    ZstdArchiveEntry that = (ZstdArchiveEntry) other;
+    return mode == that.mode
+        && modificationTime == that.modificationTime
+        && size == that.size
+        && compressedSize == that.compressedSize
+        && dataOffset == that.dataOffset
+        && name.equals(that.name)
+        && type == that.type;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(name, type, mode, modificationTime, size, compressedSize, dataOffset);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("name", name)
+        .add("type", type)
+        .add("mode", mode)
+        .add("size", size)
+        .add("compressedSize", compressedSize)
+        .toString();
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+/**
+ * Layout of a zstd archive.
+ *
+ * <p>An archive starts with {@link #MAGIC} and the id of the zstd dictionary its entries were
+ * compressed with (0 for none). Each entry follows as a record header and, for files, a single
+ * zstd frame holding the file's contents, so that entries can be decompressed independently of
+ * each other. A record with kind {@link #END} closes the entries. It is followed by the index, a
+ * zstd frame listing every entry and the offset of its frame, and a fixed size footer pointing at
+ * the index.
+ *
+ * <p>Readers of a stream can unpack entries one by one from their record headers, while readers of
+ * a file can seek to the footer and read any single entry without touching the others.
+ */
+public final class ZstdArchiveFormat {
+
+  /** The extension used for zstd archives. */
+  public static final String EXTENSION = ".bza";
+
+  static final byte[] MAGIC = "BUCKZAR1".getBytes(StandardCharsets.US_ASCII);
+
+  /** How many bytes {@link #isZstdArchive(InputStream)} needs to look at. */
+  public static final int MAGIC_LENGTH = MAGIC.length;
+
+  static final byte END = 0;
+  static final byte FILE = 1;
+  static final byte DIRECTORY = 2;
+
+  /** Size of the size and compressed size fields that end a record header. */
+  static final int SIZES_LENGTH = Long.BYTES * 2;
+
+  /** Size of the footer: index offset, index length and magic. */
+  static final int FOOTER_LENGTH = Long.BYTES * 2 + MAGIC.length;
+
+  private ZstdArchiveFormat() {}
+
+  /**
+   * @return whether the given stream starts like a zstd archive. Reads up to {@link #MAGIC_LENGTH}
+   *     bytes.
+   */
+  public static boolean isZstdArchive(InputStream stream) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    int read = 0;
+    while (read < magic.length) {
+      int count = stream.read(magic, read, magic.length - read);
+      if (count < 0) {
+        return false;
+      }
+      read += count;
+    }
+    return Arrays.equals(magic, MAGIC);
+  }
+
+  /** @return whether the given file is a zstd archive. */
+  public static boolean isZstdArchive(Path path) throws IOException {
+    try (InputStream stream = Files.newInputStream(path)) {
+      return isZstdArchive(stream);
+    }
+  }
+
+  static void writeHeader(DataOutput out, long dictionaryId) throws IOException {
+    out.write(MAGIC);
+    out.writeLong(dictionaryId);
+  }
+
+  /** @return the id of the dictionary the archive's entries were compressed with. */
+  static long readHeader(DataInput in) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Not a zstd archive: bad magic");
+    }
+    return in.readLong();
+  }
+
+  static void writeRecordHeader(
+      DataOutput out,
+      byte kind,
+      String name,
+      int mode,
+      long modificationTime,
+      long size,
+      long compressedSize)
+      throws IOException {
+    out.writeByte(kind);
+    out.writeUTF(name);
+    out.writeInt(mode);
+    out.writeLong(modificationTime);
+    out.writeLong(size);
+    out.writeLong(compressedSize);
+  }
+
+  static void writeEnd(DataOutput out) throws IOException {
+    out.writeByte(END);
+  }
+
+  /**
+   * Reads a record header from the entries of an archive.
+   *
+   * @param position how many bytes of the archive have been read, to learn where the entry's frame
+   *     starts.
+   * @return the entry, or empty if the record ends the entries.
+   */
+  static Optional<ZstdArchiveEntry> readRecord(DataInput in, LongSupplier position)
+      throws IOException {
+    return readRecord(in, position, false);
+  }
+
+  /** Reads a record of the index, which unlike a record header knows where its frame is. */
+  static ZstdArchiveEntry readIndexRecord(DataInput in) throws IOException {
+    Optional<ZstdArchiveEntry> entry = readRecord(in, () -> -1, true);
+    if (!entry.isPresent()) {
+      throw new IOException("Corrupt zstd archive: unexpected end of index");
+    }
+    return entry.get();
+  }
+
+  private static Optional<ZstdArchiveEntry> readRecord(
+      DataInput in, LongSupplier position, boolean indexed) throws IOException {
+    byte kind = in.readByte();
+    if (kind == END) {
+      return Optional.empty();
+    }
+    ZstdArchiveEntry.Type type;
+    if (kind == FILE) {
+      type = ZstdArchiveEntry.Type.FILE;
+    } else if (kind == DIRECTORY) {
+      type = ZstdArchiveEntry.Type.DIRECTORY;
+    } else {
+      throw new IOException(String.format("Corrupt zstd archive: unknown entry kind %d", kind));
+    }
+    String name = in.readUTF();
+    int mode = in.readInt();
+    long modificationTime = in.readLong();
+    long size = in.readLong();
+    long compressedSize = in.readLong();
+    long dataOffset = indexed ? in.readLong() : position.getAsLong();
+    return Optional.of(
+        new ZstdArchiveEntry(
+            name, type, mode, modificationTime, size, compressedSize, dataOffset));
+  }
+
+  static void writeIndexRecord(DataOutput out, ZstdArchiveEntry entry) throws IOException {
+    writeRecordHeader(
+        out,
+        entry.isDirectory() ? DIRECTORY : FILE,
+        entry.getName(),
+        entry.getMode(),
+        entry.getModificationTime(),
+        entry.getSize(),
+        entry.getCompressedSize());
+    out.writeLong(entry.getDataOffset());
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the entries of a zstd archive one after the other, without seeking. Like {@link
+ * java.util.zip.ZipInputStream}, reading from this stream reads the contents of the entry last
+ * returned by {@link #getNextEntry()}.
+ */
+public class ZstdArchiveInputStream extends InputStream {
+
+  private final CountingInputStream counting;
+  private final DataInputStream in;
+  @Nullable private final byte[] dictionary;
+  @Nullable private InputStream frame;
+  @Nullable private InputStream compressedFrame;
+  private boolean done = false;
+
+  /** Reads the archive header, failing if the dictionary the archive needs isn't in the store. */
+  public ZstdArchiveInputStream(InputStream archive, ZstdDictionaryStore dictionaries)
+      throws IOException {
+    this.counting = new CountingInputStream(archive);
+    this.in = new DataInputStream(counting);
+    long dictionaryId = ZstdArchiveFormat.readHeader(in);
+    this.dictionary = dictionaryId == 0 ? null : dictionaries.getRequired(dictionaryId);
+  }
+
+  /**
+   * Moves to the next entry, skipping whatever is left of the current one.
+   *
+   * @return the next entry, or empty once all entries have been read.
+   */
+  public Optional<ZstdArchiveEntry> getNextEntry() throws IOException {
+    if (done) {
+      return Optional.empty();
+    }
+    closeFrame();
+    Optional<ZstdArchiveEntry> entry = ZstdArchiveFormat.readRecord(in, counting::getCount);
+    if (!entry.isPresent()) {
+      done = true;
+      return entry;
+    }
+    if (!entry.get().isDirectory()) {
+      compressedFrame = ByteStreams.limit(in, entry.get().getCompressedSize());
+      ZstdInputStream zstd =
+          new ZstdInputStream(
+              new FilterInputStream(compressedFrame) {
+                @Override
+                public void close() {}
+              });
+      if (dictionary != null) {
+        zstd.setDict(dictionary);
+      }
+      frame = zstd;
+    }
+    return entry;
+  }
+
+  private void closeFrame() throws IOException {
+    if (frame != null) {
+      frame.close();
+      frame = null;
+    }
+    if (compressedFrame != null) {
+      ByteStreams.exhaust(compressedFrame);
+      compressedFrame = null;
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    return frame == null ? -1 : frame.read();
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    return frame == null ? -1 : frame.read(b, off, len);
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeFrame();
+    in.close();
+  }
+}
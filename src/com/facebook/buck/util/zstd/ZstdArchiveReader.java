@@ -0,0 +1,204 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Reads single entries of a zstd archive file through its index, without decompressing the rest of
+ * the archive. Entries may be read concurrently.
+ */
+public class ZstdArchiveReader implements Closeable {
+
+  private final FileChannel channel;
+  private final ImmutableList<ZstdArchiveEntry> entries;
+  private final ImmutableMap<String, ZstdArchiveEntry> entriesByName;
+  @Nullable private final byte[] dictionary;
+
+  private ZstdArchiveReader(
+      FileChannel channel, ImmutableList<ZstdArchiveEntry> entries, @Nullable byte[] dictionary) {
+    this.channel = channel;
+    this.entries = entries;
+    this.entriesByName =
+        entries.stream().collect(ImmutableMap.toImmutableMap(ZstdArchiveEntry::getName, e -> e));
+    this.dictionary = dictionary;
+  }
+
+  /** Opens an archive and reads its index. */
+  public static ZstdArchiveReader open(Path archive, ZstdDictionaryStore dictionaries)
+      throws IOException {
+    FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+    try {
+      long dictionaryId =
+          ZstdArchiveFormat.readHeader(
+              new DataInputStream(new ChannelRegionInputStream(channel, 0, channel.size())));
+
+      long footerOffset = channel.size() - ZstdArchiveFormat.FOOTER_LENGTH;
+      if (footerOffset < 0) {
+        throw new IOException("Corrupt zstd archive: truncated");
+      }
+      ByteBuffer footer = ByteBuffer.allocate(ZstdArchiveFormat.FOOTER_LENGTH);
+      readFully(channel, footer, footerOffset);
+      footer.flip();
+      long indexOffset = footer.getLong();
+      long indexLength = footer.getLong();
+      byte[] magic = new byte[ZstdArchiveFormat.MAGIC.length];
+      footer.get(magic);
+      if (!Arrays.equals(magic, ZstdArchiveFormat.MAGIC)
+          || indexOffset < 0
+          || indexLength < 0
+          || indexOffset + indexLength > footerOffset) {
+        throw new IOException("Corrupt zstd archive: bad footer");
+      }
+
+      ImmutableList.Builder<ZstdArchiveEntry> entries = ImmutableList.builder();
+      try (DataInputStream index =
+          new DataInputStream(
+              new BufferedInputStream(
+                  new ZstdInputStream(
+                      new ChannelRegionInputStream(channel, indexOffset, indexLength))))) {
+        int count = index.readInt();
+        for (int i = 0; i < count; i++) {
+          entries.add(ZstdArchiveFormat.readIndexRecord(index));
+        }
+      }
+
+      return new ZstdArchiveReader(
+          channel,
+          entries.build(),
+          dictionaryId == 0 ? null : dictionaries.getRequired(dictionaryId));
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** @return all entries, in the order they were written. */
+  public ImmutableList<ZstdArchiveEntry> getEntries() {
+    return entries;
+  }
+
+  public Optional<ZstdArchiveEntry> getEntry(String name) {
+    return Optional.ofNullable(entriesByName.get(name));
+  }
+
+  /**
+   * Opens the contents of a file entry. Only the entry's own frame is read from the archive.
+   *
+   * @param entry an entry of this archive, as returned by {@link #getEntries()}.
+   */
+  public InputStream openEntry(ZstdArchiveEntry entry) throws IOException {
+    Preconditions.checkArgument(
+        entry.equals(entriesByName.get(entry.getName())), "%s is not in this archive", entry);
+    Preconditions.checkArgument(!entry.isDirectory(), "%s is a directory", entry.getName());
+    ZstdInputStream frame =
+        new ZstdInputStream(
+            new ChannelRegionInputStream(
+                channel, entry.getDataOffset(), entry.getCompressedSize()));
+    if (dictionary != null) {
+      frame.setDict(dictionary);
+    }
+    return frame;
+  }
+
+  /** Opens the contents of the file entry with the given name, if there is one. */
+  public Optional<InputStream> openEntry(String name) throws IOException {
+    ZstdArchiveEntry entry = entriesByName.get(name);
+    if (entry == null || entry.isDirectory()) {
+      return Optional.empty();
+    }
+    return Optional.of(openEntry(entry));
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new EOFException();
+      }
+    }
+  }
+
+  /**
+   * Reads a region of a file with positional reads, so that several regions can be read at once
+   * through the same channel.
+   */
+  private static class ChannelRegionInputStream extends InputStream {
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    ChannelRegionInputStream(FileChannel channel, long offset, long length) {
+      this.channel = channel;
+      this.position = offset;
+      this.end = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (position >= end) {
+        return -1;
+      }
+      int count = (int) Math.min(len, end - position);
+      int read = channel.read(ByteBuffer.wrap(b, off, count), position);
+      if (read > 0) {
+        position += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, end - position));
+      position += skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import com.facebook.buck.io.file.MorePosixFilePermissions;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.PatternsMatcher;
+import com.facebook.buck.util.unarchive.DirectoryCreator;
+import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.facebook.buck.util.unarchive.Unarchiver;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** Extracts zstd archives written by {@link ZstdArchiveWriter}. */
+public class ZstdArchiveUnarchiver extends Unarchiver {
+
+  private final ZstdDictionaryStore dictionaries;
+
+  public ZstdArchiveUnarchiver(ZstdDictionaryStore dictionaries) {
+    this.dictionaries = dictionaries;
+  }
+
+  @Override
+  public ImmutableSet<Path> extractArchive(
+      Path archiveFile,
+      ProjectFilesystem filesystem,
+      Path filesystemRelativePath,
+      Optional<Path> stripPrefix,
+      PatternsMatcher entriesToExclude,
+      ExistingFileMode existingFileMode)
+      throws IOException {
+    if (!stripPrefix.isPresent()) {
+      // Everything gets extracted, so reading the archive front to back beats going through the
+      // index.
+      try (InputStream stream = new BufferedInputStream(Files.newInputStream(archiveFile))) {
+        return extractArchive(
+            stream,
+            filesystem,
+            filesystemRelativePath,
+            stripPrefix,
+            entriesToExclude,
+            existingFileMode);
+      }
+    }
+
+    // Only the entries under the prefix are wanted, such as the metadata of a cache artifact whose
+    // outputs are unpacked later, so only their frames are read and decompressed.
+    Extraction extraction =
+        new Extraction(filesystem, filesystemRelativePath, stripPrefix, entriesToExclude);
+    try (ZstdArchiveReader reader = ZstdArchiveReader.open(archiveFile, dictionaries)) {
+      for (ZstdArchiveEntry entry : reader.getEntries()) {
+        Optional<Path> destPath = extraction.getDestination(entry);
+        if (!destPath.isPresent()) {
+          continue;
+        }
+        if (entry.isDirectory()) {
+          extraction.addDirectory(destPath.get(), entry);
+        } else {
+          try (InputStream contents = reader.openEntry(entry)) {
+            extraction.addFile(destPath.get(), entry, contents);
+          }
+        }
+      }
+    }
+    return extraction.finish(existingFileMode);
+  }
+
+  /**
+   * Extract an archive read from a stream into the root of a filesystem
+   *
+   * <p>Entries are written out as soon as they are read, so this can unpack an archive while it is
+   * still being downloaded. The stream is not necessarily read to its end.
+   *
+   * @param archiveStream The archive contents. This is not closed.
+   * @param filesystem The filesystem that will be extracted into
+   * @param existingFileMode How to handle existing files
+   * @return A list of paths to files that were created (not directories)
+   * @throws IOException If the archive could not be extracted for any reason
+   */
+  public ImmutableSet<Path> extractArchive(
+      InputStream archiveStream, ProjectFilesystem filesystem, ExistingFileMode existingFileMode)
+      throws IOException {
+    InputStream unclosableStream =
+        new FilterInputStream(archiveStream) {
+          @Override
+          public void close() {}
+        };
+    return extractArchive(
+        unclosableStream,
+        filesystem,
+        filesystem.getPath(""),
+        Optional.empty(),
+        PatternsMatcher.EMPTY,
+        existingFileMode);
+  }
+
+  private ImmutableSet<Path> extractArchive(
+      InputStream archiveStream,
+      ProjectFilesystem filesystem,
+      Path filesystemRelativePath,
+      Optional<Path> stripPrefix,
+      PatternsMatcher entriesToExclude,
+      ExistingFileMode existingFileMode)
+      throws IOException {
+    Extraction extraction =
+        new Extraction(filesystem, filesystemRelativePath, stripPrefix, entriesToExclude);
+    try (ZstdArchiveInputStream archive = new ZstdArchiveInputStream(archiveStream, dictionaries)) {
+      Optional<ZstdArchiveEntry> next;
+      while ((next = archive.getNextEntry()).isPresent()) {
+        ZstdArchiveEntry entry = next.get();
+        Optional<Path> destPath = extraction.getDestination(entry);
+        if (!destPath.isPresent()) {
+          continue;
+        }
+        if (entry.isDirectory()) {
+          extraction.addDirectory(destPath.get(), entry);
+        } else {
+          extraction.addFile(destPath.get(), entry, archive);
+        }
+      }
+    }
+    return extraction.finish(existingFileMode);
+  }
+
+  /** What has been extracted so far, whichever way the entries are read from the archive. */
+  private class Extraction {
+    private final ProjectFilesystem filesystem;
+    private final Path filesystemRelativePath;
+    private final Optional<Path> stripPrefix;
+    private final PatternsMatcher entriesToExclude;
+    private final DirectoryCreator creator;
+    private final ImmutableSet.Builder<Path> paths = ImmutableSet.builder();
+    private final Set<Path> dirsToTidy = new HashSet<>();
+    private final TreeMap<Path, Long> dirCreationTimes = new TreeMap<>();
+
+    Extraction(
+        ProjectFilesystem filesystem,
+        Path filesystemRelativePath,
+        Optional<Path> stripPrefix,
+        PatternsMatcher entriesToExclude) {
+      this.filesystem = filesystem;
+      this.filesystemRelativePath = filesystemRelativePath;
+      this.stripPrefix = stripPrefix;
+      this.entriesToExclude = entriesToExclude;
+      this.creator = new DirectoryCreator(filesystem);
+    }
+
+    /** @return where to extract the entry to, or empty if it is not extracted. */
+    Optional<Path> getDestination(ZstdArchiveEntry entry) {
+      if (entriesToExclude.matchesAny(entry.getName())) {
+        return Optional.empty();
+      }
+      Path destFile = Paths.get(entry.getName());
+      if (!stripPrefix.isPresent()) {
+        return Optional.of(filesystemRelativePath.resolve(destFile).normalize());
+      }
+      if (!destFile.startsWith(stripPrefix.get())) {
+        return Optional.empty();
+      }
+      return Optional.of(
+          filesystemRelativePath.resolve(stripPrefix.get().relativize(destFile)).normalize());
+    }
+
+    void addDirectory(Path destPath, ZstdArchiveEntry entry) throws IOException {
+      dirsToTidy.add(destPath);
+      mkdirs(creator, destPath);
+      dirCreationTimes.put(destPath, entry.getModificationTime());
+    }
+
+    void addFile(Path destPath, ZstdArchiveEntry entry, InputStream contents) throws IOException {
+      writeFile(creator, contents, destPath);
+      paths.add(destPath);
+      setAttributes(filesystem, destPath, entry);
+    }
+
+    ImmutableSet<Path> finish(ExistingFileMode existingFileMode) throws IOException {
+      setDirectoryModificationTimes(filesystem, dirCreationTimes);
+
+      ImmutableSet<Path> filePaths = paths.build();
+      if (existingFileMode == ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES) {
+        // Clean out directories of files that were not in the archive
+        tidyDirectories(filesystem, dirsToTidy, filePaths);
+      }
+      return filePaths;
+    }
+  }
+
+  /** Cleans up any files that exist on the filesystem that were not in the archive */
+  private void tidyDirectories(
+      ProjectFilesystem filesystem, Set<Path> dirsToTidy, ImmutableSet<Path> createdFiles)
+      throws IOException {
+    for (Path directory : dirsToTidy) {
+      for (Path foundFile : filesystem.getDirectoryContents(directory)) {
+        if (!createdFiles.contains(foundFile) && !dirsToTidy.contains(foundFile)) {
+          filesystem.deleteRecursivelyIfExists(foundFile);
+        }
+      }
+    }
+  }
+
+  private void mkdirs(DirectoryCreator creator, Path target) throws IOException {
+    ProjectFilesystem filesystem = creator.getFilesystem();
+    if (filesystem.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+      creator.recordPath(target);
+    } else {
+      creator.forcefullyCreateDirs(target);
+    }
+  }
+
+  /** Writes out a file, replacing whatever is in its place. */
+  private void writeFile(DirectoryCreator creator, InputStream contents, Path target)
+      throws IOException {
+    ProjectFilesystem filesystem = creator.getFilesystem();
+    if (filesystem.exists(target, LinkOption.NOFOLLOW_LINKS)
+        && !filesystem.isFile(target, LinkOption.NOFOLLOW_LINKS)) {
+      filesystem.deleteRecursivelyIfExists(target);
+    } else if (target.getParent() != null) {
+      creator.forcefullyCreateDirs(target.getParent());
+    }
+
+    try (OutputStream outputStream = filesystem.newFileOutputStream(target)) {
+      ByteStreams.copy(contents, outputStream);
+    }
+  }
+
+  /** Sets the modification time and the execution bit on a file */
+  private void setAttributes(ProjectFilesystem filesystem, Path path, ZstdArchiveEntry entry)
+      throws IOException {
+    Path filePath = filesystem.getRootPath().resolve(path);
+    File file = filePath.toFile();
+    file.setLastModified(entry.getModificationTime());
+    Set<PosixFilePermission> posixPermissions = MorePosixFilePermissions.fromMode(entry.getMode());
+    if (posixPermissions.contains(PosixFilePermission.OWNER_EXECUTE)) {
+      MostFiles.makeExecutable(filePath);
+    }
+  }
+
+  /** Set the modification times on directories that were directly specified in the archive */
+  private void setDirectoryModificationTimes(
+      ProjectFilesystem filesystem, NavigableMap<Path, Long> dirToTime) {
+    for (Map.Entry<Path, Long> pathAndTime : dirToTime.descendingMap().entrySet()) {
+      File file = filesystem.getRootPath().resolve(pathAndTime.getKey()).toFile();
+      file.setLastModified(pathAndTime.getValue());
+    }
+  }
+}
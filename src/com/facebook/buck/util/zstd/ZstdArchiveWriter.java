@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Writes a zstd archive (see {@link ZstdArchiveFormat}). Every file is compressed into its own
+ * zstd frame, optionally using a dictionary trained on similar files.
+ */
+public class ZstdArchiveWriter implements Closeable {
+
+  /** The compression level used when none is given, same as the zstd command line default. */
+  public static final int DEFAULT_COMPRESSION_LEVEL = 3;
+
+  private final FileChannel channel;
+  private final CountingOutputStream counting;
+  private final DataOutputStream out;
+  private final int compressionLevel;
+  @Nullable private final ZstdDictCompress dictionary;
+  private final List<ZstdArchiveEntry> entries = new ArrayList<>();
+  private boolean closed = false;
+
+  /**
+   * @param archive where to write the archive. Any existing file is overwritten.
+   * @param compressionLevel the zstd compression level to use for every entry.
+   * @param dictionary the dictionary to compress entries with. Readers need the same dictionary,
+   *     which they look up by its id.
+   */
+  public ZstdArchiveWriter(Path archive, int compressionLevel, Optional<byte[]> dictionary)
+      throws IOException {
+    this.channel =
+        FileChannel.open(
+            archive,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+    this.counting =
+        new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    this.out = new DataOutputStream(counting);
+    this.compressionLevel = compressionLevel;
+    this.dictionary =
+        dictionary.map(bytes -> new ZstdDictCompress(bytes, compressionLevel)).orElse(null);
+    ZstdArchiveFormat.writeHeader(out, dictionary.map(Zstd::getDictIdFromDict).orElse(0L));
+  }
+
+  public ZstdArchiveWriter(Path archive) throws IOException {
+    this(archive, DEFAULT_COMPRESSION_LEVEL, Optional.empty());
+  }
+
+  /** Adds a directory entry. */
+  public void putDirectory(String name, int mode, long modificationTime) throws IOException {
+    Preconditions.checkState(!closed);
+    ZstdArchiveFormat.writeRecordHeader(
+        out, ZstdArchiveFormat.DIRECTORY, name, mode, modificationTime, 0, 0);
+    entries.add(
+        new ZstdArchiveEntry(
+            name,
+            ZstdArchiveEntry.Type.DIRECTORY,
+            mode,
+            modificationTime,
+            0,
+            0,
+            counting.getCount()));
+  }
+
+  /**
+   * Adds a file entry, compressing all of {@code contents} into a frame of its own.
+   *
+   * @return the uncompressed size of the file.
+   */
+  public long putFile(String name, int mode, long modificationTime, InputStream contents)
+      throws IOException {
+    Preconditions.checkState(!closed);
+    // The sizes are only known once the frame is written, so they are filled in afterwards.
+    ZstdArchiveFormat.writeRecordHeader(
+        out, ZstdArchiveFormat.FILE, name, mode, modificationTime, 0, 0);
+    long dataOffset = counting.getCount();
+    long size;
+    try (ZstdOutputStream frame = newFrameStream(counting)) {
+      size = ByteStreams.copy(contents, frame);
+    }
+    long compressedSize = counting.getCount() - dataOffset;
+
+    out.flush();
+    ByteBuffer sizes = ByteBuffer.allocate(ZstdArchiveFormat.SIZES_LENGTH);
+    sizes.putLong(size).putLong(compressedSize).flip();
+    long sizesOffset = dataOffset - ZstdArchiveFormat.SIZES_LENGTH;
+    while (sizes.hasRemaining()) {
+      channel.write(sizes, sizesOffset + sizes.position());
+    }
+
+    entries.add(
+        new ZstdArchiveEntry(
+            name,
+            ZstdArchiveEntry.Type.FILE,
+            mode,
+            modificationTime,
+            size,
+            compressedSize,
+            dataOffset));
+    return size;
+  }
+
+  private ZstdOutputStream newFrameStream(OutputStream stream) throws IOException {
+    ZstdOutputStream frame = new ZstdOutputStream(nonClosing(stream), compressionLevel);
+    frame.setChecksum(true);
+    if (dictionary != null) {
+      frame.setDict(dictionary);
+    }
+    return frame;
+  }
+
+  /** Writes the index and the footer, and closes the archive. */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      ZstdArchiveFormat.writeEnd(out);
+
+      long indexOffset = counting.getCount();
+      try (DataOutputStream index =
+          new DataOutputStream(new ZstdOutputStream(nonClosing(counting), compressionLevel))) {
+        index.writeInt(entries.size());
+        for (ZstdArchiveEntry entry : entries) {
+          ZstdArchiveFormat.writeIndexRecord(index, entry);
+        }
+      }
+      long indexLength = counting.getCount() - indexOffset;
+
+      out.writeLong(indexOffset);
+      out.writeLong(indexLength);
+      out.write(ZstdArchiveFormat.MAGIC);
+      out.flush();
+    } finally {
+      if (dictionary != null) {
+        dictionary.close();
+      }
+      channel.close();
+    }
+  }
+
+  /** Lets zstd frames be closed without closing the archive under them. */
+  private static OutputStream nonClosing(OutputStream stream) {
+    return new FilterOutputStream(stream) {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        flush();
+      }
+    };
+  }
+}
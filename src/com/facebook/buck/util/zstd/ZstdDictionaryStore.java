@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import com.github.luben.zstd.Zstd;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dictionaries that zstd archives were compressed with, looked up by the dictionary id recorded in
+ * the archive header.
+ */
+public class ZstdDictionaryStore {
+
+  private final Optional<Path> directory;
+  private final ConcurrentMap<Long, byte[]> loaded = new ConcurrentHashMap<>();
+
+  private ZstdDictionaryStore(Optional<Path> directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return a new store that only keeps dictionaries in memory. It is enough to read archives that
+   *     don't use a dictionary.
+   */
+  public static ZstdDictionaryStore inMemory() {
+    return new ZstdDictionaryStore(Optional.empty());
+  }
+
+  /** @return a store keeping its dictionaries as files in the given directory. */
+  public static ZstdDictionaryStore inDirectory(Path directory) {
+    return new ZstdDictionaryStore(Optional.of(directory));
+  }
+
+  /**
+   * Saves a dictionary so archives compressed with it can be read back.
+   *
+   * @return the id of the dictionary.
+   */
+  public long put(byte[] dictionary) throws IOException {
+    long id = Zstd.getDictIdFromDict(dictionary);
+    Preconditions.checkArgument(id != 0, "Not a zstd dictionary");
+    if (directory.isPresent()) {
+      Path dir = directory.get();
+      Files.createDirectories(dir);
+      Path temp = Files.createTempFile(dir, "dict", ".tmp");
+      Files.write(temp, dictionary);
+      Files.move(temp, pathOf(dir, id), StandardCopyOption.REPLACE_EXISTING);
+    }
+    loaded.put(id, dictionary);
+    return id;
+  }
+
+  /** @return the dictionary with the given id, if this store has it. */
+  public Optional<byte[]> get(long id) throws IOException {
+    byte[] dictionary = loaded.get(id);
+    if (dictionary != null) {
+      return Optional.of(dictionary);
+    }
+    if (!directory.isPresent()) {
+      return Optional.empty();
+    }
+    Path path = pathOf(directory.get(), id);
+    if (!Files.isRegularFile(path)) {
+      return Optional.empty();
+    }
+    dictionary = Files.readAllBytes(path);
+    loaded.putIfAbsent(id, dictionary);
+    return Optional.of(dictionary);
+  }
+
+  /** @return the dictionary with the given id, failing if this store does not have it. */
+  byte[] getRequired(long id) throws IOException {
+    Optional<byte[]> dictionary = get(id);
+    if (!dictionary.isPresent()) {
+      throw new IOException(
+          String.format("zstd archive needs dictionary %d, which is not available", id));
+    }
+    return dictionary.get();
+  }
+
+  private static Path pathOf(Path directory, long id) {
+    return directory.resolve(Long.toUnsignedString(id) + ".dict");
+  }
+}
@@ -17,13 +17,16 @@
 package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig.Executor;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
 import com.facebook.buck.artifact_cache.config.DirCacheEntry;
+import com.facebook.buck.artifact_cache.config.DirCacheLayout;
 import com.facebook.buck.artifact_cache.config.HttpCacheEntry;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.BuckConfigTestUtils;
@@ -190,6 +193,49 @@ public class ArtifactCacheBuckConfigTest {
     assertThat(dirCacheConfig.getMaxSizeBytes(), Matchers.equalTo(Optional.of(1022L)));
   }
 
+  @Test
+  public void testDirCacheLayout() throws IOException {
+    ArtifactCacheBuckConfig config = createFromText("[cache]", "dir = cache_dir");
+    assertThat(
+        config.getCacheEntries().getDirCacheEntries().asList().get(0).getLayout(),
+        Matchers.is(DirCacheLayout.RULE_KEY));
+
+    config = createFromText("[cache]", "dir = cache_dir", "dir_layout = content_addressed");
+    assertThat(
+        config.getCacheEntries().getDirCacheEntries().asList().get(0).getLayout(),
+        Matchers.is(DirCacheLayout.CONTENT_ADDRESSED));
+  }
+
+  @Test
+  public void testDirCacheEvictionIndex() throws IOException {
+    ArtifactCacheBuckConfig config = createFromText("[cache]", "dir = cache_dir");
+    assertFalse(
+        config.getCacheEntries().getDirCacheEntries().asList().get(0).isEvictionIndexEnabled());
+
+    config = createFromText("[cache]", "dir = cache_dir", "dir_eviction_index = true");
+    assertTrue(
+        config.getCacheEntries().getDirCacheEntries().asList().get(0).isEvictionIndexEnabled());
+  }
+
+  @Test
+  public void testLayeredMultiFetch() throws IOException {
+    assertFalse(createFromText("[cache]", "mode = dir, http").getLayeredMultiFetchEnabled());
+    assertTrue(
+        createFromText("[cache]", "mode = dir, http", "layered_multi_fetch = true")
+            .getLayeredMultiFetchEnabled());
+  }
+
+  @Test
+  public void testHttpStreamingFetch() throws IOException {
+    ArtifactCacheBuckConfig config = createFromText("[cache]", "mode = http");
+    assertFalse(
+        config.getCacheEntries().getHttpCacheEntries().asList().get(0).isStreamingFetchEnabled());
+
+    config = createFromText("[cache]", "mode = http", "http_streaming_fetch = true");
+    assertTrue(
+        config.getCacheEntries().getHttpCacheEntries().asList().get(0).isStreamingFetchEnabled());
+  }
+
   @Test
   public void testMultipleDirCacheSettings() throws IOException {
     ArtifactCacheBuckConfig config =
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.artifact_cache;
 
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
@@ -94,6 +96,22 @@ public class ArtifactCachesTest {
     managerScope.close();
   }
 
+  @Test
+  public void buildInstanceIsShared() throws Exception {
+    ArtifactCacheBuckConfig cacheConfig =
+        ArtifactCacheBuckConfigTest.createFromText("[cache]", "mode = dir");
+    ProjectFilesystem projectFilesystem = new FakeProjectFilesystem();
+    BuckEventBus buckEventBus = BuckEventBusForTests.newInstance();
+    ArtifactCaches artifactCaches =
+        newArtifactCache(cacheConfig, projectFilesystem, buckEventBus, Optional.empty());
+
+    ArtifactCache artifactCache = artifactCaches.newInstance();
+    assertSame(artifactCache, artifactCaches.newInstance(false));
+    assertNotSame(artifactCache, artifactCaches.newInstance(true));
+    artifactCaches.close();
+    managerScope.close();
+  }
+
   @Test
   public void testCreateSQLiteCacheOnly() throws Exception {
     ArtifactCacheBuckConfig cacheConfig =
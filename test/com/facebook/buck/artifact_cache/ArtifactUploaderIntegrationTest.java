@@ -18,6 +18,7 @@ package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.artifact_cache.config.ArtifactFormat;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.rulekey.RuleKey;
@@ -54,6 +55,7 @@ public class ArtifactUploaderIntegrationTest {
         ImmutableSortedSet.of(),
         BUILD_TARGET,
         new FakeProjectFilesystem(),
+        ArtifactFormat.TAR_ZSTD,
         1000);
 
     assertTrue(
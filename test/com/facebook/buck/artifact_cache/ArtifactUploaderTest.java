@@ -22,6 +22,7 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.facebook.buck.artifact_cache.config.ArtifactFormat;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
@@ -33,13 +34,19 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.testutil.integration.TarInspector;
 import com.facebook.buck.util.types.Unit;
+import com.facebook.buck.util.zstd.ZstdArchiveEntry;
+import com.facebook.buck.util.zstd.ZstdArchiveReader;
+import com.facebook.buck.util.zstd.ZstdDictionaryStore;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -131,6 +138,7 @@ public class ArtifactUploaderTest {
         ImmutableSortedSet.of(dir, file, dirFile, metadataFile),
         BUILD_TARGET,
         filesystem,
+        ArtifactFormat.TAR_ZSTD,
         1000);
 
     assertTrue(stored.get());
@@ -166,4 +174,33 @@ public class ArtifactUploaderTest {
               .contains(PosixFilePermission.OWNER_EXECUTE));
     }
   }
+
+  @Test
+  public void compressToZstdArchiveStoresEveryPath() throws Exception {
+    ProjectFilesystem fs = FakeProjectFilesystem.createJavaOnlyFilesystem("/");
+
+    Path out = fs.getRootPath().resolve("out");
+    Path dir = fs.getRootPath().resolve("dir");
+    Path file = dir.resolve("file");
+    fs.mkdirs(dir);
+    fs.writeContentsToPath("foo", file);
+    Files.setPosixFilePermissions(
+        fs.getPathForRelativePath(file), ImmutableSet.of(PosixFilePermission.OWNER_EXECUTE));
+
+    long fullSize = ArtifactUploader.compressToZstdArchive(fs, ImmutableList.of(dir, file), out);
+
+    assertEquals(3, fullSize);
+    try (ZstdArchiveReader archive = ZstdArchiveReader.open(out, ZstdDictionaryStore.inMemory())) {
+      assertThat(archive.getEntries(), Matchers.hasSize(2));
+      assertTrue(archive.getEntry(dir.toString()).get().isDirectory());
+      ZstdArchiveEntry entry = archive.getEntry(file.toString()).get();
+      assertTrue(
+          MorePosixFilePermissions.fromMode(entry.getMode())
+              .contains(PosixFilePermission.OWNER_EXECUTE));
+      try (InputStream contents = archive.openEntry(entry)) {
+        assertArrayEquals(
+            "foo".getBytes(StandardCharsets.UTF_8), ByteStreams.toByteArray(contents));
+      }
+    }
+  }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DirArtifactCacheIndexTest {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private final AtomicLong clock = new AtomicLong();
+  private Path cacheDir;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDir = tmpDir.newFolder("cache");
+  }
+
+  @Test
+  public void evictsLeastRecentlyAccessedFirst() throws IOException {
+    try (DirArtifactCacheIndex index = newIndex()) {
+      index.getTotalSizeBytes();
+      index.recordStore(cacheDir.resolve("a"), 10);
+      index.recordStore(cacheDir.resolve("b"), 10);
+      index.recordStore(cacheDir.resolve("c"), 10);
+      index.recordAccess(cacheDir.resolve("a"));
+
+      assertEquals(30, index.getTotalSizeBytes());
+      assertEquals(ImmutableList.of(cacheDir.resolve("b")), index.evict(20));
+      assertEquals(20, index.getTotalSizeBytes());
+    }
+  }
+
+  @Test
+  public void stateSurvivesReopening() throws IOException {
+    try (DirArtifactCacheIndex index = newIndex()) {
+      // Load the index so that the log is created before anything is recorded.
+      index.getTotalSizeBytes();
+      index.recordStore(cacheDir.resolve("a"), 10);
+      index.recordStore(cacheDir.resolve("b"), 20);
+      index.recordStore(cacheDir.resolve("c"), 30);
+      index.recordAccess(cacheDir.resolve("a"));
+      index.recordDelete(cacheDir.resolve("c"));
+    }
+
+    try (DirArtifactCacheIndex index = newIndex()) {
+      assertEquals(30, index.getTotalSizeBytes());
+      assertEquals(
+          ImmutableList.of(cacheDir.resolve("b"), cacheDir.resolve("a")), index.evict(0));
+    }
+  }
+
+  @Test
+  public void truncatedRecordIsDiscarded() throws IOException {
+    Path logPath;
+    try (DirArtifactCacheIndex index = newIndex()) {
+      index.getTotalSizeBytes();
+      index.recordStore(cacheDir.resolve("a"), 10);
+      logPath = index.getLogPath();
+    }
+    long validSize = Files.size(logPath);
+    Files.write(logPath, new byte[] {1, 0, 0}, StandardOpenOption.APPEND);
+
+    try (DirArtifactCacheIndex index = newIndex()) {
+      assertEquals(10, index.getTotalSizeBytes());
+      assertEquals(validSize, Files.size(logPath));
+      index.recordStore(cacheDir.resolve("b"), 5);
+    }
+
+    try (DirArtifactCacheIndex index = newIndex()) {
+      assertEquals(15, index.getTotalSizeBytes());
+    }
+  }
+
+  @Test
+  public void missingLogIsRebuiltFromCacheContents() throws IOException {
+    Files.createDirectories(cacheDir.resolve("aa"));
+    Files.createDirectories(cacheDir.resolve("tmp"));
+    Files.write(cacheDir.resolve("aa").resolve("artifact"), new byte[7]);
+    Files.write(cacheDir.resolve("tmp").resolve("in-flight"), new byte[100]);
+
+    try (DirArtifactCacheIndex index = newIndex()) {
+      index.recordStore(cacheDir.resolve("b"), 5);
+      Files.write(cacheDir.resolve("b"), new byte[5]);
+
+      assertEquals(12, index.getTotalSizeBytes());
+    }
+  }
+
+  private DirArtifactCacheIndex newIndex() {
+    return new DirArtifactCacheIndex(
+        cacheDir, ImmutableSet.of(cacheDir.resolve("tmp")), clock::incrementAndGet);
+  }
+}
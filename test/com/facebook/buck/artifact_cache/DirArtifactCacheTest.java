@@ -24,6 +24,7 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.DirCacheLayout;
 import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
 import com.facebook.buck.core.rulekey.RuleKey;
@@ -53,11 +54,13 @@ import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.junit.After;
@@ -897,6 +900,169 @@ public class DirArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testContentAddressedLayoutDeduplicatesIdenticalArtifacts() throws IOException {
+    DirArtifactCache cache =
+        newDirArtifactCache(
+            Optional.empty(), CacheReadMode.READWRITE, DirCacheLayout.CONTENT_ADDRESSED);
+
+    RuleKey ruleKeyA = new RuleKey("aaaaaaaaaaaaaaaa");
+    RuleKey ruleKeyB = new RuleKey("bbbbbbbbbbbbbbbb");
+    Path dataA = Paths.get("dataA");
+    Path dataB = Paths.get("dataB");
+    projectFilesystem.writeContentsToPath("same contents", dataA);
+    projectFilesystem.writeContentsToPath("same contents", dataB);
+
+    cache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyA).putMetadata("rule", "a").build(),
+        BorrowablePath.notBorrowablePath(dataA));
+    cache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyB).putMetadata("rule", "b").build(),
+        BorrowablePath.borrowablePath(dataB));
+
+    Path blob = cache.getPathForBlob(projectFilesystem.computeSha1(dataA).getHash());
+    assertTrue(projectFilesystem.exists(blob));
+    assertFalse(projectFilesystem.exists(cache.getPathForRuleKey(ruleKeyA, Optional.empty())));
+    assertFalse(projectFilesystem.exists(cache.getPathForRuleKey(ruleKeyB, Optional.empty())));
+    assertThat(
+        cache.getAllFilesInCache().stream()
+            .filter(path -> path.startsWith(projectFilesystem.resolve(cacheDir.resolve("blobs"))))
+            .count(),
+        Matchers.equalTo(1L));
+
+    for (RuleKey ruleKey : ImmutableList.of(ruleKeyA, ruleKeyB)) {
+      Path output = Paths.get("out-" + ruleKey);
+      CacheResult result =
+          Futures.getUnchecked(cache.fetchAsync(null, ruleKey, LazyPath.ofInstance(output)));
+      assertThat(result.getType(), Matchers.equalTo(CacheResultType.HIT));
+      assertThat(
+          projectFilesystem.readFileIfItExists(output),
+          Matchers.equalTo(Optional.of("same contents")));
+    }
+    assertThat(
+        Futures.getUnchecked(
+                cache.fetchAsync(null, ruleKeyA, LazyPath.ofInstance(Paths.get("out"))))
+            .getMetadata(),
+        Matchers.equalTo(ImmutableMap.of("rule", "a")));
+
+    cache.close();
+  }
+
+  @Test
+  public void testContentAddressedLayoutDeleteKeepsSharedBlob() throws IOException {
+    DirArtifactCache cache =
+        newDirArtifactCache(
+            Optional.empty(), CacheReadMode.READWRITE, DirCacheLayout.CONTENT_ADDRESSED);
+
+    RuleKey ruleKeyA = new RuleKey("aaaaaaaaaaaaaaaa");
+    RuleKey ruleKeyB = new RuleKey("bbbbbbbbbbbbbbbb");
+    Path data = Paths.get("data");
+    projectFilesystem.writeContentsToPath("contents", data);
+    cache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyA, ruleKeyB).build(),
+        BorrowablePath.notBorrowablePath(data));
+
+    Futures.getUnchecked(cache.deleteAsync(ImmutableList.of(ruleKeyA)));
+
+    ImmutableMap<RuleKey, CacheResult> results =
+        Futures.getUnchecked(cache.multiContainsAsync(ImmutableSet.of(ruleKeyA, ruleKeyB)));
+    assertThat(results.get(ruleKeyA).getType(), Matchers.equalTo(CacheResultType.MISS));
+    assertThat(results.get(ruleKeyB).getType(), Matchers.equalTo(CacheResultType.CONTAINS));
+    assertTrue(
+        projectFilesystem.exists(
+            cache.getPathForBlob(projectFilesystem.computeSha1(data).getHash())));
+
+    cache.close();
+  }
+
+  @Test
+  public void testOnlyLinkFailuresOfTheFileSystemTurnHardLinksOff() throws IOException {
+    Path target = tmpDir.newFile("target");
+    Path link = tmpDir.getRoot().resolve("link");
+    String file = link.toString();
+    String other = target.toString();
+
+    assertTrue(
+        DirArtifactCache.isHardLinkUnsupported(
+            new FileSystemException(file, other, "Invalid cross-device link"),
+            target,
+            link));
+    assertTrue(
+        DirArtifactCache.isHardLinkUnsupported(
+            new FileSystemException(file, other, "Operation not permitted"),
+            target,
+            link));
+    assertFalse(
+        DirArtifactCache.isHardLinkUnsupported(
+            new FileSystemException(file, other, "No space left on device"),
+            target,
+            link));
+  }
+
+  @Test
+  public void testEvictionIndexEvictsLeastRecentlyFetched() throws IOException {
+    // Each entry is a 100 byte artifact plus 4 bytes of metadata. Trimming to 2/3 of the max size
+    // leaves room for two entries.
+    dirArtifactCache =
+        newDirArtifactCache(
+            Optional.of(320L), CacheReadMode.READWRITE, DirCacheLayout.RULE_KEY, true);
+
+    RuleKey ruleKeyA = new RuleKey("aaaaaaaaaaaaaaaa");
+    RuleKey ruleKeyB = new RuleKey("bbbbbbbbbbbbbbbb");
+    RuleKey ruleKeyC = new RuleKey("cccccccccccccccc");
+    RuleKey ruleKeyD = new RuleKey("dddddddddddddddd");
+    Path data = tmpDir.newFile("data");
+    Files.write(data, new byte[100]);
+
+    for (RuleKey ruleKey : ImmutableList.of(ruleKeyA, ruleKeyB, ruleKeyC)) {
+      dirArtifactCache.store(
+          ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+          BorrowablePath.notBorrowablePath(data));
+    }
+    Path output = tmpDir.getRoot().resolve("output");
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(null, ruleKeyA, LazyPath.ofInstance(output)))
+            .getType());
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyD).build(),
+        BorrowablePath.notBorrowablePath(data));
+
+    ImmutableMap<RuleKey, CacheResult> results =
+        Futures.getUnchecked(
+            dirArtifactCache.multiContainsAsync(
+                ImmutableSet.of(ruleKeyA, ruleKeyB, ruleKeyC, ruleKeyD)));
+    assertEquals(CacheResultType.CONTAINS, results.get(ruleKeyA).getType());
+    assertEquals(CacheResultType.MISS, results.get(ruleKeyB).getType());
+    assertEquals(CacheResultType.MISS, results.get(ruleKeyC).getType());
+    assertEquals(CacheResultType.CONTAINS, results.get(ruleKeyD).getType());
+  }
+
+  @Test
+  public void testEvictionIndexIsRebuiltFromExistingFiles() throws IOException {
+    Path fileW = cacheDir.resolve("11").resolve("11").resolve("w");
+    Path fileX = cacheDir.resolve("22").resolve("22").resolve("x");
+    Path fileY = cacheDir.resolve("33").resolve("33").resolve("y");
+    Path fileZ = cacheDir.resolve("44").resolve("44").resolve("z");
+    ImmutableMap<Path, Long> accessTimes =
+        ImmutableMap.of(fileW, 9000L, fileX, 0L, fileY, 1000L, fileZ, 2000L);
+    for (Map.Entry<Path, Long> entry : accessTimes.entrySet()) {
+      Files.createDirectories(entry.getKey().getParent());
+      Files.write(entry.getKey(), "a".getBytes(UTF_8));
+      Files.setAttribute(entry.getKey(), "lastAccessTime", FileTime.fromMillis(entry.getValue()));
+    }
+
+    dirArtifactCache =
+        newDirArtifactCache(
+            Optional.of(3L), CacheReadMode.READWRITE, DirCacheLayout.RULE_KEY, true);
+    dirArtifactCache.deleteOldFiles();
+
+    assertEquals(
+        ImmutableSet.of(fileZ, fileW), ImmutableSet.copyOf(dirArtifactCache.getAllFilesInCache()));
+    assertTrue(Files.exists(cacheDir.resolve("index")));
+  }
+
   private static class BuildRuleForTest extends FakeBuildRule {
 
     @SuppressWarnings("PMD.UnusedPrivateField")
@@ -912,12 +1078,29 @@ public class DirArtifactCacheTest {
 
   private DirArtifactCache newDirArtifactCache(
       Optional<Long> maxCacheSizeBytes, CacheReadMode cacheReadMode) throws IOException {
+    return newDirArtifactCache(maxCacheSizeBytes, cacheReadMode, DirCacheLayout.RULE_KEY);
+  }
+
+  private DirArtifactCache newDirArtifactCache(
+      Optional<Long> maxCacheSizeBytes, CacheReadMode cacheReadMode, DirCacheLayout layout)
+      throws IOException {
+    return newDirArtifactCache(maxCacheSizeBytes, cacheReadMode, layout, false);
+  }
+
+  private DirArtifactCache newDirArtifactCache(
+      Optional<Long> maxCacheSizeBytes,
+      CacheReadMode cacheReadMode,
+      DirCacheLayout layout,
+      boolean useEvictionIndex)
+      throws IOException {
     return new DirArtifactCache(
         "dir",
         projectFilesystem,
         cacheDir,
         cacheReadMode,
         maxCacheSizeBytes,
+        layout,
+        useEvictionIndex,
         MoreExecutors.newDirectExecutorService());
   }
 }
@@ -49,6 +49,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -57,6 +58,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -66,6 +68,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.Protocol;
@@ -230,6 +233,79 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testStreamingFetchExtractsWhileReading() throws Exception {
+    Path output = Paths.get("output/file");
+    String data = "test";
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setStreamingFetchEnabled(true);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                              data))
+                      .message("")
+                      .build());
+            }));
+
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    RecordingExtractingLazyPath extractingOutput = new RecordingExtractingLazyPath(output);
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, ruleKey, extractingOutput));
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertEquals(data, extractingOutput.extracted.toString(Charsets.UTF_8.name()));
+    assertEquals(
+        Optional.of(ImmutableSet.of(Paths.get("extracted"))),
+        extractingOutput.getExtractedPaths());
+    // The artifact is still saved, so that it can be stored in other caches.
+    assertEquals(Optional.of(data), filesystem.readFileIfItExists(output));
+    cache.close();
+  }
+
+  @Test
+  public void testStreamingFetchBadChecksumDiscardsExtractedFiles() {
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    argsBuilder.setStreamingFetchEnabled(true);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(new byte[0]),
+                              "data"))
+                      .message("")
+                      .build());
+            }));
+
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    RecordingExtractingLazyPath extractingOutput =
+        new RecordingExtractingLazyPath(Paths.get("output/file"));
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, ruleKey, extractingOutput));
+    assertEquals(CacheResultType.ERROR, result.getType());
+    assertEquals(ImmutableSet.of(Paths.get("extracted")), extractingOutput.discarded);
+    assertEquals(Optional.empty(), extractingOutput.getExtractedPaths());
+    cache.close();
+  }
+
   @Test
   public void testFetchUrl() {
     RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
@@ -668,6 +744,33 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  private static class RecordingExtractingLazyPath extends ExtractingLazyPath {
+    private final Path path;
+    private final ByteArrayOutputStream extracted = new ByteArrayOutputStream();
+    @Nullable private ImmutableSet<Path> discarded;
+
+    private RecordingExtractingLazyPath(Path path) {
+      this.path = path;
+    }
+
+    @Override
+    protected Path create() {
+      return path;
+    }
+
+    @Override
+    protected Optional<ImmutableSet<Path>> extract(
+        ImmutableMap<String, String> metadata, InputStream artifact) throws IOException {
+      ByteStreams.copy(artifact, extracted);
+      return Optional.of(ImmutableSet.of(Paths.get("extracted")));
+    }
+
+    @Override
+    protected void discard(ImmutableSet<Path> extractedPaths) {
+      discarded = extractedPaths;
+    }
+  }
+
   private static ResponseBody createDummyBody() {
     return ResponseBody.create(MediaType.parse("text/plain"), "SUCCESS");
   }
@@ -17,8 +17,10 @@
 package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
@@ -29,6 +31,8 @@ import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.concurrent.ExplicitRunExecutorService;
+import com.facebook.buck.util.types.Pair;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -40,6 +44,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -429,4 +434,96 @@ public class MultiArtifactCacheTest {
 
     multiArtifactCache.close();
   }
+
+  @Test
+  public void multiFetchSendsMissesToNextCacheAndWritesHitsBackInOneBatch() throws Exception {
+    RuleKey ruleKey3 = new RuleKey("11111111ae69428db2d1befb31cf743a11111111");
+    RuleKey ruleKey4 = new RuleKey("22222222ae69428db2d1befb31cf743a22222222");
+    List<Integer> storeBatchSizes = new ArrayList<>();
+    List<ImmutableList<RuleKey>> fetchBatches = new ArrayList<>();
+    InMemoryArtifactCache cache1 =
+        new InMemoryArtifactCache() {
+          @Override
+          public ListenableFuture<Unit> store(
+              ImmutableList<Pair<ArtifactInfo, BorrowablePath>> artifacts) {
+            storeBatchSizes.add(artifacts.size());
+            artifacts.forEach(artifact -> store(artifact.getFirst(), artifact.getSecond()));
+            return Futures.immediateFuture(Unit.UNIT);
+          }
+        };
+    InMemoryArtifactCache cache2 =
+        new InMemoryArtifactCache() {
+          @Override
+          public ImmutableList<ListenableFuture<CacheResult>> multiFetchAsync(
+              ImmutableList<ArtifactFetchRequest> requests) {
+            fetchBatches.add(
+                requests.stream()
+                    .map(ArtifactFetchRequest::getRuleKey)
+                    .collect(ImmutableList.toImmutableList()));
+            return super.multiFetchAsync(requests);
+          }
+        };
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.of(cache1, cache2));
+
+    cache1.store(ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(), new byte[0]);
+    cache2.store(ArtifactInfo.builder().addRuleKeys(dummyRuleKey2).build(), new byte[0]);
+    cache2.store(ArtifactInfo.builder().addRuleKeys(ruleKey3).build(), new byte[0]);
+
+    ImmutableList.Builder<ArtifactFetchRequest> requests = ImmutableList.builder();
+    for (RuleKey ruleKey : ImmutableList.of(dummyRuleKey, dummyRuleKey2, ruleKey3, ruleKey4)) {
+      requests.add(
+          ArtifactFetchRequest.of(
+              Optional.empty(), ruleKey, LazyPath.ofInstance(tmp.newFile(ruleKey.toString()))));
+    }
+    List<CacheResultType> resultTypes = new ArrayList<>();
+    for (ListenableFuture<CacheResult> result :
+        multiArtifactCache.multiFetchAsync(requests.build())) {
+      resultTypes.add(Futures.getUnchecked(result).getType());
+    }
+
+    assertEquals(
+        ImmutableList.of(
+            CacheResultType.HIT, CacheResultType.HIT, CacheResultType.HIT, CacheResultType.MISS),
+        resultTypes);
+    assertEquals(
+        ImmutableList.of(ImmutableList.of(dummyRuleKey2, ruleKey3, ruleKey4)), fetchBatches);
+    assertEquals(ImmutableList.of(2), storeBatchSizes);
+    assertTrue(cache1.hasArtifact(dummyRuleKey2));
+    assertTrue(cache1.hasArtifact(ruleKey3));
+    assertFalse(cache1.hasArtifact(ruleKey4));
+
+    multiArtifactCache.close();
+  }
+
+  @Test
+  public void queuedFetchesAreSentAsOneBatch() {
+    List<Integer> fetchBatchSizes = new ArrayList<>();
+    DummyArtifactCache dummyArtifactCache =
+        new DummyArtifactCache() {
+          @Override
+          public ImmutableList<ListenableFuture<CacheResult>> multiFetchAsync(
+              ImmutableList<ArtifactFetchRequest> requests) {
+            fetchBatchSizes.add(requests.size());
+            return super.multiFetchAsync(requests);
+          }
+        };
+    dummyArtifactCache.storeKey = dummyRuleKey;
+    ExplicitRunExecutorService executor = new ExplicitRunExecutorService();
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.of(dummyArtifactCache), Optional.of(executor));
+
+    ListenableFuture<CacheResult> first =
+        multiArtifactCache.fetchAsync(null, dummyRuleKey, dummyFile);
+    ListenableFuture<CacheResult> second =
+        multiArtifactCache.fetchAsync(null, dummyRuleKey2, dummyFile);
+    assertFalse(first.isDone());
+
+    executor.run();
+    assertEquals(ImmutableList.of(2), fetchBatchSizes);
+    assertEquals(CacheResultType.HIT, Futures.getUnchecked(first).getType());
+    assertEquals(CacheResultType.MISS, Futures.getUnchecked(second).getType());
+
+    multiArtifactCache.close();
+  }
 }
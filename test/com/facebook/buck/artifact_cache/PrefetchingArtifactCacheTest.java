@@ -0,0 +1,231 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PrefetchingArtifactCacheTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+
+  private static final RuleKey RULE_KEY = new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+  private static final RuleKey RULE_KEY2 = new RuleKey("00000000ae69428db2d1befb31cf743a00000000");
+  private static final byte[] DATA = {1, 2, 3};
+
+  private static class CountingArtifactCache extends InMemoryArtifactCache {
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final List<Path> outputs = new ArrayList<>();
+
+    @Override
+    public ListenableFuture<CacheResult> fetchAsync(
+        BuildTarget target, RuleKey ruleKey, LazyPath output) {
+      fetches.incrementAndGet();
+      outputs.add(output.getUnchecked());
+      return super.fetchAsync(target, ruleKey, output);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+  }
+
+  @Test
+  public void prefetchedArtifactIsMovedToOutput() throws Exception {
+    CountingArtifactCache delegate = new CountingArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY).build(), DATA);
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(delegate, 1024);
+
+    assertTrue(cache.prefetch(null, RULE_KEY, filesystem));
+    assertFalse("An artifact is only prefetched once.", cache.prefetch(null, RULE_KEY, filesystem));
+
+    Path output = tmp.getRoot().resolve("output");
+    CacheResult result = cache.fetchAsync(null, RULE_KEY, LazyPath.ofInstance(output)).get();
+
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(DATA, Files.readAllBytes(output));
+    assertEquals(1, delegate.fetches.get());
+    assertEquals(0, cache.getStagedBytes());
+  }
+
+  @Test
+  public void noPrefetchOnceBudgetIsSpent() throws Exception {
+    CountingArtifactCache delegate = new CountingArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY, RULE_KEY2).build(), DATA);
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(delegate, DATA.length);
+
+    assertTrue(cache.prefetch(null, RULE_KEY, filesystem));
+    // Wait for the prefetch to land.
+    cache.fetchAsync(null, RULE_KEY2, LazyPath.ofInstance(tmp.getRoot().resolve("other"))).get();
+    assertEquals(DATA.length, cache.getStagedBytes());
+    assertFalse(cache.prefetch(null, RULE_KEY2, filesystem));
+
+    cache.discardStagedArtifacts();
+    assertEquals(0, cache.getStagedBytes());
+    assertTrue(cache.prefetch(null, RULE_KEY2, filesystem));
+  }
+
+  @Test
+  public void failedPrefetchIsRetriedOnFetch() throws Exception {
+    AtomicInteger fetches = new AtomicInteger();
+    InMemoryArtifactCache delegate =
+        new InMemoryArtifactCache() {
+          @Override
+          public ListenableFuture<CacheResult> fetchAsync(
+              BuildTarget target, RuleKey ruleKey, LazyPath output) {
+            if (fetches.getAndIncrement() == 0) {
+              return Futures.immediateFuture(
+                  CacheResult.error("cache", ArtifactCacheMode.http, "error"));
+            }
+            return super.fetchAsync(target, ruleKey, output);
+          }
+        };
+    delegate.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY).build(), DATA);
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(delegate, 1024);
+
+    assertTrue(cache.prefetch(null, RULE_KEY, filesystem));
+    Path output = tmp.getRoot().resolve("output");
+    CacheResult result = cache.fetchAsync(null, RULE_KEY, LazyPath.ofInstance(output)).get();
+
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(DATA, Files.readAllBytes(output));
+    assertEquals(2, fetches.get());
+  }
+
+  @Test
+  public void prefetchThatThrowsIsRetriedOnFetch() throws Exception {
+    AtomicInteger fetches = new AtomicInteger();
+    InMemoryArtifactCache delegate =
+        new InMemoryArtifactCache() {
+          @Override
+          public ListenableFuture<CacheResult> fetchAsync(
+              BuildTarget target, RuleKey ruleKey, LazyPath output) {
+            if (fetches.getAndIncrement() == 0) {
+              return Futures.immediateFailedFuture(new IOException("connection reset"));
+            }
+            return super.fetchAsync(target, ruleKey, output);
+          }
+        };
+    delegate.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY).build(), DATA);
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(delegate, 1024);
+
+    assertTrue(cache.prefetch(null, RULE_KEY, filesystem));
+    Path output = tmp.getRoot().resolve("output");
+    CacheResult result = cache.fetchAsync(null, RULE_KEY, LazyPath.ofInstance(output)).get();
+
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(DATA, Files.readAllBytes(output));
+    assertEquals(2, fetches.get());
+  }
+
+  @Test
+  public void failedPrefetchesDoNotUseUpInFlightSlots() throws Exception {
+    InMemoryArtifactCache delegate =
+        new InMemoryArtifactCache() {
+          @Override
+          public ListenableFuture<CacheResult> fetchAsync(
+              BuildTarget target, RuleKey ruleKey, LazyPath output) {
+            return Futures.immediateFailedFuture(new IOException("connection reset"));
+          }
+        };
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(delegate, 1024);
+
+    for (int i = 0; i <= PrefetchingArtifactCache.MAX_PREFETCHES_IN_FLIGHT; i++) {
+      RuleKey ruleKey = new RuleKey(String.format("%040x", i));
+      assertTrue(cache.prefetch(null, ruleKey, filesystem));
+    }
+  }
+
+  @Test
+  public void artifactsAreStagedUnderBuckOut() throws Exception {
+    CountingArtifactCache delegate = new CountingArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY).build(), DATA);
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(delegate, 1024);
+
+    assertTrue(cache.prefetch(null, RULE_KEY, filesystem));
+
+    Path stagingPath = delegate.outputs.get(0);
+    assertTrue(stagingPath.startsWith(filesystem.resolve(filesystem.getBuckPaths().getTmpDir())));
+    // Wait for the prefetch to land.
+    cache.fetchAsync(null, RULE_KEY2, LazyPath.ofInstance(tmp.getRoot().resolve("other"))).get();
+    assertTrue(Files.exists(stagingPath));
+
+    cache.discardStagedArtifacts();
+    assertFalse(Files.exists(stagingPath));
+  }
+
+  @Test
+  public void prefetchesInFlightReserveTheirShareOfTheBudget() {
+    InMemoryArtifactCache delegate =
+        new InMemoryArtifactCache() {
+          @Override
+          public ListenableFuture<CacheResult> fetchAsync(
+              BuildTarget target, RuleKey ruleKey, LazyPath output) {
+            return SettableFuture.create();
+          }
+        };
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(delegate, 2);
+
+    assertTrue(cache.prefetch(null, RULE_KEY, filesystem));
+    assertTrue(cache.prefetch(null, RULE_KEY2, filesystem));
+    assertEquals(2, cache.getStagedBytes());
+    assertFalse(cache.prefetch(null, new RuleKey(String.format("%040x", 3)), filesystem));
+  }
+
+  @Test
+  public void artifactsThatDoNotFitInTheBudgetAreFetchedAgain() throws Exception {
+    CountingArtifactCache delegate = new CountingArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY).build(), DATA);
+    PrefetchingArtifactCache cache = new PrefetchingArtifactCache(delegate, DATA.length - 1);
+
+    assertTrue(cache.prefetch(null, RULE_KEY, filesystem));
+
+    Path output = tmp.getRoot().resolve("output");
+    CacheResult result = cache.fetchAsync(null, RULE_KEY, LazyPath.ofInstance(output)).get();
+
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(DATA, Files.readAllBytes(output));
+    assertEquals(2, delegate.fetches.get());
+    assertFalse(Files.exists(delegate.outputs.get(0)));
+    assertEquals(0, cache.getStagedBytes());
+  }
+}
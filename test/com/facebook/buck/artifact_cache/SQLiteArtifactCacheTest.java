@@ -112,6 +112,20 @@ public class SQLiteArtifactCacheTest {
         CacheReadMode.READWRITE);
   }
 
+  private SQLiteArtifactCache shardedCache(Optional<Long> maxCacheSizeBytes, int shards)
+      throws IOException, SQLException {
+    return new SQLiteArtifactCache(
+        "sqlite",
+        filesystem,
+        cacheDir,
+        BuckEventBusForTests.newInstance(),
+        maxCacheSizeBytes,
+        Optional.of(MAX_INLINED_BYTES),
+        CacheReadMode.READWRITE,
+        shards,
+        2);
+  }
+
   /**
    * Writes an artifact small enough to inline in the database.
    *
@@ -467,4 +481,62 @@ public class SQLiteArtifactCacheTest {
         cacheDir.resolve("45").resolve("67").resolve("456789abcdef"),
         artifactCache.getArtifactPath(new RuleKey("456789abcdef")));
   }
+
+  @Test
+  public void testShardedStoreAndFetchHit() throws IOException, SQLException {
+    artifactCache = shardedCache(Optional.empty(), 4);
+    writeInlinedArtifact(fileA);
+    writeFileArtifact(fileB);
+
+    artifactCache.store(
+        ArtifactInfo.builder()
+            .addRuleKeys(ruleKeyA, ruleKeyB, ruleKeyC)
+            .putMetadata(BuildInfo.MetadataKey.TARGET, "foo")
+            .build(),
+        BorrowablePath.notBorrowablePath(fileA));
+    artifactCache.store(artifactInfoB, BorrowablePath.notBorrowablePath(fileB));
+
+    for (RuleKey ruleKey : ImmutableList.of(ruleKeyA, ruleKeyB, ruleKeyC)) {
+      CacheResult result = Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKey, output));
+      assertEquals(CacheResultType.HIT, result.getType());
+      assertEquals("foo", result.getMetadata().get(BuildInfo.MetadataKey.TARGET));
+      assertArrayEquals(Files.readAllBytes(fileA), Files.readAllBytes(output.get()));
+    }
+
+    CacheResult result = Futures.getUnchecked(artifactCache.fetchAsync(null, contentHashB, output));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(Files.readAllBytes(fileB), Files.readAllBytes(output.get()));
+
+    assertThat(
+        artifactCache.metadataRuleKeys(),
+        Matchers.containsInAnyOrder(ruleKeyA, ruleKeyB, ruleKeyC));
+    assertThat(artifactCache.directoryFileContentHashes(), Matchers.contains(contentHashB));
+    assertTrue(Files.exists(cacheDir.resolve("dircache-0-of-4.db")));
+    assertFalse(Files.exists(cacheDir.resolve("dircache.db")));
+  }
+
+  @Test
+  public void testShardedDeleteAfterStoreWhenFull() throws Exception {
+    artifactCache = shardedCache(Optional.of(2 * MAX_INLINED_BYTES), 3);
+
+    writeFileArtifact(fileA);
+    writeFileArtifact(fileB);
+    writeFileArtifact(fileC);
+
+    artifactCache.insertContent(
+        contentHashA,
+        BorrowablePath.borrowablePath(fileA),
+        Timestamp.from(Instant.now().minus(Duration.ofDays(3))));
+    artifactCache.insertContent(
+        contentHashB,
+        BorrowablePath.borrowablePath(fileB),
+        Timestamp.from(Instant.now().minus(Duration.ofDays(2))));
+    artifactCache.store(artifactInfoC, BorrowablePath.notBorrowablePath(fileC));
+    assertThat(artifactCache.directoryFileContentHashes(), Matchers.hasSize(3));
+
+    artifactCache.removeOldContent().get();
+    ImmutableList<RuleKey> filesNotDeleted = artifactCache.directoryFileContentHashes();
+    assertThat(filesNotDeleted, Matchers.hasSize(Matchers.lessThan(3)));
+    assertThat(filesNotDeleted, Matchers.hasItem(contentHashC));
+  }
 }
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.core.build.engine.impl;
 
+import com.facebook.buck.artifact_cache.config.ArtifactFormat;
 import com.facebook.buck.core.build.action.resolver.BuildEngineActionToBuildRuleResolver;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
 import com.facebook.buck.core.build.engine.config.ResourceAwareSchedulingInfo;
@@ -23,6 +24,7 @@ import com.facebook.buck.core.build.engine.delegate.CachingBuildEngineDelegate;
 import com.facebook.buck.core.build.engine.delegate.LocalCachingBuildEngineDelegate;
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
+import com.facebook.buck.core.build.stats.BuildRuleDurationStore;
 import com.facebook.buck.core.cell.TestCellPathResolver;
 import com.facebook.buck.core.model.TargetConfigurationSerializer;
 import com.facebook.buck.core.model.TargetConfigurationSerializerForTests;
@@ -49,6 +51,10 @@ public class CachingBuildEngineFactory {
   private DepFiles depFiles = DepFiles.ENABLED;
   private long maxDepFileCacheEntries = 256L;
   private Optional<Long> artifactCacheSizeLimit = Optional.empty();
+  private Optional<Long> artifactPrefetchSizeLimit = Optional.empty();
+  private ArtifactFormat artifactFormat = ArtifactFormat.TAR_ZSTD;
+  private boolean lazyCacheMaterialization = false;
+  private Optional<BuildRuleDurationStore> buildRuleDurationStore = Optional.empty();
   private long inputFileSizeLimit = Long.MAX_VALUE;
   private Optional<RuleKeyFactories> ruleKeyFactories = Optional.empty();
   private CachingBuildEngineDelegate cachingBuildEngineDelegate;
@@ -93,6 +99,28 @@ public class CachingBuildEngineFactory {
     return this;
   }
 
+  public CachingBuildEngineFactory setArtifactPrefetchSizeLimit(
+      Optional<Long> artifactPrefetchSizeLimit) {
+    this.artifactPrefetchSizeLimit = artifactPrefetchSizeLimit;
+    return this;
+  }
+
+  public CachingBuildEngineFactory setArtifactFormat(ArtifactFormat artifactFormat) {
+    this.artifactFormat = artifactFormat;
+    return this;
+  }
+
+  public CachingBuildEngineFactory setLazyCacheMaterialization(boolean lazyCacheMaterialization) {
+    this.lazyCacheMaterialization = lazyCacheMaterialization;
+    return this;
+  }
+
+  public CachingBuildEngineFactory setBuildRuleDurationStore(
+      BuildRuleDurationStore buildRuleDurationStore) {
+    this.buildRuleDurationStore = Optional.of(buildRuleDurationStore);
+    return this;
+  }
+
   public CachingBuildEngineFactory setCachingBuildEngineDelegate(
       CachingBuildEngineDelegate cachingBuildEngineDelegate) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
@@ -145,6 +173,10 @@ public class CachingBuildEngineFactory {
           depFiles,
           maxDepFileCacheEntries,
           artifactCacheSizeLimit,
+          artifactPrefetchSizeLimit,
+          artifactFormat,
+          lazyCacheMaterialization,
+          buildRuleDurationStore,
           buildRuleResolver,
           buildInfoStoreManager,
           actionToBuildRuleResolver,
@@ -164,6 +196,10 @@ public class CachingBuildEngineFactory {
         depFiles,
         maxDepFileCacheEntries,
         artifactCacheSizeLimit,
+        artifactPrefetchSizeLimit,
+        artifactFormat,
+        lazyCacheMaterialization,
+        buildRuleDurationStore,
         buildRuleResolver,
         actionToBuildRuleResolver,
         targetConfigurationSerializer,
@@ -59,6 +59,7 @@ import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoRecorder;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
 import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
+import com.facebook.buck.core.build.engine.cache.manager.BuildCacheArtifactMaterializer;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
 import com.facebook.buck.core.build.engine.cache.manager.ManifestRuleKeyManagerTestUtil;
 import com.facebook.buck.core.build.engine.delegate.CachingBuildEngineDelegate;
@@ -1680,6 +1681,74 @@ public class CachingBuildEngineTest {
         assertTrue(fakeFileHashCache.contains(filesystem.resolve(output)));
       }
     }
+
+    @Test
+    public void lazyCacheMaterializationOnlyUnpacksOutputsThatAreRead() throws Exception {
+      BuildTarget depTarget = BuildTargetFactory.newInstance("//:dep");
+      Path depOutput = filesystem.getPath("output/dep");
+      BuildRule dep =
+          new WriteFile(depTarget, filesystem, "dep contents", depOutput, /* executable */ false);
+      graphBuilder.addToIndex(dep);
+      BuildRule rule =
+          createRule(
+              filesystem,
+              graphBuilder,
+              /* deps */ ImmutableSortedSet.of(dep),
+              /* buildSteps */ ImmutableList.of(),
+              /* postBuildSteps */ ImmutableList.of(),
+              /* pathToOutputFile */ null,
+              ImmutableList.of());
+
+      // Run an initial build to seed the cache.
+      try (CachingBuildEngine cachingBuildEngine = cachingBuildEngineFactory().build()) {
+        BuildResult result =
+            cachingBuildEngine
+                .build(buildContext, TestExecutionContext.newInstance(), rule)
+                .getResult()
+                .get();
+        assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, result.getSuccess());
+
+        // Clear the file system.
+        filesystem.deleteRecursivelyIfExists(Paths.get(""));
+        buildInfoStore.deleteMetadata(depTarget);
+        buildInfoStore.deleteMetadata(rule.getBuildTarget());
+      }
+
+      // Fetch both rules from the cache. The top-level rule is fetched as well, so nothing reads
+      // the outputs of its dep.
+      try (CachingBuildEngine cachingBuildEngine =
+          cachingBuildEngineFactory()
+              .setBuildMode(BuildType.DEEP)
+              .setLazyCacheMaterialization(true)
+              .build()) {
+        BuildResult result =
+            cachingBuildEngine
+                .build(buildContext, TestExecutionContext.newInstance(), rule)
+                .getResult()
+                .get();
+        assertEquals(BuildRuleSuccessType.FETCHED_FROM_CACHE, result.getSuccess());
+        assertEquals(
+            BuildRuleSuccessType.FETCHED_FROM_CACHE,
+            cachingBuildEngine.getBuildRuleResult(depTarget).getSuccess());
+        assertFalse(filesystem.exists(depOutput));
+        assertTrue(
+            filesystem.exists(BuildCacheArtifactMaterializer.getPendingArtifactPath(dep)));
+      }
+
+      // Asking for the dep itself unpacks its outputs.
+      try (CachingBuildEngine cachingBuildEngine =
+          cachingBuildEngineFactory().setLazyCacheMaterialization(true).build()) {
+        BuildResult result =
+            cachingBuildEngine
+                .build(buildContext, TestExecutionContext.newInstance(), dep)
+                .getResult()
+                .get();
+        assertEquals(BuildRuleSuccessType.MATCHING_RULE_KEY, result.getSuccess());
+        assertEquals(Optional.of("dep contents"), filesystem.readFileIfItExists(depOutput));
+        assertFalse(
+            filesystem.exists(BuildCacheArtifactMaterializer.getPendingArtifactPath(dep)));
+      }
+    }
   }
 
   public static class InputBasedRuleKeyTests extends CommonFixture {
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.build.action.resolver.BuildEngineActionToBuildRuleResolver;
+import com.facebook.buck.core.build.stats.BuildRuleDurationStore;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CriticalPathSchedulerTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private BuildRuleDurationStore durationStore;
+  private CriticalPathScheduler scheduler;
+  private BuildRule leaf;
+  private BuildRule shared;
+  private BuildRule lib;
+  private BuildRule mid;
+  private BuildRule top1;
+  private BuildRule top2;
+
+  // Rules depend on rules below them:
+  //
+  // top1     top2
+  //  |  \     |
+  // lib  mid  |
+  //  |     \  |
+  // leaf   shared
+  @Before
+  public void setUp() {
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    leaf = graphBuilder.addToIndex(new FakeBuildRule("//:leaf"));
+    shared = graphBuilder.addToIndex(new FakeBuildRule("//:shared"));
+    lib = graphBuilder.addToIndex(new FakeBuildRule("//:lib", leaf));
+    mid = graphBuilder.addToIndex(new FakeBuildRule("//:mid", shared));
+    top1 = graphBuilder.addToIndex(new FakeBuildRule("//:top1", lib, mid));
+    top2 = graphBuilder.addToIndex(new FakeBuildRule("//:top2", shared));
+
+    durationStore = BuildRuleDurationStore.load(tmp.getRoot().resolve("rule_durations"));
+    scheduler =
+        new CriticalPathScheduler(
+            new DefaultRuleDepsCache(graphBuilder, new BuildEngineActionToBuildRuleResolver()),
+            durationStore);
+  }
+
+  private void recordDurations() {
+    scheduler.recordDuration(top1, 10);
+    scheduler.recordDuration(top2, 1000);
+    scheduler.recordDuration(lib, 100);
+    scheduler.recordDuration(mid, 5);
+    scheduler.recordDuration(leaf, 50);
+    scheduler.recordDuration(shared, 20);
+  }
+
+  @Test
+  public void prioritiesAreRemainingCriticalPaths() {
+    recordDurations();
+    scheduler.addTopLevelRule(top1);
+    scheduler.addTopLevelRule(top2);
+
+    assertEquals(10, scheduler.getPriority(top1));
+    assertEquals(1000, scheduler.getPriority(top2));
+    assertEquals(110, scheduler.getPriority(lib));
+    assertEquals(15, scheduler.getPriority(mid));
+    assertEquals(160, scheduler.getPriority(leaf));
+    assertEquals(1020, scheduler.getPriority(shared));
+  }
+
+  @Test
+  public void prioritiesAreUpdatedWithNewTopLevelRules() {
+    recordDurations();
+    scheduler.addTopLevelRule(top1);
+    assertEquals(35, scheduler.getPriority(shared));
+
+    scheduler.addTopLevelRule(top2);
+    assertEquals(1020, scheduler.getPriority(shared));
+    assertEquals(160, scheduler.getPriority(leaf));
+  }
+
+  @Test
+  public void topLevelRulesAddedTogetherArePrioritizedTogether() {
+    recordDurations();
+    scheduler.addTopLevelRules(ImmutableList.of(top1, top2));
+
+    assertEquals(1020, scheduler.getPriority(shared));
+    assertEquals(160, scheduler.getPriority(leaf));
+  }
+
+  @Test
+  public void newTopLevelRulesOnlyRaisePriorities() {
+    recordDurations();
+    scheduler.addTopLevelRule(top2);
+    scheduler.addTopLevelRule(mid);
+    assertEquals(1020, scheduler.getPriority(shared));
+    assertEquals(5, scheduler.getPriority(mid));
+
+    scheduler.addTopLevelRule(top1);
+    assertEquals(1020, scheduler.getPriority(shared));
+    assertEquals(15, scheduler.getPriority(mid));
+    assertEquals(160, scheduler.getPriority(leaf));
+  }
+
+  @Test
+  public void rulesWithoutHistoryTakeTheAverageDuration() {
+    scheduler.recordDuration(leaf, 30);
+    scheduler.recordDuration(shared, 10);
+    scheduler.addTopLevelRule(top1);
+
+    assertEquals(20, scheduler.getPriority(top1));
+    assertEquals(40, scheduler.getPriority(lib));
+    assertEquals(70, scheduler.getPriority(leaf));
+    assertEquals(50, scheduler.getPriority(shared));
+    // Rules that aren't deps of top-level ones only have their own duration.
+    assertEquals(20, scheduler.getPriority(new FakeBuildRule("//:other")));
+  }
+}
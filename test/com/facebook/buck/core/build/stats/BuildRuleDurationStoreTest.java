@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalLong;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BuildRuleDurationStoreTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path path;
+  private BuildTarget library;
+  private BuildTarget binary;
+
+  @Before
+  public void setUp() {
+    path = tmp.getRoot().resolve("buck-out/rule_durations");
+    library = BuildTargetFactory.newInstance("//foo:lib#flavor");
+    binary = BuildTargetFactory.newInstance("//foo:bin");
+  }
+
+  @Test
+  public void recordsMovingAverageOfDurations() {
+    BuildRuleDurationStore store = BuildRuleDurationStore.load(path);
+    assertEquals(OptionalLong.empty(), store.getDurationMillis(library));
+    assertEquals(0, store.getAverageDurationMillis());
+
+    store.record(library, 100);
+    assertEquals(OptionalLong.of(100), store.getDurationMillis(library));
+    store.record(library, 300);
+    assertEquals(OptionalLong.of(200), store.getDurationMillis(library));
+
+    store.record(binary, 1000);
+    assertEquals(600, store.getAverageDurationMillis());
+  }
+
+  @Test
+  public void savedDurationsAreLoaded() {
+    BuildRuleDurationStore store = BuildRuleDurationStore.load(path);
+    store.record(library, 100);
+    store.record(binary, 2000);
+    store.save();
+
+    BuildRuleDurationStore loaded = BuildRuleDurationStore.load(path);
+    assertEquals(OptionalLong.of(100), loaded.getDurationMillis(library));
+    assertEquals(OptionalLong.of(2000), loaded.getDurationMillis(binary));
+  }
+
+  @Test
+  public void nothingIsWrittenWithoutNewDurations() {
+    BuildRuleDurationStore.load(path).save();
+
+    assertFalse(Files.exists(path));
+  }
+
+  @Test
+  public void unreadableDurationsAreIgnored() throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, "not durations\n".getBytes(StandardCharsets.UTF_8));
+
+    BuildRuleDurationStore store = BuildRuleDurationStore.load(path);
+    assertEquals(OptionalLong.empty(), store.getDurationMillis(library));
+
+    store.record(library, 100);
+    store.save();
+    assertEquals(
+        OptionalLong.of(100), BuildRuleDurationStore.load(path).getDurationMillis(library));
+  }
+}
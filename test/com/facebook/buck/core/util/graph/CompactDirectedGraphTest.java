@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.Test;
+
+public class CompactDirectedGraphTest {
+
+  //     A
+  //   /   \
+  //  B     C
+  //   \   / \
+  //     D    E
+  private static MutableDirectedGraph<String> makeMutableGraph() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addNode("E");
+    graph.addEdge("A", "C");
+    graph.addEdge("A", "B");
+    graph.addEdge("C", "D");
+    graph.addEdge("B", "D");
+    graph.addEdge("C", "E");
+    return graph;
+  }
+
+  private static List<String> getNodes(CompactDirectedGraph<String> graph, int... ids) {
+    List<String> nodes = new ArrayList<>();
+    for (int id : ids) {
+      nodes.add(graph.getNode(id));
+    }
+    return nodes;
+  }
+
+  @Test
+  public void keepsNodesAndEdgesInOrder() {
+    MutableDirectedGraph<String> mutableGraph = makeMutableGraph();
+    CompactDirectedGraph<String> graph = CompactDirectedGraph.copyOf(mutableGraph);
+
+    assertEquals(5, graph.getNodeCount());
+    assertEquals(5, graph.getEdgeCount());
+    assertEquals(ImmutableList.copyOf(mutableGraph.getNodes()), graph.getNodes().asList());
+    for (String node : mutableGraph.getNodes()) {
+      int id = graph.getNodeId(node);
+      assertEquals(node, graph.getNode(id));
+      assertEquals(
+          ImmutableList.copyOf(mutableGraph.getOutgoingNodesFor(node)),
+          ImmutableList.copyOf(graph.getOutgoingNodesFor(node)));
+      assertEquals(
+          ImmutableList.copyOf(mutableGraph.getIncomingNodesFor(node)),
+          ImmutableList.copyOf(graph.getIncomingNodesFor(node)));
+    }
+
+    int a = graph.getNodeId("A");
+    assertEquals(2, graph.getOutgoingNodeCount(a));
+    assertEquals("C", graph.getNode(graph.getOutgoingNodeId(a, 0)));
+    assertEquals("B", graph.getNode(graph.getOutgoingNodeId(a, 1)));
+    List<String> sources = new ArrayList<>();
+    graph.forEachIncomingNodeId(graph.getNodeId("D"), id -> sources.add(graph.getNode(id)));
+    assertEquals(ImmutableList.of("C", "B"), sources);
+
+    assertEquals(ImmutableSet.of("D", "E"), graph.getNodesWithNoOutgoingEdges());
+    assertEquals(ImmutableSet.of("A"), graph.getNodesWithNoIncomingEdges());
+  }
+
+  @Test
+  public void edgeLookupsAreSetsOfTheNodes() {
+    CompactDirectedGraph<String> graph = CompactDirectedGraph.copyOf(makeMutableGraph());
+
+    assertEquals(ImmutableSet.of("B", "C"), graph.getOutgoingNodesFor("A"));
+    assertEquals(ImmutableSet.of("B", "C").hashCode(), graph.getOutgoingNodesFor("A").hashCode());
+    assertTrue(graph.getIncomingNodesFor("D").contains("B"));
+    assertFalse(graph.getIncomingNodesFor("D").contains("A"));
+    assertFalse(graph.getIncomingNodesFor("D").contains("F"));
+    assertEquals(ImmutableSet.of(), graph.getOutgoingNodesFor("E"));
+  }
+
+  @Test
+  public void nodesNotInGraphHaveNoIdAndNoEdges() {
+    CompactDirectedGraph<String> graph = CompactDirectedGraph.copyOf(makeMutableGraph());
+
+    assertEquals(CompactDirectedGraph.NO_NODE, graph.getNodeId("F"));
+    assertEquals(ImmutableSet.of(), graph.getOutgoingNodesFor("F"));
+    assertEquals(ImmutableSet.of(), graph.getIncomingNodesFor("F"));
+  }
+
+  @Test
+  public void topologicalOrderMatchesTopologicalSort() {
+    MutableDirectedGraph<String> mutableGraph = makeMutableGraph();
+    CompactDirectedGraph<String> graph = CompactDirectedGraph.copyOf(mutableGraph);
+
+    assertTrue(graph.isAcyclic());
+    assertEquals(TopologicalSort.sort(mutableGraph), getNodes(graph, graph.getTopologicalOrder()));
+  }
+
+  @Test
+  public void detectsCycles() {
+    MutableDirectedGraph<String> mutableGraph = makeMutableGraph();
+    mutableGraph.addEdge("D", "A");
+    assertFalse(CompactDirectedGraph.copyOf(mutableGraph).isAcyclic());
+
+    MutableDirectedGraph<String> selfLoop = new MutableDirectedGraph<>();
+    selfLoop.addEdge("A", "A");
+    assertFalse(CompactDirectedGraph.copyOf(selfLoop).isAcyclic());
+  }
+
+  @Test
+  public void findsReachableNodes() {
+    CompactDirectedGraph<String> graph = CompactDirectedGraph.copyOf(makeMutableGraph());
+
+    BitSet reachable = graph.getReachableNodeIds(graph.getNodeId("C"));
+    assertEquals(
+        ImmutableSet.of("C", "D", "E"),
+        ImmutableSet.copyOf(getNodes(graph, reachable.stream().toArray())));
+  }
+
+  @Test
+  public void equalityDoesNotDependOnOrder() {
+    MutableDirectedGraph<String> reordered = new MutableDirectedGraph<>();
+    reordered.addEdge("C", "E");
+    reordered.addEdge("B", "D");
+    reordered.addEdge("A", "B");
+    reordered.addEdge("C", "D");
+    reordered.addEdge("A", "C");
+
+    CompactDirectedGraph<String> graph = CompactDirectedGraph.copyOf(makeMutableGraph());
+    CompactDirectedGraph<String> other = CompactDirectedGraph.copyOf(reordered);
+    assertEquals(graph, other);
+    assertEquals(graph.hashCode(), other.hashCode());
+
+    reordered.removeEdge("C", "E");
+    assertFalse(graph.equals(CompactDirectedGraph.copyOf(reordered)));
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+public class DirectedAcyclicGraphTest {
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectsCycles() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addEdge("A", "B");
+    graph.addEdge("B", "A");
+    new DirectedAcyclicGraph<>(graph);
+  }
+
+  @Test
+  public void rejectsEdgesFromANodeToItselfLikeMutableDirectedGraph() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addEdge("A", "B");
+    graph.addEdge("B", "B");
+    assertFalse(graph.isAcyclic());
+
+    try {
+      new DirectedAcyclicGraph<>(graph);
+      fail("Expected a graph with an edge from a node to itself to be rejected.");
+    } catch (IllegalStateException e) {
+      assertEquals("Graph must by acyclic", e.getMessage());
+    }
+  }
+
+  @Test
+  public void keepsEdgesAndSortsLikeTopologicalSort() {
+    MutableDirectedGraph<String> mutableGraph = new MutableDirectedGraph<>();
+    mutableGraph.addEdge("A", "B");
+    mutableGraph.addEdge("A", "C");
+    mutableGraph.addEdge("B", "C");
+    DirectedAcyclicGraph<String> graph = new DirectedAcyclicGraph<>(mutableGraph);
+
+    assertEquals(ImmutableSet.of("B", "C"), graph.getOutgoingNodesFor("A"));
+    assertEquals(ImmutableSet.of("A", "B"), graph.getIncomingNodesFor("C"));
+    assertEquals(ImmutableList.of("C", "B", "A"), TopologicalSort.sort(graph));
+  }
+}
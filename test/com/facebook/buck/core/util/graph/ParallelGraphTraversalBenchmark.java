@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares {@link AbstractBottomUpTraversal} with {@link ParallelGraphTraversal} on a synthetic
+ * graph of a million nodes, each with edges to a few nodes created before it, doing a given amount
+ * of work per node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ParallelGraphTraversalBenchmark {
+
+  private static final int NODE_COUNT = 1_000_000;
+  private static final int MAX_EDGE_COUNT = 4;
+
+  /** How much work is done when visiting each node, in {@link Blackhole#consumeCPU} tokens. */
+  @Param({"0", "500"})
+  public long workPerNode;
+
+  private DirectedAcyclicGraph<Integer> graph;
+  private ForkJoinPool pool;
+
+  @Setup(Level.Trial)
+  public void setUpGraph() {
+    Random random = new Random(0);
+    MutableDirectedGraph<Integer> mutableGraph = new MutableDirectedGraph<>();
+    for (int node = 0; node < NODE_COUNT; node++) {
+      mutableGraph.addNode(node);
+      int edgeCount = node == 0 ? 0 : random.nextInt(MAX_EDGE_COUNT + 1);
+      for (int i = 0; i < edgeCount; i++) {
+        // Mostly near nodes, as with the targets of a package, and sometimes far ones.
+        int distance = random.nextInt(10) == 0 ? random.nextInt(node) : random.nextInt(100);
+        mutableGraph.addEdge(node, Math.max(0, node - 1 - distance));
+      }
+    }
+    graph = new DirectedAcyclicGraph<>(mutableGraph);
+    pool = new ForkJoinPool();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownPool() {
+    pool.shutdownNow();
+  }
+
+  @Benchmark
+  public void sequential() {
+    new AbstractBottomUpTraversal<Integer, RuntimeException>(graph) {
+      @Override
+      public void visit(Integer node) {
+        Blackhole.consumeCPU(workPerNode);
+      }
+    }.traverse();
+  }
+
+  @Benchmark
+  public void parallel() throws CycleException, InterruptedException {
+    ParallelGraphTraversal.of(graph, pool)
+        .traverseBottomUp(node -> Blackhole.consumeCPU(workPerNode));
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
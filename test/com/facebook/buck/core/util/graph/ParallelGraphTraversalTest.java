@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelGraphTraversalTest {
+
+  private ForkJoinPool pool;
+
+  @Before
+  public void setUp() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  /** A graph where node {@code i} has edges to a few nodes with lower numbers. */
+  private static DirectedAcyclicGraph<Integer> makeGraph(int nodeCount) {
+    MutableDirectedGraph<Integer> graph = new MutableDirectedGraph<>();
+    for (int i = 0; i < nodeCount; i++) {
+      graph.addNode(i);
+      for (int j = 1; j <= 3 && i - j * j >= 0; j++) {
+        graph.addEdge(i, i - j * j);
+      }
+    }
+    return new DirectedAcyclicGraph<>(graph);
+  }
+
+  @Test
+  public void visitsEachNodeAfterItsDependencies() throws Exception {
+    DirectedAcyclicGraph<Integer> graph = makeGraph(2000);
+    Set<Integer> visited = ConcurrentHashMap.newKeySet();
+
+    ParallelGraphTraversal.of(graph, pool)
+        .traverseBottomUp(
+            node -> {
+              for (Integer dep : graph.getOutgoingNodesFor(node)) {
+                assertTrue(visited.contains(dep));
+              }
+              assertTrue(visited.add(node));
+            });
+
+    assertEquals(graph.getNodes(), visited);
+  }
+
+  @Test
+  public void visitsEachNodeAfterItsDependents() throws Exception {
+    DirectedAcyclicGraph<Integer> graph = makeGraph(2000);
+    Set<Integer> visited = ConcurrentHashMap.newKeySet();
+
+    ParallelGraphTraversal.of(graph, pool)
+        .traverseTopDown(
+            node -> {
+              for (Integer dependent : graph.getIncomingNodesFor(node)) {
+                assertTrue(visited.contains(dependent));
+              }
+              assertTrue(visited.add(node));
+            });
+
+    assertEquals(graph.getNodes(), visited);
+  }
+
+  @Test
+  public void failedVisitStopsNodesDependingOnIt() throws Exception {
+    DirectedAcyclicGraph<Integer> graph = makeGraph(100);
+    Set<Integer> visited = ConcurrentHashMap.newKeySet();
+
+    try {
+      ParallelGraphTraversal.of(graph, pool)
+          .traverseBottomUp(
+              node -> {
+                if (node == 10) {
+                  throw new IOException("failed on " + node);
+                }
+                visited.add(node);
+              });
+      fail("Expected the failure of the visitor to be thrown.");
+    } catch (IOException e) {
+      assertEquals("failed on 10", e.getMessage());
+    }
+    assertFalse(visited.contains(11));
+    assertFalse(visited.contains(99));
+  }
+
+  @Test
+  public void reportsTheSameCycleEveryTime() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addEdge("a", "b");
+    graph.addEdge("b", "c");
+    graph.addEdge("c", "d");
+    graph.addEdge("d", "b");
+    graph.addEdge("c", "e");
+    graph.addEdge("e", "c");
+
+    for (int i = 0; i < 3; i++) {
+      try {
+        ParallelGraphTraversal.of(graph, pool);
+        fail("Expected a cycle to be found.");
+      } catch (CycleException e) {
+        assertEquals(ImmutableList.of("b", "c", "d", "b"), e.getCycle());
+      }
+    }
+  }
+}
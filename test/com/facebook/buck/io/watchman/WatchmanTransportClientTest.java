@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io.watchman;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.bser.BserDeserializer;
+import com.facebook.buck.util.bser.BserSerializer;
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class WatchmanTransportClientTest {
+
+  private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  private WatchmanTransportClient client;
+
+  @After
+  public void tearDown() throws IOException {
+    if (client != null) {
+      client.close();
+    }
+  }
+
+  private static Optional<? extends Map<String, ? extends Object>> echo(String id) {
+    return Optional.of(ImmutableMap.of("echo", ImmutableList.of("echo", id)));
+  }
+
+  @Test
+  public void batchIsSentBeforeResponsesAreRead() throws Exception {
+    // Nothing is answered until the whole batch was received.
+    client =
+        new WatchmanTransportClient(
+            new TestConsole(), new DefaultClock(), new FakeWatchmanTransport(3, false));
+
+    List<Optional<? extends Map<String, ? extends Object>>> responses =
+        client.queryBatchWithTimeout(
+            TIMEOUT_NANOS,
+            ImmutableList.of(
+                ImmutableList.of("echo", "0"),
+                ImmutableList.of("echo", "1"),
+                ImmutableList.of("echo", "2")));
+
+    assertEquals(ImmutableList.of(echo("0"), echo("1"), echo("2")), responses);
+  }
+
+  @Test
+  public void concurrentQueriesGetTheirOwnResponses() throws Exception {
+    client =
+        new WatchmanTransportClient(
+            new TestConsole(), new DefaultClock(), new FakeWatchmanTransport(1, false));
+
+    ExecutorService executorService = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < 4; thread++) {
+        int threadId = thread;
+        futures.add(
+            executorService.submit(
+                () -> {
+                  for (int i = 0; i < 50; i++) {
+                    String id = threadId + ":" + i;
+                    assertEquals(echo(id), client.queryWithTimeout(TIMEOUT_NANOS, "echo", id));
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  @Test
+  public void unilateralMessagesAreSkipped() throws Exception {
+    client =
+        new WatchmanTransportClient(
+            new TestConsole(), new DefaultClock(), new FakeWatchmanTransport(1, true));
+
+    assertEquals(echo("0"), client.queryWithTimeout(TIMEOUT_NANOS, "echo", "0"));
+    assertEquals(echo("1"), client.queryWithTimeout(TIMEOUT_NANOS, "echo", "1"));
+  }
+
+  @Test
+  public void onlyUnansweredQueriesOfABatchTimeOut() throws Exception {
+    client =
+        new WatchmanTransportClient(
+            new TestConsole(), new DefaultClock(), new FakeWatchmanTransport(1, false, 2));
+
+    List<Optional<? extends Map<String, ? extends Object>>> responses =
+        client.queryBatchWithTimeout(
+            TimeUnit.MILLISECONDS.toNanos(200),
+            ImmutableList.of(
+                ImmutableList.of("echo", "0"),
+                ImmutableList.of("echo", "1"),
+                ImmutableList.of("echo", "2")));
+
+    assertEquals(ImmutableList.of(echo("0"), echo("1"), Optional.empty()), responses);
+  }
+
+  /**
+   * Answers the first {@code maxAnswers} queries with {@code {"echo": query}}, once {@code
+   * queriesPerAnswer} queries have been received, optionally preceding each answer with a log
+   * message.
+   */
+  private static class FakeWatchmanTransport implements Transport {
+    private final int queriesPerAnswer;
+    private final boolean sendLogs;
+    private int answersLeft;
+    private final List<Object> pendingQueries = new ArrayList<>();
+    private final PipedInputStream inputStream = new PipedInputStream(1 << 16);
+    private final PipedOutputStream responseStream;
+    private final BserSerializer serializer = new BserSerializer();
+    private final BserDeserializer deserializer =
+        new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+
+    FakeWatchmanTransport(int queriesPerAnswer, boolean sendLogs) throws IOException {
+      this(queriesPerAnswer, sendLogs, Integer.MAX_VALUE);
+    }
+
+    FakeWatchmanTransport(int queriesPerAnswer, boolean sendLogs, int maxAnswers)
+        throws IOException {
+      this.queriesPerAnswer = queriesPerAnswer;
+      this.sendLogs = sendLogs;
+      this.answersLeft = maxAnswers;
+      this.responseStream = new PipedOutputStream(inputStream);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return new OutputStream() {
+        @Override
+        public void write(int b) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          // Each query is written at once.
+          pendingQueries.add(
+              deserializer.deserializeBserValue(new ByteArrayInputStream(b, off, len)));
+          if (pendingQueries.size() < queriesPerAnswer) {
+            return;
+          }
+          for (Object query : pendingQueries) {
+            if (answersLeft == 0) {
+              break;
+            }
+            answersLeft--;
+            if (sendLogs) {
+              serializer.serializeToStream(
+                  ImmutableMap.of("unilateral", true, "log", "message"), responseStream);
+            }
+            serializer.serializeToStream(ImmutableMap.of("echo", query), responseStream);
+          }
+          pendingQueries.clear();
+        }
+      };
+    }
+
+    @Override
+    public void close() throws IOException {
+      responseStream.close();
+    }
+  }
+}
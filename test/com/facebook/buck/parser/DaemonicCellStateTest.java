@@ -17,6 +17,8 @@
 package com.facebook.buck.parser;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.TestCellBuilder;
@@ -41,7 +43,12 @@ import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -54,6 +61,11 @@ public class DaemonicCellStateTest {
   private DaemonicCellState childState;
 
   private void populateDummyRawNode(DaemonicCellState state, BuildTarget target) {
+    populateDummyRawNode(state, target, ImmutableSet.of());
+  }
+
+  private void populateDummyRawNode(
+      DaemonicCellState state, BuildTarget target, ImmutableSet<Path> dependentsOfEveryNode) {
     state.putBuildFileManifestIfNotPresent(
         target.getCellPath().resolve(target.getBasePath().resolve("BUCK")),
         BuildFileManifestFactory.create(
@@ -62,7 +74,7 @@ public class DaemonicCellStateTest {
                 ImmutableMap.of(
                     "name", target.getShortName(),
                     "buck.base_path", PathFormatter.pathWithUnixSeparators(target.getBasePath())))),
-        ImmutableSet.of(),
+        dependentsOfEveryNode,
         ImmutableMap.of());
   }
 
@@ -154,4 +166,67 @@ public class DaemonicCellStateTest {
         Optional.empty(),
         cache.lookupComputedNode(target.getUnconfiguredBuildTargetView()));
   }
+
+  @Test
+  public void testInvalidatingIncludeInvalidatesDependentBuildFiles() throws BuildTargetException {
+    Cache<UnconfiguredBuildTargetView, UnconfiguredTargetNode> cache =
+        state.getCache(DaemonicCellState.RAW_TARGET_NODE_CACHE_TYPE);
+    BuildTarget target =
+        BuildTargetFactory.newInstance(filesystem.getRootPath(), "//path/to:target");
+    Path buildFile = filesystem.resolve("path/to/BUCK");
+    Path include = filesystem.resolve("defs.bzl");
+
+    populateDummyRawNode(state, target, ImmutableSet.of(buildFile, include));
+    cache.putComputedNodeIfNotPresent(
+        target.getUnconfiguredBuildTargetView(), rawTargetNode("target"));
+    assertTrue(state.pathDependentPresentIn(include, ImmutableSet.of(buildFile)));
+
+    assertEquals(1, state.invalidatePath(include));
+    assertEquals(Optional.empty(), state.lookupBuildFileManifest(buildFile));
+    assertEquals(
+        Optional.empty(), cache.lookupComputedNode(target.getUnconfiguredBuildTargetView()));
+    assertFalse(state.pathDependentPresentIn(include, ImmutableSet.of(buildFile)));
+  }
+
+  @Test
+  public void testConcurrentChangesToDifferentPackages() throws Exception {
+    Cache<UnconfiguredBuildTargetView, UnconfiguredTargetNode> cache =
+        state.getCache(DaemonicCellState.RAW_TARGET_NODE_CACHE_TYPE);
+    Path include = filesystem.resolve("defs.bzl");
+
+    ExecutorService executorService = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < 4; thread++) {
+        BuildTarget target =
+            BuildTargetFactory.newInstance(
+                filesystem.getRootPath(), "//package" + thread + ":target");
+        Path buildFile = filesystem.resolve("package" + thread + "/BUCK");
+        UnconfiguredTargetNode node = rawTargetNode("package" + thread);
+        futures.add(
+            executorService.submit(
+                () -> {
+                  for (int i = 0; i < 500; i++) {
+                    populateDummyRawNode(state, target, ImmutableSet.of(buildFile, include));
+                    cache.putComputedNodeIfNotPresent(
+                        target.getUnconfiguredBuildTargetView(), node);
+                    assertEquals(
+                        Optional.of(node),
+                        cache.lookupComputedNode(target.getUnconfiguredBuildTargetView()));
+
+                    state.invalidatePath(buildFile);
+                    assertEquals(
+                        Optional.empty(),
+                        cache.lookupComputedNode(target.getUnconfiguredBuildTargetView()));
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
 }
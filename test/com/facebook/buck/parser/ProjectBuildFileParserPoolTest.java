@@ -22,6 +22,7 @@ import static org.junit.Assert.fail;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.TestCellBuilder;
 import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.io.watchman.WatchmanFactory;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
@@ -41,6 +42,8 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -68,8 +71,8 @@ public class ProjectBuildFileParserPoolTest {
           ImmutableList.of());
 
   private ProjectBuildFileParserPool createParserPool(
-      int maxParsersPerCell, ProjectBuildFileParserFactory parserFactory) {
-    return new ProjectBuildFileParserPool(maxParsersPerCell, parserFactory, false);
+      int maxParsers, ProjectBuildFileParserFactory parserFactory) {
+    return new ProjectBuildFileParserPool(maxParsers, parserFactory, false);
   }
 
   private void assertHowManyParserInstancesAreCreated(
@@ -344,6 +347,80 @@ public class ProjectBuildFileParserPoolTest {
     }
   }
 
+  @Test
+  public void retiresIdleParsersOfOtherCellsToStayWithinBudget() throws Exception {
+    Cell firstCell =
+        new TestCellBuilder().setFilesystem(new FakeProjectFilesystem(Paths.get("/first"))).build();
+    Cell secondCell =
+        new TestCellBuilder()
+            .setFilesystem(new FakeProjectFilesystem(Paths.get("/second")))
+            .build();
+    List<ProjectBuildFileParser> createdParsers = new ArrayList<>();
+    ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
+    ProjectBuildFileParserFactory parserFactory =
+        createMockParserFactory(() -> EMPTY_BUILD_FILE_MANIFEST);
+    try (ProjectBuildFileParserPool parserPool =
+        createParserPool(
+            /* maxParsers */ 1,
+            (eventBus, input, watchman, threadSafe) -> {
+              ProjectBuildFileParser parser =
+                  parserFactory.createBuildFileParser(eventBus, input, watchman, threadSafe);
+              createdParsers.add(parser);
+              return parser;
+            })) {
+
+      Futures.allAsList(scheduleWork(firstCell, parserPool, executorService, 2)).get();
+      assertThat(createdParsers, Matchers.hasSize(1));
+
+      Futures.allAsList(scheduleWork(secondCell, parserPool, executorService, 2)).get();
+      assertThat(createdParsers, Matchers.hasSize(2));
+      // The parser of the first cell had to be closed for the second cell to get one.
+      EasyMock.verify(createdParsers.get(0));
+    }
+  }
+
+  @Test
+  public void runsMostRecentRequestsFirstWhenParsersAreBusy() throws Exception {
+    Cell cell = new TestCellBuilder().build();
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+    CountDownLatch firstParseStarted = new CountDownLatch(1);
+    CountDownLatch allRequestsMade = new CountDownLatch(1);
+    List<Path> parsedFiles = Collections.synchronizedList(new ArrayList<>());
+    try (ProjectBuildFileParserPool parserPool =
+        createParserPool(
+            /* maxParsers */ 1,
+            createMockParserFactory(
+                () -> {
+                  parsedFiles.add((Path) EasyMock.getCurrentArguments()[0]);
+                  firstParseStarted.countDown();
+                  allRequestsMade.await();
+                  return EMPTY_BUILD_FILE_MANIFEST;
+                }))) {
+
+      List<ListenableFuture<BuildFileManifest>> futures = new ArrayList<>();
+      for (String buildFile : ImmutableList.of("a/BUCK", "b/BUCK", "c/BUCK", "d/BUCK")) {
+        futures.add(
+            parserPool.getBuildFileManifest(
+                BuckEventBusForTests.newInstance(),
+                cell,
+                WatchmanFactory.NULL_WATCHMAN,
+                Paths.get(buildFile),
+                executorService));
+        firstParseStarted.await();
+      }
+      allRequestsMade.countDown();
+
+      Futures.allAsList(futures).get();
+      assertThat(
+          parsedFiles,
+          Matchers.contains(
+              Paths.get("a/BUCK"), Paths.get("d/BUCK"), Paths.get("c/BUCK"), Paths.get("b/BUCK")));
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
   private static ImmutableSet<ListenableFuture<?>> scheduleWork(
       Cell cell,
       ProjectBuildFileParserPool pool,
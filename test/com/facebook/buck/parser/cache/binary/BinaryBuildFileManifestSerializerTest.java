@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
+import com.facebook.buck.parser.cache.json.BuildFileManifestSerializer;
+import com.facebook.buck.parser.exceptions.ImmutableParsingError;
+import com.facebook.buck.parser.syntax.ImmutableListWithSelects;
+import com.facebook.buck.parser.syntax.ImmutableSelectorValue;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class BinaryBuildFileManifestSerializerTest {
+
+  private static BuildFileManifest createManifest(
+      ImmutableMap<String, Map<String, Object>> targets) {
+    GlobSpec globSpec =
+        GlobSpec.builder()
+            .setInclude(ImmutableList.of("**/*.java"))
+            .setExclude(ImmutableList.of("Excluded.java"))
+            .setExcludeDirectories(true)
+            .build();
+    return ImmutableBuildFileManifest.of(
+        targets,
+        ImmutableSortedSet.of("/root/BUCK", "/root/defs.bzl"),
+        ImmutableMap.of("java", ImmutableMap.of("source_level", "8")),
+        Optional.of(ImmutableMap.of("HOME", Optional.of("/home/user"), "UNSET", Optional.empty())),
+        ImmutableList.of(
+            GlobSpecWithResult.of(globSpec, ImmutableSet.of("Foo.java", "Bar.java"))),
+        ImmutableList.of(ImmutableParsingError.of("error", ImmutableList.of("at line 1"))));
+  }
+
+  private static Map<String, Object> createTarget(String name) {
+    return ImmutableMap.<String, Object>builder()
+        .put("name", name)
+        .put("buck.type", "java_library")
+        .put("srcs", ImmutableList.of(name + ".java"))
+        .put("deps", ImmutableSortedSet.of(":b", ":a"))
+        .put("labels", ImmutableSet.of("z", "y"))
+        .put("exported", Boolean.TRUE)
+        .put("timeout", 60)
+        .put("size", 1L << 40)
+        .put("ratio", -0.5)
+        .put("resources_root", Optional.empty())
+        .put("source", Optional.of("8"))
+        .put("env", ImmutableSortedMap.of("B", "2", "A", "1"))
+        .put(
+            "platform_deps",
+            ImmutableListWithSelects.of(
+                ImmutableList.of(
+                    ImmutableList.of(":common"),
+                    ImmutableSelectorValue.of(
+                        ImmutableMap.of(
+                            "//config:linux", ImmutableList.of(":linux"),
+                            "DEFAULT", ImmutableList.of()),
+                        "no match")),
+                ImmutableList.class))
+        .build();
+  }
+
+  @Test
+  public void deserializesSerializedManifest() throws Exception {
+    BuildFileManifest manifest =
+        createManifest(ImmutableMap.of("a", createTarget("a"), "b", createTarget("b")));
+
+    assertEquals(
+        manifest,
+        BinaryBuildFileManifestSerializer.deserialize(
+            BinaryBuildFileManifestSerializer.serialize(manifest)));
+  }
+
+  @Test
+  public void deserializesNullValues() throws Exception {
+    Map<String, Object> target = new HashMap<>();
+    target.put("name", "a");
+    target.put("licenses", null);
+    target.put("args", Arrays.asList("--flag", null));
+    BuildFileManifest manifest = createManifest(ImmutableMap.of("a", target));
+
+    assertEquals(
+        manifest,
+        BinaryBuildFileManifestSerializer.deserialize(
+            BinaryBuildFileManifestSerializer.serialize(manifest)));
+  }
+
+  @Test
+  public void deserializesValuesOfOtherTypesThroughJson() throws Exception {
+    Map<String, Object> target =
+        ImmutableMap.of(
+            "name",
+            "a",
+            "spec",
+            GlobSpec.builder()
+                .setInclude(ImmutableList.of("*"))
+                .setExclude(ImmutableList.of())
+                .setExcludeDirectories(false)
+                .build());
+    BuildFileManifest manifest = createManifest(ImmutableMap.of("a", target));
+
+    BuildFileManifest deserialized =
+        BinaryBuildFileManifestSerializer.deserialize(
+            BinaryBuildFileManifestSerializer.serialize(manifest));
+
+    assertEquals(manifest, deserialized);
+  }
+
+  @Test
+  public void deserializesManifestSerializedToJson() throws Exception {
+    Map<String, Object> target =
+        ImmutableMap.of("name", "a", "srcs", ImmutableList.of("A.java"), "exported", true);
+    BuildFileManifest manifest = createManifest(ImmutableMap.of("a", target));
+
+    assertEquals(
+        BuildFileManifestSerializer.deserialize(BuildFileManifestSerializer.serialize(manifest)),
+        BinaryBuildFileManifestSerializer.deserialize(
+            BuildFileManifestSerializer.serialize(manifest)));
+  }
+
+  @Test
+  public void sharesStringsBetweenTargets() throws Exception {
+    BuildFileManifest manifest =
+        BinaryBuildFileManifestSerializer.deserialize(
+            BinaryBuildFileManifestSerializer.serialize(
+                createManifest(ImmutableMap.of("a", createTarget("a"), "b", createTarget("b")))));
+
+    assertSame(
+        manifest.getTargets().get("a").get("buck.type"),
+        manifest.getTargets().get("b").get("buck.type"));
+  }
+
+  @Test
+  public void isSmallerThanJson() throws Exception {
+    ImmutableMap.Builder<String, Map<String, Object>> targets = ImmutableMap.builder();
+    for (int i = 0; i < 100; i++) {
+      targets.put("target" + i, createTarget("target" + i));
+    }
+    BuildFileManifest manifest = createManifest(targets.build());
+
+    assertThat(
+        BinaryBuildFileManifestSerializer.serialize(manifest).length,
+        Matchers.lessThan(BuildFileManifestSerializer.serialize(manifest).length / 4));
+  }
+
+  @Test(expected = IOException.class)
+  public void throwsOnTruncatedManifest() throws Exception {
+    byte[] serialized =
+        BinaryBuildFileManifestSerializer.serialize(
+            createManifest(ImmutableMap.of("a", createTarget("a"))));
+
+    BinaryBuildFileManifestSerializer.deserialize(Arrays.copyOf(serialized, serialized.length / 2));
+  }
+}
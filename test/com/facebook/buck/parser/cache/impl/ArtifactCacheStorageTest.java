@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.InMemoryArtifactCache;
+import com.facebook.buck.core.config.FakeBuckConfig;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
+import com.facebook.buck.parser.cache.binary.BinaryBuildFileManifestSerializer;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ArtifactCacheStorageTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final HashCode WEAK_FINGERPRINT =
+      Hashing.sha256().hashString("weak", StandardCharsets.UTF_8);
+  private static final HashCode STRONG_FINGERPRINT =
+      Hashing.sha256().hashString("strong", StandardCharsets.UTF_8);
+
+  private ProjectFilesystem filesystem;
+  private InMemoryArtifactCache artifactCache;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    artifactCache = new InMemoryArtifactCache();
+  }
+
+  private ArtifactCacheStorage createStorage(String accessMode) {
+    ParserCacheConfig parserCacheConfig =
+        FakeBuckConfig.builder()
+            .setFilesystem(filesystem)
+            .setSections(
+                "[" + ParserCacheConfig.PARSER_CACHE_SECTION_NAME + "]",
+                "artifact_cache_mode = " + accessMode)
+            .build()
+            .getView(ParserCacheConfig.class);
+    return ArtifactCacheStorage.of(artifactCache, parserCacheConfig, filesystem);
+  }
+
+  private static BuildFileManifest createManifest() {
+    GlobSpec globSpec =
+        GlobSpec.builder()
+            .setExclude(ImmutableList.of("excludeSpec"))
+            .setInclude(ImmutableList.of("includeSpec"))
+            .setExcludeDirectories(true)
+            .build();
+    Map<String, Object> target =
+        ImmutableMap.of("name", "foo", "srcs", ImmutableList.of("Foo.java"));
+    return ImmutableBuildFileManifest.of(
+        ImmutableMap.of("foo", target),
+        ImmutableSortedSet.of("/Includes1", "/includes2"),
+        ImmutableMap.of("confKey", ImmutableMap.of("confKey1", "confVal1")),
+        Optional.empty(),
+        ImmutableList.of(GlobSpecWithResult.of(globSpec, ImmutableSet.of("FooBar.java"))),
+        ImmutableList.of());
+  }
+
+  @Test
+  public void fetchesStoredManifest() throws Exception {
+    ArtifactCacheStorage storage = createStorage("readwrite");
+    BuildFileManifest manifest = createManifest();
+
+    storage.storeBuildFileManifest(
+        WEAK_FINGERPRINT,
+        STRONG_FINGERPRINT,
+        BinaryBuildFileManifestSerializer.serialize(manifest));
+
+    assertEquals(
+        Optional.of(manifest),
+        storage.getBuildFileManifest(WEAK_FINGERPRINT, STRONG_FINGERPRINT));
+  }
+
+  @Test
+  public void missesManifestStoredWithOtherFingerprints() throws Exception {
+    ArtifactCacheStorage storage = createStorage("readwrite");
+
+    storage.storeBuildFileManifest(
+        WEAK_FINGERPRINT,
+        STRONG_FINGERPRINT,
+        BinaryBuildFileManifestSerializer.serialize(createManifest()));
+
+    assertEquals(
+        Optional.empty(), storage.getBuildFileManifest(WEAK_FINGERPRINT, WEAK_FINGERPRINT));
+  }
+
+  @Test
+  public void doesNotStoreWhenReadOnly() throws Exception {
+    ArtifactCacheStorage storage = createStorage("readonly");
+
+    storage.storeBuildFileManifest(
+        WEAK_FINGERPRINT,
+        STRONG_FINGERPRINT,
+        BinaryBuildFileManifestSerializer.serialize(createManifest()));
+
+    assertTrue(artifactCache.isEmpty());
+  }
+
+  @Test
+  public void doesNotFetchWhenWriteOnly() throws Exception {
+    ArtifactCacheStorage storage = createStorage("writeonly");
+
+    storage.storeBuildFileManifest(
+        WEAK_FINGERPRINT,
+        STRONG_FINGERPRINT,
+        BinaryBuildFileManifestSerializer.serialize(createManifest()));
+
+    assertFalse(artifactCache.isEmpty());
+    assertEquals(
+        Optional.empty(), storage.getBuildFileManifest(WEAK_FINGERPRINT, STRONG_FINGERPRINT));
+  }
+
+  @Test
+  public void deletesStoredManifest() throws Exception {
+    ArtifactCacheStorage storage = createStorage("readwrite");
+
+    storage.storeBuildFileManifest(
+        WEAK_FINGERPRINT,
+        STRONG_FINGERPRINT,
+        BinaryBuildFileManifestSerializer.serialize(createManifest()));
+    storage.deleteCacheEntries(WEAK_FINGERPRINT, STRONG_FINGERPRINT);
+
+    assertTrue(artifactCache.isEmpty());
+  }
+
+  @Test
+  public void keysDependOnBothFingerprints() {
+    assertNotEquals(
+        ArtifactCacheStorage.getCacheKey(WEAK_FINGERPRINT, STRONG_FINGERPRINT),
+        ArtifactCacheStorage.getCacheKey(STRONG_FINGERPRINT, WEAK_FINGERPRINT));
+  }
+}
@@ -25,6 +25,7 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.ImmutableBuildFileManifest;
+import com.facebook.buck.parser.cache.binary.BinaryBuildFileManifestSerializer;
 import com.facebook.buck.testutil.FakeFileHashCache;
 import com.facebook.buck.util.config.Config;
 import com.facebook.buck.util.environment.Architecture;
@@ -81,6 +82,7 @@ public class FingerprinterTest {
     HashCode expectedFingerprint =
         Hashing.sha256()
             .newHasher()
+            .putString(BinaryBuildFileManifestSerializer.FORMAT_ID, StandardCharsets.UTF_8)
             .putString(buildFilePath.toString(), StandardCharsets.UTF_8)
             .putBytes(config.getOrderIndependentHashCode().asBytes())
             .putString(Platform.detect().name(), StandardCharsets.UTF_8)
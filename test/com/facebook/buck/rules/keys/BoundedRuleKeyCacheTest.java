@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.TestBuildRuleParams;
+import com.facebook.buck.core.rules.impl.NoopBuildRuleWithDeclaredAndExtraDeps;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.util.cache.InstrumentingCacheStatsTracker;
+import com.google.common.collect.ImmutableList;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class BoundedRuleKeyCacheTest {
+
+  private static final ProjectFilesystem FILESYSTEM = new FakeProjectFilesystem();
+
+  private static final RuleKey KEY_A = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final RuleKey KEY_B = new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+  private static final RuleKey KEY_C = new RuleKey("cccccccccccccccccccccccccccccccccccccccc");
+
+  @Test
+  public void testGetReturnValue() {
+    BoundedRuleKeyCache internalCache = new BoundedRuleKeyCache(1, 10);
+    TrackedRuleKeyCache<RuleKey> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    TestRule rule = new TestRule();
+    assertEquals(
+        KEY_A,
+        cache.get(rule, r -> new RuleKeyResult<>(KEY_A, ImmutableList.of(), ImmutableList.of())));
+    assertTrue(internalCache.isCached(rule));
+    assertEquals(
+        KEY_A,
+        cache.get(
+            rule,
+            r -> {
+              throw new IllegalStateException();
+            }));
+    assertEquals(KEY_A, cache.get(rule));
+  }
+
+  @Test
+  public void testInvalidateTransitiveInputToCachedRule() {
+    BoundedRuleKeyCache internalCache = new BoundedRuleKeyCache(4, 100);
+    TrackedRuleKeyCache<RuleKey> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    RuleKeyInput input = new ImmutableRuleKeyInput(FILESYSTEM, FILESYSTEM.getPath("input"));
+    TestRule dep = new TestRule();
+    cache.get(dep, r -> new RuleKeyResult<>(KEY_A, ImmutableList.of(), ImmutableList.of(input)));
+    TestRule rule = new TestRule();
+    cache.get(rule, r -> new RuleKeyResult<>(KEY_B, ImmutableList.of(dep), ImmutableList.of()));
+    TestRule other = new TestRule();
+    cache.get(other, r -> new RuleKeyResult<>(KEY_C, ImmutableList.of(), ImmutableList.of()));
+
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertFalse(internalCache.isCached(rule));
+    assertFalse(internalCache.isCached(dep));
+    assertTrue(internalCache.isCached(other));
+    assertThat(cache.getStats().getEvictionCount().get(), Matchers.equalTo(2L));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedEntries() {
+    BoundedRuleKeyCache internalCache = new BoundedRuleKeyCache(1, 2);
+    TrackedRuleKeyCache<RuleKey> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    TestRule ruleA = new TestRule();
+    TestRule ruleB = new TestRule();
+    TestRule ruleC = new TestRule();
+    cache.get(ruleA, r -> new RuleKeyResult<>(KEY_A, ImmutableList.of(), ImmutableList.of()));
+    cache.get(ruleB, r -> new RuleKeyResult<>(KEY_B, ImmutableList.of(), ImmutableList.of()));
+    // Using A makes B the least recently used entry.
+    cache.get(ruleA, r -> new RuleKeyResult<>(KEY_A, ImmutableList.of(), ImmutableList.of()));
+    cache.get(ruleC, r -> new RuleKeyResult<>(KEY_C, ImmutableList.of(), ImmutableList.of()));
+
+    assertEquals(2, internalCache.size());
+    assertTrue(internalCache.isCached(ruleA));
+    assertFalse(internalCache.isCached(ruleB));
+    assertTrue(internalCache.isCached(ruleC));
+    assertEquals(KEY_C, cache.get(ruleC));
+  }
+
+  @Test
+  public void evictsDependenciesAlongWithTheirLastDependent() {
+    BoundedRuleKeyCache internalCache = new BoundedRuleKeyCache(1, 2);
+    TrackedRuleKeyCache<RuleKey> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    TestRule dep = new TestRule();
+    TestRule rule = new TestRule();
+    TestRule other = new TestRule();
+    cache.get(dep, r -> new RuleKeyResult<>(KEY_A, ImmutableList.of(), ImmutableList.of()));
+    cache.get(rule, r -> new RuleKeyResult<>(KEY_B, ImmutableList.of(dep), ImmutableList.of()));
+    cache.get(other, r -> new RuleKeyResult<>(KEY_C, ImmutableList.of(), ImmutableList.of()));
+
+    // The dependency is the least recently used entry, but can't be evicted before its dependent.
+    assertFalse(internalCache.isCached(rule));
+    assertFalse(internalCache.isCached(dep));
+    assertTrue(internalCache.isCached(other));
+    assertEquals(1, internalCache.size());
+    assertThat(cache.getStats().getEvictionCount().get(), Matchers.equalTo(2L));
+  }
+
+  @Test
+  public void neverEvictsEntriesOthersDependOn() {
+    BoundedRuleKeyCache internalCache = new BoundedRuleKeyCache(1, 3);
+    TrackedRuleKeyCache<RuleKey> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    TestRule dep = new TestRule();
+    TestRule ruleA = new TestRule();
+    TestRule ruleB = new TestRule();
+    TestRule other = new TestRule();
+    cache.get(dep, r -> new RuleKeyResult<>(KEY_A, ImmutableList.of(), ImmutableList.of()));
+    cache.get(ruleA, r -> new RuleKeyResult<>(KEY_B, ImmutableList.of(dep), ImmutableList.of()));
+    cache.get(ruleB, r -> new RuleKeyResult<>(KEY_B, ImmutableList.of(dep), ImmutableList.of()));
+    cache.get(other, r -> new RuleKeyResult<>(KEY_C, ImmutableList.of(), ImmutableList.of()));
+
+    assertFalse(internalCache.isCached(ruleA));
+    assertTrue(internalCache.isCached(dep));
+    assertTrue(internalCache.isCached(ruleB));
+    assertTrue(internalCache.isCached(other));
+    assertEquals(3, internalCache.size());
+
+    // Once nothing depends on the dependency anymore, it is evicted along with its last dependent.
+    cache.get(
+        new TestRule(), r -> new RuleKeyResult<>(KEY_C, ImmutableList.of(), ImmutableList.of()));
+    assertFalse(internalCache.isCached(ruleB));
+    assertFalse(internalCache.isCached(dep));
+    assertTrue(internalCache.isCached(other));
+    assertEquals(2, internalCache.size());
+  }
+
+  @Test
+  public void dependenciesComputedAlongWithTheirDependentAreNotEvictedBeforeIt() {
+    BoundedRuleKeyCache internalCache = new BoundedRuleKeyCache(1, 3);
+    TrackedRuleKeyCache<RuleKey> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    RuleKeyInput input = new ImmutableRuleKeyInput(FILESYSTEM, FILESYSTEM.getPath("input"));
+    TestRule dep = new TestRule();
+    TestRule lookedUpA = new TestRule();
+    TestRule lookedUpB = new TestRule();
+    TestRule rule = new TestRule();
+    cache.get(
+        rule,
+        r -> {
+          cache.get(
+              dep, d -> new RuleKeyResult<>(KEY_A, ImmutableList.of(), ImmutableList.of(input)));
+          // Overflows the cache while the rule is still being computed.
+          cache.get(
+              lookedUpA, d -> new RuleKeyResult<>(KEY_B, ImmutableList.of(), ImmutableList.of()));
+          cache.get(
+              lookedUpB, d -> new RuleKeyResult<>(KEY_B, ImmutableList.of(), ImmutableList.of()));
+          return new RuleKeyResult<>(KEY_C, ImmutableList.of(dep), ImmutableList.of());
+        });
+
+    assertTrue(internalCache.isCached(rule));
+    assertTrue(internalCache.isCached(dep));
+    // Once the rule is cached, the entries it doesn't depend on can be evicted again.
+    assertFalse(internalCache.isCached(lookedUpA));
+    assertEquals(3, internalCache.size());
+
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertFalse(internalCache.isCached(dep));
+    assertFalse(internalCache.isCached(rule));
+  }
+
+  @Test
+  public void invalidateAllClearsEverything() {
+    BoundedRuleKeyCache internalCache = new BoundedRuleKeyCache(4, 100);
+    TrackedRuleKeyCache<RuleKey> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    TestRule rule = new TestRule();
+    cache.get(rule, r -> new RuleKeyResult<>(KEY_A, ImmutableList.of(), ImmutableList.of()));
+    cache.invalidateAll();
+    assertFalse(internalCache.isCached(rule));
+    assertEquals(0, internalCache.getCachedBuildRules().size());
+    assertEquals(
+        KEY_B,
+        cache.get(rule, r -> new RuleKeyResult<>(KEY_B, ImmutableList.of(), ImmutableList.of())));
+    assertEquals(KEY_B, internalCache.getCachedBuildRules().get(0).getValue());
+  }
+
+  private static class TestRule extends NoopBuildRuleWithDeclaredAndExtraDeps {
+
+    private TestRule() {
+      super(
+          BuildTargetFactory.newInstance("//:rule"),
+          new FakeProjectFilesystem(),
+          TestBuildRuleParams.create());
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures the parts of computing a single rule key: hashing values through a {@link
+ * RuleKeyBuilder}, and finding the fields to hash with {@link ReflectiveAlterKeyLoader}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class RuleKeyBuilderBenchmark {
+
+  /** The number of entries in each collection of the hashed value. */
+  @Param({"10", "100", "1000"})
+  public int valueSize;
+
+  private SourcePathRuleFinder ruleFinder;
+  private FakeFileHashCache hashCache;
+  private DefaultRuleKeyFactory ruleKeyFactory;
+  private SyntheticValue value;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ruleFinder = new TestActionGraphBuilder();
+
+    ImmutableList.Builder<SourcePath> srcs = ImmutableList.builder();
+    ImmutableMap.Builder<Path, HashCode> hashes = ImmutableMap.builder();
+    ImmutableList.Builder<String> args = ImmutableList.builder();
+    ImmutableSortedMap.Builder<String, String> env = ImmutableSortedMap.naturalOrder();
+    ImmutableList.Builder<SyntheticValue> children = ImmutableList.builder();
+    for (int i = 0; i < valueSize; i++) {
+      Path path = Paths.get("src", "File" + i + ".java");
+      srcs.add(PathSourcePath.of(filesystem, path));
+      hashes.put(
+          filesystem.resolve(path),
+          Hashing.sha1().hashString(path.toString(), StandardCharsets.UTF_8));
+      args.add("--arg" + i);
+      env.put("VAR" + i, "value" + i);
+      children.add(new SyntheticValue(ImmutableList.of(), ImmutableList.of("child" + i)));
+    }
+    hashCache = new FakeFileHashCache(hashes.build());
+    ruleKeyFactory = new TestDefaultRuleKeyFactory(hashCache, ruleFinder);
+    value =
+        new SyntheticValue(
+            srcs.build(), args.build(), env.build(), children.build(), Optional.of("main"));
+  }
+
+  /**
+   * Hashes the value and all of its fields with a builder that doesn't cache the keys of nested
+   * values, so that every invocation goes through the whole hashing pipeline.
+   */
+  @Benchmark
+  public HashCode hashValue() {
+    UncachedRuleKeyBuilder builder =
+        new UncachedRuleKeyBuilder(ruleFinder, hashCache, ruleKeyFactory);
+    AlterRuleKeys.amendKey(builder, value);
+    return builder.build();
+  }
+
+  /** Finds the fields of a class that are added to rule keys, without caching them. */
+  @Benchmark
+  public ImmutableCollection<AlterRuleKey> loadFields() {
+    return new ReflectiveAlterKeyLoader().load(SyntheticValue.class);
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+
+  /** A value with the kinds of fields typical rules add to their keys. */
+  private static class SyntheticValue implements AddsToRuleKey {
+
+    @AddToRuleKey private final ImmutableList<SourcePath> srcs;
+    @AddToRuleKey private final ImmutableList<String> args;
+    @AddToRuleKey private final ImmutableSortedMap<String, String> env;
+    @AddToRuleKey private final ImmutableList<SyntheticValue> children;
+    @AddToRuleKey private final Optional<String> mainClass;
+
+    private SyntheticValue(ImmutableList<SourcePath> srcs, ImmutableList<String> args) {
+      this(srcs, args, ImmutableSortedMap.of(), ImmutableList.of(), Optional.empty());
+    }
+
+    private SyntheticValue(
+        ImmutableList<SourcePath> srcs,
+        ImmutableList<String> args,
+        ImmutableSortedMap<String, String> env,
+        ImmutableList<SyntheticValue> children,
+        Optional<String> mainClass) {
+      this.srcs = srcs;
+      this.args = args;
+      this.env = env;
+      this.children = children;
+      this.mainClass = mainClass;
+    }
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.BuildRuleParams;
+import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.TestBuildRuleParams;
+import com.facebook.buck.core.rules.impl.FakeDepFileBuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures computing the rule keys of every rule of a synthetic action graph, the way a no-op build
+ * does.
+ *
+ * <p>Every rule has a few source files and flags, and uses the outputs of its dependencies, the way
+ * typical rules do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RuleKeyFactoryBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int ruleCount;
+
+  @Param({"100"})
+  public int graphDepth;
+
+  @Param({"4"})
+  public int depsPerRule;
+
+  private final RuleKeyFieldLoader fieldLoader =
+      new RuleKeyFieldLoader(TestRuleKeyConfigurationFactory.create());
+  private final FileHashLoader hashLoader = new SyntheticFileHashLoader();
+
+  private SourcePathRuleFinder ruleFinder;
+  private List<SyntheticRule> rules;
+  private List<ImmutableList<DependencyFileEntry>> depFileEntries;
+  private DefaultRuleKeyFactory warmDefaultRuleKeyFactory;
+
+  @Setup(Level.Trial)
+  public void setUpGraph() {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    ruleFinder = graphBuilder;
+    rules = new ArrayList<>(ruleCount);
+    depFileEntries = new ArrayList<>(ruleCount);
+
+    int layerSize = Math.max(1, ruleCount / graphDepth);
+    for (int i = 0; i < ruleCount; i++) {
+      ImmutableSortedSet.Builder<BuildRule> deps = ImmutableSortedSet.naturalOrder();
+      ImmutableList.Builder<SourcePath> depOutputs = ImmutableList.builder();
+      // Rules are laid out in layers, each depending on rules spread across the layer below, so
+      // that the graph is both deep and wide without its depth growing with its size.
+      int layerStart = i / layerSize * layerSize;
+      if (layerStart > 0) {
+        for (int d = 0; d < depsPerRule; d++) {
+          SyntheticRule dep = rules.get(layerStart - layerSize + (i * 31 + d * 17) % layerSize);
+          deps.add(dep);
+          depOutputs.add(dep.getSourcePathToOutput());
+        }
+      }
+      ImmutableList<SourcePath> srcs =
+          ImmutableList.of(
+              PathSourcePath.of(filesystem, Paths.get("pkg" + i / 100, "Source" + i + ".java")),
+              PathSourcePath.of(filesystem, Paths.get("pkg" + i / 100, "Other" + i + ".java")));
+      SyntheticRule rule =
+          new SyntheticRule(
+              i,
+              filesystem,
+              TestBuildRuleParams.create().withDeclaredDeps(deps.build()),
+              srcs,
+              depOutputs.build());
+      graphBuilder.addToIndex(rule);
+      rules.add(rule);
+      depFileEntries.add(
+          ImmutableList.of(
+              DependencyFileEntry.fromSourcePath(
+                  srcs.get(0), graphBuilder.getSourcePathResolver())));
+    }
+
+    warmDefaultRuleKeyFactory = new DefaultRuleKeyFactory(fieldLoader, hashLoader, ruleFinder);
+    rules.forEach(warmDefaultRuleKeyFactory::build);
+  }
+
+  /** Computing all rule keys from scratch, as the first build of a daemon does. */
+  @Benchmark
+  public void defaultRuleKeys(Blackhole blackhole) {
+    DefaultRuleKeyFactory factory =
+        new DefaultRuleKeyFactory(
+            fieldLoader,
+            hashLoader,
+            ruleFinder,
+            new TrackedRuleKeyCache<>(new DefaultRuleKeyCache<>(), new NoOpCacheStatsTracker()),
+            Optional.empty());
+    for (SyntheticRule rule : rules) {
+      blackhole.consume(factory.build(rule));
+    }
+  }
+
+  /** Looking up all rule keys from a warm cache, as following builds of a daemon do. */
+  @Benchmark
+  public void defaultRuleKeysFromCache(Blackhole blackhole) {
+    for (SyntheticRule rule : rules) {
+      blackhole.consume(warmDefaultRuleKeyFactory.build(rule));
+    }
+  }
+
+  /**
+   * Computing all rule keys from scratch, with the bounded cache used by large daemons. The cache
+   * holds the whole graph, the way it is configured to, so this measures its bookkeeping rather
+   * than recomputing evicted rule keys.
+   */
+  @Benchmark
+  public void defaultRuleKeysWithBoundedCache(Blackhole blackhole) {
+    DefaultRuleKeyFactory factory =
+        new DefaultRuleKeyFactory(
+            fieldLoader,
+            hashLoader,
+            ruleFinder,
+            new TrackedRuleKeyCache<>(
+                new BoundedRuleKeyCache(ruleCount), new NoOpCacheStatsTracker()),
+            Optional.empty());
+    for (SyntheticRule rule : rules) {
+      blackhole.consume(factory.build(rule));
+    }
+  }
+
+  @Benchmark
+  public void inputBasedRuleKeys(Blackhole blackhole) {
+    InputBasedRuleKeyFactory factory =
+        new InputBasedRuleKeyFactory(
+            fieldLoader, hashLoader, ruleFinder, Long.MAX_VALUE, Optional.empty());
+    for (SyntheticRule rule : rules) {
+      blackhole.consume(factory.build(rule));
+    }
+  }
+
+  @Benchmark
+  public void dependencyFileRuleKeys(Blackhole blackhole) throws IOException {
+    DefaultDependencyFileRuleKeyFactory factory =
+        new DefaultDependencyFileRuleKeyFactory(fieldLoader, hashLoader, ruleFinder);
+    for (int i = 0; i < rules.size(); i++) {
+      blackhole.consume(factory.build(rules.get(i), depFileEntries.get(i)));
+    }
+  }
+
+  @Benchmark
+  public void manifestKeys(Blackhole blackhole) throws IOException {
+    DefaultDependencyFileRuleKeyFactory factory =
+        new DefaultDependencyFileRuleKeyFactory(fieldLoader, hashLoader, ruleFinder);
+    for (SyntheticRule rule : rules) {
+      blackhole.consume(factory.buildManifestKey(rule));
+    }
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+
+  /** A rule with the kinds of fields typical rules add to their keys. */
+  private static class SyntheticRule extends FakeDepFileBuildRule {
+
+    @AddToRuleKey private final ImmutableList<SourcePath> srcs;
+    @AddToRuleKey private final ImmutableList<SourcePath> depOutputs;
+    @AddToRuleKey private final ImmutableList<String> flags;
+    @AddToRuleKey private final Optional<String> mainClass;
+    @AddToRuleKey private final int index;
+
+    private SyntheticRule(
+        int index,
+        ProjectFilesystem filesystem,
+        BuildRuleParams params,
+        ImmutableList<SourcePath> srcs,
+        ImmutableList<SourcePath> depOutputs) {
+      super(
+          BuildTargetFactory.newInstance("//pkg" + index / 100 + ":rule" + index),
+          filesystem,
+          params);
+      this.srcs = srcs;
+      this.depOutputs = depOutputs;
+      this.flags = ImmutableList.of("-g", "-Xlint:all", "-source", "8", "-target", "8");
+      this.mainClass = index % 10 == 0 ? Optional.of("Main" + index) : Optional.empty();
+      this.index = index;
+      setOutputPath(Paths.get("buck-out/gen/pkg" + index / 100, "rule" + index + ".jar"));
+    }
+  }
+
+  /**
+   * Hashes files by their paths, remembering the hashes like a warm file hash cache does, so that
+   * reading files doesn't dominate the measurements.
+   */
+  private static class SyntheticFileHashLoader implements FileHashLoader {
+
+    private final ConcurrentHashMap<Path, HashCode> hashes = new ConcurrentHashMap<>();
+
+    @Override
+    public HashCode get(Path path) {
+      return hashes.computeIfAbsent(
+          path, p -> Hashing.sha1().hashString(p.toString(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public long getSize(Path path) {
+      return 1024;
+    }
+
+    @Override
+    public HashCode getForArchiveMember(Path relativeArchivePath, Path memberPath) {
+      return get(relativeArchivePath.resolve(memberPath));
+    }
+  }
+}
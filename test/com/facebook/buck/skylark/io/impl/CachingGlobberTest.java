@@ -99,12 +99,40 @@ public class CachingGlobberTest {
                     ImmutableSet.of("path")))));
   }
 
+  @Test
+  public void runAllOnlyResolvesGlobsThatAreNotCached() throws Exception {
+    GlobSpec cachedGlobSpec =
+        GlobSpec.builder()
+            .setInclude(ImmutableList.of("path"))
+            .setExclude(ImmutableList.of())
+            .setExcludeDirectories(false)
+            .build();
+    GlobSpec newGlobSpec =
+        GlobSpec.builder()
+            .setInclude(ImmutableList.of("other_path"))
+            .setExclude(ImmutableList.of())
+            .setExcludeDirectories(false)
+            .build();
+    fakeGlobber.returnResultOnNextInvocations(ImmutableSet.of("path"));
+    cachingGlobber.run(ImmutableList.of("path"), ImmutableList.of(), false);
+    fakeGlobber.returnResultOnNextInvocations(ImmutableSet.of("other_path"));
+
+    assertThat(
+        cachingGlobber.runAll(ImmutableList.of(cachedGlobSpec, newGlobSpec, cachedGlobSpec)),
+        equalTo(
+            ImmutableList.of(
+                ImmutableSet.of("path"), ImmutableSet.of("other_path"), ImmutableSet.of("path"))));
+    assertThat(fakeGlobber.invocations, is(2));
+  }
+
   private static class FakeGlobber implements Globber {
     @Nullable private Set<String> result;
+    private int invocations;
 
     @Override
     public Set<String> run(
         Collection<String> include, Collection<String> exclude, boolean excludeDirectories) {
+      invocations++;
       return result;
     }
 
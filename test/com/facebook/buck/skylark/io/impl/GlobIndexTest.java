@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.io.filesystem.skylark.SkylarkFilesystem;
+import com.facebook.buck.skylark.io.Globber;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.util.Collections;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class GlobIndexTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem projectFilesystem;
+  private Path root;
+  private GlobIndex globIndex;
+  private Globber globber;
+
+  @Before
+  public void setUp() {
+    projectFilesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    SkylarkFilesystem fileSystem = SkylarkFilesystem.using(projectFilesystem);
+    root = fileSystem.getPath(projectFilesystem.getRootPath().toString());
+    globIndex = GlobIndex.of(projectFilesystem);
+    globber = NativeGlobber.create(root, globIndex);
+  }
+
+  private Set<String> glob(String pattern) throws Exception {
+    return globber.run(Collections.singleton(pattern), Collections.emptySet(), false);
+  }
+
+  private void invalidate(Path path) {
+    globIndex.invalidate(projectFilesystem.getPath(path.getPathString()));
+  }
+
+  @Test
+  public void globsMatchNativeGlobber() throws Exception {
+    Path child = root.getChild("dir").getChild("child");
+    child.createDirectoryAndParents();
+    FileSystemUtils.createEmptyFile(child.getChild("foo.txt"));
+    FileSystemUtils.createEmptyFile(child.getChild("bar.jpg"));
+    FileSystemUtils.createEmptyFile(root.getChild("baz.txt"));
+
+    assertThat(
+        glob("**/*.txt"),
+        equalTo(
+            NativeGlobber.create(root)
+                .run(Collections.singleton("**/*.txt"), Collections.emptySet(), false)));
+    assertThat(glob("dir/child/foo.txt"), equalTo(ImmutableSet.of("dir/child/foo.txt")));
+  }
+
+  @Test
+  public void answersFromIndexUntilInvalidated() throws Exception {
+    FileSystemUtils.createEmptyFile(root.getChild("foo.txt"));
+    assertThat(glob("*.txt"), equalTo(ImmutableSet.of("foo.txt")));
+
+    Path bar = root.getChild("bar.txt");
+    FileSystemUtils.createEmptyFile(bar);
+    assertThat(glob("*.txt"), equalTo(ImmutableSet.of("foo.txt")));
+
+    invalidate(bar);
+    assertThat(glob("*.txt"), equalTo(ImmutableSet.of("foo.txt", "bar.txt")));
+  }
+
+  @Test
+  public void answersStatsFromIndexUntilInvalidated() throws Exception {
+    Path foo = root.getChild("foo.txt");
+    assertThat(glob("foo.txt"), equalTo(ImmutableSet.of()));
+
+    FileSystemUtils.createEmptyFile(foo);
+    assertThat(glob("foo.txt"), equalTo(ImmutableSet.of()));
+
+    invalidate(foo);
+    assertThat(glob("foo.txt"), equalTo(ImmutableSet.of("foo.txt")));
+  }
+
+  @Test
+  public void invalidatingDirectoryDropsItsFiles() throws Exception {
+    Path child = root.getChild("dir").getChild("child");
+    child.createDirectoryAndParents();
+    FileSystemUtils.createEmptyFile(child.getChild("foo.txt"));
+    assertThat(glob("**/*.txt"), equalTo(ImmutableSet.of("dir/child/foo.txt")));
+
+    root.getChild("dir").deleteTree();
+    invalidate(root.getChild("dir"));
+
+    assertThat(glob("**/*.txt"), equalTo(ImmutableSet.of()));
+  }
+
+  @Test
+  public void doesNotIndexIgnoredPaths() throws Exception {
+    Path ignored = root.getChild(".idea");
+    ignored.createDirectory();
+    FileSystemUtils.createEmptyFile(ignored.getChild("foo.xml"));
+    assertThat(glob(".idea/*.xml"), equalTo(ImmutableSet.of(".idea/foo.xml")));
+
+    FileSystemUtils.createEmptyFile(ignored.getChild("bar.xml"));
+    assertThat(glob(".idea/*.xml"), equalTo(ImmutableSet.of(".idea/foo.xml", ".idea/bar.xml")));
+  }
+}
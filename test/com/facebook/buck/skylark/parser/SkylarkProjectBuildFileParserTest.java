@@ -586,6 +586,76 @@ public class SkylarkProjectBuildFileParserTest {
         equalTo(recordingParser.expectedCounts(vfs_path(ext1), 1, vfs_path(ext2), 1)));
   }
 
+  @Test
+  public void reusesExtensionsEvaluatedByParsersSharingTheirCache() throws Exception {
+    Path buildFile = projectFilesystem.resolve("BUCK");
+    Files.write(buildFile, Arrays.asList("load('//:ext_1.bzl', 'ext_1')"));
+
+    Path ext1 = projectFilesystem.resolve("ext_1.bzl");
+    Files.write(ext1, Arrays.asList("load('//:ext_2.bzl', 'ext_2')", "ext_1 = ext_2"));
+
+    Path ext2 = projectFilesystem.resolve("ext_2.bzl");
+    Files.write(ext2, Arrays.asList("ext_2 = 'hello'"));
+
+    new RecordingParser(parser).getBuildFileManifest(buildFile);
+    RecordingParser recordingParser = new RecordingParser(parser);
+    BuildFileManifest manifest = recordingParser.getBuildFileManifest(buildFile);
+
+    assertThat(recordingParser.buildCounts, equalTo(ImmutableMap.of()));
+    assertThat(
+        recordingParser.readCounts,
+        equalTo(recordingParser.expectedCounts(vfs_path(buildFile), 1)));
+    assertThat(
+        manifest.getIncludes(),
+        equalTo(
+            ImmutableSortedSet.of(buildFile.toString(), ext1.toString(), ext2.toString())));
+  }
+
+  @Test
+  public void reevaluatesSharedExtensionsLoadingAnInvalidatedFile() throws Exception {
+    Path buildFile = projectFilesystem.resolve("BUCK");
+    Files.write(
+        buildFile,
+        Arrays.asList(
+            "load('//:ext_1.bzl', 'ext_1')",
+            "load('//:ext_3.bzl', 'ext_3')",
+            "prebuilt_jar(name=ext_1, binary_jar=ext_3)"));
+
+    Path ext1 = projectFilesystem.resolve("ext_1.bzl");
+    Files.write(ext1, Arrays.asList("load('//:ext_2.bzl', 'ext_2')", "ext_1 = ext_2"));
+
+    Path ext2 = projectFilesystem.resolve("ext_2.bzl");
+    Files.write(ext2, Arrays.asList("ext_2 = 'hello'"));
+
+    Path ext3 = projectFilesystem.resolve("ext_3.bzl");
+    Files.write(ext3, Arrays.asList("ext_3 = 'guava.jar'"));
+
+    ExtensionDataCache extensionDataCache = new ExtensionDataCache();
+    SkylarkProjectBuildFileParser sharingParser =
+        SkylarkProjectBuildFileParserTestUtils.createParserWithOptions(
+            skylarkFilesystem,
+            new PrintingEventHandler(EventKind.ALL_EVENTS),
+            getDefaultParserOptions().build(),
+            knownRuleTypesProvider,
+            cell,
+            extensionDataCache);
+    assertThat(
+        SkylarkProjectBuildFileParserTestUtils.getSingleRule(sharingParser, buildFile).get("name"),
+        equalTo("hello"));
+
+    Files.write(ext2, Arrays.asList("ext_2 = 'world'"));
+    extensionDataCache.invalidate(ext2);
+
+    RecordingParser recordingParser = new RecordingParser(sharingParser);
+    assertThat(
+        SkylarkProjectBuildFileParserTestUtils.getSingleRule(recordingParser, buildFile)
+            .get("name"),
+        equalTo("world"));
+    assertThat(
+        recordingParser.buildCounts,
+        equalTo(recordingParser.expectedCounts(vfs_path(ext1), 1, vfs_path(ext2), 1)));
+  }
+
   @Test
   public void doesNotReadSameBuildFileMultipleTimes() throws Exception {
     // Verifies BUILD file is accessed for IO and AST construction only once.
@@ -94,6 +94,22 @@ public class SkylarkProjectBuildFileParserTestUtils {
       ProjectBuildFileParserOptions options,
       KnownRuleTypesProvider knownRuleTypesProvider,
       Cell cell) {
+    return createParserWithOptions(
+        skylarkFilesystem,
+        eventHandler,
+        options,
+        knownRuleTypesProvider,
+        cell,
+        new ExtensionDataCache());
+  }
+
+  static SkylarkProjectBuildFileParser createParserWithOptions(
+      SkylarkFilesystem skylarkFilesystem,
+      EventHandler eventHandler,
+      ProjectBuildFileParserOptions options,
+      KnownRuleTypesProvider knownRuleTypesProvider,
+      Cell cell,
+      ExtensionDataCache extensionDataCache) {
     return SkylarkProjectBuildFileParser.using(
         options,
         BuckEventBusForTests.newInstance(),
@@ -107,7 +123,8 @@ public class SkylarkProjectBuildFileParserTestUtils {
             .setKnownUserDefinedRuleTypes(knownRuleTypesProvider.getUserDefinedRuleTypes(cell))
             .build(),
         eventHandler,
-        NativeGlobber::create);
+        NativeGlobber::create,
+        extensionDataCache);
   }
 
   static Map<String, Object> getSingleRule(
@@ -658,6 +658,48 @@ public class SkylarkUserDefinedRulesParserTest {
     assertEquals(Integer.class, rule2.getAllParamInfo().get("attr2").getResultClass());
   }
 
+  @Test
+  public void addsKnownUserDefinedRuleTypesOfExtensionsEvaluatedByAnotherParser()
+      throws IOException, InterruptedException {
+    setupWorkspace("basic_rule");
+    Path buildFile = projectFilesystem.resolve("subdir").resolve("BUCK");
+    ExtensionDataCache extensionDataCache = new ExtensionDataCache();
+
+    SkylarkProjectBuildFileParserTestUtils.createParserWithOptions(
+            skylarkFilesystem,
+            new PrintingEventHandler(EventKind.ALL_EVENTS),
+            SkylarkProjectBuildFileParserTestUtils.getDefaultParserOptions(
+                    cell, knownRuleTypesProvider)
+                .setEnableUserDefinedRules(true)
+                .build(),
+            knownRuleTypesProvider,
+            cell,
+            extensionDataCache)
+        .getBuildFileManifest(buildFile);
+
+    // Known rule types of a new command start out empty.
+    KnownRuleTypesProvider newKnownRuleTypesProvider =
+        TestKnownRuleTypesProvider.create(BuckPluginManagerFactory.createPluginManager());
+    BuildFileManifest rules =
+        SkylarkProjectBuildFileParserTestUtils.createParserWithOptions(
+                skylarkFilesystem,
+                new PrintingEventHandler(EventKind.ALL_EVENTS),
+                SkylarkProjectBuildFileParserTestUtils.getDefaultParserOptions(
+                        cell, newKnownRuleTypesProvider)
+                    .setEnableUserDefinedRules(true)
+                    .build(),
+                newKnownRuleTypesProvider,
+                cell,
+                extensionDataCache)
+            .getBuildFileManifest(buildFile);
+    assertEquals(2, rules.getTargets().size());
+
+    KnownUserDefinedRuleTypes knownUserDefinedRuleTypes =
+        newKnownRuleTypesProvider.getUserDefinedRuleTypes(cell);
+    assertNotNull(knownUserDefinedRuleTypes.getRule("//subdir:defs.bzl:some_rule"));
+    assertNotNull(knownUserDefinedRuleTypes.getRule("//subdir:defs.bzl:some_other_rule"));
+  }
+
   @Test
   public void builtInProvidersAreExportedWhenEnabled() throws IOException, InterruptedException {
     setupWorkspace("builtin_providers_exported");
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.bser;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares {@link BserDeserializer} with {@link BserReader} on the response to a watchman {@code
+ * since} query listing many changed files, getting the name of each file and whether it exists the
+ * way the daemon does after switching revisions.
+ *
+ * <p>Run with {@code -prof gc} to also compare how much they allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BserReaderBenchmark {
+
+  @Param({"10000", "200000"})
+  public int fileCount;
+
+  private byte[] response;
+  private BserDeserializer deserializer;
+  private BserReader reader;
+
+  @Setup(Level.Trial)
+  public void setUpResponse() throws IOException {
+    List<Map<String, Object>> files = new ArrayList<>(fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      int folder = i / 10;
+      files.add(
+          ImmutableMap.of(
+              "name",
+              "dir" + folder / 100 % 10 + "/dir" + folder / 10 % 10 + "/pkg" + folder + "/File" + i,
+              "exists",
+              i % 7 != 0,
+              "new",
+              i % 5 == 0,
+              "type",
+              "f"));
+    }
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new BserSerializer()
+        .serializeToStream(
+            ImmutableMap.of("clock", "c:1:2:3:4", "is_fresh_instance", false, "files", files),
+            outputStream);
+    response = outputStream.toByteArray();
+    deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    reader = new BserReader();
+  }
+
+  /** Materializes the whole response, then walks the files. */
+  @Benchmark
+  @SuppressWarnings("unchecked")
+  public void deserializer(Blackhole blackhole) throws IOException {
+    Map<String, Object> value =
+        (Map<String, Object>)
+            deserializer.deserializeBserValue(new ByteArrayInputStream(response));
+    for (Map<String, Object> file : (List<Map<String, Object>>) value.get("files")) {
+      blackhole.consume(file.get("name"));
+      blackhole.consume(file.get("exists"));
+    }
+  }
+
+  /** Walks the files straight from the encoded response. */
+  @Benchmark
+  public void reader(Blackhole blackhole) throws IOException {
+    reader.readPdu(new ByteArrayInputStream(response));
+    reader.next();
+    while (reader.next() == BserReader.Token.FIELD_NAME) {
+      if (!reader.textEquals("files")) {
+        reader.next();
+        reader.skipChildren();
+        continue;
+      }
+      reader.next();
+      while (reader.next() == BserReader.Token.START_OBJECT) {
+        while (reader.next() == BserReader.Token.FIELD_NAME) {
+          if (reader.textEquals("name")) {
+            reader.next();
+            blackhole.consume(reader.getString());
+          } else if (reader.textEquals("exists")) {
+            blackhole.consume(reader.next() == BserReader.Token.TRUE);
+          } else {
+            reader.next();
+            reader.skipChildren();
+          }
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
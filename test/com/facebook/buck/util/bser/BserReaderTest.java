@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.bser;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.bser.BserReader.Token;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class BserReaderTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private static InputStream serialize(Object... values) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    BserSerializer serializer = new BserSerializer();
+    for (Object value : values) {
+      serializer.serializeToStream(value, outputStream);
+    }
+    return new ByteArrayInputStream(outputStream.toByteArray());
+  }
+
+  /** Walks the rest of the value, describing each token with what it holds. */
+  private static List<String> readTokens(BserReader reader) throws IOException {
+    List<String> tokens = new ArrayList<>();
+    for (Token token = reader.next(); token != null; token = reader.next()) {
+      switch (token) {
+        case START_ARRAY:
+        case START_OBJECT:
+          tokens.add(token + ":" + reader.getSize());
+          break;
+        case FIELD_NAME:
+        case STRING:
+          tokens.add(token + ":" + reader.getString());
+          break;
+        case INTEGER:
+          tokens.add(token + ":" + reader.getLong());
+          break;
+        case REAL:
+          tokens.add(token + ":" + reader.getDouble());
+          break;
+        default:
+          tokens.add(token.toString());
+      }
+    }
+    return tokens;
+  }
+
+  @Test
+  public void readsValuesAsTokens() throws IOException {
+    BserReader reader = new BserReader();
+    reader.readPdu(
+        serialize(
+            ImmutableMap.of(
+                "list",
+                Arrays.asList(1, "foo", true, false, null, 0.5, Long.MAX_VALUE),
+                "map",
+                ImmutableMap.of())));
+
+    assertThat(
+        readTokens(reader),
+        contains(
+            "START_OBJECT:2",
+            "FIELD_NAME:list",
+            "START_ARRAY:7",
+            "INTEGER:1",
+            "STRING:foo",
+            "TRUE",
+            "FALSE",
+            "NULL",
+            "REAL:0.5",
+            "INTEGER:" + Long.MAX_VALUE,
+            "END_ARRAY",
+            "FIELD_NAME:map",
+            "START_OBJECT:0",
+            "END_OBJECT",
+            "END_OBJECT"));
+  }
+
+  @Test
+  public void readsTemplatesAsArraysOfObjects() throws IOException {
+    // [{"name": "fred", "age": 20}, {"name": "pete", "age": 30}, {"age": 25}] as a template.
+    BserReader reader = new BserReader();
+    reader.readPdu(
+        new ByteArrayInputStream(
+            BaseEncoding.base16()
+                .decode(
+                    "000103280B0003020203046E616D6502030361676503030203046672656403140203"
+                        + "0470657465031E0C0319")));
+
+    assertThat(
+        readTokens(reader),
+        contains(
+            "START_ARRAY:3",
+            "START_OBJECT:2",
+            "FIELD_NAME:name",
+            "STRING:fred",
+            "FIELD_NAME:age",
+            "INTEGER:20",
+            "END_OBJECT",
+            "START_OBJECT:2",
+            "FIELD_NAME:name",
+            "STRING:pete",
+            "FIELD_NAME:age",
+            "INTEGER:30",
+            "END_OBJECT",
+            "START_OBJECT:2",
+            "FIELD_NAME:age",
+            "INTEGER:25",
+            "END_OBJECT",
+            "END_ARRAY"));
+  }
+
+  @Test
+  public void skipChildrenMovesToMatchingEnd() throws IOException {
+    BserReader reader = new BserReader();
+    reader.readPdu(
+        serialize(
+            ImmutableList.of(
+                ImmutableMap.of("skipped", ImmutableList.of(ImmutableList.of("a"), "b")), "c")));
+
+    assertThat(reader.next(), is(Token.START_ARRAY));
+    assertThat(reader.next(), is(Token.START_OBJECT));
+    reader.skipChildren();
+    assertThat(reader.getCurrentToken(), is(Token.END_OBJECT));
+    assertThat(readTokens(reader), contains("STRING:c", "END_ARRAY"));
+  }
+
+  @Test
+  public void readsConsecutiveValuesAndRewinds() throws IOException {
+    BserReader reader = new BserReader();
+    InputStream inputStream =
+        serialize(ImmutableList.of(String.join("", Collections.nCopies(10000, "x"))), "foo");
+
+    reader.readPdu(inputStream);
+    assertThat(reader.next(), is(Token.START_ARRAY));
+    assertThat(reader.next(), is(Token.STRING));
+    assertThat(reader.getString().length(), equalTo(10000));
+
+    reader.readPdu(inputStream);
+    assertThat(readTokens(reader), contains("STRING:foo"));
+    assertThat(reader.next(), nullValue());
+
+    reader.rewind();
+    assertThat(readTokens(reader), contains("STRING:foo"));
+  }
+
+  @Test
+  public void textEqualsComparesStrings() throws IOException {
+    BserReader reader = new BserReader();
+    reader.readPdu(serialize(ImmutableList.of("name", "caf\u00e9")));
+
+    reader.next();
+    reader.next();
+    assertTrue(reader.textEquals("name"));
+    assertFalse(reader.textEquals("nam"));
+    assertFalse(reader.textEquals("names"));
+    reader.next();
+    assertTrue(reader.textEquals("caf\u00e9"));
+    assertFalse(reader.textEquals("cafe"));
+  }
+
+  @Test
+  public void deserializerReadsValueOfReader() throws IOException {
+    ImmutableMap<String, Object> value =
+        ImmutableMap.of("files", ImmutableList.of("foo", "bar"), "clock", "c:123");
+    BserReader reader = new BserReader();
+    reader.readPdu(serialize(value));
+    reader.next();
+
+    assertThat(
+        new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED).deserializeBserValue(reader),
+        equalTo(value));
+  }
+
+  @Test
+  public void truncatedValueThrows() throws IOException {
+    BserReader reader = new BserReader();
+    // An array of two elements holding one.
+    reader.readPdu(new ByteArrayInputStream(BaseEncoding.base16().decode("000103050003020301")));
+
+    thrown.expect(BserDeserializer.BserEofException.class);
+    readTokens(reader);
+  }
+}
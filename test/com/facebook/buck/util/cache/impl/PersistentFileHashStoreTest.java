@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentFileHashStoreTest {
+  private static final HashCode HASH_A =
+      HashCode.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final HashCode HASH_B =
+      HashCode.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path logPath;
+  private Path fileA;
+  private Path fileB;
+
+  @Before
+  public void setUp() throws IOException {
+    logPath = tmp.getRoot().resolve("hashes").resolve("store.log");
+    fileA = tmp.newFile("a");
+    fileB = tmp.newFile("b");
+    Files.write(fileA, "a".getBytes(Charsets.UTF_8));
+    Files.write(fileB, "b".getBytes(Charsets.UTF_8));
+    // Hashes of files modified too recently are not stored.
+    FileTime modificationTime =
+        FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+    Files.setLastModifiedTime(fileA, modificationTime);
+    Files.setLastModifiedTime(fileB, modificationTime);
+  }
+
+  @Test
+  public void hashesSurviveReopening() throws IOException {
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      store.put(Paths.get("a"), attributes(fileA), HASH_A);
+      store.put(Paths.get("b"), attributes(fileB), HASH_B);
+    }
+
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      assertEquals(Optional.of(HASH_A), store.get(Paths.get("a"), attributes(fileA)));
+      assertEquals(Optional.of(HASH_B), store.get(Paths.get("b"), attributes(fileB)));
+      assertFalse(store.get(Paths.get("c"), attributes(fileA)).isPresent());
+    }
+  }
+
+  @Test
+  public void hashesOfFilesWithDifferentAttributesAreNotReturned() throws IOException {
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      store.put(Paths.get("a"), attributes(fileA), HASH_A);
+
+      Files.setLastModifiedTime(
+          fileA, FileTime.fromMillis(attributes(fileA).lastModifiedTime().toMillis() + 1000));
+      assertFalse(store.get(Paths.get("a"), attributes(fileA)).isPresent());
+
+      // Same size and modification time, but a different file.
+      assertFalse(store.get(Paths.get("a"), attributes(fileB)).isPresent());
+    }
+  }
+
+  @Test
+  public void invalidationsSurviveReopening() throws IOException {
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      store.put(Paths.get("a"), attributes(fileA), HASH_A);
+      store.put(Paths.get("b"), attributes(fileB), HASH_B);
+      store.invalidate(Paths.get("a"));
+      assertFalse(store.get(Paths.get("a"), attributes(fileA)).isPresent());
+    }
+
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      assertFalse(store.get(Paths.get("a"), attributes(fileA)).isPresent());
+      assertEquals(Optional.of(HASH_B), store.get(Paths.get("b"), attributes(fileB)));
+    }
+  }
+
+  @Test
+  public void hashesOfRecentlyModifiedFilesAreNotStored() throws IOException {
+    Files.setLastModifiedTime(fileA, FileTime.fromMillis(System.currentTimeMillis()));
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      store.put(Paths.get("a"), attributes(fileA), HASH_A);
+      assertFalse(store.get(Paths.get("a"), attributes(fileA)).isPresent());
+    }
+  }
+
+  @Test
+  public void invalidationsBeforeFirstUseAreRecorded() throws IOException {
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      store.put(Paths.get("a"), attributes(fileA), HASH_A);
+    }
+
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      store.invalidate(Paths.get("a"));
+    }
+
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      assertFalse(store.get(Paths.get("a"), attributes(fileA)).isPresent());
+    }
+  }
+
+  @Test
+  public void corruptedRecordsAreDiscarded() throws IOException {
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      store.put(Paths.get("a"), attributes(fileA), HASH_A);
+    }
+    long validBytes = Files.size(logPath);
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      store.put(Paths.get("b"), attributes(fileB), HASH_B);
+    }
+    // Flip a byte of the second record's hash, as a crash in the middle of writing it might.
+    byte[] log = Files.readAllBytes(logPath);
+    log[log.length - 2] ^= 1;
+    Files.write(logPath, log);
+
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      assertEquals(Optional.of(HASH_A), store.get(Paths.get("a"), attributes(fileA)));
+      assertFalse(store.get(Paths.get("b"), attributes(fileB)).isPresent());
+    }
+    assertEquals(validBytes, Files.size(logPath));
+  }
+
+  @Test
+  public void truncatedRecordsAreDiscarded() throws IOException {
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      store.put(Paths.get("a"), attributes(fileA), HASH_A);
+    }
+    long validBytes = Files.size(logPath);
+    Files.write(logPath, new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      assertEquals(Optional.of(HASH_A), store.get(Paths.get("a"), attributes(fileA)));
+      store.put(Paths.get("b"), attributes(fileB), HASH_B);
+    }
+
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      assertEquals(Optional.of(HASH_A), store.get(Paths.get("a"), attributes(fileA)));
+      assertEquals(Optional.of(HASH_B), store.get(Paths.get("b"), attributes(fileB)));
+    }
+    assertTrue(Files.size(logPath) > validBytes);
+  }
+
+  @Test
+  public void logIsCompactedWhileInUseOnceMostlySuperseded() throws IOException {
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      store.put(Paths.get("a"), attributes(fileA), HashCode.fromInt(0));
+    }
+    long recordBytes = Files.size(logPath);
+
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      for (int i = 1; i < 5000; i++) {
+        store.put(Paths.get("a"), attributes(fileA), HashCode.fromInt(i));
+      }
+      assertTrue(Files.size(logPath) < 2000 * recordBytes);
+      assertEquals(
+          Optional.of(HashCode.fromInt(4999)), store.get(Paths.get("a"), attributes(fileA)));
+    }
+
+    try (PersistentFileHashStore store = new PersistentFileHashStore(logPath)) {
+      assertEquals(
+          Optional.of(HashCode.fromInt(4999)), store.get(Paths.get("a"), attributes(fileA)));
+    }
+  }
+
+  @Test
+  public void openStoresAreSharedUntilTheLastIsClosed() throws IOException {
+    PersistentFileHashStore first = PersistentFileHashStore.open(logPath);
+    PersistentFileHashStore second = PersistentFileHashStore.open(logPath);
+    assertSame(first, second);
+
+    first.put(Paths.get("a"), attributes(fileA), HASH_A);
+    first.close();
+    second.put(Paths.get("b"), attributes(fileB), HASH_B);
+    assertEquals(Optional.of(HASH_A), second.get(Paths.get("a"), attributes(fileA)));
+    second.close();
+    assertFalse(second.get(Paths.get("a"), attributes(fileA)).isPresent());
+
+    try (PersistentFileHashStore third = PersistentFileHashStore.open(logPath)) {
+      assertNotSame(first, third);
+      assertEquals(Optional.of(HASH_A), third.get(Paths.get("a"), attributes(fileA)));
+      assertEquals(Optional.of(HASH_B), third.get(Paths.get("b"), attributes(fileB)));
+    }
+  }
+
+  private static BasicFileAttributes attributes(Path path) throws IOException {
+    return Files.readAttributes(path, BasicFileAttributes.class);
+  }
+}
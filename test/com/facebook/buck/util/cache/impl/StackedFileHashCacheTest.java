@@ -16,6 +16,8 @@
 
 package com.facebook.buck.util.cache.impl;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.io.ArchiveMemberPath;
@@ -96,6 +98,31 @@ public class StackedFileHashCacheTest {
     assertTrue(innerCache.willGet(path));
   }
 
+  @Test
+  public void prefetchLoadsHashesIntoTheCachesOwningThePaths() throws IOException {
+    ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
+    filesystem.mkdirs(filesystem.getPath("dir"));
+    ImmutableList.Builder<Path> paths = ImmutableList.builder();
+    for (int i = 0; i < 20; i++) {
+      Path path = filesystem.getPath("dir", "file" + i + ".txt");
+      filesystem.writeContentsToPath("contents" + i, path);
+      paths.add(path);
+    }
+    Path missingPath = filesystem.getPath("dir", "missing.txt");
+
+    ProjectFileHashCache innerCache =
+        DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode);
+    StackedFileHashCache cache = new StackedFileHashCache(ImmutableList.of(innerCache));
+    cache.prefetch(
+        filesystem, ImmutableList.<Path>builder().addAll(paths.build()).add(missingPath).build());
+
+    for (Path path : paths.build()) {
+      assertTrue(innerCache.getIfPresent(path).isPresent());
+      assertEquals(filesystem.computeSha1(path).asHashCode(), cache.get(filesystem, path));
+    }
+    assertFalse(innerCache.getIfPresent(missingPath).isPresent());
+  }
+
   @Test
   public void usesFirstCacheForArchivePathAbsolutePath() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
@@ -16,11 +16,14 @@
 
 package com.facebook.buck.util.cache.impl;
 
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeThat;
 
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
@@ -39,8 +42,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import org.hamcrest.junit.ExpectedException;
 import org.junit.Rule;
 import org.junit.Test;
@@ -69,7 +75,7 @@ public class WatchedFileHashCacheTest {
   @Test
   public void whenNotifiedOfOverflowEventCacheIsCleared() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
-    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    WatchedFileHashCache cache = newCache(filesystem);
     Path path = new File("SomeClass.java").toPath();
     filesystem.touch(path);
 
@@ -88,7 +94,7 @@ public class WatchedFileHashCacheTest {
   @Test
   public void whenNotifiedOfCreateEventCacheEntryIsRemoved() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
-    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    WatchedFileHashCache cache = newCache(filesystem);
     Path path = Paths.get("SomeClass.java");
     filesystem.touch(path);
 
@@ -107,7 +113,7 @@ public class WatchedFileHashCacheTest {
   @Test
   public void whenNotifiedOfChangeEventCacheEntryIsRemoved() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
-    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    WatchedFileHashCache cache = newCache(filesystem);
     Path path = Paths.get("SomeClass.java");
     filesystem.touch(path);
 
@@ -126,7 +132,7 @@ public class WatchedFileHashCacheTest {
   @Test
   public void whenNotifiedOfDeleteEventCacheEntryIsRemoved() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
-    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    WatchedFileHashCache cache = newCache(filesystem);
     Path path = Paths.get("SomeClass.java");
     filesystem.touch(path);
 
@@ -145,7 +151,7 @@ public class WatchedFileHashCacheTest {
   @Test
   public void directoryHashChangesWhenFileInsideDirectoryChanges() throws IOException {
     ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
-    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    WatchedFileHashCache cache = newCache(filesystem);
     tmp.newFolder("foo", "bar");
     Path inputFile = tmp.newFile("foo/bar/baz");
     Files.write(inputFile, "Hello world".getBytes(Charsets.UTF_8));
@@ -162,7 +168,7 @@ public class WatchedFileHashCacheTest {
   @Test
   public void whenNotifiedOfChangeToSubPathThenDirCacheEntryIsRemoved() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
-    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    WatchedFileHashCache cache = newCache(filesystem);
     Path dir = Paths.get("foo/bar/baz");
     filesystem.mkdirs(dir);
 
@@ -182,7 +188,7 @@ public class WatchedFileHashCacheTest {
   public void whenDirectoryIsPutThenInvalidatedCacheDoesNotContainPathOrChildren()
       throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
-    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    WatchedFileHashCache cache = newCache(filesystem);
 
     Path dir = filesystem.getPath("dir");
     filesystem.mkdirs(dir);
@@ -208,7 +214,7 @@ public class WatchedFileHashCacheTest {
   @Test
   public void whenNotifiedOfParentChangeEventCacheEntryIsRemoved() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
-    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    WatchedFileHashCache cache = newCache(filesystem);
     Path parent = filesystem.getPath("directory");
     Path path = parent.resolve("SomeClass.java");
     filesystem.mkdirs(parent);
@@ -235,8 +241,67 @@ public class WatchedFileHashCacheTest {
     Path otherFile = Paths.get("file.txt");
     filesystem.writeContentsToPath("data", buckOutFile);
     filesystem.writeContentsToPath("other data", otherFile);
-    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    WatchedFileHashCache cache = newCache(filesystem);
     assertFalse(cache.willGet(filesystem.getPath("buck-out/file.txt")));
     assertTrue(cache.willGet(filesystem.getPath("file.txt")));
   }
+
+  @Test
+  public void persistentHashesOfUnchangedFilesAreReusedByNewCaches() throws IOException {
+    assumeThat(fileHashCacheMode, equalTo(FileHashCacheMode.PERSISTENT_PREFIX_TREE));
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path path = Paths.get("SomeClass.java");
+    filesystem.writeContentsToPath("class SomeClass {}", path);
+    // Hashes of files modified too recently are not persisted.
+    FileTime modificationTime =
+        FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+    Files.setLastModifiedTime(filesystem.resolve(path), modificationTime);
+    HashCode hashCode = getWithNewCache(filesystem, path);
+
+    // A file with the same attributes is assumed to be unchanged, without hashing it.
+    filesystem.writeContentsToPath("class SameClass {}", path);
+    Files.setLastModifiedTime(filesystem.resolve(path), modificationTime);
+    assertEquals(hashCode, getWithNewCache(filesystem, path));
+
+    // Whereas a file whose attributes changed is hashed again.
+    Files.setLastModifiedTime(
+        filesystem.resolve(path), FileTime.fromMillis(modificationTime.toMillis() + 1000));
+    assertNotEquals(hashCode, getWithNewCache(filesystem, path));
+  }
+
+  /** Hashes a file with a cache that is closed right after, as when the daemon is restarted. */
+  private HashCode getWithNewCache(ProjectFilesystem filesystem, Path path) throws IOException {
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    try {
+      return cache.get(path);
+    } finally {
+      cache.close();
+    }
+  }
+
+  @Test
+  public void persistentHashesAreNotReusedAfterChangeEvents() throws IOException {
+    assumeThat(fileHashCacheMode, equalTo(FileHashCacheMode.PERSISTENT_PREFIX_TREE));
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path path = Paths.get("SomeClass.java");
+    filesystem.writeContentsToPath("class SomeClass {}", path);
+    FileTime modificationTime = filesystem.getLastModifiedTime(path);
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    HashCode hashCode = cache.get(path);
+
+    filesystem.writeContentsToPath("class SameClass {}", path);
+    Files.setLastModifiedTime(filesystem.resolve(path), modificationTime);
+    cache.onFileSystemChange(
+        ImmutableWatchmanPathEvent.of(filesystem.getRootPath(), Kind.MODIFY, path));
+    assertNotEquals(hashCode, cache.get(path));
+  }
+
+  /**
+   * Creates a cache which keeps persistent hashes in the temporary directory, rather than in the
+   * buck-out of fake filesystems, which would be the working directory.
+   */
+  private WatchedFileHashCache newCache(ProjectFilesystem filesystem) {
+    return new WatchedFileHashCache(
+        filesystem, fileHashCacheMode, Optional.of(tmp.getRoot().resolve("file_hashes")));
+  }
 }
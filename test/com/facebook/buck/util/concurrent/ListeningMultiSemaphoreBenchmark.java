@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures how long {@link ListeningMultiSemaphore} takes to hand out resources to many queued
+ * tiny tasks, released from as many threads as the semaphore has cpu, the way build steps go
+ * through a {@link WeightedListeningExecutorService}.
+ *
+ * <p>Some of the tasks also need memory, which only one of them can have at a time, so that tasks
+ * which can't be run yet are queued alongside the ones that can.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ListeningMultiSemaphoreBenchmark {
+
+  private static final int THREAD_COUNT = 8;
+
+  @Param({"1000", "10000"})
+  public int queuedTasks;
+
+  @Param({"FAIR", "FAST"})
+  public ResourceAllocationFairness fairness;
+
+  private ExecutorService executor;
+
+  @Setup(Level.Trial)
+  public void setUpExecutor() {
+    executor = Executors.newFixedThreadPool(THREAD_COUNT);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public void runQueuedTasks() throws InterruptedException {
+    ListeningMultiSemaphore semaphore =
+        new ListeningMultiSemaphore(ResourceAmounts.of(THREAD_COUNT, 1, 0, 0), fairness);
+    ResourceAmounts allResources = semaphore.getMaximumValues();
+    semaphore.acquire(allResources);
+
+    CountDownLatch finishedTasks = new CountDownLatch(queuedTasks);
+    ResourceAmounts cpu = ResourceAmounts.of(1, 0, 0, 0);
+    ResourceAmounts cpuAndMemory = ResourceAmounts.of(1, 1, 0, 0);
+    for (int i = 0; i < queuedTasks; i++) {
+      ResourceAmounts amounts = i % 4 == 0 ? cpuAndMemory : cpu;
+      semaphore
+          .acquire(amounts, i % 16)
+          .addListener(
+              () -> {
+                semaphore.release(amounts);
+                finishedTasks.countDown();
+              },
+              executor);
+    }
+
+    semaphore.release(allResources);
+    finishedTasks.await();
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
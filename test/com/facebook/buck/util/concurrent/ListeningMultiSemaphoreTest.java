@@ -20,7 +20,12 @@ import static org.hamcrest.junit.MatcherAssert.assertThat;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
@@ -203,6 +208,96 @@ public class ListeningMultiSemaphoreTest {
     assertThat(second.isDone(), Matchers.equalTo(true));
   }
 
+  @Test
+  public void testPendingItemsAreProcessedByPriority() {
+    ListeningMultiSemaphore semaphore = getFairListeningMultiSemaphore(amountsOfCpu(1));
+    semaphore.acquire(amountsOfCpu(1));
+
+    ListenableFuture<Unit> low = semaphore.acquire(amountsOfCpu(1), 1);
+    ListenableFuture<Unit> high = semaphore.acquire(amountsOfCpu(1), 10);
+    ListenableFuture<Unit> lowAfterLow = semaphore.acquire(amountsOfCpu(1), 1);
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(3));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(high.isDone(), Matchers.equalTo(true));
+    assertThat(low.isDone(), Matchers.equalTo(false));
+
+    // Items with the same priority are processed in the order they were queued.
+    semaphore.release(amountsOfCpu(1));
+    assertThat(low.isDone(), Matchers.equalTo(true));
+    assertThat(lowAfterLow.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(lowAfterLow.isDone(), Matchers.equalTo(true));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+  }
+
+  @Test
+  public void fastFairnessSkipsItemsNeedingUsedUpResourcesButKeepsPriority() {
+    ListeningMultiSemaphore semaphore =
+        new ListeningMultiSemaphore(amountsOfCpuAndMemory(2, 1), ResourceAllocationFairness.FAST);
+    semaphore.acquire(amountsOfCpuAndMemory(2, 1));
+
+    ListenableFuture<Unit> memory = semaphore.acquire(amountsOfMemory(1), 100);
+    ListenableFuture<Unit> lowCpu = semaphore.acquire(amountsOfCpu(1), 1);
+    ListenableFuture<Unit> highCpuAndMemory = semaphore.acquire(amountsOfCpuAndMemory(1, 1), 10);
+    ListenableFuture<Unit> highCpu = semaphore.acquire(amountsOfCpu(1), 10);
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(highCpu.isDone(), Matchers.equalTo(true));
+    assertThat(lowCpu.isDone(), Matchers.equalTo(false));
+    assertThat(highCpuAndMemory.isDone(), Matchers.equalTo(false));
+    assertThat(memory.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfMemory(1));
+    assertThat(memory.isDone(), Matchers.equalTo(true));
+    assertThat(highCpuAndMemory.isDone(), Matchers.equalTo(false));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(2));
+  }
+
+  @Test
+  public void concurrentAcquisitionsNeverExceedMaximumAmounts() throws Exception {
+    for (ResourceAllocationFairness fairness : ResourceAllocationFairness.values()) {
+      ListeningMultiSemaphore semaphore =
+          new ListeningMultiSemaphore(amountsOfCpuAndMemory(3, 2), fairness);
+      AtomicInteger usedCpu = new AtomicInteger();
+      AtomicInteger maximumUsedCpu = new AtomicInteger();
+      int threadCount = 8;
+      int acquisitionsPerThread = 2000;
+      CountDownLatch done = new CountDownLatch(threadCount * acquisitionsPerThread);
+      ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+      try {
+        for (int thread = 0; thread < threadCount; thread++) {
+          int seed = thread;
+          executor.execute(
+              () -> {
+                for (int i = 0; i < acquisitionsPerThread; i++) {
+                  ResourceAmounts amounts =
+                      (seed + i) % 3 == 0 ? amountsOfCpuAndMemory(2, 1) : amountsOfCpu(1);
+                  semaphore
+                      .acquire(amounts, i % 5)
+                      .addListener(
+                          () -> {
+                            int used = usedCpu.addAndGet(amounts.getCpu());
+                            maximumUsedCpu.accumulateAndGet(used, Math::max);
+                            usedCpu.addAndGet(-amounts.getCpu());
+                            semaphore.release(amounts);
+                            done.countDown();
+                          },
+                          executor);
+                }
+              });
+        }
+        assertThat(done.await(30, TimeUnit.SECONDS), Matchers.equalTo(true));
+      } finally {
+        executor.shutdownNow();
+      }
+      assertThat(maximumUsedCpu.get(), Matchers.lessThanOrEqualTo(3));
+      assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+      assertThat(semaphore.getAvailableResources(), Matchers.equalTo(amountsOfCpuAndMemory(3, 2)));
+    }
+  }
+
   private ListeningMultiSemaphore getFairListeningMultiSemaphore(ResourceAmounts values) {
     return new ListeningMultiSemaphore(values, ResourceAllocationFairness.FAIR);
   }
@@ -24,6 +24,8 @@ import static org.junit.Assert.assertTrue;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -67,6 +69,28 @@ public class WeightedListeningExecutorServiceTest {
     assertFalse(second.get());
   }
 
+  @Test
+  public void tasksOfServicesWithHigherPriorityRunFirst() {
+    ListeningMultiSemaphore semaphore =
+        new ListeningMultiSemaphore(
+            ResourceAmounts.of(1, 0, 0, 0), ResourceAllocationFairness.FAIR);
+    ExplicitRunExecutorService wrappedService = new ExplicitRunExecutorService();
+    WeightedListeningExecutorService service =
+        new WeightedListeningExecutorService(
+            semaphore, ResourceAmounts.of(1, 0, 0, 0), wrappedService);
+    List<String> order = new ArrayList<>();
+    service.submit(() -> order.add("first"));
+    service.withDefaultPriority(1).submit(() -> order.add("low"));
+    // The priority is kept when adjusting the amounts.
+    service
+        .withDefaultPriority(2)
+        .withDefaultAmounts(ResourceAmounts.of(1, 0, 1, 0))
+        .submit(() -> order.add("high"));
+
+    wrappedService.run();
+    assertThat(order, Matchers.contains("first", "high", "low"));
+  }
+
   @Test
   public void cancelled() {
     ListeningMultiSemaphore semaphore =
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.filesystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class CompactFileSystemMapTest {
+
+  private FileSystemMap.ValueLoader<Boolean> loader = path -> true;
+  private FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+
+  @Test
+  public void testPutCreatesIntermediateNodesWithoutValues() {
+    Path path = Paths.get("foo/bar/HelloWorld.java");
+    CompactFileSystemMap<Boolean> fsMap = new CompactFileSystemMap<>(loader, filesystem);
+    fsMap.put(path, true);
+
+    assertEquals(3, fsMap.size());
+    assertTrue(fsMap.getIfPresent(path));
+    assertNull(fsMap.getIfPresent(Paths.get("foo")));
+    assertNull(fsMap.getIfPresent(Paths.get("foo/bar")));
+    assertEquals(ImmutableMap.of(path, true), fsMap.asMap());
+  }
+
+  @Test
+  public void testPutLeafNodeAlreadyInserted() {
+    Path path = Paths.get("usr/HelloWorld.java");
+    CompactFileSystemMap<Boolean> fsMap = new CompactFileSystemMap<>(loader, filesystem);
+    fsMap.put(path, true);
+    fsMap.put(path, false);
+
+    assertEquals(2, fsMap.size());
+    assertFalse(fsMap.getIfPresent(path));
+    assertFalse(fsMap.get(path));
+  }
+
+  @Test
+  public void testRemovePathThatExistsAndIntermediateNodesAreRemovedToo() {
+    Path path = Paths.get("usr/HelloWorld.java");
+    CompactFileSystemMap<Boolean> fsMap = new CompactFileSystemMap<>(loader, filesystem);
+    fsMap.put(path, true);
+
+    fsMap.remove(path);
+    assertEquals(0, fsMap.size());
+    assertNull(fsMap.getIfPresent(path));
+    assertEquals(ImmutableMap.of(), fsMap.asMap());
+  }
+
+  @Test
+  public void testRemovePathThatExistsAndIntermediateIsNotRemovedButValueIsRemoved() {
+    Path parent = Paths.get("usr");
+    Path path1 = Paths.get("usr/HelloWorld.java");
+    Path path2 = Paths.get("usr/Yo.java");
+    CompactFileSystemMap<Boolean> fsMap = new CompactFileSystemMap<>(loader, filesystem);
+    fsMap.put(parent, true);
+    fsMap.put(path1, true);
+    fsMap.put(path2, true);
+
+    fsMap.remove(path1);
+    assertEquals(2, fsMap.size());
+    assertNull(fsMap.getIfPresent(parent));
+    assertNull(fsMap.getIfPresent(path1));
+    assertEquals(ImmutableMap.of(path2, true), fsMap.asMap());
+  }
+
+  @Test
+  public void testRemovePathThatDoesntExist() {
+    Path parent = Paths.get("usr");
+    CompactFileSystemMap<Boolean> fsMap = new CompactFileSystemMap<>(loader, filesystem);
+    fsMap.put(parent, true);
+
+    fsMap.remove(Paths.get("usr/HelloWorld.java"));
+    assertEquals(0, fsMap.size());
+    assertNull(fsMap.getIfPresent(parent));
+  }
+
+  @Test
+  public void testRemoveIntermediateNode() {
+    Path parent = Paths.get("usr");
+    Path path1 = Paths.get("usr/HelloWorld.java");
+    Path path2 = Paths.get("usr/lib/Yo.java");
+    CompactFileSystemMap<Boolean> fsMap = new CompactFileSystemMap<>(loader, filesystem);
+    fsMap.put(parent, true);
+    fsMap.put(path1, true);
+    fsMap.put(path2, true);
+    fsMap.put(Paths.get("var"), true);
+
+    fsMap.remove(parent);
+    assertEquals(1, fsMap.size());
+    assertNull(fsMap.getIfPresent(parent));
+    assertNull(fsMap.getIfPresent(path1));
+    assertNull(fsMap.getIfPresent(path2));
+    assertEquals(ImmutableMap.of(Paths.get("var"), true), fsMap.asMap());
+  }
+
+  @Test
+  public void testRemoveAll() {
+    CompactFileSystemMap<Boolean> fsMap = new CompactFileSystemMap<>(loader, filesystem);
+    fsMap.put(Paths.get("usr/HelloWorld.java"), true);
+    fsMap.put(Paths.get("usr/Yo.java"), true);
+    assertEquals(3, fsMap.size());
+
+    fsMap.removeAll();
+    assertEquals(0, fsMap.size());
+    assertEquals(ImmutableMap.of(), fsMap.asMap());
+
+    fsMap.put(Paths.get("usr/Yo.java"), false);
+    assertFalse(fsMap.get(Paths.get("usr/Yo.java")));
+  }
+
+  @Test
+  public void testGetWithPathDoesntExist() {
+    Path path = Paths.get("usr/GoodbyeCruelWorld.java");
+    CompactFileSystemMap<Boolean> fsMap = new CompactFileSystemMap<>(loader, filesystem);
+    fsMap.put(Paths.get("usr/HelloWorld.java"), false);
+
+    // Fetch a value that does not exist, see that it is loaded and cached in the map.
+    assertTrue(fsMap.get(path));
+    assertTrue(fsMap.getIfPresent(path));
+    assertEquals(3, fsMap.size());
+  }
+
+  @Test
+  public void testGetLoadsIntermediateNodes() {
+    AtomicInteger loads = new AtomicInteger();
+    CompactFileSystemMap<Integer> fsMap =
+        new CompactFileSystemMap<>(path -> loads.incrementAndGet(), filesystem);
+    fsMap.put(Paths.get("usr/HelloWorld.java"), 0);
+
+    assertEquals(1, (int) fsMap.get(Paths.get("usr")));
+    assertEquals(1, (int) fsMap.get(Paths.get("usr")));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void testRemovedNodesAreReusedWithoutTheirValues() {
+    CompactFileSystemMap<Boolean> fsMap = new CompactFileSystemMap<>(loader, filesystem);
+    for (int i = 0; i < 1000; i++) {
+      fsMap.put(Paths.get("dir" + i % 10, "file" + i), false);
+    }
+    for (int i = 0; i < 1000; i += 2) {
+      fsMap.remove(Paths.get("dir" + i % 10, "file" + i));
+    }
+    for (int i = 0; i < 1000; i++) {
+      Path path = Paths.get("dir" + i % 10, "file" + i);
+      if (i % 2 == 0) {
+        assertNull(fsMap.getIfPresent(path));
+        fsMap.put(Paths.get("other" + i % 10, "file" + i), true);
+      } else {
+        assertFalse(fsMap.getIfPresent(path));
+      }
+    }
+    assertEquals(1000, fsMap.asMap().size());
+    assertTrue(fsMap.get(Paths.get("other0/file0")));
+  }
+
+  @Test
+  public void testValueLoadedWhileItsPathIsRemovedIsNotStored() throws Exception {
+    Path path = Paths.get("usr/HelloWorld.java");
+    CountDownLatch loadStarted = new CountDownLatch(1);
+    CountDownLatch removed = new CountDownLatch(1);
+    CompactFileSystemMap<Boolean> fsMap =
+        new CompactFileSystemMap<>(
+            p -> {
+              loadStarted.countDown();
+              try {
+                removed.await();
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+              return true;
+            },
+            filesystem);
+    fsMap.put(Paths.get("usr/Yo.java"), false);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Boolean> value = executor.submit(() -> fsMap.get(path));
+      loadStarted.await();
+      fsMap.remove(path);
+      removed.countDown();
+
+      assertTrue(value.get());
+      assertNull(fsMap.getIfPresent(path));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testConcurrentGetsLoadEachPathOnce() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    CompactFileSystemMap<Boolean> fsMap =
+        new CompactFileSystemMap<>(
+            path -> {
+              loads.incrementAndGet();
+              return true;
+            },
+            filesystem);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < 8; thread++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 2000; i++) {
+                    assertTrue(fsMap.get(Paths.get("dir" + i % 50, "file" + i)));
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(2000, loads.get());
+    assertEquals(2050, fsMap.size());
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.filesystem;
+
+import com.facebook.buck.core.filesystems.BuckUnixPathUtils;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares {@link FileSystemMap} with {@link CompactFileSystemMap} on a synthetic source tree, the
+ * way the file hash cache uses them. Paths are on the filesystem Buck installs as the default one,
+ * since how cheaply paths are split into names differs widely between filesystems.
+ *
+ * <p>Run with {@code -prof gc} to also compare how much the maps allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FileSystemMapBenchmark {
+
+  @Param({"100000", "1000000"})
+  public int fileCount;
+
+  @Param({"FileSystemMap", "CompactFileSystemMap"})
+  public String implementation;
+
+  private final ProjectFilesystem filesystem =
+      new FakeProjectFilesystem(BuckUnixPathUtils.createPath("/opt/src/buck"));
+  private List<Path> files;
+  private PathMap warmMap;
+
+  @Setup(Level.Trial)
+  public void setUpTree() {
+    // Folders nest four deep with ten subfolders each, and hold ten files, like source trees do.
+    files = new ArrayList<>(fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      int folder = i / 10;
+      files.add(
+          filesystem.getPath(
+              "dir" + folder / 1000 % 10,
+              "dir" + folder / 100 % 10,
+              "dir" + folder / 10 % 10,
+              "pkg" + folder,
+              i % 10 == 0 ? "BUCK" : "File" + i % 10 + ".java"));
+    }
+    warmMap = populate();
+  }
+
+  @Setup(Level.Iteration)
+  public void setUpWarmMap() {
+    for (Path file : files) {
+      warmMap.put(file, Boolean.TRUE);
+    }
+  }
+
+  /** Adding the hashes of all files, as the first build of a daemon does. */
+  @Benchmark
+  public Object put() {
+    return populate();
+  }
+
+  /** Looking up the hashes of all files, as following builds of a daemon do. */
+  @Benchmark
+  public void get(Blackhole blackhole) {
+    for (Path file : files) {
+      blackhole.consume(warmMap.get(file));
+    }
+  }
+
+  /** Invalidating every file, as switching to a distant revision does. */
+  @Benchmark
+  public void remove() {
+    for (Path file : files) {
+      warmMap.remove(file);
+    }
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+
+  private PathMap populate() {
+    PathMap map = newMap();
+    for (Path file : files) {
+      map.put(file, Boolean.TRUE);
+    }
+    return map;
+  }
+
+  private PathMap newMap() {
+    FileSystemMap.ValueLoader<Boolean> loader = path -> Boolean.FALSE;
+    switch (implementation) {
+      case "FileSystemMap":
+        FileSystemMap<Boolean> map = new FileSystemMap<>(loader, filesystem);
+        return new PathMap() {
+          @Override
+          public void put(Path path, Boolean value) {
+            map.put(path, value);
+          }
+
+          @Override
+          public Boolean get(Path path) {
+            return map.get(path);
+          }
+
+          @Override
+          public void remove(Path path) {
+            map.remove(path);
+          }
+        };
+      case "CompactFileSystemMap":
+        CompactFileSystemMap<Boolean> compactMap = new CompactFileSystemMap<>(loader, filesystem);
+        return new PathMap() {
+          @Override
+          public void put(Path path, Boolean value) {
+            compactMap.put(path, value);
+          }
+
+          @Override
+          public Boolean get(Path path) {
+            return compactMap.get(path);
+          }
+
+          @Override
+          public void remove(Path path) {
+            compactMap.remove(path);
+          }
+        };
+      default:
+        throw new IllegalArgumentException(implementation);
+    }
+  }
+
+  /** The operations both maps have in common. */
+  private interface PathMap {
+    void put(Path path, Boolean value);
+
+    Boolean get(Path path);
+
+    void remove(Path path);
+  }
+}
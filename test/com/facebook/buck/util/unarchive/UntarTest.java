@@ -29,7 +29,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -38,6 +40,7 @@ import java.nio.file.attribute.PosixFilePermission;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.hamcrest.Matchers;
@@ -322,6 +325,36 @@ public class UntarTest {
     assertExecutable(expectedPaths.subList(1, expectedPaths.size()), false);
   }
 
+  @Test
+  public void extractsFromStreamWithoutClosingIt() throws IOException {
+    AtomicBoolean closed = new AtomicBoolean(false);
+    ImmutableSet<Path> unarchivedFiles;
+    try (InputStream archive = Files.newInputStream(getTestFilePath(".tar.gz"))) {
+      InputStream trackingStream =
+          new FilterInputStream(archive) {
+            @Override
+            public void close() throws IOException {
+              closed.set(true);
+              super.close();
+            }
+          };
+      unarchivedFiles =
+          Untar.gzipUnarchiver()
+              .extractArchive(
+                  trackingStream, filesystem, ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+    }
+
+    Assert.assertFalse(closed.get());
+    Assert.assertThat(
+        unarchivedFiles,
+        Matchers.hasItems(
+            Paths.get("root", "echo.sh"),
+            Paths.get("root", "src", "com", "facebook", "buck", "Main.java"),
+            Paths.get("root_sibling", "Other.java")));
+    assertOutputFileExists(Paths.get("root", "echo.sh"), echoDotSh);
+    assertOutputFileExists(Paths.get("root_sibling", "Other.java"), otherDotJava);
+  }
+
   @Test
   public void extractsFilesWithStrippedPrefix() throws IOException {
     ArchiveFormat format = ArchiveFormat.TAR;
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ZstdArchiveReaderTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private static InputStream stream(String contents) {
+    return new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(InputStream stream) throws IOException {
+    try (InputStream contents = stream) {
+      return new String(ByteStreams.toByteArray(contents), StandardCharsets.UTF_8);
+    }
+  }
+
+  private Path writeArchive(Optional<byte[]> dictionary) throws IOException {
+    Path archive = tmp.getRoot().resolve("archive" + ZstdArchiveFormat.EXTENSION);
+    try (ZstdArchiveWriter writer =
+        new ZstdArchiveWriter(archive, ZstdArchiveWriter.DEFAULT_COMPRESSION_LEVEL, dictionary)) {
+      writer.putDirectory("dir", 0755, 1000);
+      writer.putFile("dir/a", 0644, 2000, stream("first file"));
+      writer.putFile("dir/empty", 0644, 2000, stream(""));
+      writer.putFile("b", 0755, 3000, stream("second file"));
+    }
+    return archive;
+  }
+
+  @Test
+  public void readsSingleEntriesThroughTheIndex() throws IOException {
+    Path archive = writeArchive(Optional.empty());
+    assertTrue(ZstdArchiveFormat.isZstdArchive(archive));
+
+    try (ZstdArchiveReader reader =
+        ZstdArchiveReader.open(archive, ZstdDictionaryStore.inMemory())) {
+      assertEquals(
+          ImmutableList.of("dir", "dir/a", "dir/empty", "b"),
+          reader.getEntries().stream().map(ZstdArchiveEntry::getName).collect(Collectors.toList()));
+
+      ZstdArchiveEntry b = reader.getEntry("b").get();
+      assertEquals(ZstdArchiveEntry.Type.FILE, b.getType());
+      assertEquals(0755, b.getMode());
+      assertEquals(3000, b.getModificationTime());
+      assertEquals("second file".length(), b.getSize());
+      assertEquals("second file", read(reader.openEntry(b)));
+
+      // Entries can be read in any order, and more than once.
+      assertEquals("first file", read(reader.openEntry("dir/a").get()));
+      assertEquals("second file", read(reader.openEntry("b").get()));
+      assertEquals("", read(reader.openEntry("dir/empty").get()));
+
+      assertTrue(reader.getEntry("dir").get().isDirectory());
+      assertFalse(reader.openEntry("dir").isPresent());
+      assertFalse(reader.openEntry("missing").isPresent());
+    }
+  }
+
+  @Test
+  public void streamReadsEntriesInOrder() throws IOException {
+    Path archive = writeArchive(Optional.empty());
+
+    try (ZstdArchiveInputStream stream =
+        new ZstdArchiveInputStream(Files.newInputStream(archive), ZstdDictionaryStore.inMemory())) {
+      assertEquals("dir", stream.getNextEntry().get().getName());
+      ZstdArchiveEntry a = stream.getNextEntry().get();
+      assertEquals("dir/a", a.getName());
+      assertEquals(
+          "first file", new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8));
+      // The contents of the empty file are skipped without reading them.
+      assertEquals("dir/empty", stream.getNextEntry().get().getName());
+      assertEquals("b", stream.getNextEntry().get().getName());
+      assertFalse(stream.getNextEntry().isPresent());
+    }
+
+    try (ZstdArchiveReader reader = ZstdArchiveReader.open(archive, ZstdDictionaryStore.inMemory());
+        ZstdArchiveInputStream stream =
+            new ZstdArchiveInputStream(
+                Files.newInputStream(archive), ZstdDictionaryStore.inMemory())) {
+      // Both readers agree on where every entry is.
+      for (ZstdArchiveEntry entry : reader.getEntries()) {
+        assertEquals(entry, stream.getNextEntry().get());
+      }
+    }
+  }
+
+  @Test
+  public void readsArchivesCompressedWithADictionary() throws IOException {
+    ZstdDictionaryTrainer trainer = new ZstdDictionaryTrainer(1024 * 1024, 4 * 1024);
+    for (int i = 0; i < 1000; i++) {
+      trainer.addSample(
+          "kind",
+          String.format("{\"name\": \"sample%d\", \"value\": %d, \"kind\": \"kind\"}", i, i * 7)
+              .getBytes(StandardCharsets.UTF_8));
+    }
+    byte[] dictionary = trainer.train("kind").get();
+    ZstdDictionaryStore dictionaries =
+        ZstdDictionaryStore.inDirectory(tmp.getRoot().resolve("dictionaries"));
+    dictionaries.put(dictionary);
+
+    Path archive = writeArchive(Optional.of(dictionary));
+
+    try (ZstdArchiveReader reader =
+        ZstdArchiveReader.open(
+            archive, ZstdDictionaryStore.inDirectory(tmp.getRoot().resolve("dictionaries")))) {
+      assertEquals("first file", read(reader.openEntry("dir/a").get()));
+    }
+
+    thrown.expect(IOException.class);
+    thrown.expectMessage("which is not available");
+    ZstdArchiveReader.open(archive, ZstdDictionaryStore.inMemory());
+  }
+
+  @Test
+  public void rejectsOtherFiles() throws IOException {
+    Path other = tmp.getRoot().resolve("other");
+    Files.write(other, "not an archive at all, but long enough".getBytes(StandardCharsets.UTF_8));
+    assertFalse(ZstdArchiveFormat.isZstdArchive(other));
+
+    thrown.expect(IOException.class);
+    ZstdArchiveReader.open(other, ZstdDictionaryStore.inMemory());
+  }
+}
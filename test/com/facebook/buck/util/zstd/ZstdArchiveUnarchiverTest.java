@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zstd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.PatternsMatcher;
+import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ZstdArchiveUnarchiverTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path archive;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    archive = tmp.newFolder("in").resolve("archive" + ZstdArchiveFormat.EXTENSION);
+    try (ZstdArchiveWriter writer = new ZstdArchiveWriter(archive)) {
+      writer.putDirectory("root", 0755, 1000);
+      writer.putDirectory("root/dir", 0755, 1000);
+      writer.putFile("root/dir/file", 0644, 1000, stream("file"));
+      writer.putFile("root/script.sh", 0755, 1000, stream("#!/bin/sh"));
+    }
+  }
+
+  private static InputStream stream(String contents) {
+    return new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void extractsFilesAndCleansDirectories() throws IOException {
+    filesystem.mkdirs(Paths.get("root/dir"));
+    filesystem.writeContentsToPath("stale", Paths.get("root/dir/stale"));
+    filesystem.writeContentsToPath("old", Paths.get("root/dir/file"));
+
+    ImmutableSet<Path> extracted =
+        new ZstdArchiveUnarchiver(ZstdDictionaryStore.inMemory())
+            .extractArchive(archive, filesystem, ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+
+    assertEquals(
+        ImmutableSet.of(Paths.get("root/dir/file"), Paths.get("root/script.sh")), extracted);
+    assertEquals(
+        Optional.of("file"), filesystem.readFileIfItExists(Paths.get("root/dir/file")));
+    assertFalse(filesystem.exists(Paths.get("root/dir/stale")));
+    assertEquals(1000, filesystem.getLastModifiedTime(Paths.get("root/dir/file")).toMillis());
+    if (Platform.detect() != Platform.WINDOWS) {
+      assertTrue(filesystem.isExecutable(Paths.get("root/script.sh")));
+    }
+  }
+
+  @Test
+  public void extractsFromAStream() throws IOException {
+    Assume.assumeTrue(Platform.detect() != Platform.WINDOWS);
+    ImmutableSet<Path> extracted;
+    try (InputStream stream = filesystem.newFileInputStream(archive)) {
+      extracted =
+          new ZstdArchiveUnarchiver(ZstdDictionaryStore.inMemory())
+              .extractArchive(stream, filesystem, ExistingFileMode.OVERWRITE);
+    }
+
+    assertEquals(
+        ImmutableSet.of(Paths.get("root/dir/file"), Paths.get("root/script.sh")), extracted);
+    assertEquals(
+        Optional.of("#!/bin/sh"), filesystem.readFileIfItExists(Paths.get("root/script.sh")));
+  }
+
+  @Test
+  public void stripsPrefixAndSkipsExcludedEntries() throws IOException {
+    ImmutableSet<Path> extracted =
+        new ZstdArchiveUnarchiver(ZstdDictionaryStore.inMemory())
+            .extractArchive(
+                archive,
+                filesystem,
+                Paths.get("out"),
+                Optional.of(Paths.get("root")),
+                new PatternsMatcher(ImmutableList.of(".*\\.sh")),
+                ExistingFileMode.OVERWRITE);
+
+    assertEquals(ImmutableSet.of(Paths.get("out/dir/file")), extracted);
+    assertFalse(filesystem.exists(Paths.get("out/script.sh")));
+  }
+
+  @Test
+  public void extractsEntriesUnderAPrefixWithoutReadingTheOthers() throws IOException {
+    Path partial = tmp.getRoot().resolve("in/partial" + ZstdArchiveFormat.EXTENSION);
+    try (ZstdArchiveWriter writer = new ZstdArchiveWriter(partial)) {
+      writer.putFile("outputs/big", 0644, 1000, stream("outputs"));
+      writer.putFile("metadata/key", 0644, 1000, stream("value"));
+    }
+    // Garble the frame of the entry that is not extracted.
+    ZstdArchiveEntry output;
+    try (ZstdArchiveReader reader =
+        ZstdArchiveReader.open(partial, ZstdDictionaryStore.inMemory())) {
+      output = reader.getEntry("outputs/big").get();
+    }
+    try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.WRITE)) {
+      channel.write(
+          ByteBuffer.wrap(new byte[(int) output.getCompressedSize()]), output.getDataOffset());
+    }
+
+    ImmutableSet<Path> extracted =
+        new ZstdArchiveUnarchiver(ZstdDictionaryStore.inMemory())
+            .extractArchive(
+                partial,
+                filesystem,
+                Paths.get("meta"),
+                Optional.of(Paths.get("metadata")),
+                PatternsMatcher.EMPTY,
+                ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+
+    assertEquals(ImmutableSet.of(Paths.get("meta/key")), extracted);
+    assertEquals(Optional.of("value"), filesystem.readFileIfItExists(Paths.get("meta/key")));
+  }
+}